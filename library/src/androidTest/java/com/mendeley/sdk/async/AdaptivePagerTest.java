@@ -0,0 +1,122 @@
+package com.mendeley.sdk.async;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class AdaptivePagerTest extends InstrumentationTestCase {
+
+    private static final int ITEMS = 10000;
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void test_nextPage_sizesThePagesByTheCostPerItem() throws Exception {
+
+        // GIVEN a server with a latency of 200 ms, that takes 1 ms per item
+        final long latencyMillis = 200;
+        final long millisPerItem = 1;
+        final AdaptivePager<Integer> pager = new AdaptivePager<Integer>(
+                new SlowPageRequest(0, AdaptivePager.MIN_PAGE_SIZE, latencyMillis, millisPerItem),
+                new PagePublisher.NextPageFactory<Integer>() {
+                    @Override
+                    public Request<List<Integer>> newRequest(Uri next) {
+                        return new SlowPageRequest(Integer.parseInt(next.getQueryParameter("offset")), Integer.parseInt(next.getQueryParameter("limit")), latencyMillis, millisPerItem);
+                    }
+                },
+                executor, 100, TimeUnit.MILLISECONDS);
+
+        // WHEN reading some pages, aiming at 100 ms per page
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(pager.nextPage());
+        }
+        pager.cancel();
+
+        // THEN the latency is told apart from the cost of the items
+        final long latency = pager.getEstimatedLatency(TimeUnit.MILLISECONDS);
+        assertTrue("Latency " + latency, latency > 150 && latency < 250);
+
+        // ...AND the pages are as big as 100 ms of items, rather than shrinking because of the latency
+        final int pageSize = pager.getPageSize();
+        assertTrue("Page size " + pageSize, pageSize >= 80 && pageSize <= 125);
+    }
+
+    @SmallTest
+    public void test_nextPage_growsPagesToTellTheLatencyApart() throws Exception {
+
+        // GIVEN a first page that seems slow because of the latency
+        final AdaptivePager<Integer> pager = new AdaptivePager<Integer>(
+                new SlowPageRequest(0, AdaptivePager.MIN_PAGE_SIZE, 100, 0),
+                new PagePublisher.NextPageFactory<Integer>() {
+                    @Override
+                    public Request<List<Integer>> newRequest(Uri next) {
+                        return new SlowPageRequest(Integer.parseInt(next.getQueryParameter("offset")), Integer.parseInt(next.getQueryParameter("limit")), 100, 0);
+                    }
+                },
+                executor, 10, TimeUnit.MILLISECONDS);
+
+        // WHEN reading it
+        pager.nextPage();
+        pager.cancel();
+
+        // THEN the next page is bigger, rather than smaller
+        assertEquals(AdaptivePager.MIN_PAGE_SIZE * AdaptivePager.MAX_GROWTH_FACTOR, pager.getPageSize());
+    }
+
+    /**
+     * Returns a page of consecutive numbers, after a fixed latency plus a time per item.
+     */
+    private static class SlowPageRequest extends Request<List<Integer>> {
+        private final int offset;
+        private final int limit;
+        private final long latencyMillis;
+        private final long millisPerItem;
+
+        SlowPageRequest(int offset, int limit, long latencyMillis, long millisPerItem) {
+            super(null);
+            this.offset = offset;
+            this.limit = limit;
+            this.latencyMillis = latencyMillis;
+            this.millisPerItem = millisPerItem;
+        }
+
+        @Override
+        protected Response doRun() throws MendeleyException {
+            final int end = Math.min(offset + limit, ITEMS);
+            final List<Integer> items = new ArrayList<Integer>();
+            for (int i = offset; i < end; i++) {
+                items.add(i);
+            }
+            try {
+                Thread.sleep(latencyMillis + items.size() * millisPerItem);
+            } catch (InterruptedException e) {
+                throw new UserCancelledException(e);
+            }
+            final Uri next = end < ITEMS ? Uri.parse("page?offset=" + end + "&limit=" + limit) : null;
+            return new Response(items, (Date) null, next);
+        }
+    }
+}
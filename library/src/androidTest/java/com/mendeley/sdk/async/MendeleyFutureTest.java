@@ -0,0 +1,210 @@
+package com.mendeley.sdk.async;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.Deadline;
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.exceptions.DeadlineExceededException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class MendeleyFutureTest extends InstrumentationTestCase {
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void test_then_chainsRequests() throws Exception {
+
+        // GIVEN a request whose result is the input of other requests
+        final Request<String> first = new ImmediateRequest<String>("documentId");
+
+        // WHEN chaining them
+        final MendeleyFuture<List<String>> future = first.submit(executor)
+                .then(new MendeleyFuture.AsyncFunction<Request<String>.Response, List<String>>() {
+                    @Override
+                    public MendeleyFuture<List<String>> apply(Request<String>.Response response) {
+                        final MendeleyFuture<String> file1 = new ImmediateRequest<String>(response.resource + "/file1").submit(executor).map(new ResourceFunction<String>(), executor);
+                        final MendeleyFuture<String> file2 = new ImmediateRequest<String>(response.resource + "/file2").submit(executor).map(new ResourceFunction<String>(), executor);
+                        return MendeleyFuture.allOf(Arrays.asList(file1, file2));
+                    }
+                }, executor);
+
+        // THEN the chain gets the results of all of them
+        assertEquals(Arrays.asList("documentId/file1", "documentId/file2"), future.getResult());
+    }
+
+    @SmallTest
+    public void test_then_skipsStepsAfterAnError() throws Exception {
+
+        // GIVEN a request that fails
+        final MendeleyException error = new MendeleyException("failed");
+        final Request<String> failing = new Request<String>(null) {
+            @Override
+            protected Response doRun() throws MendeleyException {
+                throw error;
+            }
+        };
+
+        // WHEN chaining a step after it
+        final boolean[] stepRun = {false};
+        final MendeleyFuture<String> future = failing.submit(executor).map(new MendeleyFuture.Function<Request<String>.Response, String>() {
+            @Override
+            public String apply(Request<String>.Response value) {
+                stepRun[0] = true;
+                return value.resource;
+            }
+        }, executor);
+
+        // THEN the chain fails with the error, without running the step
+        try {
+            future.getResult();
+            fail("Error expected");
+        } catch (MendeleyException e) {
+            assertSame(error, e);
+        }
+        assertFalse(stepRun[0]);
+    }
+
+    @SmallTest
+    public void test_cancel_cancelsTheRunningRequest() throws Exception {
+
+        // GIVEN a chain waiting for a request that blocks until cancelled
+        final CountDownLatch started = new CountDownLatch(1);
+        final Request<String> blocking = new Request<String>(null) {
+            @Override
+            protected Response doRun() throws MendeleyException {
+                started.countDown();
+                while (!isCancelled()) {
+                    Thread.yield();
+                }
+                throw new UserCancelledException();
+            }
+        };
+        final MendeleyFuture<String> future = blocking.submit(executor).map(new ResourceFunction<String>(), executor);
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        // WHEN cancelling the end of the chain
+        future.cancel(true);
+
+        // THEN the request is cancelled
+        assertTrue(blocking.isCancelled());
+
+        // ...AND the chain fails as cancelled
+        try {
+            future.getResult();
+            fail("Cancellation expected");
+        } catch (UserCancelledException expected) {
+        }
+    }
+
+    @SmallTest
+    public void test_setDeadline_failsTheChainAndCancelsTheRequest() throws Exception {
+
+        // GIVEN a chain waiting for a request that blocks until cancelled
+        final Request<String> blocking = new Request<String>(null) {
+            @Override
+            protected Response doRun() throws MendeleyException {
+                while (!isCancelled()) {
+                    Thread.yield();
+                }
+                throw new UserCancelledException();
+            }
+        };
+        final MendeleyFuture<String> future = blocking.submit(executor).map(new ResourceFunction<String>(), executor);
+
+        // WHEN the chain has a deadline
+        future.setDeadline(Deadline.after(100, TimeUnit.MILLISECONDS));
+
+        // THEN it fails when the deadline expires
+        try {
+            future.getResult();
+            fail("Deadline exceeded expected");
+        } catch (DeadlineExceededException expected) {
+        }
+
+        // ...AND the request is cancelled
+        assertTrue(blocking.isCancelled());
+    }
+
+    @SmallTest
+    public void test_allOf_cancelsTheRestOnError() throws Exception {
+
+        // GIVEN a pending future and a failed one
+        final MendeleyFuture<String> pending = new MendeleyFuture<String>();
+        final MendeleyFuture<String> failed = new MendeleyFuture<String>();
+
+        // WHEN combining them
+        final MendeleyFuture<List<String>> all = MendeleyFuture.allOf(Arrays.asList(pending, failed));
+        failed.setException(new MendeleyException("failed"));
+
+        // THEN the combination fails and the pending future is cancelled
+        assertTrue(all.isDone());
+        assertTrue(pending.isCancelled());
+    }
+
+    @SmallTest
+    public void test_submit_failsOnUnexpectedErrors() throws Exception {
+
+        // GIVEN a request that throws a runtime exception
+        final IllegalStateException error = new IllegalStateException("bug");
+        final Request<String> request = new Request<String>(null) {
+            @Override
+            protected Response doRun() {
+                throw error;
+            }
+        };
+
+        // WHEN submitting it
+        final MendeleyFuture<Request<String>.Response> future = request.submit(executor);
+
+        // THEN the future fails with it, rather than staying pending
+        try {
+            future.getResult();
+            fail("Error expected");
+        } catch (MendeleyException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    private static class ImmediateRequest<T> extends Request<T> {
+        private final T resource;
+
+        ImmediateRequest(T resource) {
+            super(null);
+            this.resource = resource;
+        }
+
+        @Override
+        protected Response doRun() {
+            return new Response(resource, (Date) null, null);
+        }
+    }
+
+    private static class ResourceFunction<T> implements MendeleyFuture.Function<Request<T>.Response, T> {
+        @Override
+        public T apply(Request<T>.Response response) {
+            return response.resource;
+        }
+    }
+}
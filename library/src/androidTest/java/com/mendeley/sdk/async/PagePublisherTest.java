@@ -0,0 +1,296 @@
+package com.mendeley.sdk.async;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PagePublisherTest extends InstrumentationTestCase {
+
+    private static final int PAGES = 5;
+
+    private ExecutorService executor;
+
+    // pages whose request blocks until released
+    private final CountDownLatch pageStarted = new CountDownLatch(1);
+    private final CountDownLatch releasePage = new CountDownLatch(1);
+
+    private final AtomicInteger requestsRun = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        releasePage.countDown();
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    private PagePublisher<Integer> newPublisher(final boolean blocking, final int failingPage) {
+        return new PagePublisher<Integer>(new PageRequest(0, blocking, failingPage), new PagePublisher.NextPageFactory<Integer>() {
+            @Override
+            public Request<List<Integer>> newRequest(Uri next) {
+                return new PageRequest(Integer.parseInt(next.getQueryParameter("page")), blocking, failingPage);
+            }
+        }, executor);
+    }
+
+    @SmallTest
+    public void test_request_publishesOnlyTheRequestedPages() throws Exception {
+
+        // GIVEN a subscriber to some pages
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        newPublisher(false, -1).subscribe(subscriber);
+
+        // WHEN asking for 2 of them
+        subscriber.subscription.request(2);
+        subscriber.awaitEvents(2);
+        Thread.sleep(100);
+
+        // THEN only those are requested and published
+        assertEquals(Arrays.asList("page 0", "page 1"), subscriber.getEvents());
+        assertEquals(2, requestsRun.get());
+
+        // WHEN asking for more than are left
+        subscriber.subscription.request(10);
+
+        // THEN the rest are published, and then the end
+        assertTrue(subscriber.awaitEnd());
+        assertEquals(Arrays.asList("page 0", "page 1", "page 2", "page 3", "page 4", "complete"), subscriber.getEvents());
+        assertFalse(subscriber.overlapped);
+    }
+
+    @SmallTest
+    public void test_cancel_cancelsThePageInProgress() throws Exception {
+
+        // GIVEN a subscriber waiting for a page
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        newPublisher(true, -1).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(pageStarted.await(5, TimeUnit.SECONDS));
+
+        // WHEN cancelling the subscription
+        subscriber.subscription.cancel();
+
+        // THEN the request is cancelled, without publishing anything, nor requesting more pages
+        assertFalse(subscriber.awaitEnd());
+        assertTrue(subscriber.getEvents().isEmpty());
+        assertEquals(1, requestsRun.get());
+    }
+
+    @SmallTest
+    public void test_request_nonPositiveFailsAfterThePageInProgress() throws Exception {
+
+        // GIVEN a subscriber waiting for a page
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        newPublisher(true, -1).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertTrue(pageStarted.await(5, TimeUnit.SECONDS));
+
+        // WHEN asking for no pages meanwhile
+        subscriber.subscription.request(0);
+        Thread.sleep(100);
+
+        // THEN the error waits for the page, instead of being signalled concurrently
+        assertTrue(subscriber.getEvents().isEmpty());
+        releasePage.countDown();
+        assertTrue(subscriber.awaitEnd());
+        assertEquals(2, subscriber.getEvents().size());
+        assertEquals("page 0", subscriber.getEvents().get(0));
+        assertTrue(subscriber.getEvents().get(1).startsWith("error"));
+        assertFalse(subscriber.overlapped);
+    }
+
+    @SmallTest
+    public void test_request_failsWithTheErrorOfAPage() throws Exception {
+
+        // GIVEN pages whose third one fails
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        newPublisher(false, 2).subscribe(subscriber);
+
+        // WHEN asking for all of them
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        // THEN the error is published after the previous pages
+        assertTrue(subscriber.awaitEnd());
+        final List<String> events = subscriber.getEvents();
+        assertEquals(Arrays.asList("page 0", "page 1"), events.subList(0, 2));
+        assertTrue(events.get(2), events.get(2).startsWith("error page 2 failed"));
+        assertEquals(3, events.size());
+    }
+
+    @SmallTest
+    public void test_request_failsIfTheNextPageCantBeCreated() throws Exception {
+
+        // GIVEN a factory of the next pages that throws
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        new PagePublisher<Integer>(new PageRequest(0, false, -1), new PagePublisher.NextPageFactory<Integer>() {
+            @Override
+            public Request<List<Integer>> newRequest(Uri next) {
+                throw new IllegalArgumentException("bad page");
+            }
+        }, executor).subscribe(subscriber);
+
+        // WHEN asking for the pages
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        // THEN the subscription fails, rather than hanging
+        assertTrue(subscriber.awaitEnd());
+        assertEquals(1, subscriber.getEvents().size());
+        assertTrue(subscriber.getEvents().get(0).startsWith("error Could not request the next page"));
+    }
+
+    @SmallTest
+    public void test_request_stopsIfTheSubscriberThrows() throws Exception {
+
+        // GIVEN a subscriber that throws when receiving a page
+        final RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(List<Integer> item) {
+                super.onNext(item);
+                throw new IllegalStateException("subscriber failed");
+            }
+        };
+        newPublisher(false, -1).subscribe(subscriber);
+
+        // WHEN asking for all the pages
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.awaitEvents(1);
+        Thread.sleep(100);
+        subscriber.subscription.request(1);
+        Thread.sleep(100);
+
+        // THEN no more pages are requested nor published
+        assertEquals(Collections.singletonList("page 0"), subscriber.getEvents());
+        assertEquals(1, requestsRun.get());
+    }
+
+    /**
+     * Records the signals it receives, and whether any of them overlapped.
+     */
+    private static class RecordingSubscriber implements Publisher.Subscriber<List<Integer>> {
+
+        private final List<String> events = new ArrayList<String>();
+        private final CountDownLatch ended = new CountDownLatch(1);
+        private final AtomicInteger signalling = new AtomicInteger();
+
+        volatile Publisher.Subscription subscription;
+        volatile boolean overlapped;
+
+        @Override
+        public void onSubscribe(Publisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(List<Integer> item) {
+            record("page " + item.get(0));
+        }
+
+        @Override
+        public void onError(MendeleyException e) {
+            record("error " + e.getMessage());
+            ended.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            record("complete");
+            ended.countDown();
+        }
+
+        private void record(String event) {
+            if (signalling.incrementAndGet() > 1) {
+                overlapped = true;
+            }
+            try {
+                // long enough for a concurrent signal to overlap
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (events) {
+                events.add(event);
+            }
+            signalling.decrementAndGet();
+        }
+
+        List<String> getEvents() {
+            synchronized (events) {
+                return new ArrayList<String>(events);
+            }
+        }
+
+        void awaitEvents(int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (getEvents().size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+
+        // false if it didn't end in a while
+        boolean awaitEnd() throws InterruptedException {
+            return ended.await(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Returns a page with its number, optionally waiting until released or cancelled.
+     */
+    private class PageRequest extends Request<List<Integer>> {
+        private final int page;
+        private final boolean blocking;
+        private final int failingPage;
+
+        PageRequest(int page, boolean blocking, int failingPage) {
+            super(null);
+            this.page = page;
+            this.blocking = blocking;
+            this.failingPage = failingPage;
+        }
+
+        @Override
+        protected Response doRun() throws MendeleyException {
+            requestsRun.incrementAndGet();
+            if (blocking) {
+                pageStarted.countDown();
+                try {
+                    releasePage.await();
+                } catch (InterruptedException e) {
+                    throw new UserCancelledException(e);
+                }
+                if (isCancelled()) {
+                    throw new UserCancelledException();
+                }
+            }
+            if (page == failingPage) {
+                throw new MendeleyException("page " + page + " failed");
+            }
+            final Uri next = page + 1 < PAGES ? Uri.parse("page?page=" + (page + 1)) : null;
+            return new Response(Collections.singletonList(page), (Date) null, next);
+        }
+
+        @Override
+        protected void onCancel() {
+            releasePage.countDown();
+        }
+    }
+}
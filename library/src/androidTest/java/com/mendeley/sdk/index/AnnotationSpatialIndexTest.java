@@ -0,0 +1,93 @@
+package com.mendeley.sdk.index;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.model.Annotation;
+import com.mendeley.sdk.model.Point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class AnnotationSpatialIndexTest extends AndroidTestCase {
+
+    private static final String FILE_HASH = "file-hash";
+
+    private AnnotationSpatialIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        index = new AnnotationSpatialIndex();
+    }
+
+    private Annotation getTestAnnotation(String id, Annotation.Position... positions) {
+        return new Annotation.Builder()
+                .setId(id)
+                .setType(Annotation.Type.HIGHLIGHT)
+                .setFileHash(FILE_HASH)
+                .setPositions(Arrays.asList(positions))
+                .build();
+    }
+
+    private Annotation.Position getPosition(int page, double x1, double y1, double x2, double y2) {
+        return new Annotation.Position(new Point(x1, y1), new Point(x2, y2), page);
+    }
+
+    private List<String> getIds(List<Annotation> annotations) {
+        final List<String> ids = new ArrayList<String>();
+        for (Annotation annotation : annotations) {
+            ids.add(annotation.id);
+        }
+        return ids;
+    }
+
+    @SmallTest
+    public void test_hitTest_findsTheAnnotationsUnderThePoint() {
+        // GIVEN a two lines highlight and a big one in the same page
+        index.put(getTestAnnotation("two-lines", getPosition(1, 10, 100, 50, 90), getPosition(1, 10, 80, 50, 70)));
+        index.put(getTestAnnotation("big", getPosition(1, 0, 0, 200, 500)));
+
+        // WHEN hit testing points inside and between the lines
+        final List<String> inLine = getIds(index.hitTest(FILE_HASH, 1, 20, 95));
+        final List<String> betweenLines = getIds(index.hitTest(FILE_HASH, 1, 20, 85));
+
+        // THEN only the annotations with a position under the point are found
+        assertEquals(Arrays.asList("big", "two-lines"), inLine);
+        assertEquals(Collections.singletonList("big"), betweenLines);
+
+        // ...AND other pages have no annotations
+        assertTrue(index.hitTest(FILE_HASH, 2, 20, 95).isEmpty());
+    }
+
+    @SmallTest
+    public void test_put_replacesThePreviousVersion() {
+        // GIVEN an annotation moved to another page
+        index.put(getTestAnnotation("moved", getPosition(1, 10, 10, 20, 20)));
+        index.put(getTestAnnotation("moved", getPosition(3, 10, 10, 20, 20)));
+
+        // WHEN getting the annotations of each page
+        final List<Annotation> page1 = index.getAnnotations(FILE_HASH, 1);
+        final List<Annotation> page3 = index.getAnnotations(FILE_HASH, 3);
+
+        // THEN it's only in the new page
+        assertTrue(page1.isEmpty());
+        assertEquals(Collections.singletonList("moved"), getIds(page3));
+    }
+
+    @SmallTest
+    public void test_query_afterRemovingAnAnnotation() {
+        // GIVEN two annotations, one of them removed
+        index.put(getTestAnnotation("kept", getPosition(1, 10, 10, 20, 20)));
+        index.put(getTestAnnotation("removed", getPosition(1, 15, 15, 30, 30)));
+        index.remove("removed");
+
+        // WHEN querying a rectangle covering both
+        final List<String> ids = getIds(index.query(FILE_HASH, 1, 0, 0, 100, 100));
+
+        // THEN only the kept one is found
+        assertEquals(Collections.singletonList("kept"), ids);
+    }
+}
@@ -0,0 +1,155 @@
+package com.mendeley.sdk.index;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.model.Folder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class FolderTreeTest extends AndroidTestCase {
+
+    private FolderTree tree;
+
+    private static Folder newFolder(String id, String parentId) {
+        return new Folder.Builder().setId(id).setName("name of " + id).setParentId(parentId).build();
+    }
+
+    private static Set<String> setOf(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    private static List<String> getIds(List<Folder> folders) {
+        final List<String> ids = new ArrayList<String>();
+        for (Folder folder : folders) {
+            ids.add(folder.id);
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // root
+        // +- a
+        // |  +- a1
+        // |  +- a2
+        // +- b
+        tree = new FolderTree();
+        tree.putFolder(newFolder("a1", "a"));
+        tree.putFolder(newFolder("root", null));
+        tree.putFolder(newFolder("a", "root"));
+        tree.putFolder(newFolder("a2", "a"));
+        tree.putFolder(newFolder("b", "root"));
+
+        tree.setFolderDocuments("root", Collections.singletonList("doc-root"));
+        tree.setFolderDocuments("a1", Arrays.asList("doc-1", "doc-shared"));
+        tree.addDocumentToFolder("a2", "doc-2");
+        tree.addDocumentToFolder("b", "doc-shared");
+    }
+
+    @SmallTest
+    public void test_putFolder_linksFoldersAddedInAnyOrder() {
+        // THEN the hierarchy is the one of the parents, whatever the order the folders were added
+        assertEquals(Collections.singletonList("root"), getIds(tree.getRootFolders()));
+        assertEquals(Arrays.asList("a", "b"), getIds(tree.getSubfolders("root")));
+        assertEquals(Arrays.asList("a1", "a2"), getIds(tree.getSubfolders("a")));
+        assertTrue(tree.isInSubtree("a2", "root"));
+        assertFalse(tree.isInSubtree("b", "a"));
+    }
+
+    @SmallTest
+    public void test_getSubtreeDocumentIds_includesTheSubfolders() {
+        // THEN the documents of a subtree are the ones of all its folders
+        assertEquals(setOf("doc-root", "doc-1", "doc-2", "doc-shared"), tree.getSubtreeDocumentIds("root"));
+        assertEquals(setOf("doc-1", "doc-2", "doc-shared"), tree.getSubtreeDocumentIds("a"));
+        assertEquals(setOf("doc-shared"), tree.getSubtreeDocumentIds("b"));
+        assertTrue(tree.isDocumentInSubtree("doc-2", "root"));
+        assertFalse(tree.isDocumentInSubtree("doc-2", "b"));
+        assertEquals(setOf("a1", "b"), tree.getDocumentFolderIds("doc-shared"));
+    }
+
+    @SmallTest
+    public void test_putFolder_movesAFolder() {
+        // WHEN moving a folder to another parent
+        tree.putFolder(newFolder("a2", "b"));
+
+        // THEN its documents move with it
+        assertEquals(Collections.singletonList("a1"), getIds(tree.getSubfolders("a")));
+        assertEquals(Collections.singletonList("a2"), getIds(tree.getSubfolders("b")));
+        assertEquals(setOf("doc-1", "doc-shared"), tree.getSubtreeDocumentIds("a"));
+        assertEquals(setOf("doc-2", "doc-shared"), tree.getSubtreeDocumentIds("b"));
+    }
+
+    @SmallTest
+    public void test_removeFolder_leavesNoStaleSubfolders() {
+        // WHEN removing a folder with subfolders
+        tree.removeFolder("a");
+
+        // THEN it has no subfolders nor documents anymore
+        assertNull(tree.getFolder("a"));
+        assertTrue(tree.getSubfolders("a").isEmpty());
+        assertTrue(tree.getSubtreeDocumentIds("a").isEmpty());
+        assertFalse(tree.isDocumentInSubtree("doc-1", "a"));
+
+        // ...AND its subfolders are roots, out of the subtree of its parent
+        assertEquals(Arrays.asList("a1", "a2", "root"), getIds(tree.getRootFolders()));
+        assertEquals(setOf("doc-root", "doc-shared"), tree.getSubtreeDocumentIds("root"));
+
+        // WHEN adding it again
+        tree.putFolder(newFolder("a", "root"));
+
+        // THEN its subfolders are linked again
+        assertEquals(Arrays.asList("a1", "a2"), getIds(tree.getSubfolders("a")));
+        assertEquals(setOf("doc-1", "doc-2", "doc-shared"), tree.getSubtreeDocumentIds("a"));
+    }
+
+    @SmallTest
+    public void test_remove_reusesTheNumbersOfRemovedFoldersAndDocuments() {
+        // GIVEN the numbers in use
+        final int folderNums = tree.getFolderNumCount();
+        final int documentNums = tree.getDocumentNumCount();
+
+        // WHEN adding and removing many folders and documents
+        for (int i = 0; i < 100; i++) {
+            tree.putFolder(newFolder("temp-" + i, "b"));
+            tree.addDocumentToFolder("temp-" + i, "temp-doc-" + i);
+            tree.removeDocument("temp-doc-" + i);
+            tree.removeFolder("temp-" + i);
+        }
+
+        // THEN they all use the same numbers, reclaimed each time
+        assertEquals(folderNums + 1, tree.getFolderNumCount());
+        assertEquals(documentNums + 1, tree.getDocumentNumCount());
+
+        // ...AND the tree is unchanged
+        assertEquals(Arrays.asList("a1", "a2"), getIds(tree.getSubfolders("a")));
+        assertTrue(tree.getSubfolders("b").isEmpty());
+        assertEquals(setOf("doc-root", "doc-1", "doc-2", "doc-shared"), tree.getSubtreeDocumentIds("root"));
+    }
+
+    @SmallTest
+    public void test_removeDocument_removesItFromAllItsFolders() {
+        // WHEN removing a document in several folders
+        tree.removeDocument("doc-shared");
+
+        // THEN it is in none of them
+        assertTrue(tree.getDocumentFolderIds("doc-shared").isEmpty());
+        assertEquals(setOf("doc-1"), tree.getFolderDocumentIds("a1"));
+        assertTrue(tree.getFolderDocumentIds("b").isEmpty());
+
+        // WHEN adding another document
+        tree.addDocumentToFolder("b", "doc-new");
+
+        // THEN it doesn't get the folders of the removed one
+        assertEquals(setOf("b"), tree.getDocumentFolderIds("doc-new"));
+        assertEquals(setOf("doc-new"), tree.getFolderDocumentIds("b"));
+    }
+}
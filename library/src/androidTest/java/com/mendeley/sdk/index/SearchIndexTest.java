@@ -0,0 +1,168 @@
+package com.mendeley.sdk.index;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.model.Person;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SearchIndexTest extends AndroidTestCase {
+
+    private SearchIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        index = new SearchIndex();
+        index.add(new Document.Builder()
+                .setId("doc-1")
+                .setTitle("Deep learning for protein folding")
+                .setAuthors(Collections.singletonList(new Person("Anna", "Müller")))
+                .setAbstractString("We fold proteins with deep networks.")
+                .build());
+        index.add(new Document.Builder()
+                .setId("doc-2")
+                .setTitle("A survey of learning methods")
+                .setAuthors(Collections.singletonList(new Person("John", "Smith")))
+                .setTags(Arrays.asList("deep", "survey"))
+                .build());
+        index.add(new Document.Builder()
+                .setId("doc-3")
+                .setTitle("Protein structure")
+                .setNotes("learning about deep sea creatures")
+                .build());
+    }
+
+    private List<String> getIds(List<SearchIndex.Hit> hits) {
+        final List<String> ids = new ArrayList<String>();
+        for (SearchIndex.Hit hit : hits) {
+            ids.add(hit.documentId);
+        }
+        return ids;
+    }
+
+    @SmallTest
+    public void test_search_findsDocumentsContainingAllTheWords() {
+        // WHEN searching two words
+        final List<String> ids = getIds(index.search("deep learning", 10));
+
+        // THEN the documents containing both are found
+        assertEquals(3, ids.size());
+
+        // ...AND the one with both in the title is ranked first
+        assertEquals("doc-1", ids.get(0));
+    }
+
+    @SmallTest
+    public void test_search_ignoresCaseAndDiacritics() {
+        // WHEN searching an author without the diacritics
+        final List<String> ids = getIds(index.search("MULLER", 10));
+
+        // THEN the document is found
+        assertEquals(Collections.singletonList("doc-1"), ids);
+    }
+
+    @SmallTest
+    public void test_search_withPrefix() {
+        // WHEN searching a prefix
+        final List<String> ids = getIds(index.search("prot*", 10));
+
+        // THEN the documents with words starting with the prefix are found
+        assertEquals(2, ids.size());
+        assertTrue(ids.containsAll(Arrays.asList("doc-1", "doc-3")));
+    }
+
+    @SmallTest
+    public void test_search_withPhrase() {
+        // WHEN searching a phrase
+        final List<String> ids = getIds(index.search("\"deep learning\"", 10));
+
+        // THEN only the documents with the words in that order are found
+        assertEquals(Collections.singletonList("doc-1"), ids);
+    }
+
+    @SmallTest
+    public void test_search_afterUpdatingAndRemovingDocuments() {
+        // GIVEN a document updated and another one removed
+        index.add(new Document.Builder()
+                .setId("doc-1")
+                .setTitle("Graph theory")
+                .build());
+        index.remove("doc-3");
+
+        // WHEN searching
+        final List<String> ids = getIds(index.search("protein", 10));
+
+        // THEN only the current versions of the documents are searched
+        assertTrue(ids.isEmpty());
+        assertEquals(Collections.singletonList("doc-1"), getIds(index.search("graph", 10)));
+        assertEquals(2, index.size());
+    }
+
+    @SmallTest
+    public void test_search_afterSavingAndLoading() throws IOException {
+        // GIVEN an index with a removed document, saved and loaded again
+        index.remove("doc-2");
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        index.writeTo(os);
+        final SearchIndex loaded = SearchIndex.readFrom(new ByteArrayInputStream(os.toByteArray()));
+
+        // WHEN searching the loaded index
+        final List<SearchIndex.Hit> expected = index.search("deep learning", 10);
+        final List<SearchIndex.Hit> actual = loaded.search("deep learning", 10);
+
+        // THEN it finds the same hits as the original one
+        assertEquals(getIds(expected), getIds(actual));
+        assertEquals(expected.get(0).score, actual.get(0).score, 0.0001f);
+        assertEquals(2, loaded.size());
+    }
+
+    @SmallTest
+    public void test_remove_reclaimsTheNumbersOfRemovedDocuments() {
+        // GIVEN many documents updated over and over
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 100; i++) {
+                index.add(new Document.Builder()
+                        .setId("updated-" + i)
+                        .setTitle("Version " + round + " of paper" + i)
+                        .build());
+            }
+        }
+
+        // THEN the numbers of the old versions are reclaimed
+        assertEquals(103, index.size());
+        assertTrue(index.getDocNumCount() <= 2 * 103 + SearchIndex.MIN_COMPACTED_DOCS);
+
+        // ...AND the documents are still found, in their current versions
+        assertEquals(Collections.singletonList("updated-42"), getIds(index.search("paper42", 10)));
+        assertEquals(100, index.search("version 9", 1000).size());
+        assertTrue(index.search("version 8", 1000).isEmpty());
+        assertEquals(Collections.singletonList("doc-3"), getIds(index.search("structure", 10)));
+    }
+
+    @SmallTest
+    public void test_search_withPrefixMatchingManyWords() {
+        // GIVEN documents with many words of the same prefix
+        for (int i = 0; i < 200; i++) {
+            index.add(new Document.Builder()
+                    .setId("many-" + i)
+                    .setTitle("Compound c" + i)
+                    .build());
+        }
+
+        // WHEN searching the prefix
+        final List<SearchIndex.Hit> hits = index.search("compound c*", 1000);
+
+        // THEN all the documents are found
+        assertEquals(200, hits.size());
+    }
+}
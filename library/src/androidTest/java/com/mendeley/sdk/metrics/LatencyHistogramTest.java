@@ -0,0 +1,76 @@
+package com.mendeley.sdk.metrics;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class LatencyHistogramTest extends InstrumentationTestCase {
+
+    @SmallTest
+    public void test_getPercentile_isWithinPrecision() throws Exception {
+
+        // GIVEN a histogram with random latencies from 1 ms to 10 s
+        final Random random = new Random(0);
+        final long[] values = new long[10000];
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1000 + (long) (random.nextDouble() * random.nextDouble() * 10000000);
+            histogram.recordMicros(values[i]);
+        }
+        Arrays.sort(values);
+
+        // WHEN getting its percentiles
+        // THEN they are within 3% of the actual ones
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            final long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            final long actual = histogram.getPercentileMicros(percentile);
+            assertTrue("p" + percentile + " expected: " + expected + " actual: " + actual, Math.abs(actual - expected) <= expected * 0.03);
+        }
+
+        // ...AND the count, min and max are exact
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[0], histogram.getMinMicros());
+        assertEquals(values[values.length - 1], histogram.getMaxMicros());
+        assertEquals(values[values.length - 1], histogram.getPercentileMicros(100));
+    }
+
+    @SmallTest
+    public void test_add_mergesTheValues() throws Exception {
+
+        // GIVEN two histograms
+        final LatencyHistogram histogram1 = new LatencyHistogram();
+        histogram1.recordMicros(10);
+        histogram1.recordMicros(20);
+        final LatencyHistogram histogram2 = new LatencyHistogram();
+        histogram2.recordMicros(30);
+
+        // WHEN adding one to a copy of the other
+        final LatencyHistogram merged = histogram1.copy();
+        merged.add(histogram2);
+
+        // THEN the merged one has the values of both
+        assertEquals(3, merged.getCount());
+        assertEquals(10, merged.getMinMicros());
+        assertEquals(30, merged.getMaxMicros());
+        assertEquals(20, merged.getMeanMicros());
+
+        // ...AND the original is unchanged
+        assertEquals(2, histogram1.getCount());
+    }
+
+    @SmallTest
+    public void test_recordMicros_clampsLargeValues() throws Exception {
+
+        // GIVEN a histogram
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        // WHEN recording a value larger than the maximum
+        histogram.recordMicros(LatencyHistogram.MAX_VALUE_MICROS * 10);
+
+        // THEN it is counted as the maximum
+        assertEquals(LatencyHistogram.MAX_VALUE_MICROS, histogram.getMaxMicros());
+        assertEquals(LatencyHistogram.MAX_VALUE_MICROS, histogram.getPercentileMicros(50));
+    }
+}
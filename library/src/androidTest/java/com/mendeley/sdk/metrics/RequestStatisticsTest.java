@@ -0,0 +1,171 @@
+package com.mendeley.sdk.metrics;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.request.endpoint.DocumentEndpoint;
+import com.mendeley.sdk.request.endpoint.OAuthTokenEndpoint;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public class RequestStatisticsTest extends InstrumentationTestCase {
+
+    private static final Uri URL = Uri.parse("https://api.mendeley.com/documents");
+
+    private static RequestMetrics.Builder newMetrics(Class<?> requestClass, long totalMillis) {
+        return new RequestMetrics.Builder(requestClass, URL)
+                .addAttempt()
+                .setTotalNanos(TimeUnit.MILLISECONDS.toNanos(totalMillis));
+    }
+
+    private static RequestMetrics failed(Class<?> requestClass, int httpStatus) {
+        return newMetrics(requestClass, 10)
+                .setHttpStatus(httpStatus)
+                .setError(new HttpResponseException(httpStatus, "error", URL.toString()))
+                .build();
+    }
+
+    @SmallTest
+    public void test_onRequestFinished_groupsTheMetricsByRequestClass() {
+
+        // GIVEN the statistics of some requests of two endpoints
+        final RequestStatistics statistics = new RequestStatistics();
+        statistics.onRequestFinished(newMetrics(DocumentEndpoint.GetDocumentsRequest.class, 100)
+                .addAttempt()
+                .addRequestBytes(10)
+                .addResponseBytes(1000)
+                .addParsedBytes(1000)
+                .addParsedItems(20)
+                .build());
+        statistics.onRequestFinished(newMetrics(DocumentEndpoint.GetDocumentsRequest.class, 300)
+                .addResponseBytes(500)
+                .addParsedBytes(500)
+                .addParsedItems(10)
+                .build());
+        statistics.onRequestFinished(newMetrics(DocumentEndpoint.PostDocumentRequest.class, 50).addRequestBytes(200).build());
+
+        // WHEN getting them
+        final RequestStatistics.Snapshot snapshot = statistics.getSnapshot();
+
+        // THEN they are added up by endpoint, in the order they were first seen
+        assertEquals(Arrays.<Class<?>>asList(DocumentEndpoint.GetDocumentsRequest.class, DocumentEndpoint.PostDocumentRequest.class),
+                Arrays.asList(snapshot.getEndpoints().keySet().toArray()));
+
+        final EndpointStatistics documents = snapshot.getEndpoint(DocumentEndpoint.GetDocumentsRequest.class);
+        assertEquals(2, documents.getRequestCount());
+        assertEquals(1, documents.getRetryCount());
+        assertEquals(10, documents.getRequestBytes());
+        assertEquals(1500, documents.getResponseBytes());
+        assertEquals(1500, documents.getParsedBytes());
+        assertEquals(30, documents.getParsedItems());
+        assertEquals(2, documents.getLatency().getCount());
+        assertEquals(0, documents.getErrorCount());
+
+        final EndpointStatistics post = snapshot.getEndpoint(DocumentEndpoint.PostDocumentRequest.class);
+        assertEquals(1, post.getRequestCount());
+        assertEquals(200, post.getRequestBytes());
+
+        // ...AND there are none of the endpoints without requests
+        assertNull(snapshot.getEndpoint(DocumentEndpoint.TrashDocumentRequest.class));
+    }
+
+    @SmallTest
+    public void test_onRequestFinished_countsTheErrorsByStatus() {
+
+        // GIVEN requests that fail with several statuses, and without one
+        final RequestStatistics statistics = new RequestStatistics();
+        statistics.onRequestFinished(failed(DocumentEndpoint.GetDocumentRequest.class, 404));
+        statistics.onRequestFinished(failed(DocumentEndpoint.GetDocumentRequest.class, 404));
+        statistics.onRequestFinished(failed(DocumentEndpoint.GetDocumentRequest.class, 503));
+        statistics.onRequestFinished(newMetrics(DocumentEndpoint.GetDocumentRequest.class, 10)
+                .setError(new MendeleyException("IO error performing the request"))
+                .build());
+        statistics.onRequestFinished(newMetrics(DocumentEndpoint.GetDocumentRequest.class, 10).build());
+
+        // WHEN getting their statistics
+        final EndpointStatistics endpoint = statistics.getSnapshot().getEndpoint(DocumentEndpoint.GetDocumentRequest.class);
+
+        // THEN the errors are counted by their status
+        assertEquals(5, endpoint.getRequestCount());
+        assertEquals(4, endpoint.getErrorCount());
+        assertEquals(0.8, endpoint.getErrorRate(), 0.001);
+        assertEquals(Long.valueOf(2), endpoint.getErrorsByHttpStatus().get(404));
+        assertEquals(Long.valueOf(1), endpoint.getErrorsByHttpStatus().get(503));
+        assertEquals(Long.valueOf(1), endpoint.getErrorsByHttpStatus().get(RequestMetrics.NO_HTTP_STATUS));
+        assertEquals(3, endpoint.getErrorsByHttpStatus().size());
+    }
+
+    @SmallTest
+    public void test_getSnapshotAndReset_startsAnEmptyPeriod() {
+
+        // GIVEN the statistics of a request
+        final RequestStatistics statistics = new RequestStatistics();
+        statistics.onRequestFinished(newMetrics(DocumentEndpoint.GetDocumentsRequest.class, 100).build());
+
+        // WHEN getting them and resetting them
+        final RequestStatistics.Snapshot first = statistics.getSnapshotAndReset();
+        statistics.onRequestFinished(newMetrics(DocumentEndpoint.PostDocumentRequest.class, 100).build());
+        final RequestStatistics.Snapshot second = statistics.getSnapshotAndReset();
+
+        // THEN each period has its requests only
+        assertEquals(1, first.getEndpoints().size());
+        assertEquals(1, first.getEndpoint(DocumentEndpoint.GetDocumentsRequest.class).getRequestCount());
+        assertEquals(1, second.getEndpoints().size());
+        assertEquals(1, second.getEndpoint(DocumentEndpoint.PostDocumentRequest.class).getRequestCount());
+
+        // ...AND each period starts when the previous one ended
+        assertEquals(first.endDate, second.startDate);
+        assertTrue(statistics.getSnapshot().getEndpoints().isEmpty());
+    }
+
+    @SmallTest
+    public void test_getSnapshot_isNotChangedByLaterRequests() {
+
+        // GIVEN a snapshot of the statistics of a request
+        final RequestStatistics statistics = new RequestStatistics();
+        statistics.onRequestFinished(newMetrics(DocumentEndpoint.GetDocumentsRequest.class, 100).build());
+        final RequestStatistics.Snapshot snapshot = statistics.getSnapshot();
+
+        // WHEN more requests finish
+        statistics.onRequestFinished(newMetrics(DocumentEndpoint.GetDocumentsRequest.class, 100).build());
+        statistics.onRequestFinished(failed(DocumentEndpoint.GetDocumentsRequest.class, 500));
+
+        // THEN the snapshot keeps the statistics it had
+        final EndpointStatistics endpoint = snapshot.getEndpoint(DocumentEndpoint.GetDocumentsRequest.class);
+        assertEquals(1, endpoint.getRequestCount());
+        assertEquals(1, endpoint.getLatency().getCount());
+        assertEquals(0, endpoint.getErrorCount());
+        assertTrue(endpoint.getErrorsByHttpStatus().isEmpty());
+
+        // ...AND the statistics still have all the requests, as the snapshot wasn't a reset
+        assertEquals(3, statistics.getSnapshot().getEndpoint(DocumentEndpoint.GetDocumentsRequest.class).getRequestCount());
+    }
+
+    @SmallTest
+    public void test_onRequestFinished_addsTheTokenRefreshesAsRequests() {
+
+        // GIVEN a request that refreshed the token, and one that didn't
+        final RequestStatistics statistics = new RequestStatistics();
+        statistics.onRequestFinished(newMetrics(DocumentEndpoint.GetDocumentsRequest.class, 500)
+                .addTokenRefreshNanos(TimeUnit.MILLISECONDS.toNanos(200))
+                .build());
+        statistics.onRequestFinished(newMetrics(DocumentEndpoint.GetDocumentsRequest.class, 100).build());
+
+        // WHEN getting their statistics
+        final RequestStatistics.Snapshot snapshot = statistics.getSnapshot();
+
+        // THEN the refresh is counted as a request of its own, with its latency
+        final EndpointStatistics refresh = snapshot.getEndpoint(OAuthTokenEndpoint.RefreshTokenRequest.class);
+        assertEquals(1, refresh.getRequestCount());
+        assertEquals(1, refresh.getLatency().getCount());
+        assertEquals(200000, refresh.getLatency().getMaxMicros(), 200000 * 0.03);
+        assertEquals(0, refresh.getErrorCount());
+
+        // ...AND the requests are still counted on their own endpoint
+        assertEquals(2, snapshot.getEndpoint(DocumentEndpoint.GetDocumentsRequest.class).getRequestCount());
+    }
+}
@@ -0,0 +1,95 @@
+package com.mendeley.sdk.model;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PackedPositionsTest extends AndroidTestCase {
+
+    private static List<Annotation.Position> getTestPositions() {
+        return Arrays.asList(
+                new Annotation.Position(new Point(1.5, 2.5), new Point(10.25, 20.75), 1),
+                new Annotation.Position(null, new Point(3, 4), 2),
+                new Annotation.Position(new Point(5, 6), null, null),
+                new Annotation.Position(null, null, 7));
+    }
+
+    @SmallTest
+    public void test_of_keepsThePositions() {
+
+        // GIVEN positions with and without corners and pages
+        final List<Annotation.Position> positions = getTestPositions();
+
+        // WHEN packing them
+        final PackedPositions packed = PackedPositions.of(positions);
+
+        // THEN they are read back the same, as objects
+        assertEquals(positions.size(), packed.size());
+        for (int i = 0; i < positions.size(); i++) {
+            assertEquals(positions.get(i), packed.get(i));
+        }
+        assertEquals(positions, packed.asList());
+
+        // ...AND as primitives, with the missing values marked
+        assertEquals(1, packed.getPage(0));
+        assertEquals(10.25, packed.getX2(0));
+        assertEquals(20.75, packed.getY2(0));
+        assertFalse(packed.hasTopLeft(1));
+        assertTrue(Double.isNaN(packed.getY1(1)));
+        assertFalse(packed.hasBottomRight(2));
+        assertEquals(PackedPositions.NO_PAGE, packed.getPage(2));
+    }
+
+    @SmallTest
+    public void test_builder_growsPastItsCapacity() {
+
+        // GIVEN a builder with room for one position
+        final PackedPositions.Builder builder = new PackedPositions.Builder(1);
+
+        // WHEN adding many
+        final List<Annotation.Position> positions = new ArrayList<Annotation.Position>();
+        for (int i = 0; i < 100; i++) {
+            final Annotation.Position position = new Annotation.Position(new Point(i, i + 1), new Point(i + 2, i + 3), i);
+            positions.add(position);
+            builder.add(position);
+        }
+
+        // THEN all of them are kept
+        assertEquals(positions, builder.build().asList());
+    }
+
+    @SmallTest
+    public void test_annotationPositions_isAReadOnlyViewOfThePackedPositions() {
+
+        // GIVEN an annotation built with positions
+        final List<Annotation.Position> positions = getTestPositions();
+        final Annotation annotation = new Annotation.Builder().setPositions(positions).build();
+
+        // THEN its positions are equal to them, and to the ones of a copy
+        assertEquals(positions, annotation.positions);
+        assertEquals(annotation.positions, new Annotation.Builder(annotation).build().positions);
+        assertEquals(positions.size(), annotation.packedPositions.size());
+
+        // ...AND they can't be modified
+        try {
+            annotation.positions.add(positions.get(0));
+            fail("Positions modified");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // ...AND annotations without positions have null ones
+        final Annotation withoutPositions = new Annotation.Builder().build();
+        assertTrue(withoutPositions.positions.isNull());
+        assertNull(withoutPositions.packedPositions);
+
+        // ...AND annotations with an empty list of positions have empty ones
+        final Annotation withEmptyPositions = new Annotation.Builder().setPositions(new ArrayList<Annotation.Position>()).build();
+        assertFalse(withEmptyPositions.positions.isNull());
+        assertTrue(withEmptyPositions.positions.isEmpty());
+        assertEquals(0, withEmptyPositions.packedPositions.size());
+    }
+}
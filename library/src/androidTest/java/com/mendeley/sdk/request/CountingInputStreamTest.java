@@ -0,0 +1,78 @@
+package com.mendeley.sdk.request;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class CountingInputStreamTest extends InstrumentationTestCase {
+
+    @SmallTest
+    public void test_read_countsTheBytesRead() throws Exception {
+
+        // GIVEN a stream of 100 bytes
+        final CountingInputStream is = new CountingInputStream(new ByteArrayInputStream(new byte[100]));
+
+        // WHEN reading it in all the ways
+        is.read();
+        is.read(new byte[30], 0, 30);
+        is.skip(9);
+        while (is.read(new byte[40], 0, 40) > 0) {
+        }
+        is.read();
+
+        // THEN all the bytes are counted once
+        assertEquals(100, is.getCount());
+    }
+
+    @SmallTest
+    public void test_read_measuresTheTimeWaitingForTheBytes() throws Exception {
+
+        // GIVEN a stream that takes 50 ms for each read
+        final InputStream slow = new FilterInputStream(new ByteArrayInputStream(new byte[10])) {
+            @Override
+            public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.read(buffer, byteOffset, byteCount);
+            }
+        };
+        final CountingInputStream is = new CountingInputStream(slow);
+
+        // WHEN reading it twice, spending time in between
+        is.read(new byte[5], 0, 5);
+        Thread.sleep(100);
+        is.read(new byte[5], 0, 5);
+
+        // THEN only the time blocked in the reads is measured
+        final long readMillis = TimeUnit.NANOSECONDS.toMillis(is.getReadNanos());
+        assertTrue("Read time " + readMillis, readMillis >= 100 && readMillis < 150);
+    }
+
+    @SmallTest
+    public void test_countItems_countsTheItemsOfTheResource() throws Exception {
+
+        // GIVEN resources of several kinds
+        final Map<String, String> map = new HashMap<String, String>();
+        map.put("a", "1");
+        map.put("b", "2");
+
+        // THEN lists and maps count their entries, single resources count one, and nothing counts zero
+        assertEquals(3, OkHttpAuthorizedRequest.countItems(Arrays.asList("a", "b", "c")));
+        assertEquals(0, OkHttpAuthorizedRequest.countItems(Collections.emptyList()));
+        assertEquals(2, OkHttpAuthorizedRequest.countItems(map));
+        assertEquals(1, OkHttpAuthorizedRequest.countItems("document"));
+        assertEquals(0, OkHttpAuthorizedRequest.countItems(null));
+    }
+}
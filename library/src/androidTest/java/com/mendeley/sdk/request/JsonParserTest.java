@@ -19,9 +19,11 @@ import com.mendeley.sdk.model.ReadPosition;
 import com.mendeley.sdk.model.UserRole;
 import com.mendeley.sdk.testUtils.AssertUtils;
 import com.mendeley.sdk.util.DateUtils;
+import com.mendeley.sdk.util.StringPool;
 
 import junit.framework.Assert;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.skyscreamer.jsonassert.JSONAssert;
@@ -34,6 +36,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 
@@ -282,6 +285,91 @@ public class JsonParserTest extends InstrumentationTestCase {
 
     }
 
+    @SmallTest
+    public void test_parseDocument_withFieldsProjection()
+            throws IOException, JSONException, ParseException {
+
+        // GIVEN the JSON representation of a document
+        Document expectedDocument = getTestDocumentWithNonNotNullCollections();
+        JsonReader reader = getJsonReaderFromAssetsFile(documentWithNotNullCollectionsFile);
+
+        // WHEN we parse the JSON reading only some fields
+        Document actualDocument = JsonParser.documentFromJson(reader, EnumSet.of(Document.Field.ID, Document.Field.TITLE, Document.Field.YEAR, Document.Field.AUTHORS));
+
+        // THEN the requested fields are parsed
+        assertEquals(expectedDocument.id, actualDocument.id);
+        assertEquals(expectedDocument.title, actualDocument.title);
+        assertEquals(expectedDocument.year, actualDocument.year);
+        AssertUtils.assertPersons(expectedDocument.authors, actualDocument.authors);
+
+        // ...AND the rest of fields are skipped
+        assertNull(actualDocument.abstractString);
+        assertNull(actualDocument.notes);
+        assertNull(actualDocument.clientData);
+        assertNull(actualDocument.lastModified);
+        assertTrue(actualDocument.editors.isNull());
+        assertTrue(actualDocument.tags.isNull());
+        assertTrue(actualDocument.identifiers.isNull());
+    }
+
+    @SmallTest
+    public void test_parseDocument_withStringPool_sharesRepeatedValues()
+            throws IOException, JSONException, ParseException {
+
+        // GIVEN a string pool
+        final StringPool stringPool = new StringPool();
+
+        // WHEN we parse the same document twice using the pool
+        final Document document1 = JsonParser.documentFromJson(getJsonReaderFromAssetsFile(documentWithNotNullCollectionsFile), null, stringPool);
+        final Document document2 = JsonParser.documentFromJson(getJsonReaderFromAssetsFile(documentWithNotNullCollectionsFile), null, stringPool);
+
+        // THEN the repeated values are the same instances
+        assertSame(document1.profileId, document2.profileId);
+        assertSame(document1.type, document2.type);
+        assertSame(document1.tags.get(0), document2.tags.get(0));
+        assertSame(document1.authors.get(0).firstName, document2.authors.get(0).firstName);
+
+        // ...AND the unique values are not pooled
+        assertNotSame(document1.title, document2.title);
+    }
+
+    @SmallTest
+    public void test_documentDiffToJson_onlyContainsChangedFields() throws Exception {
+
+        // GIVEN a document and a copy of it with one changed field
+        final Document original = JsonParser.documentFromJson(getJsonReaderFromAssetsFile(documentWithNotNullCollectionsFile));
+        final Document modified = new Document.Builder(original).setStarred(!original.starred).build();
+
+        // WHEN we get the diff
+        final JSONObject actual = JsonParser.documentDiffToJson(original, modified);
+
+        // THEN only the changed field is there
+        final JSONObject expected = new JSONObject();
+        expected.put("starred", !original.starred);
+        JSONAssert.assertEquals(expected, actual, true);
+    }
+
+    @SmallTest
+    public void test_documentDiffToJson_clearsRemovedFieldsButNotNullCollections() throws Exception {
+
+        // GIVEN a document and a copy of it without notes, with null authors and with empty tags
+        final Document original = JsonParser.documentFromJson(getJsonReaderFromAssetsFile(documentWithNotNullCollectionsFile));
+        final Document modified = new Document.Builder(original)
+                .setNotes(null)
+                .setAuthors(null)
+                .setTags(new ArrayList<String>())
+                .build();
+
+        // WHEN we get the diff
+        final JSONObject actual = JsonParser.documentDiffToJson(original, modified);
+
+        // THEN the notes are cleared, the tags are emptied and the authors are left unchanged
+        final JSONObject expected = new JSONObject();
+        expected.put("notes", JSONObject.NULL);
+        expected.put("tags", new JSONArray());
+        JSONAssert.assertEquals(expected, actual, true);
+    }
+
     @SmallTest
     public void test_parseFolder()
             throws IOException, NoSuchMethodException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, JSONException, ParseException {
@@ -0,0 +1,197 @@
+package com.mendeley.sdk.request;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.AuthTokenManager;
+import com.mendeley.sdk.ClientCredentials;
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.testUtils.FakeHttpServer;
+import com.mendeley.sdk.testUtils.InMemoryAuthTokenManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Random;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+
+public class RequestCompressionTest extends InstrumentationTestCase {
+
+    private static final MediaType DOCUMENT_CONTENT_TYPE = MediaType.parse("application/vnd.mendeley-document.1+json");
+
+    private static final String LARGE_DOCUMENT = "{\"title\":\"A study\",\"notes\":\"" + repeat("Some notes. ", 500) + "\"}";
+
+    private FakeHttpServer server;
+    private InMemoryAuthTokenManager authTokenManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new FakeHttpServer();
+        authTokenManager = new InMemoryAuthTokenManager();
+        authTokenManager.saveTokens("access-token", "refresh-token", "Bearer", 3600);
+        OkHttpAuthorizedRequest.setRequestCompressionThreshold(1024);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        OkHttpAuthorizedRequest.setRequestCompressionThreshold(OkHttpAuthorizedRequest.NO_REQUEST_COMPRESSION);
+        server.close();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void test_gzip_compressesLargeDocuments() throws Exception {
+
+        // GIVEN the body of a document with long notes
+        final String json = "{\"title\":\"A study\",\"type\":\"journal\",\"notes\":\"" + repeat("These are the notes of the document, written while reading it. ", 200) + "\"}";
+        final RequestBody body = RequestBody.create(DOCUMENT_CONTENT_TYPE, json);
+
+        // WHEN compressing it
+        final RequestBody compressed = OkHttpAuthorizedRequest.gzip(body, 1024);
+
+        // THEN it gets smaller
+        assertNotNull(compressed);
+        assertTrue(compressed.contentLength() < body.contentLength() / 2);
+
+        // ...AND it keeps the content type and the content
+        assertEquals(body.contentType(), compressed.contentType());
+        assertEquals(json, gunzip(compressed));
+    }
+
+    @SmallTest
+    public void test_gzip_leavesSmallBodiesUncompressed() throws Exception {
+
+        // GIVEN a body smaller than the threshold
+        final RequestBody body = RequestBody.create(DOCUMENT_CONTENT_TYPE, "{\"starred\":true}");
+
+        // WHEN compressing it
+        final RequestBody compressed = OkHttpAuthorizedRequest.gzip(body, 1024);
+
+        // THEN it is not compressed
+        assertNull(compressed);
+    }
+
+    @SmallTest
+    public void test_gzip_leavesUncompressibleBodiesUncompressed() throws Exception {
+
+        // GIVEN a body of random bytes
+        final byte[] bytes = new byte[2048];
+        new Random(0).nextBytes(bytes);
+        final RequestBody body = RequestBody.create(DOCUMENT_CONTENT_TYPE, bytes);
+
+        // WHEN compressing it
+        final RequestBody compressed = OkHttpAuthorizedRequest.gzip(body, 1024);
+
+        // THEN it is sent as it is, as it doesn't get smaller
+        assertNull(compressed);
+    }
+
+    @SmallTest
+    public void test_gzip_leavesFilesUncompressed() throws Exception {
+
+        // GIVEN a large body that is not JSON
+        final RequestBody body = RequestBody.create(MediaType.parse("application/pdf"), new byte[64 * 1024]);
+
+        // WHEN compressing it
+        final RequestBody compressed = OkHttpAuthorizedRequest.gzip(body, 1024);
+
+        // THEN it is not compressed
+        assertNull(compressed);
+    }
+
+    @SmallTest
+    public void test_run_retriesUncompressedIfTheServerDoesNotSupportTheEncoding() throws Exception {
+
+        // GIVEN a server that doesn't support compressed bodies
+        server.enqueue(new FakeHttpServer.FakeHttpResponse(415, "Unsupported Media Type"));
+        server.enqueue(new FakeHttpServer.FakeHttpResponse(200, "created"));
+
+        // WHEN posting a large document
+        final String result = new PostDocumentRequest(server.getUrl("/documents"), authTokenManager).run().resource;
+
+        // THEN it is sent compressed, and then uncompressed
+        assertEquals("created", result);
+        final List<FakeHttpServer.RecordedRequest> requests = server.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals("gzip", requests.get(0).getHeader("content-encoding"));
+        assertNull(requests.get(1).getHeader("content-encoding"));
+        assertEquals(LARGE_DOCUMENT, new String(requests.get(1).body, "UTF-8"));
+
+        // ...AND the next requests are not compressed
+        server.enqueue(new FakeHttpServer.FakeHttpResponse(200, "created"));
+        new PostDocumentRequest(server.getUrl("/documents"), authTokenManager).run();
+        assertNull(server.getRequests().get(2).getHeader("content-encoding"));
+    }
+
+    @SmallTest
+    public void test_run_doesNotRetryOtherBadRequests() throws Exception {
+
+        // GIVEN a server that rejects the document for a reason other than its encoding
+        server.enqueue(new FakeHttpServer.FakeHttpResponse(400, "{\"message\":\"The title is too long\"}"));
+
+        // WHEN posting it
+        try {
+            new PostDocumentRequest(server.getUrl("/documents"), authTokenManager).run();
+            fail("Request succeeded");
+        } catch (HttpResponseException e) {
+            // THEN the request fails with the error of the server
+            assertEquals(400, e.httpReturnCode);
+            assertEquals("{\"message\":\"The title is too long\"}", e.httpResponse);
+        }
+
+        // ...AND it was sent once, compressed
+        final List<FakeHttpServer.RecordedRequest> requests = server.getRequests();
+        assertEquals(1, requests.size());
+        assertEquals("gzip", requests.get(0).getHeader("content-encoding"));
+    }
+
+    @SmallTest
+    public void test_isCompressionRejected_onlyForErrorsAboutTheEncoding() {
+        assertTrue(OkHttpAuthorizedRequest.isCompressionRejected(415, ""));
+        assertTrue(OkHttpAuthorizedRequest.isCompressionRejected(400, "Unsupported Content-Encoding: gzip"));
+        assertFalse(OkHttpAuthorizedRequest.isCompressionRejected(400, "The title is too long"));
+        assertFalse(OkHttpAuthorizedRequest.isCompressionRejected(400, null));
+        assertFalse(OkHttpAuthorizedRequest.isCompressionRejected(500, "gzip"));
+    }
+
+    /**
+     * Posts a large document, returning the body of the response.
+     */
+    private static class PostDocumentRequest extends PostAuthorizedRequest<String> {
+        PostDocumentRequest(Uri url, AuthTokenManager authTokenManager) {
+            super(url, authTokenManager, new ClientCredentials("id", "secret"));
+        }
+
+        @Override
+        protected RequestBody getBody() {
+            return RequestBody.create(DOCUMENT_CONTENT_TYPE, LARGE_DOCUMENT);
+        }
+
+        @Override
+        protected String manageResponse(InputStream is) throws Exception {
+            return Okio.buffer(Okio.source(is)).readUtf8();
+        }
+    }
+
+    private static String gunzip(RequestBody body) throws IOException {
+        final Buffer compressed = new Buffer();
+        body.writeTo(compressed);
+        return Okio.buffer(new GzipSource(compressed)).readString(Charset.forName("UTF-8"));
+    }
+
+    private static String repeat(String s, int times) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
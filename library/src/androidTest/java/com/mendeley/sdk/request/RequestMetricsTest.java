@@ -0,0 +1,132 @@
+package com.mendeley.sdk.request;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.AuthTokenManager;
+import com.mendeley.sdk.ClientCredentials;
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.metrics.RequestMetrics;
+import com.mendeley.sdk.metrics.RequestMetricsListener;
+import com.mendeley.sdk.testUtils.FakeHttpServer;
+import com.mendeley.sdk.testUtils.InMemoryAuthTokenManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class RequestMetricsTest extends InstrumentationTestCase {
+
+    private static final long PARSE_MILLIS = 100;
+
+    private FakeHttpServer server;
+    private InMemoryAuthTokenManager authTokenManager;
+    private final List<RequestMetrics> reported = new ArrayList<RequestMetrics>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new FakeHttpServer();
+        authTokenManager = new InMemoryAuthTokenManager();
+        authTokenManager.saveTokens("access-token", "refresh-token", "Bearer", 3600);
+        AuthorizedRequest.setMetricsListener(new RequestMetricsListener() {
+            @Override
+            public void onRequestFinished(RequestMetrics metrics) {
+                reported.add(metrics);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        AuthorizedRequest.setMetricsListener(null);
+        server.close();
+        super.tearDown();
+    }
+
+    /**
+     * Reads the whole body, and then spends some time as if parsing it.
+     */
+    private static class SlowParsingRequest extends GetAuthorizedRequest<String> {
+        SlowParsingRequest(Uri url, AuthTokenManager authTokenManager) {
+            super(url, authTokenManager, new ClientCredentials("id", "secret"));
+        }
+
+        @Override
+        protected String manageResponse(InputStream is) throws Exception {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            for (int count = is.read(buffer); count >= 0; count = is.read(buffer)) {
+                os.write(buffer, 0, count);
+            }
+            Thread.sleep(PARSE_MILLIS);
+            return os.toString("UTF-8");
+        }
+    }
+
+    private static void assertMillis(String phase, long nanos, long minMillis, long maxMillis) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        assertTrue(phase + " took " + millis + " ms", millis >= minMillis && millis < maxMillis);
+    }
+
+    @SmallTest
+    public void test_run_reportsTheMetricsOfTheRequest() throws Exception {
+
+        // GIVEN a server that takes 100 ms to answer, and 200 ms to send the body
+        final String body = "[\"a document\", \"another document\"]";
+        server.enqueue(new FakeHttpServer.FakeHttpResponse(200, body)
+                .setHeader("X-Mendeley-Trace-Id", "trace-1")
+                .setHeadersDelay(100)
+                .setBodyDelay(200));
+
+        // WHEN running a request that takes 100 ms to parse the body
+        final String resource = new SlowParsingRequest(server.getUrl("/documents"), authTokenManager).run().resource;
+
+        // THEN its metrics are reported once, with the status and the trace id
+        assertEquals(body, resource);
+        assertEquals(1, reported.size());
+        final RequestMetrics metrics = reported.get(0);
+        assertEquals(SlowParsingRequest.class, metrics.requestClass);
+        assertEquals(200, metrics.httpStatus);
+        assertEquals("trace-1", metrics.traceId);
+        assertEquals(0, metrics.retryCount);
+        assertNull(metrics.error);
+
+        // ...AND the bytes received and parsed
+        assertEquals(body.length(), metrics.responseBytes);
+        assertEquals(body.length(), metrics.parsedBytes);
+        assertEquals(1, metrics.parsedItems);
+
+        // ...AND the time of each phase, without counting the parsing in the download
+        assertMillis("server", metrics.serverNanos, 70, 190);
+        assertMillis("download", metrics.downloadNanos, 150, 280);
+        assertMillis("parse", metrics.parseNanos, PARSE_MILLIS, PARSE_MILLIS + 90);
+        assertTrue(metrics.totalNanos >= metrics.serverNanos + metrics.downloadNanos + metrics.parseNanos);
+        assertEquals(0, metrics.tokenRefreshNanos);
+    }
+
+    @SmallTest
+    public void test_run_reportsTheErrorOfTheRequest() throws Exception {
+
+        // GIVEN a server that fails
+        server.enqueue(new FakeHttpServer.FakeHttpResponse(503, "unavailable").setHeader("X-Mendeley-Trace-Id", "trace-2"));
+
+        // WHEN running a request
+        try {
+            new SlowParsingRequest(server.getUrl("/documents"), authTokenManager).run();
+            fail("Request succeeded");
+        } catch (HttpResponseException e) {
+            // THEN its metrics have the error, the status and the trace id
+            assertEquals(1, reported.size());
+            final RequestMetrics metrics = reported.get(0);
+            assertSame(e, metrics.error);
+            assertEquals(503, metrics.httpStatus);
+            assertEquals("trace-2", metrics.traceId);
+            assertEquals("unavailable".length(), metrics.responseBytes);
+            assertEquals(0, metrics.parsedBytes);
+        }
+    }
+}
@@ -6,8 +6,11 @@ import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.mendeley.sdk.Deadline;
 import com.mendeley.sdk.Request;
+import com.mendeley.sdk.exceptions.DeadlineExceededException;
 import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
 import com.mendeley.sdk.testUtils.MutableReference;
 
 import java.util.Date;
@@ -246,4 +249,100 @@ public class RequestTest extends AndroidTestCase {
         assertTrue("Cancelled callback invoked", callbackCalled.value);
     }
 
+    @SmallTest
+    public void test_cancel_abortsTheWorkInProgress() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        final MutableReference<Exception> exceptionReceived = new MutableReference<Exception>();
+
+        // GIVEN a request blocked until its work is aborted
+        final Request<Void> request = new Request<Void>(null) {
+            @Override
+            public Response doRun() throws MendeleyException {
+                started.countDown();
+                try {
+                    aborted.await();
+                } catch (InterruptedException ignored) {
+                }
+                throw new UserCancelledException();
+            }
+
+            @Override
+            protected void onCancel() {
+                aborted.countDown();
+            }
+        };
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    request.run();
+                } catch (MendeleyException e) {
+                    exceptionReceived.value = e;
+                }
+            }
+        });
+        thread.start();
+        started.await(10, TimeUnit.SECONDS);
+
+        // WHEN it is cancelled from another thread
+        request.cancel();
+        thread.join(10000);
+
+        // THEN the request returns right away with the cancellation
+        assertTrue("Cancellation received", exceptionReceived.value instanceof UserCancelledException);
+    }
+
+    @SmallTest
+    public void test_run_failsWhenTheDeadlineExpires() throws Exception {
+
+        // GIVEN a request blocked until cancelled, with a deadline
+        final Request<Void> request = new Request<Void>(null) {
+            @Override
+            public Response doRun() throws MendeleyException {
+                while (!isCancelled()) {
+                    Thread.yield();
+                }
+                throw new UserCancelledException();
+            }
+        };
+        request.setDeadline(Deadline.after(100, TimeUnit.MILLISECONDS));
+
+        // WHEN it runs
+        final long startMillis = System.currentTimeMillis();
+        try {
+            request.run();
+            fail("Deadline exceeded expected");
+        } catch (DeadlineExceededException expected) {
+        }
+
+        // THEN it is stopped at the deadline
+        assertTrue("Stopped at the deadline", System.currentTimeMillis() - startMillis < 5000);
+    }
+
+    @SmallTest
+    public void test_run_failsIfCancelledBefore() throws Exception {
+
+        // GIVEN a cancelled request
+        final MutableReference<Boolean> doRunCalled = new MutableReference<Boolean>();
+        final Request<Void> request = new Request<Void>(null) {
+            @Override
+            public Response doRun() throws MendeleyException {
+                doRunCalled.value = true;
+                return new Response(null, (Date) null, null);
+            }
+        };
+        request.cancel();
+
+        // WHEN it runs
+        try {
+            request.run();
+            fail("Cancellation expected");
+        } catch (UserCancelledException expected) {
+        }
+
+        // THEN it does no work
+        assertNull("doRun invoked", doRunCalled.value);
+    }
+
 }
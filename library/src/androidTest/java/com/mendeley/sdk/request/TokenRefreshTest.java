@@ -0,0 +1,188 @@
+package com.mendeley.sdk.request;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.AuthTokenManager;
+import com.mendeley.sdk.ClientCredentials;
+import com.mendeley.sdk.Deadline;
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.exceptions.DeadlineExceededException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+import com.mendeley.sdk.testUtils.InMemoryAuthTokenManager;
+
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TokenRefreshTest extends InstrumentationTestCase {
+
+    private InMemoryAuthTokenManager authTokenManager;
+    private ExecutorService executor;
+
+    // the refresh blocks until released
+    private final CountDownLatch refreshStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseRefresh = new CountDownLatch(1);
+    private final CountDownLatch refreshFinished = new CountDownLatch(1);
+    private final AtomicInteger refreshesRun = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // GIVEN an access token that has expired
+        authTokenManager = new InMemoryAuthTokenManager();
+        authTokenManager.saveTokens("expired-token", "refresh-token", "Bearer", 0);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        releaseRefresh.countDown();
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void test_run_sharesTheRefreshOfTheToken() throws Exception {
+
+        // GIVEN two requests run at the same time with the expired token
+        final Future<String> first = submit(new TestRequest(authTokenManager));
+        assertTrue(refreshStarted.await(5, TimeUnit.SECONDS));
+        final Future<String> second = submit(new TestRequest(authTokenManager));
+        Thread.sleep(100);
+
+        // WHEN the token is refreshed
+        releaseRefresh.countDown();
+
+        // THEN both requests run with the new token, refreshed once
+        assertEquals("ran with new-token", first.get(5, TimeUnit.SECONDS));
+        assertEquals("ran with new-token", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, refreshesRun.get());
+    }
+
+    @SmallTest
+    public void test_cancel_stopsWaitingForTheRefresh() throws Exception {
+
+        // GIVEN a request waiting for the refresh of the token
+        final TestRequest request = new TestRequest(authTokenManager);
+        final Future<String> result = submit(request);
+        assertTrue(refreshStarted.await(5, TimeUnit.SECONDS));
+
+        // WHEN cancelling the request
+        request.cancel();
+
+        // THEN it returns right away with the cancellation
+        assertCancelled(result, UserCancelledException.class);
+
+        // ...AND the refresh carries on, saving the new token
+        releaseRefresh.countDown();
+        assertTrue(refreshFinished.await(5, TimeUnit.SECONDS));
+        assertEquals("new-token", authTokenManager.getAccessToken());
+    }
+
+    @SmallTest
+    public void test_run_failsWhenTheDeadlineExpiresDuringTheRefresh() throws Exception {
+
+        // GIVEN a request with a deadline
+        final TestRequest request = new TestRequest(authTokenManager);
+        request.setDeadline(Deadline.after(200, TimeUnit.MILLISECONDS));
+
+        // WHEN the refresh of the token takes longer
+        final Future<String> result = submit(request);
+        assertTrue(refreshStarted.await(5, TimeUnit.SECONDS));
+
+        // THEN the request fails at its deadline
+        assertCancelled(result, DeadlineExceededException.class);
+
+        // ...AND the refresh carries on, saving the new token
+        releaseRefresh.countDown();
+        assertTrue(refreshFinished.await(5, TimeUnit.SECONDS));
+        assertEquals("new-token", authTokenManager.getAccessToken());
+    }
+
+    @SmallTest
+    public void test_run_failsWithTheErrorOfTheRefresh() throws Exception {
+
+        // GIVEN a refresh of the token that fails
+        final TestRequest request = new TestRequest(authTokenManager) {
+            @Override
+            Request<?> newRefreshTokenRequest() {
+                return new Request<Void>(null) {
+                    @Override
+                    protected Response doRun() throws MendeleyException {
+                        throw new MendeleyException("refresh failed");
+                    }
+                };
+            }
+        };
+
+        // WHEN running the request
+        try {
+            request.run();
+            fail("Request succeeded");
+        } catch (MendeleyException e) {
+            // THEN it fails with the error of the refresh
+            assertTrue(e.getMessage(), e.getMessage().startsWith("refresh failed"));
+        }
+    }
+
+    private Future<String> submit(final TestRequest request) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return request.run().resource;
+            }
+        });
+    }
+
+    private static void assertCancelled(Future<String> result, Class<? extends MendeleyException> expected) throws Exception {
+        try {
+            result.get(1, TimeUnit.SECONDS);
+            fail("Request succeeded");
+        } catch (ExecutionException e) {
+            assertEquals(expected, e.getCause().getClass());
+        }
+    }
+
+    /**
+     * Returns the access token it runs with, refreshing it with a request blocked until released.
+     */
+    private class TestRequest extends AuthorizedRequest<String> {
+
+        TestRequest(AuthTokenManager authTokenManager) {
+            super(Uri.parse("https://api.mendeley.com/test"), authTokenManager, new ClientCredentials("id", "secret"));
+        }
+
+        @Override
+        protected Response doRunAuthorized() throws MendeleyException {
+            return new Response("ran with " + authTokenManager.getAccessToken(), (Date) null, null);
+        }
+
+        @Override
+        Request<?> newRefreshTokenRequest() {
+            return new Request<Void>(null) {
+                @Override
+                protected Response doRun() throws MendeleyException {
+                    refreshesRun.incrementAndGet();
+                    refreshStarted.countDown();
+                    try {
+                        releaseRefresh.await();
+                    } catch (InterruptedException e) {
+                        throw new UserCancelledException(e);
+                    }
+                    authTokenManager.saveTokens("new-token", "new-refresh-token", "Bearer", 3600);
+                    refreshFinished.countDown();
+                    return new Response(null, (Date) null, null);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.mendeley.sdk.storage;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.model.Person;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class LibraryIndexTest extends AndroidTestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("library", ".idx");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    private static Document newDocument(String id, String title, Integer year, Person author, long lastModified) {
+        return new Document.Builder()
+                .setId(id)
+                .setTitle(title)
+                .setYear(year)
+                .setAuthors(author != null ? Collections.singletonList(author) : Collections.<Person>emptyList())
+                .setLastModified(new Date(lastModified))
+                .build();
+    }
+
+    private List<Document> getTestDocuments() {
+        return Arrays.asList(
+                newDocument("doc-b", "Beta", 2010, new Person("Anna", "Zeller"), 3000),
+                newDocument("doc-a", "alpha", null, new Person("John", "Adams"), 1000),
+                newDocument("doc-c", "Gamma", 2000, null, 2000));
+    }
+
+    private Map<String, List<String>> getTestFolders() {
+        final Map<String, List<String>> folders = new HashMap<String, List<String>>();
+        folders.put("doc-a", Arrays.asList("folder-2", "folder-1"));
+        folders.put("doc-c", Collections.singletonList("folder-2"));
+        return folders;
+    }
+
+    private static List<String> getIds(LibraryIndex index, LibraryIndex.SortOrder order) {
+        final String[] ids = new String[index.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = index.getId(index.getRecord(order, i));
+        }
+        return Arrays.asList(ids);
+    }
+
+    @SmallTest
+    public void test_open_readsWhatWasWritten() throws Exception {
+
+        // GIVEN an index written to a file
+        LibraryIndexWriter.write(file, getTestDocuments(), getTestFolders());
+
+        // WHEN opening it
+        final LibraryIndex index = LibraryIndex.open(file);
+
+        // THEN it has the values of the documents, by id
+        assertEquals(3, index.size());
+        final int record = index.find("doc-b");
+        assertEquals("doc-b", index.getId(record));
+        assertEquals("Beta", index.getTitle(record));
+        assertEquals(Integer.valueOf(2010), index.getYear(record));
+        assertEquals("Zeller", index.getFirstAuthor(record).lastName);
+        assertEquals("Anna", index.getFirstAuthor(record).firstName);
+        assertEquals(new Date(3000), index.getLastModified(record));
+        assertTrue(index.getFolderIds(record).isEmpty());
+        assertEquals(-1, index.find("doc-x"));
+
+        // ...AND the documents without year or author
+        assertNull(index.getYear(index.find("doc-a")));
+        assertNull(index.getFirstAuthor(index.find("doc-c")));
+
+        // ...AND their folders
+        final int inFolders = index.find("doc-a");
+        assertEquals(Arrays.asList("folder-1", "folder-2"), index.getFolderIds(inFolders));
+        assertTrue(index.isInFolder(inFolders, "folder-1"));
+        assertFalse(index.isInFolder(index.find("doc-c"), "folder-1"));
+        assertFalse(index.isInFolder(inFolders, "folder-x"));
+
+        // ...AND the sort orders, ignoring case and with nulls last
+        assertEquals(Arrays.asList("doc-a", "doc-b", "doc-c"), getIds(index, LibraryIndex.SortOrder.TITLE));
+        assertEquals(Arrays.asList("doc-c", "doc-b", "doc-a"), getIds(index, LibraryIndex.SortOrder.YEAR));
+        assertEquals(Arrays.asList("doc-a", "doc-b", "doc-c"), getIds(index, LibraryIndex.SortOrder.FIRST_AUTHOR));
+        assertEquals(Arrays.asList("doc-a", "doc-c", "doc-b"), getIds(index, LibraryIndex.SortOrder.LAST_MODIFIED));
+    }
+
+    @SmallTest
+    public void test_write_keepsTheLastVersionOfRepeatedDocuments() throws Exception {
+
+        // GIVEN two versions of the same document
+        final List<Document> documents = Arrays.asList(
+                newDocument("doc-a", "new title", 2010, null, 2000),
+                newDocument("doc-a", "old title", 2010, null, 1000),
+                newDocument("doc-b", "other", 2010, null, 1000));
+
+        // WHEN writing them
+        final LibraryIndex index = new LibraryIndex(ByteBuffer.wrap(LibraryIndexWriter.toByteArray(documents, getTestFolders())));
+
+        // THEN the document is indexed once, with its newest version
+        assertEquals(2, index.size());
+        assertEquals("new title", index.getTitle(index.find("doc-a")));
+        assertEquals(Arrays.asList("doc-a", "doc-b"), getIds(index, LibraryIndex.SortOrder.TITLE));
+    }
+
+    @SmallTest
+    public void test_open_rejectsTruncatedFiles() throws Exception {
+
+        // GIVEN an index that lost its last bytes
+        final byte[] bytes = LibraryIndexWriter.toByteArray(getTestDocuments(), getTestFolders());
+        final FileOutputStream os = new FileOutputStream(file);
+        os.write(bytes, 0, bytes.length - 1);
+        os.close();
+
+        // WHEN opening it
+        try {
+            LibraryIndex.open(file);
+            fail("Truncated index opened");
+        } catch (IOException e) {
+            // THEN it fails
+        }
+    }
+
+    @SmallTest
+    public void test_open_rejectsCorruptedFiles() throws Exception {
+
+        // GIVEN an empty file, a file that is not an index, and an index with a wrong offset
+        final byte[] notAnIndex = "not an index, but long enough to have a header".getBytes("UTF-8");
+        final byte[] wrongOffset = LibraryIndexWriter.toByteArray(getTestDocuments(), getTestFolders());
+        ByteBuffer.wrap(wrongOffset).putInt(24, wrongOffset.length - 4);
+
+        for (byte[] bytes : Arrays.asList(new byte[0], notAnIndex, wrongOffset)) {
+            // WHEN opening them
+            try {
+                new LibraryIndex(ByteBuffer.wrap(bytes));
+                fail("Corrupted index opened");
+            } catch (IOException e) {
+                // THEN it fails
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.mendeley.sdk.storage;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.model.Annotation;
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.model.Person;
+import com.mendeley.sdk.model.Point;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class SnapshotTest extends AndroidTestCase {
+
+    private Document getTestDocument(String id) {
+        final HashMap<String, String> identifiers = new HashMap<String, String>();
+        identifiers.put("doi", "10.1000/" + id);
+
+        return new Document.Builder()
+                .setId(id)
+                .setTitle("title of " + id)
+                .setType("journal")
+                .setYear(2014)
+                .setMonth(-1)
+                .setStarred(true)
+                .setLastModified(new Date(1393588350000L))
+                .setAuthors(Arrays.asList(new Person("first", "last"), new Person(null, "only-last")))
+                .setTags(Arrays.asList("tag1", "tag2"))
+                .setKeywords(Collections.<String>emptyList())
+                .setIdentifiers(identifiers)
+                .build();
+    }
+
+    private Annotation getTestAnnotation() {
+        final List<Annotation.Position> positions = new ArrayList<Annotation.Position>();
+        positions.add(new Annotation.Position(new Point(1.5, 2), new Point(3, 4.25), 5));
+        positions.add(new Annotation.Position(null, null, null));
+
+        return new Annotation.Builder()
+                .setId("annotation-id")
+                .setType(Annotation.Type.HIGHLIGHT)
+                .setColor(0xFFFF0000)
+                .setPositions(positions)
+                .setPrivacyLevel(Annotation.PrivacyLevel.PRIVATE)
+                .setFileHash("file-hash")
+                .setDocumentId("doc-1")
+                .build();
+    }
+
+    private byte[] write(List<Document> documents, List<Annotation> annotations) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final SnapshotWriter writer = new SnapshotWriter(os);
+        writer.writeDocuments(documents);
+        writer.writeAnnotations(annotations);
+        writer.close();
+        return os.toByteArray();
+    }
+
+    private void read(byte[] bytes, final List<Document> documents, final List<Annotation> annotations) throws IOException {
+        final SnapshotReader reader = new SnapshotReader(new ByteArrayInputStream(bytes));
+        reader.read(new SnapshotReader.Listener() {
+            @Override
+            public void onDocument(Document document) {
+                documents.add(document);
+            }
+
+            @Override
+            public void onAnnotation(Annotation annotation) {
+                annotations.add(annotation);
+            }
+        });
+        reader.close();
+    }
+
+    @SmallTest
+    public void test_snapshot_roundTripsDocumentsAndAnnotations() throws IOException {
+        // GIVEN some documents and annotations
+        final List<Document> expectedDocuments = Arrays.asList(getTestDocument("doc-1"), getTestDocument("doc-2"));
+        final List<Annotation> expectedAnnotations = Collections.singletonList(getTestAnnotation());
+
+        // WHEN we write them to a snapshot and read it back
+        final List<Document> actualDocuments = new ArrayList<Document>();
+        final List<Annotation> actualAnnotations = new ArrayList<Annotation>();
+        read(write(expectedDocuments, expectedAnnotations), actualDocuments, actualAnnotations);
+
+        // THEN we get the same documents
+        assertEquals(expectedDocuments.size(), actualDocuments.size());
+        for (int i = 0; i < expectedDocuments.size(); i++) {
+            final Document expected = expectedDocuments.get(i);
+            final Document actual = actualDocuments.get(i);
+
+            assertEquals(expected.id, actual.id);
+            assertEquals(expected.title, actual.title);
+            assertEquals(expected.type, actual.type);
+            assertEquals(expected.year, actual.year);
+            assertEquals(expected.month, actual.month);
+            assertEquals(expected.starred, actual.starred);
+            assertEquals(expected.lastModified, actual.lastModified);
+            assertEquals(expected.tags, actual.tags);
+            assertEquals(expected.identifiers, actual.identifiers);
+            assertEquals(expected.authors.size(), actual.authors.size());
+            assertEquals(expected.authors.get(1).firstName, actual.authors.get(1).firstName);
+            assertEquals(expected.authors.get(1).lastName, actual.authors.get(1).lastName);
+        }
+
+        // ...AND the same annotations
+        assertEquals(expectedAnnotations, actualAnnotations);
+    }
+
+    @SmallTest
+    public void test_snapshot_keepsNullAndEmptyCollectionsApart() throws IOException {
+        // GIVEN a document with an empty list of keywords and no editors nor websites
+        final Document expected = getTestDocument("doc-1");
+
+        // WHEN we write it to a snapshot and read it back
+        final List<Document> documents = new ArrayList<Document>();
+        read(write(Collections.singletonList(expected), Collections.<Annotation>emptyList()), documents, new ArrayList<Annotation>());
+
+        // THEN the empty list is still empty and not null
+        final Document actual = documents.get(0);
+        assertFalse(actual.keywords.isNull());
+        assertTrue(actual.keywords.isEmpty());
+
+        // ...AND the missing lists are still null
+        assertTrue(actual.editors.isNull());
+        assertTrue(actual.websites.isNull());
+
+        // ...AND the missing values are still null
+        assertNull(actual.abstractString);
+        assertNull(actual.read);
+    }
+
+    @SmallTest
+    public void test_snapshot_repeatedStrings_areWrittenOnce() throws IOException {
+        // GIVEN many documents sharing the same values
+        final String tag = "a-rather-long-shared-tag";
+        final List<Document> documents = new ArrayList<Document>();
+        for (int i = 0; i < 100; i++) {
+            documents.add(new Document.Builder()
+                    .setType("journal")
+                    .setTags(Collections.singletonList(tag))
+                    .build());
+        }
+
+        // WHEN we write them to a snapshot
+        final byte[] bytes = write(documents, Collections.<Annotation>emptyList());
+
+        // THEN each document takes fewer bytes than the tag it shares
+        assertTrue("snapshot size " + bytes.length, bytes.length < 100 * tag.length() / 2);
+    }
+
+    @SmallTest
+    public void test_snapshot_moreStringsThanTheTableHolds_areReadBack() throws IOException {
+        // GIVEN more distinct tags than fit in the string table, shared by two documents
+        final List<String> tags = new ArrayList<String>();
+        for (int i = 0; i < SnapshotFormat.MAX_STRING_TABLE_SIZE + 100; i++) {
+            tags.add("tag-" + i);
+        }
+        final List<Document> documents = Arrays.asList(
+                new Document.Builder().setId("doc-1").setTags(tags).build(),
+                new Document.Builder().setId("doc-2").setTags(tags).build());
+
+        // WHEN we write and read them
+        final List<Document> readDocuments = new ArrayList<Document>();
+        read(write(documents, Collections.<Annotation>emptyList()), readDocuments, new ArrayList<Annotation>());
+
+        // THEN all the tags are read back, whether they were in the table or not
+        assertEquals(tags, readDocuments.get(0).tags);
+        assertEquals(tags, readDocuments.get(1).tags);
+    }
+
+    @SmallTest
+    public void test_snapshot_rejectsOtherFormats() {
+        // GIVEN bytes that are not a snapshot
+        final byte[] bytes = "{\"id\": \"not a snapshot\"}".getBytes();
+
+        // WHEN we try to read them
+        try {
+            new SnapshotReader(new ByteArrayInputStream(bytes));
+            fail("Exception expected");
+        } catch (IOException e) {
+            // THEN the reader fails
+        }
+    }
+
+    @SmallTest
+    public void test_format_givesEachDocumentFieldOneBit() {
+        // GIVEN the bits of the document fields
+        final Set<Document.Field> fields = new HashSet<Document.Field>(Arrays.asList(SnapshotFormat.DOCUMENT_FIELDS));
+
+        // THEN every field has one, and only one, bit that fits in the presence bitmask
+        assertEquals(Document.Field.values().length, SnapshotFormat.DOCUMENT_FIELDS.length);
+        assertEquals(EnumSet.allOf(Document.Field.class), fields);
+        assertTrue(SnapshotFormat.DOCUMENT_FIELDS.length <= 64);
+    }
+
+    @SmallTest
+    public void test_snapshot_rejectsCountsLargerThanTheBytesLeft() throws IOException {
+        // GIVEN a snapshot whose count of tags, before the code and the length of the tag, is corrupted to a huge one
+        final byte[] bytes = write(Collections.singletonList(new Document.Builder()
+                .setTags(Collections.singletonList("tag"))
+                .build()), Collections.<Annotation>emptyList());
+        final int count = indexOf(bytes, "tag".getBytes("UTF-8")) - 3;
+        assertEquals(1, bytes[count]);
+        final byte[] corrupted = new byte[bytes.length + 4];
+        System.arraycopy(bytes, 0, corrupted, 0, count);
+        // 0x7FFFFFFF as a varint
+        System.arraycopy(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, 0, corrupted, count, 5);
+        System.arraycopy(bytes, count + 1, corrupted, count + 5, bytes.length - count - 1);
+
+        // WHEN we read it, from memory or from a stream of unknown size
+        for (InputStream is : Arrays.<InputStream>asList(
+                new ByteArrayInputStream(corrupted),
+                new BufferedInputStream(new ByteArrayInputStream(corrupted)) {
+                    @Override
+                    public synchronized int available() {
+                        return 0;
+                    }
+                })) {
+            try {
+                final SnapshotReader reader = new SnapshotReader(is);
+                reader.read(new SnapshotReader.Listener() {
+                    @Override
+                    public void onDocument(Document document) {
+                    }
+
+                    @Override
+                    public void onAnnotation(Annotation annotation) {
+                    }
+                });
+                fail("Exception expected");
+            } catch (IOException e) {
+                // THEN the reader fails, without running out of memory
+            }
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] value) {
+        for (int i = 0; i + value.length <= bytes.length; i++) {
+            if (Arrays.equals(value, Arrays.copyOfRange(bytes, i, i + value.length))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,111 @@
+package com.mendeley.sdk.sync;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.model.Annotation;
+import com.mendeley.sdk.request.endpoint.AnnotationsEndpoint;
+import com.mendeley.sdk.testUtils.FakeRequestsFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import static com.mendeley.sdk.testUtils.FakeRequestsFactory.response;
+
+public class AnnotationSyncTest extends InstrumentationTestCase {
+
+    private static Annotation newAnnotation(String id, String documentId) {
+        return new Annotation.Builder()
+                .setId(id)
+                .setDocumentId(documentId)
+                .setFileHash("hash-of-" + documentId)
+                .build();
+    }
+
+    @SmallTest
+    public void test_sync_fetchesTheAnnotationsOfFewDocumentsOneByOne() throws Exception {
+
+        // GIVEN a server with two annotations per document
+        final FakeRequestsFactory requestsFactory = new FakeRequestsFactory().on("newGetAnnotationsRequest", new FakeRequestsFactory.Handler() {
+            @Override
+            public FakeRequestsFactory.FakeResponse handle(Object[] args) {
+                final String documentId = ((AnnotationsEndpoint.AnnotationRequestParameters) args[0]).documentId;
+                assertNotNull(documentId);
+                return response(Arrays.asList(newAnnotation(documentId + "-a", documentId), newAnnotation(documentId + "-b", documentId)), new Date(1000), null);
+            }
+        });
+
+        // WHEN syncing a few documents for the first time
+        final AnnotationSync.Result result = new AnnotationSync(requestsFactory.create()).sync(Arrays.asList("doc-1", "doc-2"), null, null);
+
+        // THEN each document is requested on its own
+        assertEquals(2, requestsFactory.getRuns("newGetAnnotationsRequest").size());
+
+        // ...AND the annotations are grouped by document and file
+        assertEquals(new HashSet<String>(Arrays.asList("doc-1", "doc-2")), result.getDocumentIds());
+        assertEquals(2, result.getByDocumentId("doc-1").size());
+        assertEquals(2, result.getByFileHash("hash-of-doc-2").size());
+        assertEquals(new Date(1000), result.syncDate);
+    }
+
+    @SmallTest
+    public void test_sync_toleratesResponsesWithoutDate() throws Exception {
+
+        // GIVEN a server that doesn't send the date of some responses
+        final FakeRequestsFactory requestsFactory = new FakeRequestsFactory().on("newGetAnnotationsRequest", new FakeRequestsFactory.Handler() {
+            @Override
+            public FakeRequestsFactory.FakeResponse handle(Object[] args) {
+                final String documentId = ((AnnotationsEndpoint.AnnotationRequestParameters) args[0]).documentId;
+                return response(Collections.emptyList(), documentId.equals("doc-1") ? new Date(1000) : null, null);
+            }
+        });
+
+        // WHEN syncing documents one by one
+        final AnnotationSync.Result result = new AnnotationSync(requestsFactory.create()).sync(Arrays.asList("doc-1", "doc-2", "doc-3"), null, null);
+
+        // THEN the sync date is the one received
+        assertEquals(new Date(1000), result.syncDate);
+    }
+
+    @SmallTest
+    public void test_sync_filtersTheChangesOfTheLibrary() throws Exception {
+
+        // GIVEN a group with annotations modified and deleted since the previous sync
+        final Date since = new Date(1000);
+        final List<AnnotationsEndpoint.AnnotationRequestParameters> requested = new ArrayList<AnnotationsEndpoint.AnnotationRequestParameters>();
+        final FakeRequestsFactory requestsFactory = new FakeRequestsFactory().on("newGetAnnotationsRequest", new FakeRequestsFactory.Handler() {
+            @Override
+            public FakeRequestsFactory.FakeResponse handle(Object[] args) {
+                final AnnotationsEndpoint.AnnotationRequestParameters params = (AnnotationsEndpoint.AnnotationRequestParameters) args[0];
+                requested.add(params);
+                if (params.deletedSince != null) {
+                    return response(Collections.singletonList(newAnnotation("deleted", null)), new Date(2000), null);
+                }
+                return response(Arrays.asList(
+                        newAnnotation("a", "doc-1"),
+                        newAnnotation("b", "doc-2"),
+                        newAnnotation("c", "other-doc")), new Date(2000), null);
+            }
+        });
+
+        // WHEN syncing some of its documents
+        final AnnotationSync.Result result = new AnnotationSync(requestsFactory.create()).sync(Arrays.asList("doc-1", "doc-2"), since, "group-1");
+
+        // THEN the changes are requested for the whole group
+        assertEquals(2, requested.size());
+        for (AnnotationsEndpoint.AnnotationRequestParameters params : requested) {
+            assertEquals("group-1", params.groupId);
+            assertNull(params.documentId);
+        }
+
+        // ...AND only those of the documents are returned, with all the deletions
+        assertEquals(2, result.getModified().size());
+        assertEquals(new HashSet<String>(Arrays.asList("doc-1", "doc-2")), result.getDocumentIds());
+        assertEquals(Collections.singleton("deleted"), result.getDeletedIds());
+        assertEquals(new Date(2000), result.syncDate);
+    }
+}
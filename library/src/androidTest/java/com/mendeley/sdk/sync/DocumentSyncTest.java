@@ -0,0 +1,159 @@
+package com.mendeley.sdk.sync;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.request.endpoint.DocumentEndpoint;
+import com.mendeley.sdk.testUtils.FakeRequestsFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mendeley.sdk.testUtils.FakeRequestsFactory.response;
+
+public class DocumentSyncTest extends InstrumentationTestCase {
+
+    private static final int PAGE_SIZE = 10;
+    private static final Date SERVER_DATE = new Date(100000);
+
+    private final List<Document> library = new ArrayList<Document>();
+    private final List<Document> deleted = new ArrayList<Document>();
+
+    private static Document newDocument(String id, long lastModifiedMillis) {
+        return new Document.Builder().setId(id).setTitle("title").setLastModified(new Date(lastModifiedMillis)).build();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // a document modified each second
+        for (int i = 0; i < 100; i++) {
+            library.add(newDocument("doc-" + i, i * 1000));
+        }
+    }
+
+    /**
+     * Serves the library, sorted by modification date, in pages of {@link #PAGE_SIZE}.
+     */
+    private FakeRequestsFactory newRequestsFactory() {
+        return new FakeRequestsFactory().on("newGetDocumentsRequest", new FakeRequestsFactory.Handler() {
+            @Override
+            public FakeRequestsFactory.FakeResponse handle(Object[] args) {
+                if (args[0] instanceof Uri) {
+                    final Uri next = (Uri) args[0];
+                    return page(Long.parseLong(next.getQueryParameter("since")), Integer.parseInt(next.getQueryParameter("offset")), PAGE_SIZE);
+                }
+                final DocumentEndpoint.DocumentRequestParameters params = (DocumentEndpoint.DocumentRequestParameters) args[0];
+                if (params.deletedSince != null) {
+                    return response(deleted, SERVER_DATE, null);
+                }
+                assertEquals(DocumentEndpoint.DocumentRequestParameters.Sort.MODIFIED, params.sort);
+                assertEquals(DocumentEndpoint.DocumentRequestParameters.Order.ASC, params.order);
+                final long since = params.modifiedSince != null ? params.modifiedSince.getTime() : Long.MIN_VALUE;
+                return page(since, 0, Math.min(params.limit, PAGE_SIZE));
+            }
+        });
+    }
+
+    private FakeRequestsFactory.FakeResponse page(long since, int offset, int size) {
+        final List<Document> modified = new ArrayList<Document>();
+        for (Document document : library) {
+            if (document.lastModified.getTime() >= since) {
+                modified.add(document);
+            }
+        }
+        Collections.sort(modified, new Comparator<Document>() {
+            @Override
+            public int compare(Document lhs, Document rhs) {
+                return lhs.lastModified.compareTo(rhs.lastModified);
+            }
+        });
+
+        final int end = Math.min(offset + size, modified.size());
+        final Uri next = end < modified.size() ? Uri.parse("page?since=" + since + "&offset=" + end) : null;
+        return response(new ArrayList<Document>(modified.subList(offset, end)), SERVER_DATE, next);
+    }
+
+    private static Map<String, Document> byId(List<Document> documents) {
+        final Map<String, Document> byId = new HashMap<String, Document>();
+        for (Document document : documents) {
+            assertNull("Repeated " + document.id, byId.put(document.id, document));
+        }
+        return byId;
+    }
+
+    @SmallTest
+    public void test_sync_fetchesTheWindowsUpToTheirEnd() throws Exception {
+
+        // GIVEN a library of 100 documents, one of them modified again during the sync
+        library.add(newDocument("doc-5", 99500));
+
+        // WHEN syncing it for the first time in 4 windows
+        final FakeRequestsFactory requestsFactory = newRequestsFactory();
+        final DocumentSync.Result result = new DocumentSync(requestsFactory.create(), 4, 4).sync(null, null);
+
+        // THEN each window stops at the page that reaches the next one: 3 pages of 10 per window, after the first request
+        assertEquals(1 + 4 * 3, requestsFactory.getRuns("newGetDocumentsRequest").size());
+
+        // ...AND all the documents are fetched once, in their latest version
+        final Map<String, Document> documents = byId(result.getModified());
+        assertEquals(100, documents.size());
+        assertEquals(new Date(99500), documents.get("doc-5").lastModified);
+        assertEquals(SERVER_DATE, result.syncDate);
+    }
+
+    @SmallTest
+    public void test_sync_appliesTheDeletions() throws Exception {
+
+        // GIVEN a library with a document modified and then deleted since the previous sync
+        deleted.add(new Document.Builder().setId("doc-95").build());
+
+        // WHEN syncing it
+        final DocumentSync.Result result = new DocumentSync(newRequestsFactory().create(), 4, 4).sync(new Date(90000), null);
+
+        // THEN the document is only reported as deleted
+        final Map<String, Document> documents = byId(result.getModified());
+        assertEquals(9, documents.size());
+        assertFalse(documents.containsKey("doc-95"));
+        assertEquals(Collections.singleton("doc-95"), result.getDeletedIds());
+    }
+
+    @SmallTest
+    public void test_windowBoundaries_splitsThePeriodInEqualWindows() throws Exception {
+
+        // GIVEN a period of 100 seconds
+        final Date start = new Date(1000000);
+        final Date end = new Date(1100000);
+
+        // WHEN splitting it in 4 windows
+        final Date[] boundaries = DocumentSync.windowBoundaries(start, end, 4);
+
+        // THEN the windows start every 25 seconds from the start of the period
+        assertEquals(4, boundaries.length);
+        assertEquals(start, boundaries[0]);
+        assertEquals(new Date(1025000), boundaries[1]);
+        assertEquals(new Date(1050000), boundaries[2]);
+        assertEquals(new Date(1075000), boundaries[3]);
+    }
+
+    @SmallTest
+    public void test_windowBoundaries_returnsOneWindowForAnEmptyPeriod() throws Exception {
+
+        // GIVEN a period that ends when it starts
+        final Date date = new Date(1000000);
+
+        // WHEN splitting it
+        final Date[] boundaries = DocumentSync.windowBoundaries(date, date, 4);
+
+        // THEN there is only one window
+        assertEquals(1, boundaries.length);
+        assertEquals(date, boundaries[0]);
+    }
+}
@@ -0,0 +1,198 @@
+package com.mendeley.sdk.sync;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.model.Group;
+import com.mendeley.sdk.request.endpoint.DocumentEndpoint;
+import com.mendeley.sdk.testUtils.FakeRequestsFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mendeley.sdk.testUtils.FakeRequestsFactory.response;
+
+public class LibrarySyncCoordinatorTest extends InstrumentationTestCase {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int LIBRARY_SIZE = 30;
+    private static final Date SERVER_DATE = new Date(100000);
+
+    // the libraries of the pages served, in order, "user" standing for the user library
+    private final List<String> servedPages = Collections.synchronizedList(new ArrayList<String>());
+
+    private final Map<String, DocumentSync.Result> synced = new HashMap<String, DocumentSync.Result>();
+    private final List<String> failed = new ArrayList<String>();
+    private final List<String> removed = new ArrayList<String>();
+
+    private final LibrarySyncCoordinator.Listener listener = new LibrarySyncCoordinator.Listener() {
+        @Override
+        public void onLibrarySynced(String groupId, DocumentSync.Result changes) {
+            synced.put(groupId, changes);
+        }
+
+        @Override
+        public void onLibraryFailed(String groupId, MendeleyException exception) {
+            failed.add(groupId);
+        }
+
+        @Override
+        public void onLibraryRemoved(String groupId) {
+            removed.add(groupId);
+        }
+    };
+
+    /**
+     * Serves the groups, and libraries of {@link #LIBRARY_SIZE} documents, one modified each
+     * second, in pages of {@link #PAGE_SIZE}. The libraries of the failing groups are forbidden.
+     */
+    private FakeRequestsFactory newRequestsFactory(final List<String> groupIds, final String... failingGroupIds) {
+        return new FakeRequestsFactory()
+                .on("newGetGroupsRequest", new FakeRequestsFactory.Handler() {
+                    @Override
+                    public FakeRequestsFactory.FakeResponse handle(Object[] args) {
+                        final List<Group> groups = new ArrayList<Group>();
+                        for (String groupId : groupIds) {
+                            groups.add(new Group.Builder().setId(groupId).setName(groupId).build());
+                        }
+                        return response(groups, SERVER_DATE, null);
+                    }
+                })
+                .on("newGetDocumentsRequest", new FakeRequestsFactory.Handler() {
+                    @Override
+                    public FakeRequestsFactory.FakeResponse handle(Object[] args) throws MendeleyException {
+                        if (args[0] instanceof Uri) {
+                            final Uri next = (Uri) args[0];
+                            return page(next.getQueryParameter("group"), Long.parseLong(next.getQueryParameter("since")), Integer.parseInt(next.getQueryParameter("offset")), PAGE_SIZE);
+                        }
+                        final DocumentEndpoint.DocumentRequestParameters params = (DocumentEndpoint.DocumentRequestParameters) args[0];
+                        if (Arrays.asList(failingGroupIds).contains(params.groupId)) {
+                            throw new HttpResponseException(403, "forbidden", "url");
+                        }
+                        if (params.deletedSince != null) {
+                            return response(Collections.emptyList(), SERVER_DATE, null);
+                        }
+                        final long since = params.modifiedSince != null ? params.modifiedSince.getTime() : Long.MIN_VALUE;
+                        return page(params.groupId, since, 0, Math.min(params.limit, PAGE_SIZE));
+                    }
+                });
+    }
+
+    private FakeRequestsFactory.FakeResponse page(String groupId, long since, int offset, int size) {
+        servedPages.add(groupId != null ? groupId : "user");
+
+        final List<Document> modified = new ArrayList<Document>();
+        for (int i = 0; i < LIBRARY_SIZE; i++) {
+            if (i * 1000 >= since) {
+                modified.add(new Document.Builder().setId(groupId + "-doc-" + i).setTitle("title").setLastModified(new Date(i * 1000)).build());
+            }
+        }
+
+        final int end = Math.min(offset + size, modified.size());
+        Uri next = null;
+        if (end < modified.size()) {
+            next = Uri.parse("page?since=" + since + "&offset=" + end + (groupId != null ? "&group=" + groupId : ""));
+        }
+        return response(new ArrayList<Document>(modified.subList(offset, end)), SERVER_DATE, next);
+    }
+
+    @SmallTest
+    public void test_sync_interleavesThePagesOfTheLibraries() throws Exception {
+
+        // GIVEN a user with a group as big as the user library
+        final FakeRequestsFactory requestsFactory = newRequestsFactory(Collections.singletonList("group-1"));
+
+        // WHEN syncing them with one thread
+        new LibrarySyncCoordinator(requestsFactory.create(), 1, 1, Collections.<String, Date>emptyMap()).sync(null, listener);
+
+        // THEN the libraries take turns, starting from the user one
+        assertEquals(Arrays.asList(
+                "user", "group-1",
+                "user", "group-1",
+                "user", "group-1",
+                "user", "group-1"), servedPages);
+
+        // ...AND both are synced
+        assertEquals(LIBRARY_SIZE, synced.get(null).getModified().size());
+        assertEquals(LIBRARY_SIZE, synced.get("group-1").getModified().size());
+    }
+
+    @SmallTest
+    public void test_sync_advancesTheWatermarks() throws Exception {
+
+        // GIVEN a user library synced before
+        final Map<String, Date> watermarks = new HashMap<String, Date>();
+        watermarks.put(null, new Date(25000));
+        final FakeRequestsFactory requestsFactory = newRequestsFactory(Collections.singletonList("group-1"));
+
+        // WHEN syncing it with a new group
+        final LibrarySyncCoordinator coordinator = new LibrarySyncCoordinator(requestsFactory.create(), 2, 2, watermarks);
+        coordinator.sync(null, listener);
+
+        // THEN only the changes since the previous sync of the user library are fetched
+        assertEquals(5, synced.get(null).getModified().size());
+        assertEquals(LIBRARY_SIZE, synced.get("group-1").getModified().size());
+
+        // ...AND the watermarks of both libraries are the date of the server
+        assertEquals(SERVER_DATE, coordinator.getWatermark(null));
+        assertEquals(SERVER_DATE, coordinator.getWatermark("group-1"));
+    }
+
+    @SmallTest
+    public void test_sync_isolatesTheFailuresOfLibraries() throws Exception {
+
+        // GIVEN two groups synced before, one of them forbidden now
+        final Date previousSync = new Date(50000);
+        final Map<String, Date> watermarks = new HashMap<String, Date>();
+        watermarks.put("group-1", previousSync);
+        watermarks.put("group-2", previousSync);
+        final FakeRequestsFactory requestsFactory = newRequestsFactory(Arrays.asList("group-1", "group-2"), "group-2");
+
+        // WHEN syncing
+        final LibrarySyncCoordinator coordinator = new LibrarySyncCoordinator(requestsFactory.create(), 2, 2, watermarks);
+        coordinator.sync(null, listener);
+
+        // THEN the failure is reported, without stopping the sync of the other libraries
+        assertEquals(Collections.singletonList("group-2"), failed);
+        assertTrue(synced.containsKey(null));
+        assertTrue(synced.containsKey("group-1"));
+        assertFalse(synced.containsKey("group-2"));
+
+        // ...AND only the failed library keeps its old watermark
+        assertEquals(SERVER_DATE, coordinator.getWatermark("group-1"));
+        assertEquals(previousSync, coordinator.getWatermark("group-2"));
+    }
+
+    @SmallTest
+    public void test_sync_reportsTheGroupsTheUserLeft() throws Exception {
+
+        // GIVEN a group synced before, that the user has left
+        final Map<String, Date> watermarks = new HashMap<String, Date>();
+        watermarks.put(null, new Date(50000));
+        watermarks.put("group-left", new Date(50000));
+        final FakeRequestsFactory requestsFactory = newRequestsFactory(Collections.singletonList("group-1"));
+
+        // WHEN syncing
+        final LibrarySyncCoordinator coordinator = new LibrarySyncCoordinator(requestsFactory.create(), 2, 2, watermarks);
+        coordinator.sync(null, listener);
+
+        // THEN the group is reported as removed, and not synced
+        assertEquals(Collections.singletonList("group-left"), removed);
+        assertFalse(synced.containsKey("group-left"));
+
+        // ...AND its watermark is dropped
+        final Map<String, Date> expected = new HashMap<String, Date>();
+        expected.put(null, SERVER_DATE);
+        expected.put("group-1", SERVER_DATE);
+        assertEquals(expected, coordinator.getWatermarks());
+    }
+}
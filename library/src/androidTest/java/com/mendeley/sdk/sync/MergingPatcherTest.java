@@ -0,0 +1,172 @@
+package com.mendeley.sdk.sync;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.PatchConflictException;
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.testUtils.FakeRequestsFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static com.mendeley.sdk.testUtils.FakeRequestsFactory.response;
+
+public class MergingPatcherTest extends InstrumentationTestCase {
+
+    private static final String DOCUMENT_ID = "doc-1";
+
+    private FakeRequestsFactory requestsFactory;
+
+    // the current version in the server
+    private volatile Document remote;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        requestsFactory = new FakeRequestsFactory()
+                .on("newPatchDocumentRequest", new FakeRequestsFactory.Handler() {
+                    @Override
+                    public FakeRequestsFactory.FakeResponse handle(Object[] args) throws MendeleyException {
+                        if (!args[1].equals(remote.lastModified)) {
+                            throw new HttpResponseException(412, "Precondition Failed", "url");
+                        }
+                        return response(args[2]);
+                    }
+                })
+                .on("newGetDocumentRequest", new FakeRequestsFactory.Handler() {
+                    @Override
+                    public FakeRequestsFactory.FakeResponse handle(Object[] args) {
+                        return response(remote);
+                    }
+                });
+    }
+
+    private static Document.Builder newDocument(long lastModified) {
+        return new Document.Builder()
+                .setId(DOCUMENT_ID)
+                .setTitle("title")
+                .setNotes("notes")
+                .setTags(Collections.singletonList("tag"))
+                .setLastModified(new Date(lastModified));
+    }
+
+    private Document getPatchedChanges(int run) {
+        return (Document) requestsFactory.getRuns("newPatchDocumentRequest").get(run)[2];
+    }
+
+    @SmallTest
+    public void test_patchDocument_sendsTheChangeOnceIfTheServerWasNotModified() throws Exception {
+
+        // GIVEN a document not modified in the server
+        final Document base = newDocument(1000).build();
+        remote = base;
+
+        // WHEN patching it
+        final Document changes = new Document.Builder().setTitle("new title").build();
+        new MergingPatcher(requestsFactory.create()).patchDocument(base, changes);
+
+        // THEN the change is sent as it is, with the date of the base
+        final List<Object[]> patches = requestsFactory.getRuns("newPatchDocumentRequest");
+        assertEquals(1, patches.size());
+        assertEquals(new Date(1000), patches.get(0)[1]);
+        assertSame(changes, patches.get(0)[2]);
+        assertTrue(requestsFactory.getRuns("newGetDocumentRequest").isEmpty());
+    }
+
+    @SmallTest
+    public void test_patchDocument_keepsTheFieldsChangedOnlyInTheServer() throws Exception {
+
+        // GIVEN a document whose notes were changed in the server
+        final Document base = newDocument(1000).build();
+        remote = newDocument(2000).setNotes("server notes").build();
+
+        // WHEN changing its title
+        new MergingPatcher(requestsFactory.create()).patchDocument(base, new Document.Builder().setTitle("new title").build());
+
+        // THEN the title is patched again with the date of the server version
+        final List<Object[]> patches = requestsFactory.getRuns("newPatchDocumentRequest");
+        assertEquals(2, patches.size());
+        assertEquals(new Date(2000), patches.get(1)[1]);
+        assertEquals("new title", getPatchedChanges(1).title);
+
+        // ...AND the notes of the server are not overwritten
+        assertNull(getPatchedChanges(1).notes);
+    }
+
+    @SmallTest
+    public void test_patchDocument_returnsTheServerVersionIfItHasTheSameChanges() throws Exception {
+
+        // GIVEN a document whose title was changed in the server
+        final Document base = newDocument(1000).build();
+        remote = newDocument(2000).setTitle("new title").build();
+
+        // WHEN changing it to the same title
+        final Document patched = new MergingPatcher(requestsFactory.create()).patchDocument(base, new Document.Builder().setTitle("new title").build());
+
+        // THEN nothing else is sent
+        assertSame(remote, patched);
+        assertEquals(1, requestsFactory.getRuns("newPatchDocumentRequest").size());
+    }
+
+    @SmallTest
+    public void test_patchDocument_failsIfTheSameFieldWasChangedInTheServer() throws Exception {
+
+        // GIVEN a document whose title was changed in the server
+        final Document base = newDocument(1000).build();
+        remote = newDocument(2000).setTitle("server title").setNotes("server notes").build();
+
+        // WHEN changing its title to another value
+        final Document changes = new Document.Builder().setTitle("local title").setNotes("notes").build();
+        try {
+            new MergingPatcher(requestsFactory.create()).patchDocument(base, changes);
+            fail("Conflicting change patched");
+        } catch (PatchConflictException e) {
+            // THEN it fails with the three versions and only the conflicting field
+            assertSame(base, e.base);
+            assertSame(changes, e.local);
+            assertSame(remote, e.remote);
+            assertEquals(Collections.singleton("title"), e.conflictingFields);
+        }
+
+        // ...AND the change is not sent again
+        assertEquals(1, requestsFactory.getRuns("newPatchDocumentRequest").size());
+    }
+
+    @SmallTest
+    public void test_patchDocument_leavesNullCollectionsUnchangedAndClearsEmptyOnes() throws Exception {
+
+        // GIVEN a document whose tags were changed in the server
+        final Document base = newDocument(1000).build();
+        remote = newDocument(2000).setTags(Arrays.asList("tag", "server tag")).build();
+
+        // WHEN patching it with null tags
+        new MergingPatcher(requestsFactory.create()).patchDocument(base, new Document.Builder().setTitle("new title").setTags(null).build());
+
+        // THEN the tags are not part of the change, so they don't conflict
+        assertEquals(2, requestsFactory.getRuns("newPatchDocumentRequest").size());
+        assertTrue(getPatchedChanges(1).tags.isNull());
+
+        // WHEN patching it with empty tags
+        try {
+            new MergingPatcher(requestsFactory.create()).patchDocument(base, new Document.Builder().setTags(Collections.<String>emptyList()).build());
+            fail("Conflicting change patched");
+        } catch (PatchConflictException e) {
+            // THEN the tags are cleared, so they conflict with the ones of the server
+            assertEquals(Collections.singleton("tags"), e.conflictingFields);
+        }
+
+        // WHEN the server didn't change the tags
+        remote = newDocument(2000).setNotes("server notes").build();
+        new MergingPatcher(requestsFactory.create()).patchDocument(base, new Document.Builder().setTags(Collections.<String>emptyList()).build());
+
+        // THEN they are cleared
+        final Document cleared = getPatchedChanges(4);
+        assertFalse(cleared.tags.isNull());
+        assertTrue(cleared.tags.isEmpty());
+    }
+}
@@ -0,0 +1,356 @@
+package com.mendeley.sdk.sync;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.PatchConflictException;
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.model.Folder;
+import com.mendeley.sdk.testUtils.FakeRequestsFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.mendeley.sdk.testUtils.FakeRequestsFactory.response;
+
+public class OutboxTest extends InstrumentationTestCase {
+
+    private File file;
+    private FakeRequestsFactory requestsFactory;
+    private final List<Outbox.Mutation> replayed = new ArrayList<Outbox.Mutation>();
+    private final List<Outbox.Mutation> rejected = new ArrayList<Outbox.Mutation>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("outbox", ".json");
+        file.delete();
+        requestsFactory = new FakeRequestsFactory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    private Outbox newOutbox() throws Exception {
+        final Outbox outbox = new Outbox(requestsFactory.create(), file);
+        outbox.setListener(new Outbox.Listener() {
+            @Override
+            public void onReplayed(Outbox.Mutation mutation, Object result) {
+                replayed.add(mutation);
+            }
+
+            @Override
+            public void onRejected(Outbox.Mutation mutation, MendeleyException exception) {
+                rejected.add(mutation);
+            }
+        });
+        return outbox;
+    }
+
+    private static Document.Builder newDocument(long lastModified) {
+        return new Document.Builder()
+                .setId("doc-1")
+                .setTitle("title")
+                .setNotes("notes")
+                .setLastModified(new Date(lastModified));
+    }
+
+    // a server whose version of the document is the passed one
+    private void onServerDocument(final Document remote) {
+        requestsFactory
+                .on("newPatchDocumentRequest", new FakeRequestsFactory.Handler() {
+                    @Override
+                    public FakeRequestsFactory.FakeResponse handle(Object[] args) throws MendeleyException {
+                        if (!remote.lastModified.equals(args[1])) {
+                            throw new HttpResponseException(412, "Precondition Failed", "url");
+                        }
+                        return response(args[2]);
+                    }
+                })
+                .on("newGetDocumentRequest", new FakeRequestsFactory.Handler() {
+                    @Override
+                    public FakeRequestsFactory.FakeResponse handle(Object[] args) {
+                        return response(remote);
+                    }
+                });
+    }
+
+    private static Folder newFolder(String id) {
+        return new Folder.Builder().setId(id).setName("folder").build();
+    }
+
+    private FakeRequestsFactory.Handler failingWith(final int httpCode) {
+        return new FakeRequestsFactory.Handler() {
+            @Override
+            public FakeRequestsFactory.FakeResponse handle(Object[] args) throws MendeleyException {
+                throw new HttpResponseException(httpCode, "failed", "url");
+            }
+        };
+    }
+
+    @SmallTest
+    public void test_add_queuesChangesInOrder() throws Exception {
+
+        // GIVEN an outbox
+        final Outbox outbox = newOutbox();
+
+        // WHEN adding changes
+        outbox.trashDocument("doc-1");
+        outbox.addDocumentToFolder("folder-1", "doc-2");
+
+        // THEN they are pending in order
+        final List<Outbox.Mutation> pending = outbox.getPending();
+        assertEquals(2, pending.size());
+        assertEquals(Outbox.Mutation.Type.TRASH_DOCUMENT, pending.get(0).type);
+        assertEquals("doc-1", pending.get(0).id);
+        assertEquals(Outbox.Mutation.Type.ADD_DOCUMENT_TO_FOLDER, pending.get(1).type);
+        assertEquals("folder-1", pending.get(1).id);
+        assertEquals("doc-2", pending.get(1).documentId);
+    }
+
+    @SmallTest
+    public void test_add_deletionOfSomethingCreatedOfflineDropsItsChanges() throws Exception {
+
+        // GIVEN a folder created offline, with a document
+        final Outbox outbox = newOutbox();
+        final String folderId = Outbox.newTemporaryId();
+        outbox.postFolder(newFolder(folderId));
+        outbox.addDocumentToFolder(folderId, "doc-1");
+        outbox.trashDocument("doc-2");
+
+        // WHEN deleting it
+        outbox.deleteFolder(folderId);
+
+        // THEN only the changes not about the folder are pending
+        final List<Outbox.Mutation> pending = outbox.getPending();
+        assertEquals(1, pending.size());
+        assertEquals("doc-2", pending.get(0).id);
+    }
+
+    @SmallTest
+    public void test_replay_usesTheServerIdsOfWhatItCreates() throws Exception {
+
+        // GIVEN a folder created offline, with a document
+        final Outbox outbox = newOutbox();
+        final String folderId = Outbox.newTemporaryId();
+        outbox.postFolder(newFolder(folderId));
+        outbox.addDocumentToFolder(folderId, "doc-1");
+        requestsFactory
+                .on("newPostFolderRequest", new FakeRequestsFactory.Handler() {
+                    @Override
+                    public FakeRequestsFactory.FakeResponse handle(Object[] args) {
+                        assertNull(((Folder) args[0]).id);
+                        return response(newFolder("server-folder"));
+                    }
+                })
+                .on("newPostDocumentToFolderRequest", new FakeRequestsFactory.Handler() {
+                    @Override
+                    public FakeRequestsFactory.FakeResponse handle(Object[] args) {
+                        return response(null);
+                    }
+                });
+
+        // WHEN replaying the changes
+        final boolean completed = outbox.replay();
+
+        // THEN the document is added to the folder with the id given by the server
+        assertTrue(completed);
+        assertEquals("server-folder", requestsFactory.getRuns("newPostDocumentToFolderRequest").get(0)[0]);
+        assertEquals("server-folder", outbox.getServerId(folderId));
+        assertTrue(outbox.getPending().isEmpty());
+        assertEquals(2, replayed.size());
+    }
+
+    @SmallTest
+    public void test_replay_keepsChangesThatFailTemporarily() throws Exception {
+
+        // GIVEN changes that fail for reasons that go away: an expired token, a timeout and throttling
+        for (int httpCode : new int[]{401, 408, 429, 503}) {
+            file.delete();
+            final Outbox outbox = newOutbox();
+            outbox.trashDocument("doc-1");
+            requestsFactory.on("newTrashDocumentRequest", failingWith(httpCode));
+
+            // WHEN replaying them
+            final boolean completed = outbox.replay();
+
+            // THEN they are still pending
+            assertFalse(completed);
+            assertEquals(1, outbox.getPending().size());
+            assertTrue(rejected.isEmpty());
+        }
+    }
+
+    @SmallTest
+    public void test_replay_confirmsTheChangesSentWhenInterrupted() throws Exception {
+
+        // GIVEN changes whose requests block until released
+        final Outbox outbox = newOutbox();
+        outbox.trashDocument("doc-1");
+        outbox.trashDocument("doc-2");
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        requestsFactory.on("newTrashDocumentRequest", new FakeRequestsFactory.Handler() {
+            @Override
+            public FakeRequestsFactory.FakeResponse handle(Object[] args) throws MendeleyException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new MendeleyException("Interrupted", e);
+                }
+                return response(null);
+            }
+        });
+
+        // WHEN the thread replaying them is interrupted while they are being sent
+        final AtomicBoolean completed = new AtomicBoolean(true);
+        final AtomicBoolean keptInterrupted = new AtomicBoolean();
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    completed.set(outbox.replay());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                keptInterrupted.set(isInterrupted());
+            }
+        };
+        thread.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        thread.interrupt();
+        Thread.sleep(50);
+        release.countDown();
+        thread.join(5000);
+
+        // THEN the replay stops, keeping the interrupted status
+        assertFalse(completed.get());
+        assertTrue(keptInterrupted.get());
+
+        // ...AND the changes sent are not pending, so they are not sent again
+        assertTrue(outbox.getPending().isEmpty());
+        assertEquals(2, replayed.size());
+        assertTrue(newOutbox().getPending().isEmpty());
+    }
+
+    @SmallTest
+    public void test_replay_dropsRejectedChangesAndTheirDependents() throws Exception {
+
+        // GIVEN a folder created offline, with a document, that the server doesn't accept
+        final Outbox outbox = newOutbox();
+        final String folderId = Outbox.newTemporaryId();
+        outbox.postFolder(newFolder(folderId));
+        outbox.addDocumentToFolder(folderId, "doc-1");
+        requestsFactory.on("newPostFolderRequest", failingWith(400));
+
+        // WHEN replaying the changes
+        final boolean completed = outbox.replay();
+
+        // THEN both are rejected, without trying to add the document
+        assertTrue(completed);
+        assertTrue(outbox.getPending().isEmpty());
+        assertEquals(2, rejected.size());
+        assertTrue(requestsFactory.getRuns("newPostDocumentToFolderRequest").isEmpty());
+    }
+
+    @SmallTest
+    public void test_replay_mergesPatchesWithTheChangesDoneInTheServer() throws Exception {
+
+        // GIVEN a document patched offline, whose notes were changed in the server meanwhile
+        final Document base = newDocument(1000).build();
+        newOutbox().patchDocument(base, new Document.Builder().setTitle("new title").build());
+        onServerDocument(newDocument(2000).setNotes("server notes").build());
+
+        // WHEN replaying the patch from another outbox on the same file
+        final boolean completed = newOutbox().replay();
+
+        // THEN it's sent again with the date of the server version, and only the changed title
+        assertTrue(completed);
+        assertEquals(1, replayed.size());
+        assertTrue(rejected.isEmpty());
+        final List<Object[]> patches = requestsFactory.getRuns("newPatchDocumentRequest");
+        assertEquals(2, patches.size());
+        assertEquals(new Date(2000), patches.get(1)[1]);
+        assertEquals("new title", ((Document) patches.get(1)[2]).title);
+        assertNull(((Document) patches.get(1)[2]).notes);
+    }
+
+    @SmallTest
+    public void test_replay_rejectsConflictingPatches() throws Exception {
+
+        // GIVEN a document patched offline, whose title was changed in the server meanwhile
+        final Outbox outbox = newOutbox();
+        outbox.patchDocument(newDocument(1000).build(), new Document.Builder().setTitle("local title").build());
+        onServerDocument(newDocument(2000).setTitle("server title").build());
+        final List<MendeleyException> exceptions = new ArrayList<MendeleyException>();
+        outbox.setListener(new Outbox.Listener() {
+            @Override
+            public void onReplayed(Outbox.Mutation mutation, Object result) {
+                replayed.add(mutation);
+            }
+
+            @Override
+            public void onRejected(Outbox.Mutation mutation, MendeleyException exception) {
+                exceptions.add(exception);
+            }
+        });
+
+        // WHEN replaying it
+        final boolean completed = outbox.replay();
+
+        // THEN it's dropped, reporting the conflict
+        assertTrue(completed);
+        assertTrue(outbox.getPending().isEmpty());
+        assertTrue(replayed.isEmpty());
+        assertEquals(1, exceptions.size());
+        assertTrue(exceptions.get(0) instanceof PatchConflictException);
+    }
+
+    @SmallTest
+    public void test_load_restoresPendingChangesAndServerIds() throws Exception {
+
+        // GIVEN an outbox that created a folder, but failed to add a document to it
+        final Outbox outbox = newOutbox();
+        final String folderId = Outbox.newTemporaryId();
+        final Date date = new Date(1393588350000L);
+        outbox.postFolder(newFolder(folderId));
+        outbox.addDocumentToFolder(folderId, "doc-1");
+        outbox.patchDocument("doc-2", date, new Document.Builder().setId("doc-2").setTitle("title").build());
+        requestsFactory
+                .on("newPostFolderRequest", new FakeRequestsFactory.Handler() {
+                    @Override
+                    public FakeRequestsFactory.FakeResponse handle(Object[] args) {
+                        return response(newFolder("server-folder"));
+                    }
+                })
+                .on("newPostDocumentToFolderRequest", failingWith(500))
+                .on("newPatchDocumentRequest", failingWith(500));
+        outbox.replay();
+        outbox.close();
+
+        // WHEN creating another outbox on the same file
+        final Outbox reloaded = newOutbox();
+
+        // THEN it has the pending changes and the server ids
+        final List<Outbox.Mutation> pending = reloaded.getPending();
+        assertEquals(2, pending.size());
+        assertEquals(Outbox.Mutation.Type.ADD_DOCUMENT_TO_FOLDER, pending.get(0).type);
+        assertEquals(folderId, pending.get(0).id);
+        assertEquals("doc-1", pending.get(0).documentId);
+        assertEquals(Outbox.Mutation.Type.PATCH_DOCUMENT, pending.get(1).type);
+        assertEquals(date, pending.get(1).date);
+        assertEquals("title", ((Document) pending.get(1).body).title);
+        assertEquals("server-folder", reloaded.getServerId(folderId));
+    }
+}
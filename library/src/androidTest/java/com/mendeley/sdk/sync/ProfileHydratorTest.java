@@ -0,0 +1,166 @@
+package com.mendeley.sdk.sync;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.async.MendeleyFuture;
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.model.Profile;
+import com.mendeley.sdk.testUtils.FakeRequestsFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mendeley.sdk.testUtils.FakeRequestsFactory.response;
+
+public class ProfileHydratorTest extends InstrumentationTestCase {
+
+    private final FakeRequestsFactory requestsFactory = new FakeRequestsFactory();
+
+    // profiles wait to be released
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    // requests running at the same time, and the most of them seen
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        requestsFactory.on("newGetProfileRequest", new FakeRequestsFactory.Handler() {
+            @Override
+            public FakeRequestsFactory.FakeResponse handle(Object[] args) throws MendeleyException {
+                final int nowRunning = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), nowRunning));
+                }
+                try {
+                    release.await();
+                    // long enough for the requests let run to overlap
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new MendeleyException("Interrupted", e);
+                } finally {
+                    running.decrementAndGet();
+                }
+                final String profileId = (String) args[0];
+                if (profileId.startsWith("deleted")) {
+                    throw new HttpResponseException(404, "Not Found", "profiles/" + profileId);
+                }
+                if (profileId.startsWith("failing")) {
+                    throw new HttpResponseException(500, "Internal Server Error", "profiles/" + profileId);
+                }
+                return response(new Profile.Builder().setId(profileId).build());
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        release.countDown();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void test_getProfiles_requestsEachProfileOnce() throws Exception {
+
+        // GIVEN a hydrator
+        final ProfileHydrator hydrator = new ProfileHydrator(requestsFactory.create());
+
+        // WHEN asking for repeated profiles, while they are being fetched
+        final MendeleyFuture<Map<String, Profile>> future1 = hydrator.getProfiles(Arrays.asList("a", "b", "a"));
+        final MendeleyFuture<Map<String, Profile>> future2 = hydrator.getProfiles(Arrays.asList("b", "c"));
+        release.countDown();
+
+        // THEN each profile is requested once
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(future1.getResult().keySet().toArray()));
+        assertEquals(Arrays.asList("b", "c"), Arrays.asList(future2.getResult().keySet().toArray()));
+        assertEquals(3, requestsFactory.getRuns("newGetProfileRequest").size());
+    }
+
+    @SmallTest
+    public void test_getProfiles_runsUpToParallelismRequestsAtOnce() throws Exception {
+
+        // GIVEN a hydrator that runs 2 requests at the same time
+        final ProfileHydrator hydrator = new ProfileHydrator(requestsFactory.create(), 2, 10, TimeUnit.MINUTES, 100);
+
+        // WHEN asking for more profiles than that
+        final List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 8; i++) {
+            ids.add("profile-" + i);
+        }
+        final MendeleyFuture<Map<String, Profile>> future = hydrator.getProfiles(ids);
+        Thread.sleep(100);
+        release.countDown();
+
+        // THEN all of them are fetched, but never more than 2 at once
+        assertEquals(ids, new ArrayList<String>(future.getResult().keySet()));
+        assertEquals(2, maxRunning.get());
+    }
+
+    @SmallTest
+    public void test_getProfiles_leavesOutTheProfilesNotFound() throws Exception {
+
+        // GIVEN a hydrator
+        release.countDown();
+        final ProfileHydrator hydrator = new ProfileHydrator(requestsFactory.create());
+
+        // WHEN asking for profiles, one of them deleted
+        final Map<String, Profile> profiles = hydrator.getProfiles(Arrays.asList("a", "deleted-b", "c")).getResult();
+
+        // THEN the others are returned
+        assertEquals(Arrays.asList("a", "c"), new ArrayList<String>(profiles.keySet()));
+    }
+
+    @SmallTest
+    public void test_getProfiles_failsForOtherErrors() throws Exception {
+
+        // GIVEN a hydrator
+        release.countDown();
+        final ProfileHydrator hydrator = new ProfileHydrator(requestsFactory.create());
+
+        // WHEN asking for profiles, one of them failing in the server
+        try {
+            hydrator.getProfiles(Arrays.asList("a", "failing-b", "c")).getResult();
+            fail("Profiles returned");
+        } catch (HttpResponseException e) {
+            // THEN the profiles fail with its error
+            assertEquals(500, e.httpReturnCode);
+        }
+    }
+
+    @SmallTest
+    public void test_getProfile_usesTheCacheUntilItExpires() throws Exception {
+
+        // GIVEN a hydrator with a profile cached for 200 ms
+        release.countDown();
+        final AtomicLong nowNanos = new AtomicLong();
+        final ProfileHydrator hydrator = new ProfileHydrator(requestsFactory.create(), 1, 200, TimeUnit.MILLISECONDS, 10) {
+            @Override
+            long nanoTime() {
+                return nowNanos.get();
+            }
+        };
+        hydrator.getProfile("a").getResult();
+
+        // WHEN asking for it again, before it expires
+        nowNanos.set(TimeUnit.MILLISECONDS.toNanos(200));
+        final Profile cached = hydrator.getProfile("a").getResult();
+
+        // THEN it is not requested again
+        assertEquals("a", cached.id);
+        assertEquals(1, requestsFactory.getRuns("newGetProfileRequest").size());
+
+        // ...BUT it is once it expires
+        nowNanos.set(TimeUnit.MILLISECONDS.toNanos(201));
+        hydrator.getProfile("a").getResult();
+        assertEquals(2, requestsFactory.getRuns("newGetProfileRequest").size());
+    }
+}
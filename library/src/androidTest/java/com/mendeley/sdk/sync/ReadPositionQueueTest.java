@@ -0,0 +1,165 @@
+package com.mendeley.sdk.sync;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.model.ReadPosition;
+import com.mendeley.sdk.testUtils.FakeRequestsFactory;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.mendeley.sdk.testUtils.FakeRequestsFactory.response;
+
+public class ReadPositionQueueTest extends InstrumentationTestCase {
+
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    private File file;
+    private FakeRequestsFactory requestsFactory;
+
+    // the HTTP code the server fails with, or 0 if it accepts the positions
+    private volatile int failingHttpCode;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("read-positions", ".bin");
+        file.delete();
+        requestsFactory = new FakeRequestsFactory().on("newPostRecentlyReadRequest", new FakeRequestsFactory.Handler() {
+            @Override
+            public FakeRequestsFactory.FakeResponse handle(Object[] args) throws MendeleyException {
+                if (failingHttpCode != 0) {
+                    throw new HttpResponseException(failingHttpCode, "failed", "url");
+                }
+                return response(args[0]);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+        super.tearDown();
+    }
+
+    private static ReadPosition newReadPosition(String fileId, int page, long time) {
+        return new ReadPosition(null, fileId, page, 0.5f, new Date(time));
+    }
+
+    private List<Object[]> waitForPosts(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (requestsFactory.getRuns("newPostRecentlyReadRequest").size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // let the queue handle the result of the last post
+        Thread.sleep(50);
+        return requestsFactory.getRuns("newPostRecentlyReadRequest");
+    }
+
+    @SmallTest
+    public void test_add_keepsTheLastPositionOfEachFile() throws Exception {
+
+        // GIVEN a queue
+        final ReadPositionQueue queue = new ReadPositionQueue(requestsFactory.create(), file, NEVER, 10);
+
+        // WHEN adding several positions of the same file, not in order
+        queue.add(newReadPosition("file-1", 1, 1000));
+        queue.add(newReadPosition("file-1", 3, 3000));
+        queue.add(newReadPosition("file-1", 2, 2000));
+        queue.add(newReadPosition("file-2", 1, 1000));
+        queue.flush();
+
+        // THEN only the newest one of each file is posted
+        final List<Object[]> posts = waitForPosts(2);
+        assertEquals(2, posts.size());
+        assertEquals(3, ((ReadPosition) posts.get(0)[0]).page);
+        assertEquals("file-2", ((ReadPosition) posts.get(1)[0]).fileId);
+        assertEquals(0, queue.getPendingCount());
+        queue.close();
+    }
+
+    @SmallTest
+    public void test_add_flushesWhenTooManyFilesArePending() throws Exception {
+
+        // GIVEN a queue that flushes after a long delay, or with 3 pending files
+        final ReadPositionQueue queue = new ReadPositionQueue(requestsFactory.create(), file, NEVER, 3);
+
+        // WHEN adding positions of 3 files
+        queue.add(newReadPosition("file-1", 1, 1000));
+        queue.add(newReadPosition("file-2", 1, 1000));
+        Thread.sleep(100);
+        assertTrue(requestsFactory.getRuns("newPostRecentlyReadRequest").isEmpty());
+        queue.add(newReadPosition("file-3", 1, 1000));
+
+        // THEN they are posted without waiting
+        assertEquals(3, waitForPosts(3).size());
+        queue.close();
+    }
+
+    @SmallTest
+    public void test_flush_backsOffAfterFailuresUntilItSucceeds() throws Exception {
+
+        // GIVEN a queue that can't post its positions
+        failingHttpCode = 503;
+        final long flushDelayMillis = 1000;
+        final ReadPositionQueue queue = new ReadPositionQueue(requestsFactory.create(), file, flushDelayMillis, 2);
+        queue.add(newReadPosition("file-1", 1, 1000));
+
+        // WHEN flushing several times
+        for (int i = 1; i <= 3; i++) {
+            queue.flush();
+            waitForPosts(i);
+        }
+
+        // THEN each flush waits twice as long as the previous one
+        assertEquals(4 * flushDelayMillis, queue.getRetryDelayMillis());
+
+        // ...AND the maximum number of pending files doesn't trigger more failing flushes
+        queue.add(newReadPosition("file-2", 1, 1000));
+        Thread.sleep(100);
+        assertEquals(3, requestsFactory.getRuns("newPostRecentlyReadRequest").size());
+        assertEquals(2, queue.getPendingCount());
+
+        // WHEN a flush succeeds
+        failingHttpCode = 0;
+        queue.flush();
+        waitForPosts(5);
+
+        // THEN the delay is reset
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(flushDelayMillis, queue.getRetryDelayMillis());
+        queue.close();
+    }
+
+    @SmallTest
+    public void test_close_keepsThePendingPositionsForTheNextQueue() throws Exception {
+
+        // GIVEN a queue closed with pending positions
+        final ReadPositionQueue queue = new ReadPositionQueue(requestsFactory.create(), file, NEVER, 10);
+        queue.add(newReadPosition("file-1", 7, 1000));
+        queue.add(newReadPosition("file-2", 3, 2000));
+        queue.close();
+        assertTrue(queue.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(requestsFactory.getRuns("newPostRecentlyReadRequest").isEmpty());
+
+        // WHEN creating another queue on the same file
+        final ReadPositionQueue reloaded = new ReadPositionQueue(requestsFactory.create(), file, NEVER, 10);
+
+        // THEN it posts them right away
+        final List<Object[]> posts = waitForPosts(2);
+        assertEquals(2, posts.size());
+        final ReadPosition first = (ReadPosition) posts.get(0)[0];
+        assertEquals("file-1", first.fileId);
+        assertEquals(7, first.page);
+        assertEquals(0.5f, first.verticalPosition);
+        assertEquals(new Date(1000), first.date);
+        assertEquals("file-2", ((ReadPosition) posts.get(1)[0]).fileId);
+        reloaded.close();
+    }
+}
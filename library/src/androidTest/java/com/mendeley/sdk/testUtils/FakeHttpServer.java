@@ -0,0 +1,216 @@
+package com.mendeley.sdk.testUtils;
+
+import android.net.Uri;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * HTTP server in the local host that answers with the responses enqueued, in order, and records
+ * the requests it receives. Requests beyond the enqueued responses get a 404.
+ * <p>
+ * It serves one connection at a time, and closes each one after its response.
+ */
+public class FakeHttpServer implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Response to send, optionally slowly.
+     */
+    public static class FakeHttpResponse {
+        public final int code;
+        public final Map<String, String> headers = new HashMap<String, String>();
+        public final byte[] body;
+
+        // time before sending the headers, and before sending the second half of the body
+        long headersDelayMillis;
+        long bodyDelayMillis;
+
+        public FakeHttpResponse(int code, String body) {
+            this(code, body.getBytes(UTF8));
+        }
+
+        public FakeHttpResponse(int code, byte[] body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        public FakeHttpResponse setHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public FakeHttpResponse setHeadersDelay(long millis) {
+            headersDelayMillis = millis;
+            return this;
+        }
+
+        public FakeHttpResponse setBodyDelay(long millis) {
+            bodyDelayMillis = millis;
+            return this;
+        }
+    }
+
+    /**
+     * Request received.
+     */
+    public static class RecordedRequest {
+        public final String method;
+        public final String path;
+        public final Map<String, String> headers;
+        public final byte[] body;
+
+        RecordedRequest(String method, String path, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * @param name header name, in lower case
+         */
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final Thread thread;
+    private final LinkedList<FakeHttpResponse> responses = new LinkedList<FakeHttpResponse>();
+    private final List<RecordedRequest> requests = new ArrayList<RecordedRequest>();
+
+    public FakeHttpServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        thread = new Thread("FakeHttpServer") {
+            @Override
+            public void run() {
+                serve();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Uri getUrl(String path) {
+        return Uri.parse("http://127.0.0.1:" + serverSocket.getLocalPort() + path);
+    }
+
+    public synchronized FakeHttpServer enqueue(FakeHttpResponse response) {
+        responses.add(response);
+        return this;
+    }
+
+    public synchronized List<RecordedRequest> getRequests() {
+        return new ArrayList<RecordedRequest>(requests);
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        thread.interrupt();
+    }
+
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                try {
+                    serve(socket);
+                } finally {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // closed, or the client went away
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException, InterruptedException {
+        final InputStream is = socket.getInputStream();
+        final String requestLine = readLine(is);
+        if (requestLine == null) {
+            return;
+        }
+        final String[] parts = requestLine.split(" ");
+        final Map<String, String> headers = new HashMap<String, String>();
+        for (String line = readLine(is); line != null && !line.isEmpty(); line = readLine(is)) {
+            final int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+        }
+        final String contentLength = headers.get("content-length");
+        final byte[] body = new byte[contentLength != null ? Integer.parseInt(contentLength) : 0];
+        for (int read = 0; read < body.length; ) {
+            final int count = is.read(body, read, body.length - read);
+            if (count < 0) {
+                throw new IOException("Truncated request");
+            }
+            read += count;
+        }
+
+        final FakeHttpResponse response;
+        synchronized (this) {
+            requests.add(new RecordedRequest(parts[0], parts[1], Collections.unmodifiableMap(headers), body));
+            response = responses.isEmpty() ? new FakeHttpResponse(404, "") : responses.removeFirst();
+        }
+
+        Thread.sleep(response.headersDelayMillis);
+        final StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.code).append(" Fake\r\n");
+        head.append("Date: ").append(formatDate(new Date())).append("\r\n");
+        head.append("Content-Length: ").append(response.body.length).append("\r\n");
+        head.append("Connection: close\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+
+        final OutputStream os = socket.getOutputStream();
+        os.write(head.toString().getBytes(UTF8));
+        final int half = response.body.length / 2;
+        os.write(response.body, 0, half);
+        os.flush();
+        Thread.sleep(response.bodyDelayMillis);
+        os.write(response.body, half, response.body.length - half);
+        os.flush();
+    }
+
+    private static String readLine(InputStream is) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = is.read(); b != '\n'; b = is.read()) {
+            if (b < 0) {
+                return line.size() > 0 ? line.toString("UTF-8") : null;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString("UTF-8");
+    }
+
+    private static String formatDate(Date date) {
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(date);
+    }
+}
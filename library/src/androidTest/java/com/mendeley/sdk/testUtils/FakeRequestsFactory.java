@@ -0,0 +1,118 @@
+package com.mendeley.sdk.testUtils;
+
+import android.net.Uri;
+
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.RequestsFactory;
+import com.mendeley.sdk.exceptions.MendeleyException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link RequestsFactory} whose requests, instead of calling the server, are answered
+ * by handlers registered by the name of the method of the factory that creates them. Requests
+ * of methods without a handler fail when they are run.
+ */
+public class FakeRequestsFactory {
+
+    /**
+     * Answers the requests created by one method of the factory.
+     */
+    public interface Handler {
+
+        /**
+         * @param args the arguments passed to the method that created the request
+         */
+        FakeResponse handle(Object[] args) throws MendeleyException;
+    }
+
+    /**
+     * What a fake request returns.
+     */
+    public static class FakeResponse {
+        public final Object resource;
+        public final Date serverDate;
+        public final Uri next;
+
+        public FakeResponse(Object resource, Date serverDate, Uri next) {
+            this.resource = resource;
+            this.serverDate = serverDate;
+            this.next = next;
+        }
+    }
+
+    private final Map<String, Handler> handlers = new HashMap<String, Handler>();
+    private final Map<String, List<Object[]>> runs = new HashMap<String, List<Object[]>>();
+
+    public static FakeResponse response(Object resource) {
+        return new FakeResponse(resource, null, null);
+    }
+
+    public static FakeResponse response(Object resource, Date serverDate, Uri next) {
+        return new FakeResponse(resource, serverDate, next);
+    }
+
+    public synchronized FakeRequestsFactory on(String methodName, Handler handler) {
+        handlers.put(methodName, handler);
+        return this;
+    }
+
+    /**
+     * @return the arguments of the methods that created the requests run, in the order they were run
+     */
+    public synchronized List<Object[]> getRuns(String methodName) {
+        final List<Object[]> methodRuns = runs.get(methodName);
+        return methodRuns != null ? new ArrayList<Object[]>(methodRuns) : Collections.<Object[]>emptyList();
+    }
+
+    public RequestsFactory create() {
+        return (RequestsFactory) Proxy.newProxyInstance(RequestsFactory.class.getClassLoader(), new Class[]{RequestsFactory.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getDeclaringClass() == Object.class) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                return new FakeRequest(method.getName(), args != null ? args : new Object[0]);
+            }
+        });
+    }
+
+    private synchronized Handler onRun(String methodName, Object[] args) {
+        List<Object[]> methodRuns = runs.get(methodName);
+        if (methodRuns == null) {
+            methodRuns = new ArrayList<Object[]>();
+            runs.put(methodName, methodRuns);
+        }
+        methodRuns.add(args);
+        return handlers.get(methodName);
+    }
+
+    private class FakeRequest extends Request<Object> {
+        private final String methodName;
+        private final Object[] args;
+
+        FakeRequest(String methodName, Object[] args) {
+            super(null);
+            this.methodName = methodName;
+            this.args = args;
+        }
+
+        @Override
+        protected Response doRun() throws MendeleyException {
+            final Handler handler = onRun(methodName, args);
+            if (handler == null) {
+                throw new MendeleyException("Unexpected request " + methodName);
+            }
+            final FakeResponse response = handler.handle(args);
+            return new Response(response.resource, response.serverDate, response.next);
+        }
+    }
+}
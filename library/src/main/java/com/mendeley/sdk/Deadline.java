@@ -0,0 +1,78 @@
+package com.mendeley.sdk;
+
+import com.mendeley.sdk.async.MendeleyFuture;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which some work must be done, as a {@link Request} with
+ * {@link Request#setDeadline(Deadline)} or a chain of them with
+ * {@link MendeleyFuture#setDeadline(Deadline)}.
+ * <p>
+ * Deadlines are absolute, so the same one can be passed to all the requests of an operation,
+ * each of them getting the time left by the previous ones.
+ */
+public final class Deadline {
+
+    private static ScheduledThreadPoolExecutor sTimer;
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return the deadline after the given time from now
+     */
+    public static Deadline after(long duration, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * @return the time left until the deadline, or 0 if it has expired
+     */
+    public long timeRemaining(TimeUnit unit) {
+        return unit.convert(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @return the earliest of this deadline and the other one, if any
+     */
+    public Deadline min(Deadline other) {
+        return other == null || deadlineNanos - other.deadlineNanos <= 0 ? this : other;
+    }
+
+    /**
+     * Runs the action when the deadline expires, in a timer thread shared by all the deadlines.
+     * The action must be short, as cancelling some work.
+     *
+     * @return the future to cancel the action, if the work finishes before
+     */
+    public ScheduledFuture<?> whenExpired(Runnable action) {
+        return getTimer().schedule(action, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getTimer() {
+        if (sTimer == null) {
+            sTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "Mendeley deadlines");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // most actions are cancelled because the work finishes in time
+            sTimer.setRemoveOnCancelPolicy(true);
+        }
+        return sTimer;
+    }
+}
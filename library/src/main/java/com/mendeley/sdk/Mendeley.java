@@ -36,6 +36,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Class exposing all the pubic functionality of the Mendeley SDK.
@@ -291,6 +292,16 @@ public class Mendeley {
             return new DocumentEndpoint.GetDocumentsRequest(url, authTokenManager, clientCredentials);
         }
 
+        @Override
+        public Request<List<Document>> newGetDocumentsRequest(DocumentEndpoint.DocumentRequestParameters parameters, Set<Document.Field> fields) {
+            return new DocumentEndpoint.GetDocumentsRequest(parameters, fields, authTokenManager, clientCredentials);
+        }
+
+        @Override
+        public Request<List<Document>> newGetDocumentsRequest(Uri url, Set<Document.Field> fields) {
+            return new DocumentEndpoint.GetDocumentsRequest(url, fields, authTokenManager, clientCredentials);
+        }
+
         @Override
         public Request<Document> newGetDocumentRequest(String documentId, DocumentEndpoint.DocumentRequestParameters.View view) {
             return new DocumentEndpoint.GetDocumentRequest(documentId, view, authTokenManager, clientCredentials);
@@ -306,6 +317,11 @@ public class Mendeley {
             return new DocumentEndpoint.PatchDocumentAuthorizedRequest(documentId, document, date, authTokenManager, clientCredentials);
         }
 
+        @Override
+        public Request<Document> newPatchDocumentRequest(String documentId, Date date, Document original, Document modified) {
+            return new DocumentEndpoint.PatchDocumentAuthorizedRequest(documentId, original, modified, date, authTokenManager, clientCredentials);
+        }
+
         @Override
         public Request<Void> newTrashDocumentRequest(String documentId) {
             return new DocumentEndpoint.TrashDocumentRequest(documentId, authTokenManager, clientCredentials);
@@ -361,6 +377,11 @@ public class Mendeley {
             return new AnnotationsEndpoint.PatchAnnotationRequest(annotationId, annotation, authTokenManager, clientCredentials);
         }
 
+        @Override
+        public Request<Annotation> newPatchAnnotationRequest(String annotationId, Date date, Annotation annotation) {
+            return new AnnotationsEndpoint.PatchAnnotationRequest(annotationId, date, annotation, authTokenManager, clientCredentials);
+        }
+
         @Override
         public Request<Void> newDeleteAnnotationRequest(String annotationId) {
             return new AnnotationsEndpoint.DeleteAnnotationRequest(annotationId, authTokenManager, clientCredentials);
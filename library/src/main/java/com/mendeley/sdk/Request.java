@@ -3,6 +3,8 @@ package com.mendeley.sdk;
 import android.net.Uri;
 import android.os.AsyncTask;
 
+import com.mendeley.sdk.async.MendeleyFuture;
+import com.mendeley.sdk.exceptions.DeadlineExceededException;
 import com.mendeley.sdk.exceptions.MendeleyException;
 import com.mendeley.sdk.exceptions.UserCancelledException;
 
@@ -11,6 +13,8 @@ import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * Class modeling an HTTP request against the Mendeley API.
@@ -45,8 +49,10 @@ public abstract class Request<ResultType> {
     }
 
     private final Uri uri;
-    private boolean cancelled;
-    private boolean finishedRun;
+    private volatile boolean cancelled;
+    private volatile boolean finishedRun;
+    private volatile Deadline deadline;
+    private volatile boolean deadlineExceeded;
 
     /**
      * Constructor
@@ -78,16 +84,63 @@ public abstract class Request<ResultType> {
      *
      * @return the response of the request
      * @throws UserCancelledException if the request was cancelled by the user
+     * @throws DeadlineExceededException if the request could not finish before its deadline
      * @throws MendeleyException if the request could not be completed for any unexpected reason
      */
     public final Response run() throws MendeleyException {
+        final Deadline deadline = this.deadline;
+        ScheduledFuture<?> deadlineTimer = null;
         try {
+            if (cancelled) {
+                throw new UserCancelledException();
+            }
+            if (deadline != null) {
+                if (deadline.isExpired()) {
+                    throw new DeadlineExceededException();
+                }
+                deadlineTimer = deadline.whenExpired(new Runnable() {
+                    @Override
+                    public void run() {
+                        deadlineExceeded = true;
+                        cancel();
+                    }
+                });
+            }
             return doRun();
+        } catch (MendeleyException e) {
+            if (deadlineExceeded && !(e instanceof DeadlineExceededException)) {
+                throw new DeadlineExceededException(e);
+            }
+            throw e;
         } finally {
+            if (deadlineTimer != null) {
+                deadlineTimer.cancel(false);
+            }
             finishedRun = true;
         }
     }
 
+    /**
+     * Sets the time by which the request must finish, including the retries. When it expires, the
+     * request is cancelled, and {@link #run()} throws {@link DeadlineExceededException}. A refresh
+     * of the access token in progress carries on in the background, so that its new tokens are saved.
+     * <p>
+     * The helpers that run several requests, as the pages of a paginated request, pass their
+     * deadline to all of them.
+     *
+     * @param deadline the deadline, or null for none
+     */
+    public final void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return the deadline of the request, or null if it has none
+     */
+    public final Deadline getDeadline() {
+        return deadline;
+    }
+
     /**
      * Template method that effectively performs the work of the request.
      * Implement
@@ -127,11 +180,62 @@ public abstract class Request<ResultType> {
         task.executeOnExecutor(executor);
     }
 
+    /**
+     * Runs the request asynchronously in the passed executor, without blocking the caller thread.
+     * <p>
+     * Unlike {@link #runAsync(RequestCallback, Executor)}, the result is returned as a
+     * {@link MendeleyFuture}, so it can be chained with other requests. Cancelling the future
+     * cancels the request.
+     *
+     * @param executor where the network operation will run at
+     * @return the future of the response
+     */
+    public final MendeleyFuture<Response> submit(Executor executor) {
+        final MendeleyFuture<Response> future = new MendeleyFuture<Response>();
+        future.addCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                cancel();
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    try {
+                        future.set(Request.this.run());
+                    } catch (MendeleyException e) {
+                        future.setException(e);
+                    } catch (RuntimeException e) {
+                        future.setException(new MendeleyException("Error performing the request", e));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.setException(new MendeleyException("Could not run the request", e));
+        }
+        return future;
+    }
+
     /**
      * Tells this request to cancel its work and to return as soon as possible.
+     * <p>
+     * May be called from any thread. The request stops waiting for the network right away,
+     * and its {@link #run()} throws {@link UserCancelledException}.
      */
     public final void cancel() {
         cancelled = true;
+        onCancel();
+    }
+
+    /**
+     * Invoked in the thread that calls {@link #cancel()}, to abort the work in progress, such as
+     * the network call the request is blocked on.
+     */
+    protected void onCancel() {
     }
 
     /**
@@ -245,7 +349,7 @@ public abstract class Request<ResultType> {
         protected final void onPostExecute(RequestResponseMaybe maybe) {
             super.onPostExecute(maybe);
 
-            if (Request.this.isCancelled()) {
+            if (Request.this.isCancelled() && !deadlineExceeded) {
                 callback.onCancelled();
             } else if (maybe.error != null) {
                 callback.onFailure(maybe.error);
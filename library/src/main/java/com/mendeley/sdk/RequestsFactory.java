@@ -21,6 +21,7 @@ import java.io.InputStream;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Factory for creating typical {@link Request}s to interact against the Mendeley API.
@@ -106,6 +107,27 @@ public interface RequestsFactory {
      */
     Request<List<Document>> newGetDocumentsRequest(Uri url);
 
+    /**
+     * Obtains a {@link Request} to retrieve the list of {@link Document}s, parsing only some of
+     * their fields. Useful for list screens that don't need the whole documents.
+     *
+     * @param parameters used  to configure the query. Can be null.
+     * @param fields the fields of the documents to parse. The rest will be null.
+     * @return the requests
+     */
+    Request<List<Document>> newGetDocumentsRequest(DocumentEndpoint.DocumentRequestParameters parameters, Set<Document.Field> fields);
+
+    /**
+     * Obtains a {@link Request} to retrieve the list of {@link Document}s, parsing only some of
+     * their fields.
+     *
+     * @param url the URL of the request.
+     *            May be the {@link Request.Response#next} field of a previous request.
+     * @param fields the fields of the documents to parse. The rest will be null.
+     * @return the request
+     */
+    Request<List<Document>> newGetDocumentsRequest(Uri url, Set<Document.Field> fields);
+
     /**
      * Obtains a {@link Request} to retrieve one single {@link Document} by its id.
      *
@@ -134,6 +156,19 @@ public interface RequestsFactory {
      */
     Request<Document> newPatchDocumentRequest(String documentId, Date date, Document document);
 
+    /**
+     * Obtains a {@link Request} to update an existing document in the user's library, sending
+     * only the fields that differ from its original version.
+     *
+     * @param documentId the id of the document to be updated.
+     * @param date sets an optional "if unmodified since" condition on the request. Ignored if null.
+     * @param original the document before being modified.
+     * @param modified the modified document. Null collections are left unchanged, while other
+     *                 fields that are null but were not in the original document are cleared.
+     * @return the request
+     */
+    Request<Document> newPatchDocumentRequest(String documentId, Date date, Document original, Document modified);
+
     /**
      * Obtains a {@link Request} to move an existing document to the trash of the user's library.
      *
@@ -408,6 +443,17 @@ public interface RequestsFactory {
      */
     Request<Annotation> newPatchAnnotationRequest(String annotationId, Annotation annotation);
 
+    /**
+     * Obtains a {@link Request} to update an existing {@link Annotation} in the user's library.
+     *
+     * @param annotationId the id of the annotation to be updated.
+     * @param date sets an optional "if unmodified since" condition on the request. Ignored if null.
+     * @param annotation an annotation object containing the fields to be updated.
+     *                 Missing fields are left unchanged (not cleared).
+     * @return the request
+     */
+    Request<Annotation> newPatchAnnotationRequest(String annotationId, Date date, Annotation annotation);
+
     /**
      * Obtains a {@link Request} to delete the {@link Annotation} with the passed id.
      *
@@ -0,0 +1,252 @@
+package com.mendeley.sdk.async;
+
+import android.net.Uri;
+
+import com.mendeley.sdk.Deadline;
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the pages of a paginated request one after another, fetching each page in the
+ * background while the previous one is being processed, and adapting the page size.
+ * <p>
+ * The first request should ask for a small page, so that it arrives soon. Then the size of the
+ * following pages is set, through the {@code limit} parameter of the {@link Request.Response#next}
+ * link, to the number of items that can be fetched and parsed in the target time per page.
+ * <p>
+ * The time of each page is modelled as a fixed latency, the round trip to the server, plus a
+ * cost per item, estimated by a linear fit of the times of the pages against their sizes. Only
+ * the cost per item sizes the pages: the latency is paid once per page whatever its size, so a
+ * slow connection gets pages as big as a fast one, and fewer round trips. While all the pages
+ * fetched have the same size, the latency can't be told apart, so the next page is bigger. The
+ * page size grows at most by {@link #MAX_GROWTH_FACTOR} each page, between
+ * {@link #MIN_PAGE_SIZE} and {@link #MAX_PAGE_SIZE}.
+ * <p>
+ * The requests of the next pages get the deadline of the first one.
+ * <p>
+ * {@link #nextPage()} is blocking, so it must not be called from the UI thread.
+ *
+ * @param <T> type of the items of the pages
+ */
+public class AdaptivePager<T> {
+
+    public static final int MIN_PAGE_SIZE = 20;
+
+    // the largest page size allowed by the API
+    public static final int MAX_PAGE_SIZE = 500;
+
+    public static final int MAX_GROWTH_FACTOR = 2;
+
+    public static final long DEFAULT_TARGET_PAGE_MILLIS = 1000;
+
+    private static final String LIMIT_PARAMETER = "limit";
+
+    // weight of the last page in the estimation of the costs
+    private static final double SMOOTHING = 0.5;
+
+    private final PagePublisher.NextPageFactory<T> nextPageFactory;
+    private final Executor executor;
+    private final long targetPageNanos;
+    private final Deadline deadline;
+
+    private Request<List<T>> firstRequest;
+    private MendeleyFuture<Request<List<T>>.Response> pending;
+    private boolean cancelled;
+
+    // smoothed sums of the sizes and times of the pages, for the linear fit of the costs
+    private double weightSum;
+    private double itemsSum;
+    private double nanosSum;
+    private double itemsSquaresSum;
+    private double itemsNanosSum;
+
+    // estimated from the background fetches
+    private double latencyNanos;
+    private double nanosPerItem;
+    private boolean costsFitted;
+    private int pageSize;
+
+    public AdaptivePager(Request<List<T>> firstRequest, PagePublisher.NextPageFactory<T> nextPageFactory, Executor executor) {
+        this(firstRequest, nextPageFactory, executor, DEFAULT_TARGET_PAGE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param firstRequest request of the first page, preferably small
+     * @param nextPageFactory creates the requests of the next pages
+     * @param executor where the requests run
+     * @param targetPageTime time to fetch and parse each page the page size adapts to
+     */
+    public AdaptivePager(Request<List<T>> firstRequest, PagePublisher.NextPageFactory<T> nextPageFactory, Executor executor, long targetPageTime, TimeUnit unit) {
+        this.firstRequest = firstRequest;
+        this.nextPageFactory = nextPageFactory;
+        this.executor = executor;
+        this.targetPageNanos = unit.toNanos(targetPageTime);
+        this.deadline = firstRequest.getDeadline();
+    }
+
+    /**
+     * Waits for the next page, and starts fetching the one after it.
+     *
+     * @return the items of the page, or null if there are no more pages
+     */
+    public List<T> nextPage() throws MendeleyException {
+        final MendeleyFuture<Request<List<T>>.Response> current;
+        synchronized (this) {
+            if (cancelled) {
+                throw new UserCancelledException();
+            }
+            if (pending == null && firstRequest != null) {
+                pending = fetch(firstRequest);
+                firstRequest = null;
+            }
+            current = pending;
+        }
+        if (current == null) {
+            return null;
+        }
+
+        final Request<List<T>>.Response response = current.getResult();
+        synchronized (this) {
+            pending = null;
+            if (response.next != null && !cancelled) {
+                pending = fetch(newNextRequest(response.next));
+            }
+        }
+        return response.resource;
+    }
+
+    /**
+     * Stops fetching pages, cancelling the one being fetched.
+     */
+    public void cancel() {
+        final MendeleyFuture<?> toCancel;
+        synchronized (this) {
+            cancelled = true;
+            toCancel = pending;
+        }
+        if (toCancel != null) {
+            toCancel.cancel(true);
+        }
+    }
+
+    /**
+     * @return the size of the last page requested
+     */
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    private MendeleyFuture<Request<List<T>>.Response> fetch(final Request<List<T>> request) {
+        final MendeleyFuture<Request<List<T>>.Response> future = new MendeleyFuture<Request<List<T>>.Response>();
+        future.addCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                request.cancel();
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final long startNanos = System.nanoTime();
+                        final Request<List<T>>.Response response = request.run();
+                        onPageFetched(response.resource != null ? response.resource.size() : 0, System.nanoTime() - startNanos);
+                        future.set(response);
+                    } catch (MendeleyException e) {
+                        future.setException(e);
+                    } catch (RuntimeException e) {
+                        future.setException(new MendeleyException("Error requesting the page", e));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.setException(new MendeleyException("Could not request the page", e));
+        }
+        return future;
+    }
+
+    /**
+     * @return the estimated fixed time of each page, 0 until pages of different sizes are fetched
+     */
+    public synchronized long getEstimatedLatency(TimeUnit unit) {
+        return unit.convert((long) latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the estimated time to fetch and parse each item, latency excluded
+     */
+    public synchronized long getEstimatedNanosPerItem() {
+        return (long) nanosPerItem;
+    }
+
+    private synchronized void onPageFetched(int items, long elapsedNanos) {
+        if (items == 0 || elapsedNanos <= 0) {
+            return;
+        }
+        if (pageSize == 0) {
+            pageSize = items;
+        }
+
+        final double decay = weightSum == 0 ? 0 : 1 - SMOOTHING;
+        weightSum = decay * weightSum + 1;
+        itemsSum = decay * itemsSum + items;
+        nanosSum = decay * nanosSum + elapsedNanos;
+        itemsSquaresSum = decay * itemsSquaresSum + (double) items * items;
+        itemsNanosSum = decay * itemsNanosSum + (double) items * elapsedNanos;
+
+        final double meanItems = itemsSum / weightSum;
+        final double meanNanos = nanosSum / weightSum;
+        final double itemsVariance = itemsSquaresSum / weightSum - meanItems * meanItems;
+        final double covariance = itemsNanosSum / weightSum - meanItems * meanNanos;
+        costsFitted = itemsVariance > 1e-6 * meanItems * meanItems;
+        final double slope = costsFitted ? covariance / itemsVariance : 0;
+        if (slope > 0 && slope * meanItems <= meanNanos) {
+            nanosPerItem = slope;
+            latencyNanos = meanNanos - slope * meanItems;
+        } else {
+            // same sizes, or too noisy to fit: the latency is spread over the items
+            nanosPerItem = meanNanos / meanItems;
+            latencyNanos = 0;
+        }
+    }
+
+    private Request<List<T>> newNextRequest(Uri next) {
+        final int previousSize = pageSize > 0 ? pageSize : MIN_PAGE_SIZE;
+        final int targetSize;
+        if (nanosPerItem == 0) {
+            targetSize = previousSize;
+        } else if (!costsFitted) {
+            // a page of another size, to tell the latency from the cost of the items
+            targetSize = previousSize * MAX_GROWTH_FACTOR;
+        } else {
+            targetSize = (int) Math.min(Integer.MAX_VALUE, targetPageNanos / nanosPerItem);
+        }
+        pageSize = Math.max(MIN_PAGE_SIZE, Math.min(MAX_PAGE_SIZE, Math.min(targetSize, previousSize * MAX_GROWTH_FACTOR)));
+
+        final Request<List<T>> request = nextPageFactory.newRequest(withLimit(next, pageSize));
+        // the pages inherit the deadline of the first one
+        if (request.getDeadline() == null) {
+            request.setDeadline(deadline);
+        }
+        return request;
+    }
+
+    private static Uri withLimit(Uri uri, int limit) {
+        final Uri.Builder bld = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (!LIMIT_PARAMETER.equals(name)) {
+                for (String value : uri.getQueryParameters(name)) {
+                    bld.appendQueryParameter(name, value);
+                }
+            }
+        }
+        return bld.appendQueryParameter(LIMIT_PARAMETER, String.valueOf(limit)).build();
+    }
+}
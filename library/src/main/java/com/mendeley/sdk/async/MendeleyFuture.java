@@ -0,0 +1,449 @@
+package com.mendeley.sdk.async;
+
+import com.mendeley.sdk.Deadline;
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.exceptions.DeadlineExceededException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link Future} of the result of asynchronous work, as the one returned by
+ * {@link Request#submit(Executor)}, that can be composed with other steps without blocking.
+ * <p>
+ * Steps are chained with {@link #map(Function, Executor)} and {@link #then(AsyncFunction, Executor)},
+ * each one run in the given executor once the previous one succeeds, so that, for example, the
+ * files of some documents can be requested as soon as the documents arrive. Errors skip the
+ * following steps, and are received by the {@link Callback}s of the last future.
+ * <p>
+ * Cancelling a future cancels the work it is waiting for, including the running {@link Request}
+ * and the previous steps of the chain, and fails it with {@link UserCancelledException}.
+ * <p>
+ * This class is thread safe.
+ */
+public class MendeleyFuture<T> implements Future<T> {
+
+    private enum State {
+        PENDING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    private State state = State.PENDING;
+    private T value;
+    private MendeleyException error;
+
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+    private List<Runnable> cancelActions = new ArrayList<Runnable>();
+
+    /**
+     * Completes the future successfully, unless it is done already.
+     *
+     * @return true if the future has been completed by this call
+     */
+    public boolean set(T value) {
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return false;
+            }
+            this.value = value;
+            state = State.SUCCEEDED;
+        }
+        onDone();
+        return true;
+    }
+
+    /**
+     * Completes the future with an error, unless it is done already.
+     *
+     * @return true if the future has been completed by this call
+     */
+    public boolean setException(MendeleyException error) {
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return false;
+            }
+            this.error = error;
+            state = State.FAILED;
+        }
+        onDone();
+        return true;
+    }
+
+    /**
+     * Completes the future as the given one, once it is done. Cancelling this future cancels
+     * the given one.
+     */
+    public void setFuture(final MendeleyFuture<? extends T> future) {
+        addCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                future.cancel(true);
+            }
+        });
+        future.addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                set(result);
+            }
+
+            @Override
+            public void onFailure(MendeleyException e) {
+                setException(e);
+            }
+        }, DIRECT_EXECUTOR);
+    }
+
+    /**
+     * Adds an action to be run if the future is cancelled, or its deadline expires, to stop the
+     * work it is waiting for. If it is cancelled already, the action is run now.
+     */
+    public void addCancelAction(Runnable action) {
+        synchronized (this) {
+            if (state == State.PENDING) {
+                cancelActions.add(action);
+                return;
+            }
+            if (state != State.CANCELLED) {
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Cancels the future, and the work it is waiting for.
+     *
+     * @param mayInterruptIfRunning ignored: requests stop as soon as they see the cancellation
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return abort(new UserCancelledException(), State.CANCELLED);
+    }
+
+    /**
+     * Fails the future with {@link DeadlineExceededException} if it is not done by the deadline,
+     * cancelling the work it is waiting for. Set on the last future of a chain, it bounds the
+     * whole chain.
+     *
+     * @return this future
+     */
+    public MendeleyFuture<T> setDeadline(Deadline deadline) {
+        final ScheduledFuture<?> timer = deadline.whenExpired(new Runnable() {
+            @Override
+            public void run() {
+                abort(new DeadlineExceededException(), State.FAILED);
+            }
+        });
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                timer.cancel(false);
+            }
+        }, DIRECT_EXECUTOR);
+        return this;
+    }
+
+    private boolean abort(MendeleyException error, State state) {
+        final List<Runnable> actions;
+        synchronized (this) {
+            if (this.state != State.PENDING) {
+                return false;
+            }
+            this.error = error;
+            this.state = state;
+            actions = cancelActions;
+        }
+        for (Runnable action : actions) {
+            action.run();
+        }
+        onDone();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != State.PENDING;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (state == State.PENDING) {
+            wait();
+        }
+        return getDone();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        while (state == State.PENDING) {
+            final long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+        }
+        return getDone();
+    }
+
+    /**
+     * Waits for the result, as {@link Request#run()} does.
+     * <p>
+     * Calling this method will block the calling thread, so it must not be called from the UI thread.
+     *
+     * @throws UserCancelledException if the future has been cancelled, or the thread interrupted
+     * @throws MendeleyException the error of the future
+     */
+    public T getResult() throws MendeleyException {
+        try {
+            synchronized (this) {
+                while (state == State.PENDING) {
+                    wait();
+                }
+                if (state == State.SUCCEEDED) {
+                    return value;
+                }
+                throw error;
+            }
+        } catch (InterruptedException e) {
+            cancel(true);
+            throw new UserCancelledException(e);
+        }
+    }
+
+    /**
+     * Adds a callback to be run in the executor when the future is done. If it is done already,
+     * the callback is run now.
+     */
+    public void addCallback(final Callback<? super T> callback, Executor executor) {
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                final State state;
+                final T value;
+                final MendeleyException error;
+                synchronized (MendeleyFuture.this) {
+                    state = MendeleyFuture.this.state;
+                    value = MendeleyFuture.this.value;
+                    error = MendeleyFuture.this.error;
+                }
+                if (state == State.SUCCEEDED) {
+                    callback.onSuccess(value);
+                } else {
+                    callback.onFailure(error);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * @return a future of the result of the function applied to the result of this one, in the executor
+     */
+    public <R> MendeleyFuture<R> map(final Function<? super T, ? extends R> function, Executor executor) {
+        final MendeleyFuture<R> result = new MendeleyFuture<R>();
+        result.addCancelAction(cancelAction(this));
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.set(function.apply(value));
+                } catch (MendeleyException e) {
+                    result.setException(e);
+                } catch (RuntimeException e) {
+                    result.setException(new MendeleyException("Error in asynchronous step", e));
+                }
+            }
+
+            @Override
+            public void onFailure(MendeleyException e) {
+                result.setException(e);
+            }
+        }, executor);
+        return result;
+    }
+
+    /**
+     * @return a future of the result of the future returned by the function, applied in the
+     * executor to the result of this one
+     */
+    public <R> MendeleyFuture<R> then(final AsyncFunction<? super T, ? extends R> function, Executor executor) {
+        final MendeleyFuture<R> result = new MendeleyFuture<R>();
+        result.addCancelAction(cancelAction(this));
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.setFuture(function.apply(value));
+                } catch (MendeleyException e) {
+                    result.setException(e);
+                } catch (RuntimeException e) {
+                    result.setException(new MendeleyException("Error in asynchronous step", e));
+                }
+            }
+
+            @Override
+            public void onFailure(MendeleyException e) {
+                result.setException(e);
+            }
+        }, executor);
+        return result;
+    }
+
+    /**
+     * @return a future of the results of all the futures, in the same order, that fails as soon
+     * as one of them fails, cancelling the rest
+     */
+    public static <T> MendeleyFuture<List<T>> allOf(final List<? extends MendeleyFuture<? extends T>> futures) {
+        final MendeleyFuture<List<T>> result = new MendeleyFuture<List<T>>();
+        if (futures.isEmpty()) {
+            result.set(Collections.<T>emptyList());
+            return result;
+        }
+
+        final Object[] values = new Object[futures.size()];
+        final int[] remaining = {futures.size()};
+        for (final MendeleyFuture<? extends T> future : futures) {
+            result.addCancelAction(cancelAction(future));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = i;
+            futures.get(i).addCallback(new Callback<T>() {
+                @Override
+                public void onSuccess(T value) {
+                    final boolean last;
+                    synchronized (values) {
+                        values[index] = value;
+                        last = --remaining[0] == 0;
+                    }
+                    if (last) {
+                        @SuppressWarnings("unchecked")
+                        final List<T> list = (List<T>) Arrays.asList(values);
+                        result.set(list);
+                    }
+                }
+
+                @Override
+                public void onFailure(MendeleyException e) {
+                    if (result.setException(e)) {
+                        for (MendeleyFuture<? extends T> future : futures) {
+                            future.cancel(true);
+                        }
+                    }
+                }
+            }, DIRECT_EXECUTOR);
+        }
+        return result;
+    }
+
+    private void addListener(final Runnable listener, final Executor executor) {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.execute(listener);
+                } catch (RejectedExecutionException e) {
+                    // the executor has been shut down: nobody is waiting for the result
+                }
+            }
+        };
+        synchronized (this) {
+            if (state == State.PENDING) {
+                listeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    private void onDone() {
+        final List<Runnable> toRun;
+        synchronized (this) {
+            toRun = listeners;
+            listeners = null;
+            cancelActions = null;
+            notifyAll();
+        }
+        for (Runnable listener : toRun) {
+            listener.run();
+        }
+    }
+
+    private T getDone() throws ExecutionException {
+        switch (state) {
+            case SUCCEEDED:
+                return value;
+            case CANCELLED:
+                throw new CancellationException();
+            default:
+                throw new ExecutionException(error);
+        }
+    }
+
+    private static Runnable cancelAction(final Future<?> future) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                future.cancel(true);
+            }
+        };
+    }
+
+    /**
+     * Runs the tasks in the thread that completes the future. Only for short tasks that don't block.
+     */
+    public static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Receives the result of a {@link MendeleyFuture}.
+     */
+    public interface Callback<T> {
+
+        void onSuccess(T result);
+
+        /**
+         * @param e the error, or a {@link UserCancelledException} if the future has been cancelled
+         */
+        void onFailure(MendeleyException e);
+    }
+
+    /**
+     * Step of a chain of futures.
+     */
+    public interface Function<T, R> {
+        R apply(T value) throws MendeleyException;
+    }
+
+    /**
+     * Asynchronous step of a chain of futures.
+     */
+    public interface AsyncFunction<T, R> {
+        MendeleyFuture<R> apply(T value) throws MendeleyException;
+    }
+}
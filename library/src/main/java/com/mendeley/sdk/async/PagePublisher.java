@@ -0,0 +1,223 @@
+package com.mendeley.sdk.async;
+
+import android.net.Uri;
+
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.RequestsFactory;
+import com.mendeley.sdk.exceptions.MendeleyException;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link Publisher} of the pages of a paginated request, as those of
+ * {@link RequestsFactory#newGetDocumentsRequest(com.mendeley.sdk.request.endpoint.DocumentEndpoint.DocumentRequestParameters)}.
+ * <p>
+ * Each page is only requested when the subscriber has asked for it, so a subscriber that
+ * processes the pages in another thread and asks for the next one before finishing with the
+ * current one overlaps the download of a page with its own work, without fetching pages it
+ * can't keep up with.
+ * <p>
+ * Requests are run, and the subscriber invoked, in the given executor. Requests can be run only
+ * once, so a publisher accepts only one subscriber. The requests of the next pages get the
+ * deadline of the first one, so it bounds the time to get all of them.
+ *
+ * @param <T> type of the items of the pages
+ */
+public class PagePublisher<T> implements Publisher<List<T>> {
+
+    private final Request<List<T>> firstRequest;
+    private final NextPageFactory<T> nextPageFactory;
+    private final Executor executor;
+
+    private boolean subscribed;
+
+    /**
+     * @param firstRequest request of the first page
+     * @param nextPageFactory creates the requests of the next pages
+     * @param executor where the requests run
+     */
+    public PagePublisher(Request<List<T>> firstRequest, NextPageFactory<T> nextPageFactory, Executor executor) {
+        this.firstRequest = firstRequest;
+        this.nextPageFactory = nextPageFactory;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Publisher.Subscriber<? super List<T>> subscriber) {
+        synchronized (this) {
+            if (subscribed) {
+                subscriber.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new MendeleyException("Pages already published to another subscriber"));
+                return;
+            }
+            subscribed = true;
+        }
+        subscriber.onSubscribe(new PageSubscription(subscriber));
+    }
+
+    /**
+     * Signals the subscriber only from the thread running {@link #run()}, that is started by
+     * {@link #request(long)} when there is something to signal and it's not running already,
+     * so that the signals are serial.
+     */
+    private class PageSubscription implements Subscription, Runnable {
+
+        private final Publisher.Subscriber<? super List<T>> subscriber;
+
+        private Request<List<T>> request = firstRequest;
+        private long demand;
+        private MendeleyException pendingError;
+        private boolean running;
+        private boolean finished;
+        private volatile boolean cancelled;
+
+        PageSubscription(Publisher.Subscriber<? super List<T>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (finished || cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    pendingError = new MendeleyException("Requested a non positive number of pages: " + n);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // nothing else is signalling the subscriber, as this call set running
+                if (finish()) {
+                    subscriber.onError(new MendeleyException("Could not request the pages", e));
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            final Request<List<T>> toCancel;
+            synchronized (this) {
+                cancelled = true;
+                toCancel = request;
+            }
+            if (toCancel != null) {
+                toCancel.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean returned = false;
+            try {
+                publishPages();
+                returned = true;
+            } finally {
+                // the subscriber threw: it's not signalled anymore
+                if (!returned) {
+                    finish();
+                }
+            }
+        }
+
+        private void publishPages() {
+            while (true) {
+                final Request<List<T>> current;
+                final MendeleyException error;
+                synchronized (this) {
+                    if (finished || cancelled || (pendingError == null && demand == 0)) {
+                        running = false;
+                        return;
+                    }
+                    error = pendingError;
+                    if (error == null) {
+                        demand--;
+                    }
+                    current = request;
+                }
+                if (error != null) {
+                    if (finish()) {
+                        subscriber.onError(error);
+                    }
+                    return;
+                }
+
+                final Request<List<T>>.Response response;
+                final Request<List<T>> nextRequest;
+                try {
+                    response = current.run();
+                    nextRequest = response.next != null ? newNextRequest(response.next) : null;
+                } catch (MendeleyException e) {
+                    if (finish()) {
+                        subscriber.onError(e);
+                    }
+                    return;
+                } catch (RuntimeException e) {
+                    if (finish()) {
+                        subscriber.onError(new MendeleyException("Could not request the next page", e));
+                    }
+                    return;
+                }
+
+                synchronized (this) {
+                    request = nextRequest;
+                }
+                if (cancelled) {
+                    return;
+                }
+                subscriber.onNext(response.resource);
+                if (nextRequest == null) {
+                    if (finish()) {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+            }
+        }
+
+        // the pages inherit the deadline of the first one
+        private Request<List<T>> newNextRequest(Uri next) {
+            final Request<List<T>> nextRequest = nextPageFactory.newRequest(next);
+            if (nextRequest.getDeadline() == null) {
+                nextRequest.setDeadline(firstRequest.getDeadline());
+            }
+            return nextRequest;
+        }
+
+        // false if finished or cancelled already
+        private synchronized boolean finish() {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            running = false;
+            request = null;
+            return !cancelled;
+        }
+    }
+
+    /**
+     * Creates the requests of the next pages, typically with the methods of {@link RequestsFactory}
+     * that take the {@link Uri} of a page.
+     */
+    public interface NextPageFactory<T> {
+        Request<List<T>> newRequest(Uri next);
+    }
+}
@@ -0,0 +1,59 @@
+package com.mendeley.sdk.async;
+
+import com.mendeley.sdk.exceptions.MendeleyException;
+
+/**
+ * Source of a sequence of items, pushed to its {@link Subscriber} only as fast as it asks for
+ * them, following the Reactive Streams protocol.
+ *
+ * @param <T> type of the items
+ */
+public interface Publisher<T> {
+
+    /**
+     * Starts sending items to the subscriber, that receives its {@link Subscription} first.
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+
+    /**
+     * Receives the items of a {@link Publisher}. Its methods are never called concurrently.
+     */
+    interface Subscriber<T> {
+
+        /**
+         * Invoked first. No item is sent until some are requested with
+         * {@link Subscription#request(long)}.
+         */
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        /**
+         * Invoked when the sequence ends with an error. No more methods are invoked after this one.
+         */
+        void onError(MendeleyException e);
+
+        /**
+         * Invoked when all the items have been sent. No more methods are invoked after this one.
+         */
+        void onComplete();
+    }
+
+    /**
+     * Link between a {@link Publisher} and its {@link Subscriber}.
+     */
+    interface Subscription {
+
+        /**
+         * Asks for n more items. They are sent as they are available, and never more than asked for.
+         */
+        void request(long n);
+
+        /**
+         * Stops sending items, and cancels the work in progress. The subscriber may still
+         * receive some items, but neither {@link Subscriber#onError(MendeleyException)} nor
+         * {@link Subscriber#onComplete()}.
+         */
+        void cancel();
+    }
+}
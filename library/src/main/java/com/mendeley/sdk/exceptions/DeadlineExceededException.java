@@ -0,0 +1,15 @@
+package com.mendeley.sdk.exceptions;
+
+/**
+ * Exception thrown when a request, or a chain of them, could not finish before its deadline.
+ */
+public class DeadlineExceededException extends MendeleyException {
+
+	public DeadlineExceededException() {
+		super("Deadline exceeded");
+	}
+
+	public DeadlineExceededException(Exception cause) {
+		super("Deadline exceeded", cause);
+	}
+}
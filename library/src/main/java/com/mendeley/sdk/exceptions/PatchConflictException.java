@@ -0,0 +1,43 @@
+package com.mendeley.sdk.exceptions;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Exception thrown when a change could not be applied because the same fields were changed
+ * in the server since the version it was based on.
+ * <p>
+ * The versions are {@link com.mendeley.sdk.model.Document}s or
+ * {@link com.mendeley.sdk.model.Annotation}s, so the app can show them to the user, and patch
+ * the server version with the chosen values.
+ */
+public class PatchConflictException extends MendeleyException {
+
+    /**
+     * Version the change was based on.
+     */
+    public final Object base;
+
+    /**
+     * The change that could not be applied.
+     */
+    public final Object local;
+
+    /**
+     * Current version in the server.
+     */
+    public final Object remote;
+
+    /**
+     * Names of the fields changed both locally and in the server, as in the JSON of the API.
+     */
+    public final Set<String> conflictingFields;
+
+    public PatchConflictException(Object base, Object local, Object remote, Set<String> conflictingFields) {
+        super("Conflicting changes in " + conflictingFields);
+        this.base = base;
+        this.local = local;
+        this.remote = remote;
+        this.conflictingFields = Collections.unmodifiableSet(conflictingFields);
+    }
+}
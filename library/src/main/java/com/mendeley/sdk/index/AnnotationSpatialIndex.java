@@ -0,0 +1,307 @@
+package com.mendeley.sdk.index;
+
+import android.net.Uri;
+
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.model.Annotation;
+import com.mendeley.sdk.model.PackedPositions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In memory index of the annotations of files, by file hash, page and position.
+ * <p>
+ * Lets PDF viewers find the annotations to draw in a page, or under a tap, without scanning
+ * all the annotations of the file. The boxes of each page are kept sorted by their top, with
+ * the running maximum of their bottoms, so range queries only visit the boxes whose vertical
+ * span can intersect the queried one.
+ * <p>
+ * The index is updated incrementally with {@link #put(Annotation)} and {@link #remove(String)},
+ * or by running the requests that create and modify annotations with the callback returned by
+ * {@link #updatingCallback(Request.RequestCallback)}.
+ * <p>
+ * Annotations without file hash, and positions without page or corners, are not indexed.
+ * <p>
+ * This class is thread safe.
+ */
+public class AnnotationSpatialIndex {
+
+    private final Map<String, Map<Integer, Page>> pagesByFileHash = new HashMap<String, Map<Integer, Page>>();
+    private final Map<String, Annotation> annotationsById = new HashMap<String, Annotation>();
+
+    public AnnotationSpatialIndex() {
+    }
+
+    /**
+     * Adds an annotation to the index, replacing the previous version if it was already indexed.
+     */
+    public synchronized void put(Annotation annotation) {
+        if (annotation.id == null) {
+            throw new IllegalArgumentException("Annotation must have an id");
+        }
+        remove(annotation.id);
+        if (annotation.fileHash == null) {
+            return;
+        }
+
+        Map<Integer, Page> pages = pagesByFileHash.get(annotation.fileHash);
+        if (pages == null) {
+            pages = new HashMap<Integer, Page>();
+            pagesByFileHash.put(annotation.fileHash, pages);
+        }
+
+        boolean indexed = false;
+        final PackedPositions positions = annotation.packedPositions;
+        for (int i = 0; positions != null && i < positions.size(); i++) {
+            final int pageNumber = positions.getPage(i);
+            if (pageNumber == PackedPositions.NO_PAGE || !(positions.hasTopLeft(i) || positions.hasBottomRight(i))) {
+                continue;
+            }
+
+            Page page = pages.get(pageNumber);
+            if (page == null) {
+                page = new Page();
+                pages.put(pageNumber, page);
+            }
+            page.add(new Box(annotation, positions, i));
+            indexed = true;
+        }
+
+        if (indexed) {
+            annotationsById.put(annotation.id, annotation);
+        } else if (pages.isEmpty()) {
+            pagesByFileHash.remove(annotation.fileHash);
+        }
+    }
+
+    public synchronized void putAll(Collection<Annotation> annotations) {
+        for (Annotation annotation : annotations) {
+            put(annotation);
+        }
+    }
+
+    /**
+     * @return true if the annotation was in the index
+     */
+    public synchronized boolean remove(String annotationId) {
+        final Annotation annotation = annotationsById.remove(annotationId);
+        if (annotation == null) {
+            return false;
+        }
+
+        final Map<Integer, Page> pages = pagesByFileHash.get(annotation.fileHash);
+        final PackedPositions positions = annotation.packedPositions;
+        for (int i = 0; i < positions.size(); i++) {
+            final Page page = pages.get(positions.getPage(i));
+            if (page != null && page.remove(annotationId) && page.isEmpty()) {
+                pages.remove(positions.getPage(i));
+            }
+        }
+        if (pages.isEmpty()) {
+            pagesByFileHash.remove(annotation.fileHash);
+        }
+        return true;
+    }
+
+    /**
+     * Removes all the annotations of a file.
+     */
+    public synchronized void removeFile(String fileHash) {
+        final Map<Integer, Page> pages = pagesByFileHash.remove(fileHash);
+        if (pages != null) {
+            for (Page page : pages.values()) {
+                for (Box box : page.boxes) {
+                    annotationsById.remove(box.annotation.id);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the annotations with positions in the page, sorted by their top
+     */
+    public synchronized List<Annotation> getAnnotations(String fileHash, int pageNumber) {
+        final Page page = getPage(fileHash, pageNumber);
+        if (page == null) {
+            return Collections.emptyList();
+        }
+        page.sort();
+        final Set<Annotation> annotations = new LinkedHashSet<Annotation>();
+        for (Box box : page.boxes) {
+            annotations.add(box.annotation);
+        }
+        return new ArrayList<Annotation>(annotations);
+    }
+
+    /**
+     * @return the annotations with positions intersecting the rectangle, sorted by their top
+     */
+    public synchronized List<Annotation> query(String fileHash, int pageNumber, double x1, double y1, double x2, double y2) {
+        final Page page = getPage(fileHash, pageNumber);
+        if (page == null) {
+            return Collections.emptyList();
+        }
+        return page.query(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+    }
+
+    /**
+     * @return the annotations with positions containing the point, sorted by their top
+     */
+    public synchronized List<Annotation> hitTest(String fileHash, int pageNumber, double x, double y) {
+        return query(fileHash, pageNumber, x, y, x, y);
+    }
+
+    /**
+     * Wraps a callback of a request returning an annotation, like
+     * {@link com.mendeley.sdk.request.endpoint.AnnotationsEndpoint.PostAnnotationRequest} or
+     * {@link com.mendeley.sdk.request.endpoint.AnnotationsEndpoint.PatchAnnotationRequest},
+     * so that the returned annotation is put in this index before the callback is invoked.
+     */
+    public Request.RequestCallback<Annotation> updatingCallback(final Request.RequestCallback<Annotation> callback) {
+        return new Request.RequestCallback<Annotation>() {
+            @Override
+            public void onSuccess(Annotation annotation, Uri next, Date serverDate) {
+                put(annotation);
+                callback.onSuccess(annotation, next, serverDate);
+            }
+
+            @Override
+            public void onFailure(MendeleyException mendeleyException) {
+                callback.onFailure(mendeleyException);
+            }
+
+            @Override
+            public void onCancelled() {
+                callback.onCancelled();
+            }
+        };
+    }
+
+    private Page getPage(String fileHash, int pageNumber) {
+        final Map<Integer, Page> pages = pagesByFileHash.get(fileHash);
+        return pages == null ? null : pages.get(pageNumber);
+    }
+
+    /**
+     * Bounding box of one position of an annotation, with the coordinates sorted whatever the
+     * orientation of the y axis.
+     */
+    private static class Box {
+        final Annotation annotation;
+        final double minX;
+        final double minY;
+        final double maxX;
+        final double maxY;
+
+        // a position missing one of its corners is indexed as the other one
+        Box(Annotation annotation, PackedPositions positions, int index) {
+            this.annotation = annotation;
+            final boolean hasTopLeft = positions.hasTopLeft(index);
+            final boolean hasBottomRight = positions.hasBottomRight(index);
+            final double x1 = hasTopLeft ? positions.getX1(index) : positions.getX2(index);
+            final double y1 = hasTopLeft ? positions.getY1(index) : positions.getY2(index);
+            final double x2 = hasBottomRight ? positions.getX2(index) : positions.getX1(index);
+            final double y2 = hasBottomRight ? positions.getY2(index) : positions.getY1(index);
+            minX = Math.min(x1, x2);
+            minY = Math.min(y1, y2);
+            maxX = Math.max(x1, x2);
+            maxY = Math.max(y1, y2);
+        }
+    }
+
+    private static final Comparator<Box> BY_MIN_Y = new Comparator<Box>() {
+        @Override
+        public int compare(Box lhs, Box rhs) {
+            return Double.compare(lhs.minY, rhs.minY);
+        }
+    };
+
+    /**
+     * Boxes of one page, sorted by minY when queried.
+     */
+    private static class Page {
+        final List<Box> boxes = new ArrayList<Box>();
+        private double[] minYs;
+        // maximum maxY of the boxes up to each index
+        private double[] runningMaxYs;
+        private boolean sorted;
+
+        void add(Box box) {
+            boxes.add(box);
+            sorted = false;
+        }
+
+        boolean remove(String annotationId) {
+            boolean removed = false;
+            for (int i = boxes.size() - 1; i >= 0; i--) {
+                if (boxes.get(i).annotation.id.equals(annotationId)) {
+                    boxes.remove(i);
+                    removed = true;
+                }
+            }
+            sorted &= !removed;
+            return removed;
+        }
+
+        boolean isEmpty() {
+            return boxes.isEmpty();
+        }
+
+        void sort() {
+            if (sorted) {
+                return;
+            }
+            Collections.sort(boxes, BY_MIN_Y);
+            minYs = new double[boxes.size()];
+            runningMaxYs = new double[boxes.size()];
+            double runningMaxY = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < boxes.size(); i++) {
+                final Box box = boxes.get(i);
+                minYs[i] = box.minY;
+                runningMaxY = Math.max(runningMaxY, box.maxY);
+                runningMaxYs[i] = runningMaxY;
+            }
+            sorted = true;
+        }
+
+        List<Annotation> query(double minX, double minY, double maxX, double maxY) {
+            sort();
+
+            // boxes starting below the queried rectangle can't intersect it
+            int end = Arrays.binarySearch(minYs, maxY);
+            if (end < 0) {
+                end = -end - 1;
+            } else {
+                while (end < minYs.length && minYs[end] <= maxY) {
+                    end++;
+                }
+            }
+
+            // and going backwards, once no previous box reaches minY none can intersect it
+            final List<Box> matches = new ArrayList<Box>();
+            for (int i = end - 1; i >= 0 && runningMaxYs[i] >= minY; i--) {
+                final Box box = boxes.get(i);
+                if (box.maxY >= minY && box.minX <= maxX && box.maxX >= minX) {
+                    matches.add(box);
+                }
+            }
+
+            final Set<Annotation> annotations = new LinkedHashSet<Annotation>();
+            for (int i = matches.size() - 1; i >= 0; i--) {
+                annotations.add(matches.get(i).annotation);
+            }
+            return new ArrayList<Annotation>(annotations);
+        }
+    }
+}
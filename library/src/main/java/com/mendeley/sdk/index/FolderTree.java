@@ -0,0 +1,376 @@
+package com.mendeley.sdk.index;
+
+import com.mendeley.sdk.model.Folder;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In memory index of the folders of a library and of the documents they contain.
+ * <p>
+ * Built from the results of {@link com.mendeley.sdk.request.endpoint.FoldersEndpoint.GetFoldersRequest}
+ * and {@link com.mendeley.sdk.request.endpoint.FoldersEndpoint.GetFolderDocumentIdsRequest}, and
+ * updated incrementally as folders and documents change. Then the hierarchy and the documents
+ * under a folder and its subfolders can be queried without more requests.
+ * <p>
+ * Folders and documents are given internal numbers, so the membership is kept in {@link BitSet}s:
+ * checking if a document is in a folder takes constant time, and the documents of a subtree
+ * are the union of the sets of its folders.
+ * <p>
+ * Folders may be added in any order: the subfolders of a folder not known yet are listed
+ * as roots until their parent is added.
+ * <p>
+ * The numbers of removed folders and documents are reused, once nothing refers to them.
+ * <p>
+ * This class is thread safe.
+ */
+public class FolderTree {
+
+    private final Map<String, Integer> folderNums = new HashMap<String, Integer>();
+    private final Map<String, Integer> documentNums = new HashMap<String, Integer>();
+    private final List<String> documentIds = new ArrayList<String>();
+
+    // by folder number
+    private final List<String> folderIds = new ArrayList<String>();
+    private final List<Folder> folders = new ArrayList<Folder>();
+    private final List<BitSet> children = new ArrayList<BitSet>();
+    private final List<BitSet> folderDocuments = new ArrayList<BitSet>();
+
+    // by document number
+    private final List<BitSet> documentFolders = new ArrayList<BitSet>();
+
+    private final BitSet freeFolderNums = new BitSet();
+    private final BitSet freeDocumentNums = new BitSet();
+
+    public FolderTree() {
+    }
+
+    /**
+     * Adds a folder, or updates it if it was already in the tree.
+     */
+    public synchronized void putFolder(Folder folder) {
+        if (folder.id == null) {
+            throw new IllegalArgumentException("Folder must have an id");
+        }
+
+        final int num = getFolderNum(folder.id);
+        final Folder previous = folders.get(num);
+        if (folder.parentId != null) {
+            children.get(getFolderNum(folder.parentId)).set(num);
+        }
+        if (previous != null && previous.parentId != null && !previous.parentId.equals(folder.parentId)) {
+            removeChild(previous.parentId, num);
+        }
+        folders.set(num, folder);
+    }
+
+    public synchronized void putFolders(Collection<Folder> folders) {
+        for (Folder folder : folders) {
+            putFolder(folder);
+        }
+    }
+
+    /**
+     * Removes a folder and its documents from the tree. Its subfolders are kept, and listed
+     * as roots unless the folder is added again.
+     */
+    public synchronized void removeFolder(String folderId) {
+        final Integer num = folderNums.get(folderId);
+        if (num == null || folders.get(num) == null) {
+            return;
+        }
+
+        final Folder folder = folders.get(num);
+        if (folder.parentId != null) {
+            removeChild(folder.parentId, num);
+        }
+        setDocuments(num, new BitSet());
+        folders.set(num, null);
+        // kept while it has subfolders, so they are linked again if it is added again
+        releaseFolderIfUnused(num);
+    }
+
+    /**
+     * Replaces the documents of a folder, for example with the ones returned by
+     * {@link com.mendeley.sdk.request.endpoint.FoldersEndpoint.GetFolderDocumentIdsRequest}.
+     */
+    public synchronized void setFolderDocuments(String folderId, Collection<String> documentIds) {
+        final BitSet documents = new BitSet();
+        for (String documentId : documentIds) {
+            documents.set(getDocumentNum(documentId));
+        }
+        final int folder = getFolderNum(folderId);
+        setDocuments(folder, documents);
+        releaseFolderIfUnused(folder);
+    }
+
+    public synchronized void addDocumentToFolder(String folderId, String documentId) {
+        final int folder = getFolderNum(folderId);
+        final int document = getDocumentNum(documentId);
+        folderDocuments.get(folder).set(document);
+        documentFolders.get(document).set(folder);
+    }
+
+    public synchronized void removeDocumentFromFolder(String folderId, String documentId) {
+        final Integer folder = folderNums.get(folderId);
+        final Integer document = documentNums.get(documentId);
+        if (folder != null && document != null) {
+            folderDocuments.get(folder).clear(document);
+            documentFolders.get(document).clear(folder);
+            releaseDocumentIfUnused(document);
+            releaseFolderIfUnused(folder);
+        }
+    }
+
+    /**
+     * Removes a document from all its folders, for example when it's deleted or trashed.
+     */
+    public synchronized void removeDocument(String documentId) {
+        final Integer document = documentNums.get(documentId);
+        if (document == null) {
+            return;
+        }
+        final BitSet folders = documentFolders.get(document);
+        for (int folder = folders.nextSetBit(0); folder >= 0; folder = folders.nextSetBit(folder + 1)) {
+            folderDocuments.get(folder).clear(document);
+            releaseFolderIfUnused(folder);
+        }
+        folders.clear();
+        releaseDocumentIfUnused(document);
+    }
+
+    /**
+     * @return the folder with the given id, or null if it's not in the tree
+     */
+    public synchronized Folder getFolder(String folderId) {
+        final Integer num = folderNums.get(folderId);
+        return num == null ? null : folders.get(num);
+    }
+
+    /**
+     * @return the folders without parent, or whose parent is not in the tree
+     */
+    public synchronized List<Folder> getRootFolders() {
+        final List<Folder> roots = new ArrayList<Folder>();
+        for (Folder folder : folders) {
+            if (folder != null && (folder.parentId == null || getFolder(folder.parentId) == null)) {
+                roots.add(folder);
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * @return the direct subfolders of a folder, none if the folder is not in the tree
+     */
+    public synchronized List<Folder> getSubfolders(String folderId) {
+        final List<Folder> subfolders = new ArrayList<Folder>();
+        final Integer num = folderNums.get(folderId);
+        if (num != null && folders.get(num) != null) {
+            final BitSet folderChildren = children.get(num);
+            for (int child = folderChildren.nextSetBit(0); child >= 0; child = folderChildren.nextSetBit(child + 1)) {
+                subfolders.add(folders.get(child));
+            }
+        }
+        return subfolders;
+    }
+
+    /**
+     * @return true if the folder is the subtree folder or one of its subfolders, directly or not
+     */
+    public synchronized boolean isInSubtree(String folderId, String subtreeFolderId) {
+        // walks up the ancestors, bounded by the number of folders in case of cycles
+        String current = folderId;
+        for (int i = 0; current != null && i <= folders.size(); i++) {
+            if (current.equals(subtreeFolderId)) {
+                return true;
+            }
+            final Folder folder = getFolder(current);
+            current = folder == null ? null : folder.parentId;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the document is directly in the folder
+     */
+    public synchronized boolean isDocumentInFolder(String documentId, String folderId) {
+        final Integer folder = folderNums.get(folderId);
+        final Integer document = documentNums.get(documentId);
+        return folder != null && document != null && folderDocuments.get(folder).get(document);
+    }
+
+    /**
+     * @return true if the document is in the folder or in any of its subfolders
+     */
+    public synchronized boolean isDocumentInSubtree(String documentId, String folderId) {
+        final Integer folder = folderNums.get(folderId);
+        final Integer document = documentNums.get(documentId);
+        return folder != null && document != null && getSubtree(folder).intersects(documentFolders.get(document));
+    }
+
+    /**
+     * @return the ids of the folders directly containing the document
+     */
+    public synchronized Set<String> getDocumentFolderIds(String documentId) {
+        final Set<String> folderIds = new HashSet<String>();
+        final Integer document = documentNums.get(documentId);
+        if (document != null) {
+            final BitSet documentFolders = this.documentFolders.get(document);
+            for (int folder = documentFolders.nextSetBit(0); folder >= 0; folder = documentFolders.nextSetBit(folder + 1)) {
+                folderIds.add(this.folderIds.get(folder));
+            }
+        }
+        return folderIds;
+    }
+
+    /**
+     * @return the ids of the documents directly in the folder
+     */
+    public synchronized Set<String> getFolderDocumentIds(String folderId) {
+        final Integer folder = folderNums.get(folderId);
+        return folder == null ? new HashSet<String>() : toDocumentIds(folderDocuments.get(folder));
+    }
+
+    /**
+     * @return the ids of the documents in the folder or in any of its subfolders
+     */
+    public synchronized Set<String> getSubtreeDocumentIds(String folderId) {
+        final Integer folder = folderNums.get(folderId);
+        if (folder == null) {
+            return new HashSet<String>();
+        }
+
+        final BitSet documents = new BitSet();
+        final BitSet subtree = getSubtree(folder);
+        for (int num = subtree.nextSetBit(0); num >= 0; num = subtree.nextSetBit(num + 1)) {
+            documents.or(folderDocuments.get(num));
+        }
+        return toDocumentIds(documents);
+    }
+
+    // folders of the subtree, including the root. Cycles left by partial updates are ignored.
+    // A root not in the tree has no subfolders, as they are listed as roots.
+    private BitSet getSubtree(int root) {
+        final BitSet subtree = new BitSet();
+        subtree.set(root);
+        if (folders.get(root) == null) {
+            return subtree;
+        }
+        final List<Integer> pending = new ArrayList<Integer>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            final BitSet folderChildren = children.get(pending.remove(pending.size() - 1));
+            for (int child = folderChildren.nextSetBit(0); child >= 0; child = folderChildren.nextSetBit(child + 1)) {
+                if (!subtree.get(child)) {
+                    subtree.set(child);
+                    pending.add(child);
+                }
+            }
+        }
+        return subtree;
+    }
+
+    private void setDocuments(int folder, BitSet documents) {
+        final BitSet previous = folderDocuments.get(folder);
+        for (int document = previous.nextSetBit(0); document >= 0; document = previous.nextSetBit(document + 1)) {
+            documentFolders.get(document).clear(folder);
+        }
+        for (int document = documents.nextSetBit(0); document >= 0; document = documents.nextSetBit(document + 1)) {
+            documentFolders.get(document).set(folder);
+        }
+        folderDocuments.set(folder, documents);
+        for (int document = previous.nextSetBit(0); document >= 0; document = previous.nextSetBit(document + 1)) {
+            releaseDocumentIfUnused(document);
+        }
+    }
+
+    private void removeChild(String parentId, int child) {
+        final int parent = folderNums.get(parentId);
+        children.get(parent).clear(child);
+        releaseFolderIfUnused(parent);
+    }
+
+    // frees the number of a folder not in the tree, once no subfolder nor document refers to it
+    private void releaseFolderIfUnused(int num) {
+        if (folders.get(num) == null && children.get(num).isEmpty() && folderDocuments.get(num).isEmpty()) {
+            folderNums.remove(folderIds.get(num));
+            folderIds.set(num, null);
+            freeFolderNums.set(num);
+        }
+    }
+
+    // frees the number of a document that is in no folder
+    private void releaseDocumentIfUnused(int num) {
+        if (documentFolders.get(num).isEmpty()) {
+            documentNums.remove(documentIds.get(num));
+            documentIds.set(num, null);
+            freeDocumentNums.set(num);
+        }
+    }
+
+    /**
+     * @return number of folder numbers given, including the free ones
+     */
+    synchronized int getFolderNumCount() {
+        return folders.size();
+    }
+
+    /**
+     * @return number of document numbers given, including the free ones
+     */
+    synchronized int getDocumentNumCount() {
+        return documentIds.size();
+    }
+
+    private Set<String> toDocumentIds(BitSet documents) {
+        final Set<String> ids = new HashSet<String>(documents.cardinality() * 2);
+        for (int document = documents.nextSetBit(0); document >= 0; document = documents.nextSetBit(document + 1)) {
+            ids.add(documentIds.get(document));
+        }
+        return ids;
+    }
+
+    // folders referenced as parents or with documents are numbered before being added
+    private int getFolderNum(String folderId) {
+        Integer num = folderNums.get(folderId);
+        if (num == null) {
+            num = freeFolderNums.nextSetBit(0);
+            if (num >= 0) {
+                freeFolderNums.clear(num);
+                folderIds.set(num, folderId);
+            } else {
+                num = folders.size();
+                folderIds.add(folderId);
+                folders.add(null);
+                children.add(new BitSet());
+                folderDocuments.add(new BitSet());
+            }
+            folderNums.put(folderId, num);
+        }
+        return num;
+    }
+
+    private int getDocumentNum(String documentId) {
+        Integer num = documentNums.get(documentId);
+        if (num == null) {
+            num = freeDocumentNums.nextSetBit(0);
+            if (num >= 0) {
+                freeDocumentNums.clear(num);
+                documentIds.set(num, documentId);
+            } else {
+                num = documentIds.size();
+                documentIds.add(documentId);
+                documentFolders.add(new BitSet());
+            }
+            documentNums.put(documentId, num);
+        }
+        return num;
+    }
+}
@@ -0,0 +1,874 @@
+package com.mendeley.sdk.index;
+
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.model.Person;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Full text index of the documents of a library, to search them without requests to the
+ * Mendeley API.
+ * <p>
+ * Indexes the title, authors, tags, abstract and notes of each {@link Document}. The index is
+ * built incrementally: documents are added, replaced and removed as they are synced, and the
+ * index can be saved to a file and loaded on the next start up.
+ * <p>
+ * Queries are made of words, that must all be found in the document:
+ * <ul>
+ * <li><code>word</code> finds the documents containing that word</li>
+ * <li><code>wor*</code> finds the documents containing words starting with that prefix</li>
+ * <li><code>"some words"</code> finds the documents containing those words, in that order</li>
+ * </ul>
+ * Hits are ranked with BM25, giving more weight to the matches in titles, authors and tags.
+ * <p>
+ * This class is thread safe.
+ */
+public class SearchIndex {
+
+    /**
+     * Indexed fields of the documents, with the weight of their matches in the ranking.
+     */
+    public enum Field {
+        TITLE(3f), AUTHORS(2f), TAGS(2f), ABSTRACT(1f), NOTES(1f);
+
+        public final float weight;
+
+        Field(float weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Document matching a query.
+     */
+    public static class Hit {
+        public final String documentId;
+        public final float score;
+
+        Hit(String documentId, float score) {
+            this.documentId = documentId;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return documentId + " (" + score + ")";
+        }
+    }
+
+    // numbers of removed documents are reclaimed once there are more of them than this, and than documents
+    static final int MIN_COMPACTED_DOCS = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x4D534958; // "MSIX"
+    private static final int VERSION = 1;
+
+    // positions keep the field in the high bits, so phrases don't match across fields
+    private static final int POSITION_BITS = 24;
+    private static final int POSITION_MASK = (1 << POSITION_BITS) - 1;
+    private static final int MAX_POSITION = POSITION_MASK - 1;
+
+    // BM25 parameters
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private final TreeMap<String, Postings> postingsByTerm = new TreeMap<String, Postings>();
+    private final Map<String, Integer> docNums = new HashMap<String, Integer>();
+
+    // by internal document number, which grows as documents are added, and is compacted as they are removed
+    private String[] docIds = new String[64];
+    private int[] docLengths = new int[64];
+    private String[][] docTerms = new String[64][];
+    private int nextDocNum;
+    private long totalLength;
+
+    public SearchIndex() {
+    }
+
+    /**
+     * Adds a document to the index, replacing the previous version if it was already indexed.
+     */
+    public synchronized void add(Document document) {
+        if (document.id == null) {
+            throw new IllegalArgumentException("Document must have an id");
+        }
+        remove(document.id);
+
+        final List<String> authors = new ArrayList<String>(document.authors.size());
+        for (Person author : document.authors) {
+            authors.add((author.firstName != null ? author.firstName + " " : "") + (author.lastName != null ? author.lastName : ""));
+        }
+
+        // fields are added in the order of their ordinals, so positions are sorted
+        final Map<String, IntList> termPositions = new HashMap<String, IntList>();
+        int length = 0;
+        length += addField(termPositions, Field.TITLE, Collections.singletonList(document.title));
+        length += addField(termPositions, Field.AUTHORS, authors);
+        length += addField(termPositions, Field.TAGS, document.tags);
+        length += addField(termPositions, Field.ABSTRACT, Collections.singletonList(document.abstractString));
+        length += addField(termPositions, Field.NOTES, Collections.singletonList(document.notes));
+
+        final int doc = nextDocNum++;
+        ensureDocCapacity(doc + 1);
+        docIds[doc] = document.id;
+        docLengths[doc] = length;
+        docTerms[doc] = termPositions.keySet().toArray(new String[termPositions.size()]);
+        docNums.put(document.id, doc);
+        totalLength += length;
+
+        for (Map.Entry<String, IntList> entry : termPositions.entrySet()) {
+            Postings postings = postingsByTerm.get(entry.getKey());
+            if (postings == null) {
+                postings = new Postings();
+                postingsByTerm.put(entry.getKey(), postings);
+            }
+            final IntList positions = entry.getValue();
+            postings.add(doc, positions.values, positions.size);
+        }
+    }
+
+    public synchronized void addAll(Collection<Document> documents) {
+        for (Document document : documents) {
+            add(document);
+        }
+    }
+
+    /**
+     * @return true if the document was in the index
+     */
+    public synchronized boolean remove(String documentId) {
+        final Integer doc = docNums.remove(documentId);
+        if (doc == null) {
+            return false;
+        }
+
+        for (String term : docTerms[doc]) {
+            final Postings postings = postingsByTerm.get(term);
+            postings.remove(doc);
+            if (postings.size == 0) {
+                postingsByTerm.remove(term);
+            }
+        }
+        totalLength -= docLengths[doc];
+        docIds[doc] = null;
+        docTerms[doc] = null;
+
+        final int removedCount = nextDocNum - docNums.size();
+        if (removedCount > MIN_COMPACTED_DOCS && removedCount > docNums.size()) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Renumbers the documents, so that the removed ones leave no gaps. Their relative order is
+     * kept, so postings stay sorted. As it is done when half of the numbers are free, its cost
+     * is amortized over the removals.
+     */
+    private void compact() {
+        final int[] newDocNums = new int[nextDocNum];
+        int docCount = 0;
+        for (int doc = 0; doc < nextDocNum; doc++) {
+            if (docIds[doc] != null) {
+                newDocNums[doc] = docCount;
+                docIds[docCount] = docIds[doc];
+                docLengths[docCount] = docLengths[doc];
+                docTerms[docCount] = docTerms[doc];
+                docNums.put(docIds[docCount], docCount);
+                docCount++;
+            }
+        }
+        Arrays.fill(docIds, docCount, nextDocNum, null);
+        Arrays.fill(docTerms, docCount, nextDocNum, null);
+        nextDocNum = docCount;
+
+        final int capacity = Math.max(MIN_COMPACTED_DOCS, docCount * 2);
+        if (docIds.length > capacity) {
+            docIds = Arrays.copyOf(docIds, capacity);
+            docLengths = Arrays.copyOf(docLengths, capacity);
+            docTerms = Arrays.copyOf(docTerms, capacity);
+        }
+
+        for (Postings postings : postingsByTerm.values()) {
+            for (int i = 0; i < postings.size; i++) {
+                postings.docs[i] = newDocNums[postings.docs[i]];
+            }
+        }
+    }
+
+    /**
+     * @return number of internal document numbers in use, including the ones of removed documents not reclaimed yet
+     */
+    synchronized int getDocNumCount() {
+        return nextDocNum;
+    }
+
+    /**
+     * @return number of documents in the index
+     */
+    public synchronized int size() {
+        return docNums.size();
+    }
+
+    /**
+     * @param query the words to search, see the {@link SearchIndex} documentation
+     * @param maxHits maximum number of hits returned
+     * @return the hits, with the best ranked first
+     */
+    public synchronized List<Hit> search(String query, int maxHits) {
+        final List<Clause> clauses = parse(query);
+        if (clauses.isEmpty() || maxHits <= 0) {
+            return Collections.emptyList();
+        }
+
+        // the most selective clause is matched first, and the others only on its matches
+        Collections.sort(clauses, new Comparator<Clause>() {
+            @Override
+            public int compare(Clause lhs, Clause rhs) {
+                return lhs.estimate() - rhs.estimate();
+            }
+        });
+
+        Map<Integer, Float> scores = null;
+        for (Clause clause : clauses) {
+            final Map<Integer, Float> clauseScores = new HashMap<Integer, Float>();
+            clause.match(scores, clauseScores);
+            if (scores != null) {
+                for (Map.Entry<Integer, Float> entry : clauseScores.entrySet()) {
+                    entry.setValue(entry.getValue() + scores.get(entry.getKey()));
+                }
+            }
+            scores = clauseScores;
+            if (scores.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+
+        return topHits(scores, maxHits);
+    }
+
+    private List<Hit> topHits(Map<Integer, Float> scores, int maxHits) {
+        final Comparator<Hit> worstFirst = new Comparator<Hit>() {
+            @Override
+            public int compare(Hit lhs, Hit rhs) {
+                final int cmp = Float.compare(lhs.score, rhs.score);
+                return cmp != 0 ? cmp : rhs.documentId.compareTo(lhs.documentId);
+            }
+        };
+
+        final PriorityQueue<Hit> queue = new PriorityQueue<Hit>(Math.min(maxHits, scores.size()) + 1, worstFirst);
+        for (Map.Entry<Integer, Float> entry : scores.entrySet()) {
+            queue.add(new Hit(docIds[entry.getKey()], entry.getValue()));
+            if (queue.size() > maxHits) {
+                queue.poll();
+            }
+        }
+
+        final List<Hit> hits = new ArrayList<Hit>(queue);
+        Collections.sort(hits, Collections.reverseOrder(worstFirst));
+        return hits;
+    }
+
+    private List<Clause> parse(String query) {
+        final List<Clause> clauses = new ArrayList<Clause>();
+        int i = 0;
+        while (i < query.length()) {
+            final char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                int end = query.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = query.length();
+                }
+                addWordsClause(clauses, Tokenizer.tokenize(query.substring(i + 1, end)));
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < query.length() && !Character.isWhitespace(query.charAt(end)) && query.charAt(end) != '"') {
+                    end++;
+                }
+                final String word = query.substring(i, end);
+                if (word.endsWith("*")) {
+                    final List<String> tokens = Tokenizer.tokenize(word);
+                    if (!tokens.isEmpty()) {
+                        for (String token : tokens.subList(0, tokens.size() - 1)) {
+                            clauses.add(new TermClause(token));
+                        }
+                        clauses.add(new PrefixClause(tokens.get(tokens.size() - 1)));
+                    }
+                } else {
+                    addWordsClause(clauses, Tokenizer.tokenize(word));
+                }
+                i = end;
+            }
+        }
+        return clauses;
+    }
+
+    private void addWordsClause(List<Clause> clauses, List<String> tokens) {
+        if (tokens.size() == 1) {
+            clauses.add(new TermClause(tokens.get(0)));
+        } else if (tokens.size() > 1) {
+            clauses.add(new PhraseClause(tokens));
+        }
+    }
+
+    private static int addField(Map<String, IntList> termPositions, Field field, List<String> values) {
+        int position = 0;
+        int count = 0;
+        for (String value : values) {
+            for (String token : Tokenizer.tokenize(value)) {
+                if (position > MAX_POSITION) {
+                    return count;
+                }
+                IntList positions = termPositions.get(token);
+                if (positions == null) {
+                    positions = new IntList();
+                    termPositions.put(token, positions);
+                }
+                positions.add(field.ordinal() << POSITION_BITS | position);
+                position++;
+                count++;
+            }
+            // gap between values, so phrases don't match across them
+            position++;
+        }
+        return count;
+    }
+
+    private static float fieldWeight(int position) {
+        return Field.values()[position >>> POSITION_BITS].weight;
+    }
+
+    private float idf(int docFrequency) {
+        final int count = docNums.size();
+        return (float) Math.log(1 + (count - docFrequency + 0.5) / (docFrequency + 0.5));
+    }
+
+    private float bm25(float idf, float weightedFrequency, int doc) {
+        final float averageLength = docNums.isEmpty() ? 1 : Math.max(1, (float) totalLength / docNums.size());
+        final float norm = K1 * (1 - B + B * docLengths[doc] / averageLength);
+        return idf * weightedFrequency * (K1 + 1) / (weightedFrequency + norm);
+    }
+
+    private void ensureDocCapacity(int capacity) {
+        if (capacity > docIds.length) {
+            final int newLength = Math.max(capacity, docIds.length * 2);
+            docIds = Arrays.copyOf(docIds, newLength);
+            docLengths = Arrays.copyOf(docLengths, newLength);
+            docTerms = Arrays.copyOf(docTerms, newLength);
+        }
+    }
+
+    /**
+     * Part of a query that documents must match.
+     */
+    private abstract class Clause {
+        /**
+         * @return rough number of documents matching the clause
+         */
+        abstract int estimate();
+
+        /**
+         * @param candidates documents to consider, or null to consider all of them
+         * @param scores receives the score of the matching documents
+         */
+        abstract void match(Map<Integer, Float> candidates, Map<Integer, Float> scores);
+    }
+
+    private class TermClause extends Clause {
+        private final Postings postings;
+
+        TermClause(String term) {
+            postings = postingsByTerm.get(term);
+        }
+
+        @Override
+        int estimate() {
+            return postings == null ? 0 : postings.size;
+        }
+
+        @Override
+        void match(Map<Integer, Float> candidates, Map<Integer, Float> scores) {
+            if (postings != null) {
+                matchPostings(postings, candidates, scores);
+            }
+        }
+    }
+
+    private class PrefixClause extends Clause {
+        private final List<Postings> expansions = new ArrayList<Postings>();
+        private int estimate;
+
+        PrefixClause(String prefix) {
+            final SortedMap<String, Postings> matches = postingsByTerm.subMap(prefix, prefix + Character.MAX_VALUE);
+            expansions.addAll(matches.values());
+            for (Postings postings : expansions) {
+                estimate = (int) Math.min(Integer.MAX_VALUE, (long) estimate + postings.size);
+            }
+        }
+
+        @Override
+        int estimate() {
+            return estimate;
+        }
+
+        @Override
+        void match(Map<Integer, Float> candidates, Map<Integer, Float> scores) {
+            for (Postings postings : expansions) {
+                matchPostings(postings, candidates, scores);
+            }
+        }
+    }
+
+    private void matchPostings(Postings postings, Map<Integer, Float> candidates, Map<Integer, Float> scores) {
+        final float idf = idf(postings.size);
+        if (candidates == null) {
+            for (int i = 0; i < postings.size; i++) {
+                addScore(scores, postings.docs[i], idf, postings, i);
+            }
+        } else if (postings.size < candidates.size()) {
+            // short postings, such as most of the expansions of a prefix
+            for (int i = 0; i < postings.size; i++) {
+                if (candidates.containsKey(postings.docs[i])) {
+                    addScore(scores, postings.docs[i], idf, postings, i);
+                }
+            }
+        } else {
+            for (Integer doc : candidates.keySet()) {
+                final int i = postings.indexOf(doc);
+                if (i >= 0) {
+                    addScore(scores, doc, idf, postings, i);
+                }
+            }
+        }
+    }
+
+    private void addScore(Map<Integer, Float> scores, int doc, float idf, Postings postings, int i) {
+        float weightedFrequency = 0;
+        for (int p = postings.starts[i]; p < postings.starts[i + 1]; p++) {
+            weightedFrequency += fieldWeight(postings.positions[p]);
+        }
+        final Float score = scores.get(doc);
+        scores.put(doc, (score == null ? 0 : score) + bm25(idf, weightedFrequency, doc));
+    }
+
+    private class PhraseClause extends Clause {
+        private final Postings[] postings;
+
+        PhraseClause(List<String> terms) {
+            postings = new Postings[terms.size()];
+            for (int i = 0; i < postings.length; i++) {
+                postings[i] = postingsByTerm.get(terms.get(i));
+            }
+        }
+
+        @Override
+        int estimate() {
+            int estimate = Integer.MAX_VALUE;
+            for (Postings termPostings : postings) {
+                estimate = Math.min(estimate, termPostings == null ? 0 : termPostings.size);
+            }
+            return estimate;
+        }
+
+        @Override
+        void match(Map<Integer, Float> candidates, Map<Integer, Float> scores) {
+            float idf = 0;
+            for (Postings termPostings : postings) {
+                if (termPostings == null) {
+                    return;
+                }
+                idf += idf(termPostings.size);
+            }
+
+            final Postings first = postings[0];
+            final int[] indices = new int[postings.length];
+            for (int i = 0; i < first.size; i++) {
+                final int doc = first.docs[i];
+                if (candidates != null && !candidates.containsKey(doc)) {
+                    continue;
+                }
+
+                boolean inAllTerms = true;
+                for (int t = 1; t < postings.length && inAllTerms; t++) {
+                    indices[t] = postings[t].indexOf(doc);
+                    inAllTerms = indices[t] >= 0;
+                }
+                if (!inAllTerms) {
+                    continue;
+                }
+
+                float weightedFrequency = 0;
+                for (int p = first.starts[i]; p < first.starts[i + 1]; p++) {
+                    final int position = first.positions[p];
+                    boolean matches = true;
+                    for (int t = 1; t < postings.length && matches; t++) {
+                        matches = postings[t].hasPosition(indices[t], position + t);
+                    }
+                    if (matches) {
+                        weightedFrequency += fieldWeight(position);
+                    }
+                }
+                if (weightedFrequency > 0) {
+                    final Float score = scores.get(doc);
+                    scores.put(doc, (score == null ? 0 : score) + bm25(idf, weightedFrequency, doc));
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the index to a file, replacing it atomically.
+     */
+    public void save(File file) throws IOException {
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        final FileOutputStream os = new FileOutputStream(tmpFile);
+        try {
+            writeTo(os);
+            os.getFD().sync();
+        } finally {
+            os.close();
+        }
+
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Cannot replace search index " + file);
+        }
+    }
+
+    /**
+     * Loads an index saved with {@link #save(File)}.
+     */
+    public static SearchIndex load(File file) throws IOException {
+        final InputStream is = new FileInputStream(file);
+        try {
+            return readFrom(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /*
+     * index    := MAGIC:int VERSION:int docCount:varint doc{docCount} termCount:varint term{termCount}
+     * doc      := id:string length:varint
+     * term     := term:string postingsCount:varint posting{postingsCount}
+     * posting  := docDelta:varint positionsCount:varint position:varint{positionsCount}
+     * position := (position in field) << 3 | field ordinal
+     * string   := length:varint utf8Bytes
+     *
+     * Documents are renumbered when written, so the removed ones leave no gaps.
+     */
+    public synchronized void writeTo(OutputStream os) throws IOException {
+        final Output out = new Output(os);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        final int[] newDocNums = new int[nextDocNum];
+        int docCount = 0;
+        out.writeVarInt(docNums.size());
+        for (int doc = 0; doc < nextDocNum; doc++) {
+            if (docIds[doc] != null) {
+                newDocNums[doc] = docCount++;
+                out.writeString(docIds[doc]);
+                out.writeVarInt(docLengths[doc]);
+            }
+        }
+
+        out.writeVarInt(postingsByTerm.size());
+        for (Map.Entry<String, Postings> entry : postingsByTerm.entrySet()) {
+            final Postings postings = entry.getValue();
+            out.writeString(entry.getKey());
+            out.writeVarInt(postings.size);
+            int previousDoc = 0;
+            for (int i = 0; i < postings.size; i++) {
+                final int doc = newDocNums[postings.docs[i]];
+                out.writeVarInt(doc - previousDoc);
+                previousDoc = doc;
+
+                out.writeVarInt(postings.starts[i + 1] - postings.starts[i]);
+                for (int p = postings.starts[i]; p < postings.starts[i + 1]; p++) {
+                    final int position = postings.positions[p];
+                    out.writeVarInt((position & POSITION_MASK) << 3 | position >>> POSITION_BITS);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    public static SearchIndex readFrom(InputStream is) throws IOException {
+        final Input in = new Input(is);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a search index");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported search index version " + version);
+        }
+
+        final SearchIndex index = new SearchIndex();
+
+        final int docCount = in.readVarInt();
+        index.ensureDocCapacity(docCount);
+        for (int doc = 0; doc < docCount; doc++) {
+            final String id = in.readString();
+            final int length = in.readVarInt();
+            index.docIds[doc] = id;
+            index.docLengths[doc] = length;
+            index.docNums.put(id, doc);
+            index.totalLength += length;
+        }
+        index.nextDocNum = docCount;
+
+        final int[] termCounts = new int[docCount];
+        final List<String> terms = new ArrayList<String>();
+        final List<Postings> termPostings = new ArrayList<Postings>();
+
+        final int termCount = in.readVarInt();
+        int[] positions = new int[16];
+        for (int t = 0; t < termCount; t++) {
+            final String term = in.readString();
+            final int postingsCount = in.readVarInt();
+            final Postings postings = new Postings(postingsCount);
+            int doc = 0;
+            for (int i = 0; i < postingsCount; i++) {
+                doc += in.readVarInt();
+                if (doc >= docCount) {
+                    throw new IOException("Corrupted search index");
+                }
+
+                final int positionsCount = in.readVarInt();
+                if (positionsCount > positions.length) {
+                    positions = new int[Math.max(positionsCount, positions.length * 2)];
+                }
+                for (int p = 0; p < positionsCount; p++) {
+                    final int encoded = in.readVarInt();
+                    positions[p] = (encoded & 7) << POSITION_BITS | encoded >>> 3;
+                }
+                postings.add(doc, positions, positionsCount);
+                termCounts[doc]++;
+            }
+            index.postingsByTerm.put(term, postings);
+            terms.add(term);
+            termPostings.add(postings);
+        }
+
+        // rebuilds the terms of each document, needed to remove them
+        for (int doc = 0; doc < docCount; doc++) {
+            index.docTerms[doc] = new String[termCounts[doc]];
+            termCounts[doc] = 0;
+        }
+        for (int t = 0; t < terms.size(); t++) {
+            final Postings postings = termPostings.get(t);
+            for (int i = 0; i < postings.size; i++) {
+                final int doc = postings.docs[i];
+                index.docTerms[doc][termCounts[doc]++] = terms.get(t);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Documents containing a term, sorted by document number, with the positions of the term in each one.
+     * <p>
+     * Positions of all the documents are packed in one array, to avoid one object per document and term.
+     */
+    private static class Postings {
+        int size;
+        int[] docs;
+        // positions of the document i are from starts[i] to starts[i + 1]
+        int[] starts;
+        int[] positions;
+
+        Postings() {
+            this(2);
+        }
+
+        Postings(int capacity) {
+            docs = new int[Math.max(1, capacity)];
+            starts = new int[docs.length + 1];
+            positions = new int[docs.length];
+        }
+
+        // new documents get the highest number, so appending keeps them sorted
+        void add(int doc, int[] docPositions, int count) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                starts = Arrays.copyOf(starts, size * 2 + 1);
+            }
+            final int end = starts[size];
+            if (end + count > positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(end + count, positions.length * 2));
+            }
+            System.arraycopy(docPositions, 0, positions, end, count);
+            docs[size] = doc;
+            size++;
+            starts[size] = end + count;
+        }
+
+        void remove(int doc) {
+            final int i = indexOf(doc);
+            if (i < 0) {
+                return;
+            }
+            final int start = starts[i];
+            final int count = starts[i + 1] - start;
+            System.arraycopy(positions, start + count, positions, start, starts[size] - start - count);
+            System.arraycopy(docs, i + 1, docs, i, size - i - 1);
+            for (int j = i + 1; j <= size; j++) {
+                starts[j - 1] = starts[j] - count;
+            }
+            size--;
+        }
+
+        int indexOf(int doc) {
+            final int i = Arrays.binarySearch(docs, 0, size, doc);
+            return i >= 0 ? i : -1;
+        }
+
+        boolean hasPosition(int i, int position) {
+            return Arrays.binarySearch(positions, starts[i], starts[i + 1], position) >= 0;
+        }
+    }
+
+    private static class IntList {
+        int size;
+        int[] values = new int[2];
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * Buffered writer of the saved index. Unlike {@link DataOutputStream}, it doesn't synchronize each byte.
+     */
+    private static class Output {
+        private final OutputStream os;
+        private final byte[] buffer = new byte[8192];
+        private int count;
+
+        Output(OutputStream os) {
+            this.os = os;
+        }
+
+        void writeInt(int value) throws IOException {
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        void writeString(String value) throws IOException {
+            final byte[] bytes = value.getBytes(UTF_8);
+            writeVarInt(bytes.length);
+            flush();
+            os.write(bytes);
+        }
+
+        private void writeByte(int value) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count++] = (byte) value;
+        }
+
+        void flush() throws IOException {
+            os.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Buffered reader of the saved index. Unlike {@link DataInputStream}, it doesn't synchronize each byte.
+     */
+    private static class Input {
+        private final InputStream is;
+        private final byte[] buffer = new byte[8192];
+        private int position;
+        private int limit;
+
+        Input(InputStream is) {
+            this.is = is;
+        }
+
+        int readInt() throws IOException {
+            return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in search index");
+        }
+
+        String readString() throws IOException {
+            final byte[] bytes = new byte[readVarInt()];
+            for (int i = 0; i < bytes.length; ) {
+                if (position == limit) {
+                    fill();
+                }
+                final int count = Math.min(bytes.length - i, limit - position);
+                System.arraycopy(buffer, position, bytes, i, count);
+                position += count;
+                i += count;
+            }
+            return new String(bytes, UTF_8);
+        }
+
+        private int readByte() throws IOException {
+            if (position == limit) {
+                fill();
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        private void fill() throws IOException {
+            limit = is.read(buffer);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                throw new EOFException();
+            }
+        }
+    }
+}
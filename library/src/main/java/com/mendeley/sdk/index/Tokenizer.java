@@ -0,0 +1,53 @@
+package com.mendeley.sdk.index;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits text into the terms indexed by {@link SearchIndex}.
+ * <p>
+ * Terms are the runs of letters and digits of the text, in lower case and without diacritics,
+ * so that "Müller" is found searching "muller".
+ */
+final class Tokenizer {
+
+    private Tokenizer() {
+    }
+
+    static List<String> tokenize(String text) {
+        final List<String> tokens = new ArrayList<String>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+
+        final boolean ascii = isAscii(text);
+        final String normalized = ascii ? text : Normalizer.normalize(text, Normalizer.Form.NFD);
+        final StringBuilder token = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            final char c = normalized.charAt(i);
+            if (!ascii && Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,165 @@
+package com.mendeley.sdk.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Statistics of the requests of one endpoint, identified by the class of the request,
+ * aggregated by {@link RequestStatistics}.
+ */
+public class EndpointStatistics {
+
+    private final Class<?> requestClass;
+    private final LatencyHistogram latency;
+    private final LatencyHistogram parseTime;
+    private final Map<Integer, Long> errorsByHttpStatus;
+    private long requestCount;
+    private long errorCount;
+    private long retryCount;
+    private long requestBytes;
+    private long responseBytes;
+    private long parsedBytes;
+    private long parsedItems;
+
+    EndpointStatistics(Class<?> requestClass) {
+        this.requestClass = requestClass;
+        this.latency = new LatencyHistogram();
+        this.parseTime = new LatencyHistogram();
+        this.errorsByHttpStatus = new HashMap<Integer, Long>();
+    }
+
+    private EndpointStatistics(EndpointStatistics other) {
+        this.requestClass = other.requestClass;
+        this.latency = other.latency.copy();
+        this.parseTime = other.parseTime.copy();
+        this.errorsByHttpStatus = new HashMap<Integer, Long>(other.errorsByHttpStatus);
+        this.requestCount = other.requestCount;
+        this.errorCount = other.errorCount;
+        this.retryCount = other.retryCount;
+        this.requestBytes = other.requestBytes;
+        this.responseBytes = other.responseBytes;
+        this.parsedBytes = other.parsedBytes;
+        this.parsedItems = other.parsedItems;
+    }
+
+    void record(long totalNanos, long parseNanos, int retries, long sentBytes, long receivedBytes, boolean failed, int httpStatus) {
+        requestCount++;
+        latency.recordNanos(totalNanos);
+        if (!failed) {
+            parseTime.recordNanos(parseNanos);
+        }
+        retryCount += retries;
+        requestBytes += sentBytes;
+        responseBytes += receivedBytes;
+        if (failed) {
+            errorCount++;
+            final Long count = errorsByHttpStatus.get(httpStatus);
+            errorsByHttpStatus.put(httpStatus, count != null ? count + 1 : 1);
+        }
+    }
+
+    void recordParsed(long bytes, int items) {
+        parsedBytes += bytes;
+        parsedItems += items;
+    }
+
+    EndpointStatistics copy() {
+        return new EndpointStatistics(this);
+    }
+
+    public Class<?> getRequestClass() {
+        return requestClass;
+    }
+
+    /**
+     * @return the histogram of the total time of the requests, including the failed ones
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the histogram of the time parsing the responses of the successful requests
+     */
+    public LatencyHistogram getParseTime() {
+        return parseTime;
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return the fraction of the requests that failed, in [0-1]
+     */
+    public double getErrorRate() {
+        return requestCount > 0 ? (double) errorCount / requestCount : 0;
+    }
+
+    /**
+     * @return the number of failed requests by HTTP status, with
+     * {@link RequestMetrics#NO_HTTP_STATUS} for those that failed without a response
+     */
+    public Map<Integer, Long> getErrorsByHttpStatus() {
+        return Collections.unmodifiableMap(errorsByHttpStatus);
+    }
+
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * @return the bytes of the responses parsed, once decompressed
+     */
+    public long getParsedBytes() {
+        return parsedBytes;
+    }
+
+    /**
+     * @return the number of items parsed from the responses
+     */
+    public long getParsedItems() {
+        return parsedItems;
+    }
+
+    /**
+     * @return the mean time parsing each item, in microseconds, or 0 if none was parsed
+     */
+    public long getMeanParseMicrosPerItem() {
+        return parsedItems > 0 ? parseTime.getTotalMicros() / parsedItems : 0;
+    }
+
+    /**
+     * @return the mean size of the items in the responses, or 0 if none was parsed
+     */
+    public long getMeanParsedBytesPerItem() {
+        return parsedItems > 0 ? parsedBytes / parsedItems : 0;
+    }
+
+    @Override
+    public String toString() {
+        return requestClass.getSimpleName()
+                + " requests: " + requestCount
+                + " errors: " + errorsByHttpStatus
+                + " p50: " + latency.getPercentileMicros(50) / 1000 + " ms"
+                + " p90: " + latency.getPercentileMicros(90) / 1000 + " ms"
+                + " p99: " + latency.getPercentileMicros(99) / 1000 + " ms"
+                + " parse p50: " + parseTime.getPercentileMicros(50) / 1000 + " ms"
+                + " parsed: " + parsedBytes + " bytes into " + parsedItems + " items"
+                + " sent: " + requestBytes
+                + " received: " + responseBytes;
+    }
+}
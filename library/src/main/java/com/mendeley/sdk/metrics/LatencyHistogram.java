@@ -0,0 +1,135 @@
+package com.mendeley.sdk.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Histogram of durations, in microseconds, with a fixed relative precision.
+ * <p>
+ * As in HDR histograms, values are counted in buckets whose width doubles with each power of
+ * two, each one split into the same number of sub-buckets, so percentiles are within about 3%
+ * of the actual value from 1 microsecond up to {@link #MAX_VALUE_MICROS}, in a few KB. Recording
+ * a value is a few bit operations and an array increment, without allocations.
+ * <p>
+ * This class is not thread safe.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Larger values are counted as this one.
+     */
+    public static final long MAX_VALUE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    private final long[] counts;
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private long sum;
+
+    public LatencyHistogram() {
+        counts = new long[indexOf(MAX_VALUE_MICROS) + 1];
+    }
+
+    private LatencyHistogram(LatencyHistogram other) {
+        counts = Arrays.copyOf(other.counts, other.counts.length);
+        totalCount = other.totalCount;
+        min = other.min;
+        max = other.max;
+        sum = other.sum;
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordMicros(long micros) {
+        final long value = Math.min(Math.max(micros, 0), MAX_VALUE_MICROS);
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the values of another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMinMicros() {
+        return totalCount > 0 ? min : 0;
+    }
+
+    public long getMaxMicros() {
+        return max;
+    }
+
+    /**
+     * @return the sum of all the values
+     */
+    public long getTotalMicros() {
+        return sum;
+    }
+
+    public long getMeanMicros() {
+        return totalCount > 0 ? sum / totalCount : 0;
+    }
+
+    /**
+     * @param percentile in (0-100]
+     * @return the value below or equal to which are the given percentile of the values, or 0 if
+     * there are none
+     */
+    public long getPercentileMicros(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * totalCount));
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            if (count >= rank) {
+                return Math.min(highestValueAt(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // shifts the value so that it falls in the upper half of the sub-buckets
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        final long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
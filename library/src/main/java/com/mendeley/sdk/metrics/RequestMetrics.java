@@ -0,0 +1,254 @@
+package com.mendeley.sdk.metrics;
+
+import android.net.Uri;
+
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.exceptions.MendeleyException;
+
+/**
+ * Timings and sizes of one run of a {@link Request}, reported to the
+ * {@link RequestMetricsListener}.
+ * <p>
+ * Durations are in nanoseconds, and add up the HTTP attempts of the run, as the retry after a
+ * token refresh. Phases that didn't happen, as the DNS lookup and the connection when a pooled
+ * connection is reused, are 0.
+ */
+public class RequestMetrics {
+
+    public static final int NO_HTTP_STATUS = -1;
+
+    /**
+     * Class of the request, that identifies its endpoint.
+     */
+    public final Class<?> requestClass;
+    public final Uri url;
+
+    /**
+     * Status code of the last HTTP response, or {@link #NO_HTTP_STATUS} if none was received.
+     */
+    public final int httpStatus;
+
+    /**
+     * Value of the X-Mendeley-Trace-Id header of the last response, if any.
+     */
+    public final String traceId;
+
+    /**
+     * Number of HTTP attempts after the first one.
+     */
+    public final int retryCount;
+
+    /**
+     * Bytes of the request bodies, as sent, so compressed if they were.
+     */
+    public final long requestBytes;
+
+    /**
+     * Bytes of the response bodies.
+     */
+    public final long responseBytes;
+
+    /**
+     * Time spent by {@link Request#run()}.
+     */
+    public final long totalNanos;
+
+    /**
+     * Time spent refreshing the access token.
+     */
+    public final long tokenRefreshNanos;
+
+    public final long dnsNanos;
+
+    /**
+     * Time spent establishing connections, including their TLS handshakes.
+     */
+    public final long connectNanos;
+
+    public final long tlsNanos;
+
+    /**
+     * Time from the end of the request until the start of the response, mostly spent by the server.
+     */
+    public final long serverNanos;
+
+    /**
+     * Time waiting for the bytes of the response bodies. Responses are parsed while they are read,
+     * so this is only the time blocked reading them, not counted in {@link #parseNanos}.
+     */
+    public final long downloadNanos;
+
+    /**
+     * Time converting the response into the resource, without the time waiting for its bytes,
+     * that is part of {@link #downloadNanos}.
+     */
+    public final long parseNanos;
+
+    /**
+     * Bytes of the responses read while parsing them, once decompressed.
+     */
+    public final long parsedBytes;
+
+    /**
+     * Number of items parsed: the size of the list, or 1 for single resources.
+     */
+    public final int parsedItems;
+
+    /**
+     * The error of the request, or null if it succeeded.
+     */
+    public final MendeleyException error;
+
+    private RequestMetrics(Builder builder) {
+        this.requestClass = builder.requestClass;
+        this.url = builder.url;
+        this.httpStatus = builder.httpStatus;
+        this.traceId = builder.traceId;
+        this.retryCount = Math.max(0, builder.attempts - 1);
+        this.requestBytes = builder.requestBytes;
+        this.responseBytes = builder.responseBytes;
+        this.totalNanos = builder.totalNanos;
+        this.tokenRefreshNanos = builder.tokenRefreshNanos;
+        this.dnsNanos = builder.dnsNanos;
+        this.connectNanos = builder.connectNanos;
+        this.tlsNanos = builder.tlsNanos;
+        this.serverNanos = builder.serverNanos;
+        this.downloadNanos = builder.downloadNanos;
+        this.parseNanos = builder.parseNanos;
+        this.parsedBytes = builder.parsedBytes;
+        this.parsedItems = builder.parsedItems;
+        this.error = builder.error;
+    }
+
+    @Override
+    public String toString() {
+        return requestClass.getSimpleName() + " " + url
+                + " status: " + httpStatus
+                + " retries: " + retryCount
+                + " total: " + totalNanos / 1000000 + " ms"
+                + " (token: " + tokenRefreshNanos / 1000000
+                + ", dns: " + dnsNanos / 1000000
+                + ", connect: " + connectNanos / 1000000
+                + ", tls: " + tlsNanos / 1000000
+                + ", server: " + serverNanos / 1000000
+                + ", download: " + downloadNanos / 1000000
+                + ", parse: " + parseNanos / 1000000 + ")"
+                + " sent: " + requestBytes
+                + " received: " + responseBytes
+                + " parsed: " + parsedBytes + " bytes into " + parsedItems + " items"
+                + " trace id: " + traceId;
+    }
+
+    /**
+     * Builder for {@link RequestMetrics}, filled in as the request runs.
+     */
+    public static class Builder {
+        private final Class<?> requestClass;
+        private final Uri url;
+        private int httpStatus = NO_HTTP_STATUS;
+        private String traceId;
+        private int attempts;
+        private long requestBytes;
+        private long responseBytes;
+        private long totalNanos;
+        private long tokenRefreshNanos;
+        private long dnsNanos;
+        private long connectNanos;
+        private long tlsNanos;
+        private long serverNanos;
+        private long downloadNanos;
+        private long parseNanos;
+        private long parsedBytes;
+        private int parsedItems;
+        private MendeleyException error;
+
+        public Builder(Class<?> requestClass, Uri url) {
+            this.requestClass = requestClass;
+            this.url = url;
+        }
+
+        public Builder setHttpStatus(int httpStatus) {
+            this.httpStatus = httpStatus;
+            return this;
+        }
+
+        public Builder setTraceId(String traceId) {
+            this.traceId = traceId;
+            return this;
+        }
+
+        public Builder setError(MendeleyException error) {
+            this.error = error;
+            return this;
+        }
+
+        public Builder setTotalNanos(long totalNanos) {
+            this.totalNanos = totalNanos;
+            return this;
+        }
+
+        public Builder addAttempt() {
+            attempts++;
+            return this;
+        }
+
+        public Builder addRequestBytes(long bytes) {
+            requestBytes += bytes;
+            return this;
+        }
+
+        public Builder addResponseBytes(long bytes) {
+            responseBytes += bytes;
+            return this;
+        }
+
+        public Builder addTokenRefreshNanos(long nanos) {
+            tokenRefreshNanos += nanos;
+            return this;
+        }
+
+        public Builder addDnsNanos(long nanos) {
+            dnsNanos += nanos;
+            return this;
+        }
+
+        public Builder addConnectNanos(long nanos) {
+            connectNanos += nanos;
+            return this;
+        }
+
+        public Builder addTlsNanos(long nanos) {
+            tlsNanos += nanos;
+            return this;
+        }
+
+        public Builder addServerNanos(long nanos) {
+            serverNanos += nanos;
+            return this;
+        }
+
+        public Builder addDownloadNanos(long nanos) {
+            downloadNanos += nanos;
+            return this;
+        }
+
+        public Builder addParseNanos(long nanos) {
+            parseNanos += nanos;
+            return this;
+        }
+
+        public Builder addParsedBytes(long bytes) {
+            parsedBytes += bytes;
+            return this;
+        }
+
+        public Builder addParsedItems(int items) {
+            parsedItems += items;
+            return this;
+        }
+
+        public RequestMetrics build() {
+            return new RequestMetrics(this);
+        }
+    }
+}
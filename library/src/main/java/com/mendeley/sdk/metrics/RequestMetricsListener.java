@@ -0,0 +1,16 @@
+package com.mendeley.sdk.metrics;
+
+import com.mendeley.sdk.request.AuthorizedRequest;
+
+/**
+ * Receives the {@link RequestMetrics} of every request run against the Mendeley API, once
+ * registered with {@link AuthorizedRequest#setMetricsListener(RequestMetricsListener)}.
+ */
+public interface RequestMetricsListener {
+
+    /**
+     * Called when a request finishes, successfully or not, in the thread that ran it. As it
+     * delays the result of the request, it should only record the metrics.
+     */
+    void onRequestFinished(RequestMetrics metrics);
+}
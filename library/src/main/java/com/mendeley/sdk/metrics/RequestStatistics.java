@@ -0,0 +1,141 @@
+package com.mendeley.sdk.metrics;
+
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.request.AuthorizedRequest;
+import com.mendeley.sdk.request.endpoint.OAuthTokenEndpoint;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RequestMetricsListener} that aggregates the metrics of the requests by endpoint, so
+ * they can be reported periodically, for example to a dashboard of latencies and error rates.
+ * <p>
+ * It must be registered with {@link AuthorizedRequest#setMetricsListener(RequestMetricsListener)}.
+ * The statistics since the previous reset are read with {@link #getSnapshot()}, or reported
+ * every period with {@link #startPeriodicSnapshots(long, SnapshotListener)}.
+ * <p>
+ * The token refreshes done by the requests are aggregated as requests of
+ * {@link OAuthTokenEndpoint.RefreshTokenRequest}, with their latencies only.
+ * <p>
+ * This class is thread safe.
+ */
+public class RequestStatistics implements RequestMetricsListener {
+
+    private Map<Class<?>, EndpointStatistics> endpoints = new LinkedHashMap<Class<?>, EndpointStatistics>();
+    private Date startDate = new Date();
+
+    private ScheduledExecutorService executor;
+
+    @Override
+    public synchronized void onRequestFinished(RequestMetrics metrics) {
+        final int errorStatus = metrics.error instanceof HttpResponseException
+                ? ((HttpResponseException) metrics.error).httpReturnCode
+                : RequestMetrics.NO_HTTP_STATUS;
+
+        getEndpoint(metrics.requestClass).record(metrics.totalNanos, metrics.parseNanos, metrics.retryCount,
+                metrics.requestBytes, metrics.responseBytes, metrics.error != null, errorStatus);
+        getEndpoint(metrics.requestClass).recordParsed(metrics.parsedBytes, metrics.parsedItems);
+        if (metrics.tokenRefreshNanos > 0) {
+            getEndpoint(OAuthTokenEndpoint.RefreshTokenRequest.class).record(metrics.tokenRefreshNanos, 0, 0, 0, 0, false, RequestMetrics.NO_HTTP_STATUS);
+        }
+    }
+
+    /**
+     * @return the statistics since the start, or since the last reset
+     */
+    public synchronized Snapshot getSnapshot() {
+        final Map<Class<?>, EndpointStatistics> copy = new LinkedHashMap<Class<?>, EndpointStatistics>();
+        for (Map.Entry<Class<?>, EndpointStatistics> entry : endpoints.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return new Snapshot(startDate, new Date(), copy);
+    }
+
+    /**
+     * @return the statistics since the start, or since the last reset, and resets them
+     */
+    public synchronized Snapshot getSnapshotAndReset() {
+        final Date now = new Date();
+        final Snapshot snapshot = new Snapshot(startDate, now, endpoints);
+        endpoints = new LinkedHashMap<Class<?>, EndpointStatistics>();
+        startDate = now;
+        return snapshot;
+    }
+
+    /**
+     * Reports the statistics of each period, resetting them after each one, until
+     * {@link #stopPeriodicSnapshots()} is called.
+     *
+     * @param listener called in a background thread
+     */
+    public synchronized void startPeriodicSnapshots(long periodMillis, final SnapshotListener listener) {
+        stopPeriodicSnapshots();
+        getSnapshotAndReset();
+        executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSnapshot(getSnapshotAndReset());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopPeriodicSnapshots() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private EndpointStatistics getEndpoint(Class<?> requestClass) {
+        EndpointStatistics endpoint = endpoints.get(requestClass);
+        if (endpoint == null) {
+            endpoint = new EndpointStatistics(requestClass);
+            endpoints.put(requestClass, endpoint);
+        }
+        return endpoint;
+    }
+
+    /**
+     * Statistics of the requests done in a period of time.
+     */
+    public static class Snapshot {
+
+        public final Date startDate;
+        public final Date endDate;
+        private final Map<Class<?>, EndpointStatistics> endpoints;
+
+        private Snapshot(Date startDate, Date endDate, Map<Class<?>, EndpointStatistics> endpoints) {
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.endpoints = endpoints;
+        }
+
+        /**
+         * @return the statistics of each endpoint with requests in the period, by request class
+         */
+        public Map<Class<?>, EndpointStatistics> getEndpoints() {
+            return Collections.unmodifiableMap(endpoints);
+        }
+
+        /**
+         * @return the statistics of the endpoint, or null if there were no requests to it
+         */
+        public EndpointStatistics getEndpoint(Class<?> requestClass) {
+            return endpoints.get(requestClass);
+        }
+    }
+
+    /**
+     * To be implemented by classes that report the statistics periodically.
+     */
+    public interface SnapshotListener {
+        void onSnapshot(Snapshot snapshot);
+    }
+}
@@ -50,7 +50,19 @@ public class Annotation {
     public final Integer color;
     public final String text;
     public final String profileId;
+    /**
+     * Read only view of {@link #packedPositions}: it can't be modified, and each
+     * {@link List#get(int)} creates a new {@link Position}, so code iterating many positions
+     * should read {@link #packedPositions} instead. To change them, use
+     * {@link Builder#setPositions(List)}.
+     */
     public final NullableList<Position> positions;
+    /**
+     * The same positions as {@link #positions}, packed in arrays of primitives. It is null only
+     * if the positions are null, as when the annotation has none set; an empty list of positions
+     * is packed as empty. {@link #positions} is a view of these ones.
+     */
+    public final PackedPositions packedPositions;
     public final Date created;
     public final Date lastModified;
     public final PrivacyLevel privacyLevel;
@@ -64,7 +76,7 @@ public class Annotation {
             Integer color,
             String text,
             String profileId,
-            List<Position> positions,
+            PackedPositions packedPositions,
             Date created,
             Date lastModified,
             PrivacyLevel privacyLevel,
@@ -76,7 +88,8 @@ public class Annotation {
         this.color = color;
         this.text = text;
         this.profileId = profileId;
-        this.positions = new NullableList<Position>(positions);
+        this.packedPositions = packedPositions;
+        this.positions = new NullableList<Position>(packedPositions != null ? packedPositions.asList() : null);
         this.created = created;
         this.lastModified = lastModified;
         this.privacyLevel = privacyLevel;
@@ -129,7 +142,7 @@ public class Annotation {
         private Integer color;
         private String text;
         private String profileId;
-        private List<Position> positions;
+        private PackedPositions packedPositions;
         private Date created;
         private Date lastModified;
         private PrivacyLevel privacyLevel;
@@ -146,7 +159,7 @@ public class Annotation {
             this.color = from.color;
             this.text = from.text;
             this.profileId = from.profileId;
-            this.positions = from.positions;
+            this.packedPositions = from.packedPositions;
             this.created = from.created;
             this.lastModified = from.lastModified;
             this.privacyLevel = from.privacyLevel;
@@ -185,7 +198,12 @@ public class Annotation {
         }
 
         public Builder setPositions(List<Position> positions) {
-            this.positions = positions;
+            this.packedPositions = positions != null ? PackedPositions.of(positions) : null;
+            return this;
+        }
+
+        public Builder setPackedPositions(PackedPositions packedPositions) {
+            this.packedPositions = packedPositions;
             return this;
         }
 
@@ -222,7 +240,7 @@ public class Annotation {
                     color,
                     text,
                     profileId,
-                    positions,
+                    packedPositions,
                     created,
                     lastModified,
                     privacyLevel,
@@ -14,7 +14,77 @@ import java.util.Map;
  *
  */
 public class Document {
-		
+
+	/**
+	 * Fields of the document json object.
+	 * Used to select which fields are parsed from the responses of the Mendeley API, so that
+	 * the ones not needed by the client code can be skipped.
+	 * <p>
+	 * The ordinals are also used by the binary snapshots written by {@link com.mendeley.sdk.storage.SnapshotWriter},
+	 * so new fields must be added at the end.
+	 */
+	public enum Field {
+		LAST_MODIFIED("last_modified"),
+		GROUP_ID("group_id"),
+		PROFILE_ID("profile_id"),
+		READ("read"),
+		STARRED("starred"),
+		AUTHORED("authored"),
+		CONFIRMED("confirmed"),
+		HIDDEN("hidden"),
+		ID("id"),
+		TYPE("type"),
+		MONTH("month"),
+		YEAR("year"),
+		DAY("day"),
+		SOURCE("source"),
+		TITLE("title"),
+		REVISION("revision"),
+		CREATED("created"),
+		IDENTIFIERS("identifiers"),
+		ABSTRACT("abstract"),
+		AUTHORS("authors"),
+		PAGES("pages"),
+		VOLUME("volume"),
+		ISSUE("issue"),
+		PUBLISHER("publisher"),
+		CITY("city"),
+		EDITION("edition"),
+		INSTITUTION("institution"),
+		SERIES("series"),
+		CHAPTER("chapter"),
+		EDITORS("editors"),
+		TAGS("tags"),
+		FILE_ATTACHED("file_attached"),
+		KEYWORDS("keywords"),
+		WEBSITES("websites"),
+		CLIENT_DATA("client_data"),
+		UNIQUE_ID("unique_id"),
+		NOTES("notes");
+
+		private static final Map<String, Field> byJsonKey = new HashMap<String, Field>();
+
+		static {
+			for (Field field : values()) {
+				byJsonKey.put(field.jsonKey, field);
+			}
+		}
+
+		public final String jsonKey;
+
+		Field(String jsonKey) {
+			this.jsonKey = jsonKey;
+		}
+
+		/**
+		 * @param jsonKey name of the key in the document json object
+		 * @return the field, or null if the key is not known
+		 */
+		public static Field fromJsonKey(String jsonKey) {
+			return byJsonKey.get(jsonKey);
+		}
+	}
+
 	public final Date lastModified;
 	public final String groupId;
 	public final String profileId;
@@ -0,0 +1,186 @@
+package com.mendeley.sdk.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Positions of one {@link Annotation}, packed in arrays of primitives.
+ * <p>
+ * Heavily annotated files have many positions, and each {@link Annotation.Position} takes three
+ * objects. This class keeps the same values in parallel arrays, that can be iterated by index
+ * without allocating anything:
+ * <pre>
+ * for (int i = 0; i &lt; positions.size(); i++) {
+ *     if (positions.getPage(i) == page) {
+ *         drawRect(positions.getX1(i), positions.getY1(i), positions.getX2(i), positions.getY2(i));
+ *     }
+ * }
+ * </pre>
+ * (x1, y1) is the top left corner and (x2, y2) the bottom right one. Missing pages are
+ * {@link #NO_PAGE} and the coordinates of missing corners are {@link Double#NaN}.
+ */
+public final class PackedPositions {
+
+    public static final int NO_PAGE = Integer.MIN_VALUE;
+
+    private final int size;
+    private final int[] pages;
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+
+    private PackedPositions(int size, int[] pages, double[] x1, double[] y1, double[] x2, double[] y2) {
+        this.size = size;
+        this.pages = pages;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+    }
+
+    public static PackedPositions of(List<Annotation.Position> positions) {
+        final Builder builder = new Builder(positions.size());
+        for (Annotation.Position position : positions) {
+            builder.add(position);
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getPage(int index) {
+        return pages[checkIndex(index)];
+    }
+
+    public double getX1(int index) {
+        return x1[checkIndex(index)];
+    }
+
+    public double getY1(int index) {
+        return y1[checkIndex(index)];
+    }
+
+    public double getX2(int index) {
+        return x2[checkIndex(index)];
+    }
+
+    public double getY2(int index) {
+        return y2[checkIndex(index)];
+    }
+
+    public boolean hasTopLeft(int index) {
+        return !Double.isNaN(x1[checkIndex(index)]);
+    }
+
+    public boolean hasBottomRight(int index) {
+        return !Double.isNaN(x2[checkIndex(index)]);
+    }
+
+    /**
+     * @return the position at the index, as a new object
+     */
+    public Annotation.Position get(int index) {
+        checkIndex(index);
+        return new Annotation.Position(
+                Double.isNaN(x1[index]) ? null : new Point(x1[index], y1[index]),
+                Double.isNaN(x2[index]) ? null : new Point(x2[index], y2[index]),
+                pages[index] == NO_PAGE ? null : pages[index]);
+    }
+
+    /**
+     * @return a read only view of the positions, creating the objects as they are accessed
+     */
+    public List<Annotation.Position> asList() {
+        return new PositionsList();
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Position " + index + " of " + size);
+        }
+        return index;
+    }
+
+    private class PositionsList extends AbstractList<Annotation.Position> implements RandomAccess {
+        @Override
+        public Annotation.Position get(int index) {
+            return PackedPositions.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    public static class Builder {
+        private int size;
+        private int[] pages;
+        private double[] x1;
+        private double[] y1;
+        private double[] x2;
+        private double[] y2;
+
+        public Builder() {
+            this(4);
+        }
+
+        public Builder(int capacity) {
+            capacity = Math.max(1, capacity);
+            pages = new int[capacity];
+            x1 = new double[capacity];
+            y1 = new double[capacity];
+            x2 = new double[capacity];
+            y2 = new double[capacity];
+        }
+
+        /**
+         * @param page the page, or {@link #NO_PAGE}
+         * @param x1 x of the top left corner, or {@link Double#NaN} if there is no such corner
+         * @param y1 y of the top left corner
+         * @param x2 x of the bottom right corner, or {@link Double#NaN} if there is no such corner
+         * @param y2 y of the bottom right corner
+         */
+        public Builder add(int page, double x1, double y1, double x2, double y2) {
+            if (size == pages.length) {
+                final int capacity = size * 2;
+                pages = Arrays.copyOf(pages, capacity);
+                this.x1 = Arrays.copyOf(this.x1, capacity);
+                this.y1 = Arrays.copyOf(this.y1, capacity);
+                this.x2 = Arrays.copyOf(this.x2, capacity);
+                this.y2 = Arrays.copyOf(this.y2, capacity);
+            }
+            pages[size] = page;
+            this.x1[size] = x1;
+            this.y1[size] = Double.isNaN(x1) ? Double.NaN : y1;
+            this.x2[size] = x2;
+            this.y2[size] = Double.isNaN(x2) ? Double.NaN : y2;
+            size++;
+            return this;
+        }
+
+        public Builder add(Annotation.Position position) {
+            return add(
+                    position.page != null ? position.page : NO_PAGE,
+                    position.topLeft != null ? position.topLeft.x : Double.NaN,
+                    position.topLeft != null ? position.topLeft.y : Double.NaN,
+                    position.bottomRight != null ? position.bottomRight.x : Double.NaN,
+                    position.bottomRight != null ? position.bottomRight.y : Double.NaN);
+        }
+
+        public PackedPositions build() {
+            // trimmed, so that no space is wasted by the many annotations with one position
+            return new PackedPositions(size,
+                    Arrays.copyOf(pages, size),
+                    Arrays.copyOf(x1, size),
+                    Arrays.copyOf(y1, size),
+                    Arrays.copyOf(x2, size),
+                    Arrays.copyOf(y2, size));
+        }
+    }
+}
@@ -2,16 +2,26 @@ package com.mendeley.sdk.request;
 
 import android.net.Uri;
 import android.text.TextUtils;
+import android.util.Log;
 
 import com.mendeley.sdk.AuthTokenManager;
 import com.mendeley.sdk.ClientCredentials;
 import com.mendeley.sdk.Request;
+import com.mendeley.sdk.async.MendeleyFuture;
 import com.mendeley.sdk.exceptions.DeletedMendeleyUserException;
 import com.mendeley.sdk.exceptions.HttpResponseException;
 import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+import com.mendeley.sdk.metrics.RequestMetrics;
+import com.mendeley.sdk.metrics.RequestMetricsListener;
 import com.mendeley.sdk.request.endpoint.OAuthTokenEndpoint;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -23,12 +33,41 @@ import java.util.concurrent.TimeUnit;
  */
 public abstract class AuthorizedRequest<ResultType> extends Request<ResultType> {
 
+    private static final String TAG = AuthorizedRequest.class.getSimpleName();
+
     // Only use tokens which don't expire in the next 5 mins:
     private final static int MIN_TOKEN_VALIDITY_SEC = 300;
 
     protected final AuthTokenManager authTokenManager;
     protected final ClientCredentials clientCredentials;
 
+    private static volatile RequestMetricsListener sMetricsListener;
+
+    // refreshes in progress, by the token manager they refresh
+    private static final Map<AuthTokenManager, MendeleyFuture<Void>> sRefreshes = new HashMap<AuthTokenManager, MendeleyFuture<Void>>();
+
+    private static final Executor REFRESH_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "Mendeley token refresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // wait for the refresh of the current run, to be aborted if the request is cancelled
+    private volatile MendeleyFuture<Void> refreshWait;
+
+    // metrics of the current run, or null if there is no listener
+    RequestMetrics.Builder metrics;
+
+    /**
+     * Sets the listener to receive the metrics of every request, or null to stop collecting them.
+     */
+    public static void setMetricsListener(RequestMetricsListener metricsListener) {
+        sMetricsListener = metricsListener;
+    }
+
     /**
      * Constructor
      *
@@ -44,6 +83,30 @@ public abstract class AuthorizedRequest<ResultType> extends Request<ResultType>
 
     @Override
     public final Response doRun() throws MendeleyException {
+        final RequestMetricsListener metricsListener = sMetricsListener;
+        if (metricsListener == null) {
+            return doRunWithValidToken();
+        }
+
+        metrics = new RequestMetrics.Builder(getClass(), getUrl());
+        final long startNanos = System.nanoTime();
+        try {
+            return doRunWithValidToken();
+        } catch (MendeleyException e) {
+            metrics.setError(e);
+            throw e;
+        } finally {
+            final RequestMetrics requestMetrics = metrics.setTotalNanos(System.nanoTime() - startNanos).build();
+            metrics = null;
+            try {
+                metricsListener.onRequestFinished(requestMetrics);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error in the metrics listener", e);
+            }
+        }
+    }
+
+    private Response doRunWithValidToken() throws MendeleyException {
         if (TextUtils.isEmpty(authTokenManager.getAccessToken())) {
             // Must call startSignInProcess first - caller error!
             throw new MendeleyException("No access token found");
@@ -53,6 +116,7 @@ public abstract class AuthorizedRequest<ResultType> extends Request<ResultType>
             if (willExpireSoon()) {
                 refreshExpiredToken();
             }
+            checkNotCancelled();
             return doRunAuthorized();
         } catch (HttpResponseException e) {
             if (e.httpReturnCode == 400 && e.getMessage().contains("Incorrect username or password")) {
@@ -60,6 +124,7 @@ public abstract class AuthorizedRequest<ResultType> extends Request<ResultType>
             } else if (e.httpReturnCode == 401 && e.getMessage().contains("Token has expired")) {
                 // The refresh-token-in-advance logic did not work for some reason: force a refresh now
                 refreshExpiredToken();
+                checkNotCancelled();
                 return doRunAuthorized();
             } else {
                 throw e;
@@ -67,8 +132,102 @@ public abstract class AuthorizedRequest<ResultType> extends Request<ResultType>
         }
     }
 
+    /**
+     * Refreshes the access token, waiting for the refresh until it finishes or this request is
+     * cancelled or its deadline expires.
+     * <p>
+     * The refresh runs in the background, shared by the requests that need it at the same time,
+     * and always runs to completion: the server may have replaced the refresh token already, and
+     * aborting the call before the new one is saved would sign the user out.
+     */
     private void refreshExpiredToken() throws MendeleyException {
-        new OAuthTokenEndpoint.RefreshTokenRequest(authTokenManager, clientCredentials).run();
+        final MendeleyFuture<Void> wait = new MendeleyFuture<Void>();
+        refreshWait = wait;
+        final long startNanos = System.nanoTime();
+        try {
+            // cancelled before the wait could be aborted by onCancel()
+            checkNotCancelled();
+            getRefresh().addCallback(new MendeleyFuture.Callback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    wait.set(null);
+                }
+
+                @Override
+                public void onFailure(MendeleyException e) {
+                    wait.setException(e);
+                }
+            }, MendeleyFuture.DIRECT_EXECUTOR);
+            wait.getResult();
+        } finally {
+            refreshWait = null;
+            if (metrics != null) {
+                metrics.addTokenRefreshNanos(System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    /**
+     * @return the refresh of the tokens of the manager of this request, started now if there is
+     * none in progress
+     */
+    private MendeleyFuture<Void> getRefresh() {
+        synchronized (sRefreshes) {
+            final MendeleyFuture<Void> inProgress = sRefreshes.get(authTokenManager);
+            if (inProgress != null) {
+                return inProgress;
+            }
+            final MendeleyFuture<Void> refresh = new MendeleyFuture<Void>();
+            final Request<?> refreshRequest = newRefreshTokenRequest();
+            sRefreshes.put(authTokenManager, refresh);
+            REFRESH_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    MendeleyException error = null;
+                    try {
+                        refreshRequest.run();
+                    } catch (MendeleyException e) {
+                        error = e;
+                    } catch (RuntimeException e) {
+                        error = new MendeleyException("Error refreshing the access token", e);
+                    }
+                    // done before completing, so that the requests that find the token expired after
+                    // it start a new refresh
+                    synchronized (sRefreshes) {
+                        sRefreshes.remove(authTokenManager);
+                    }
+                    if (error == null) {
+                        refresh.set(null);
+                    } else {
+                        refresh.setException(error);
+                    }
+                }
+            });
+            return refresh;
+        }
+    }
+
+    /**
+     * @return the request that refreshes the access token. Overridden in tests.
+     */
+    Request<?> newRefreshTokenRequest() {
+        return new OAuthTokenEndpoint.RefreshTokenRequest(authTokenManager, clientCredentials);
+    }
+
+    @Override
+    protected void onCancel() {
+        super.onCancel();
+        final MendeleyFuture<Void> wait = refreshWait;
+        if (wait != null) {
+            // only stops waiting: the refresh carries on
+            wait.cancel(true);
+        }
+    }
+
+    private void checkNotCancelled() throws UserCancelledException {
+        if (isCancelled()) {
+            throw new UserCancelledException();
+        }
     }
 
     /**
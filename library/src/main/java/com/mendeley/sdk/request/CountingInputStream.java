@@ -0,0 +1,60 @@
+package com.mendeley.sdk.request;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link FilterInputStream} that counts the bytes read through it, and the time spent waiting
+ * for them, so that the time of the reader itself can be told apart.
+ */
+class CountingInputStream extends FilterInputStream {
+    private long count;
+    private long readNanos;
+
+    public CountingInputStream(InputStream delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final long startNanos = System.nanoTime();
+        final int b = super.read();
+        readNanos += System.nanoTime() - startNanos;
+        if (b >= 0) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+        final long startNanos = System.nanoTime();
+        final int r = super.read(buffer, byteOffset, byteCount);
+        readNanos += System.nanoTime() - startNanos;
+        if (r > 0) {
+            count += r;
+        }
+        return r;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        final long startNanos = System.nanoTime();
+        final long skipped = super.skip(byteCount);
+        readNanos += System.nanoTime() - startNanos;
+        count += skipped;
+        return skipped;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the time spent blocked in the underlying stream, waiting for the bytes
+     */
+    public long getReadNanos() {
+        return readNanos;
+    }
+}
@@ -15,12 +15,13 @@ import com.mendeley.sdk.model.File;
 import com.mendeley.sdk.model.Folder;
 import com.mendeley.sdk.model.Group;
 import com.mendeley.sdk.model.Institution;
+import com.mendeley.sdk.model.PackedPositions;
 import com.mendeley.sdk.model.Person;
-import com.mendeley.sdk.model.Point;
 import com.mendeley.sdk.model.Profile;
 import com.mendeley.sdk.model.ReadPosition;
 import com.mendeley.sdk.model.UserRole;
 import com.mendeley.sdk.util.DateUtils;
+import com.mendeley.sdk.util.StringPool;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -29,10 +30,15 @@ import org.json.JSONObject;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.mendeley.sdk.model.Annotation.PrivacyLevel;
 
@@ -41,6 +47,16 @@ import static com.mendeley.sdk.model.Annotation.PrivacyLevel;
  */
 public class JsonParser {
 
+    /**
+     * Fields set by the server, never sent in a document diff nor merged into a patch.
+     */
+    public static final Set<String> DOCUMENT_READ_ONLY_FIELDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "id", "created", "last_modified", "profile_id", "group_id", "file_attached")));
+
+    // fields formatted from NullableList and NullableMap, that are absent when null
+    private static final Set<String> DOCUMENT_COLLECTION_FIELDS = new HashSet<String>(Arrays.asList(
+            "authors", "editors", "tags", "keywords", "websites", "identifiers"));
+
     public static Profile profileFromJson(JsonReader reader) throws JSONException, IOException, ParseException {
         final Profile.Builder builder = new Profile.Builder();
 
@@ -49,74 +65,75 @@ public class JsonParser {
         while (reader.hasNext()) {
 
             final String key = reader.nextName();
-            if (key.equals("id")) {
-                builder.setId(reader.nextString());
-
-            } else if (key.equals("display_name")) {
-                builder.setDisplayName(reader.nextString());
-
-            } else if (key.equals("user_type")) {
-                builder.setUserType(reader.nextString());
-
-            } else if (key.equals("url")) {
-                builder.setUrl(reader.nextString());
-
-            } else if (key.equals("email")) {
-                builder.setEmail(reader.nextString());
-
-            } else if (key.equals("link")) {
-                builder.setLink(reader.nextString());
-
-            } else if (key.equals("first_name")) {
-                builder.setFirstName(reader.nextString());
-
-            } else if (key.equals("last_name")) {
-                builder.setLastName(reader.nextString());
-
-            } else if (key.equals("title")) {
-                builder.setTitle(reader.nextString());
-
-            } else if (key.equals("biography")) {
-                builder.setBiography(reader.nextString());
-
-            } else if (key.equals("research_interests")) {
-                builder.setResearchInterests(reader.nextString());
-
-            } else if (key.equals("academic_status")) {
-                builder.setAcademicStatus(reader.nextString());
-
-            } else if (key.equals("verified")) {
-                builder.setVerified(reader.nextBoolean());
-
-            } else if (key.equals("marketing")) {
-                builder.setMarketing(reader.nextBoolean());
-
-            } else if (key.equals("created_at")) {
-                builder.setCreatedAt(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
-
-            } else if (key.equals("discipline")) {
-                builder.setDiscipline(disciplineFromJson(reader));
-
-            } else if (key.equals("photos")) {
-                builder.setPhotos(profilePhotosFromJson(reader));
-
-            } else if (key.equals("education")) {
-                builder.setEducation(educationsFromJson(reader));
-
-            } else if (key.equals("employment")) {
-                builder.setEmployment(employmentsFromJson(reader));
-
-            } else if (key.equals("institution_details")) {
-                builder.setInstitutionDetails(institutionFromJson(reader));
-
-            } else if (key.equals("editorships")) {
-                builder.setEditorships(editorshipsFromJsonFromJson(reader));
-
-            } else if (key.equals("research_interests_list")) {
-                builder.setResearchInterestsList(stringListFromJson(reader));
-
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "id":
+                    builder.setId(reader.nextString());
+                    break;
+                case "display_name":
+                    builder.setDisplayName(reader.nextString());
+                    break;
+                case "user_type":
+                    builder.setUserType(reader.nextString());
+                    break;
+                case "url":
+                    builder.setUrl(reader.nextString());
+                    break;
+                case "email":
+                    builder.setEmail(reader.nextString());
+                    break;
+                case "link":
+                    builder.setLink(reader.nextString());
+                    break;
+                case "first_name":
+                    builder.setFirstName(reader.nextString());
+                    break;
+                case "last_name":
+                    builder.setLastName(reader.nextString());
+                    break;
+                case "title":
+                    builder.setTitle(reader.nextString());
+                    break;
+                case "biography":
+                    builder.setBiography(reader.nextString());
+                    break;
+                case "research_interests":
+                    builder.setResearchInterests(reader.nextString());
+                    break;
+                case "academic_status":
+                    builder.setAcademicStatus(reader.nextString());
+                    break;
+                case "verified":
+                    builder.setVerified(reader.nextBoolean());
+                    break;
+                case "marketing":
+                    builder.setMarketing(reader.nextBoolean());
+                    break;
+                case "created_at":
+                    builder.setCreatedAt(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
+                    break;
+                case "discipline":
+                    builder.setDiscipline(disciplineFromJson(reader));
+                    break;
+                case "photos":
+                    builder.setPhotos(profilePhotosFromJson(reader));
+                    break;
+                case "education":
+                    builder.setEducation(educationsFromJson(reader));
+                    break;
+                case "employment":
+                    builder.setEmployment(employmentsFromJson(reader));
+                    break;
+                case "institution_details":
+                    builder.setInstitutionDetails(institutionFromJson(reader));
+                    break;
+                case "editorships":
+                    builder.setEditorships(editorshipsFromJsonFromJson(reader));
+                    break;
+                case "research_interests_list":
+                    builder.setResearchInterestsList(stringListFromJson(reader));
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
 
@@ -144,16 +161,21 @@ public class JsonParser {
         while (reader.hasNext()) {
             final String key = reader.nextName();
 
-            if (key.equals("width")) {
-                bld.setWidth(reader.nextInt());
-            } else if (key.equals("height")) {
-                bld.setHeight(reader.nextInt());
-            } else if (key.equals("url")) {
-                bld.setUrl(reader.nextString());
-            } else if (key.equals("original")) {
-                bld.setOriginal(reader.nextBoolean());
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "width":
+                    bld.setWidth(reader.nextInt());
+                    break;
+                case "height":
+                    bld.setHeight(reader.nextInt());
+                    break;
+                case "url":
+                    bld.setUrl(reader.nextString());
+                    break;
+                case "original":
+                    bld.setOriginal(reader.nextBoolean());
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
         reader.endObject();
@@ -170,14 +192,18 @@ public class JsonParser {
 
         while (reader.hasNext()) {
             final String key = reader.nextName();
-            if ("original".equals(key)) {
-                original = reader.nextString();
-            } else if ("standard".equals(key)) {
-                standard = reader.nextString();
-            } else if ("square".equals(key)) {
-                square = reader.nextString();
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "original":
+                    original = reader.nextString();
+                    break;
+                case "standard":
+                    standard = reader.nextString();
+                    break;
+                case "square":
+                    square = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
 
@@ -187,11 +213,30 @@ public class JsonParser {
 
 
     public static List<Document> documentsFromJson(JsonReader reader) throws JSONException, IOException, ParseException {
+        return documentsFromJson(reader, null, null);
+    }
+
+    public static List<Document> documentsFromJson(JsonReader reader, Set<Document.Field> fields) throws JSONException, IOException, ParseException {
+        return documentsFromJson(reader, fields, null);
+    }
+
+    /**
+     * Parses a list of documents, reading only the passed fields.
+     *
+     * @param reader the reader
+     * @param fields fields to read. The values of the rest of keys are skipped without being
+     *               decoded, so they will be null in the parsed documents.
+     *               If null, all the fields are read.
+     * @param stringPool used to deduplicate the values repeated across documents, like
+     *                   profile ids, types, tags or author names. May be null.
+     * @return the parsed documents
+     */
+    public static List<Document> documentsFromJson(JsonReader reader, Set<Document.Field> fields, StringPool stringPool) throws JSONException, IOException, ParseException {
         final List<Document> documents = new ArrayList<Document>();
         reader.beginArray();
 
         while (reader.hasNext()) {
-            documents.add(documentFromJson(reader));
+            documents.add(documentFromJson(reader, fields, stringPool));
         }
 
         reader.endArray();
@@ -199,6 +244,25 @@ public class JsonParser {
     }
 
     public static Document documentFromJson(JsonReader reader) throws JSONException, IOException, ParseException {
+        return documentFromJson(reader, null, null);
+    }
+
+    public static Document documentFromJson(JsonReader reader, Set<Document.Field> fields) throws JSONException, IOException, ParseException {
+        return documentFromJson(reader, fields, null);
+    }
+
+    /**
+     * Parses one document, reading only the passed fields.
+     *
+     * @param reader the reader
+     * @param fields fields to read. The values of the rest of keys are skipped without being
+     *               decoded, so they will be null in the parsed document.
+     *               If null, all the fields are read.
+     * @param stringPool used to deduplicate the values repeated across documents, like
+     *                   profile ids, types, tags or author names. May be null.
+     * @return the parsed document
+     */
+    public static Document documentFromJson(JsonReader reader, Set<Document.Field> fields, StringPool stringPool) throws JSONException, IOException, ParseException {
 
         final Document.Builder bld = new Document.Builder();
 
@@ -206,130 +270,143 @@ public class JsonParser {
         while (reader.hasNext()) {
 
             final String key = reader.nextName();
-            if (key.equals("title")) {
-                bld.setTitle(reader.nextString());
-
-            } else if (key.equals("type")) {
-                bld.setType(reader.nextString());
-
-            } else if (key.equals("last_modified")) {
-                bld.setLastModified(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
-
-            } else if (key.equals("group_id")) {
-                bld.setGroupId(reader.nextString());
-
-            } else if (key.equals("profile_id")) {
-                bld.setProfileId(reader.nextString());
-
-            } else if (key.equals("read")) {
-                bld.setRead(reader.nextBoolean());
-
-            } else if (key.equals("starred")) {
-                bld.setStarred(reader.nextBoolean());
-
-            } else if (key.equals("authored")) {
-                bld.setAuthored(reader.nextBoolean());
-
-            } else if (key.equals("confirmed")) {
-                bld.setConfirmed(reader.nextBoolean());
-
-            } else if (key.equals("hidden")) {
-                bld.setHidden(reader.nextBoolean());
-
-            } else if (key.equals("id")) {
-                bld.setId(reader.nextString());
-
-            } else if (key.equals("month")) {
-                bld.setMonth(reader.nextInt());
-
-            } else if (key.equals("year")) {
-                bld.setYear(reader.nextInt());
-
-            } else if (key.equals("day")) {
-                bld.setDay(reader.nextInt());
-
-            } else if (key.equals("source")) {
-                bld.setSource(reader.nextString());
-
-            } else if (key.equals("revision")) {
-                bld.setRevision(reader.nextString());
-
-            } else if (key.equals("created")) {
-                bld.setCreated(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
-
-            } else if (key.equals("abstract")) {
-                bld.setAbstractString(reader.nextString());
-
-            } else if (key.equals("pages")) {
-                bld.setPages(reader.nextString());
-
-            } else if (key.equals("notes")) {
-                bld.setNotes(reader.nextString());
-
-            } else if (key.equals("volume")) {
-                bld.setVolume(reader.nextString());
-
-            } else if (key.equals("issue")) {
-                bld.setIssue(reader.nextString());
-
-            } else if (key.equals("publisher")) {
-                bld.setPublisher(reader.nextString());
-
-            } else if (key.equals("city")) {
-                bld.setCity(reader.nextString());
-
-            } else if (key.equals("edition")) {
-                bld.setEdition(reader.nextString());
-
-            } else if (key.equals("institution")) {
-                bld.setInstitution(reader.nextString());
-
-            } else if (key.equals("series")) {
-                bld.setSeries(reader.nextString());
-
-            } else if (key.equals("chapter")) {
-                bld.setChapter(reader.nextString());
-
-            } else if (key.equals("client_data")) {
-                bld.setClientData(reader.nextString());
-
-            } else if (key.equals("unique_id")) {
-                bld.setUniqueId(reader.nextString());
-
-            } else if (key.equals("authors")) {
-                bld.setAuthors(personsFromJson(reader));
-
-            } else if (key.equals("editors")) {
-                bld.setEditors(personsFromJson(reader));
+            final Document.Field field = Document.Field.fromJsonKey(key);
+            if (field == null || (fields != null && !fields.contains(field))) {
+                reader.skipValue();
+                continue;
+            }
 
-            } else if (key.equals("identifiers")) {
-                final Map<String, String> map = new HashMap<>();
+            switch (field) {
+                case TITLE:
+                    bld.setTitle(reader.nextString());
+                    break;
+                case TYPE:
+                    bld.setType(nextString(reader, stringPool));
+                    break;
+                case LAST_MODIFIED:
+                    bld.setLastModified(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
+                    break;
+                case GROUP_ID:
+                    bld.setGroupId(nextString(reader, stringPool));
+                    break;
+                case PROFILE_ID:
+                    bld.setProfileId(nextString(reader, stringPool));
+                    break;
+                case READ:
+                    bld.setRead(reader.nextBoolean());
+                    break;
+                case STARRED:
+                    bld.setStarred(reader.nextBoolean());
+                    break;
+                case AUTHORED:
+                    bld.setAuthored(reader.nextBoolean());
+                    break;
+                case CONFIRMED:
+                    bld.setConfirmed(reader.nextBoolean());
+                    break;
+                case HIDDEN:
+                    bld.setHidden(reader.nextBoolean());
+                    break;
+                case ID:
+                    bld.setId(reader.nextString());
+                    break;
+                case MONTH:
+                    bld.setMonth(reader.nextInt());
+                    break;
+                case YEAR:
+                    bld.setYear(reader.nextInt());
+                    break;
+                case DAY:
+                    bld.setDay(reader.nextInt());
+                    break;
+                case SOURCE:
+                    bld.setSource(nextString(reader, stringPool));
+                    break;
+                case REVISION:
+                    bld.setRevision(reader.nextString());
+                    break;
+                case CREATED:
+                    bld.setCreated(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
+                    break;
+                case ABSTRACT:
+                    bld.setAbstractString(reader.nextString());
+                    break;
+                case PAGES:
+                    bld.setPages(reader.nextString());
+                    break;
+                case NOTES:
+                    bld.setNotes(reader.nextString());
+                    break;
+                case VOLUME:
+                    bld.setVolume(reader.nextString());
+                    break;
+                case ISSUE:
+                    bld.setIssue(reader.nextString());
+                    break;
+                case PUBLISHER:
+                    bld.setPublisher(nextString(reader, stringPool));
+                    break;
+                case CITY:
+                    bld.setCity(nextString(reader, stringPool));
+                    break;
+                case EDITION:
+                    bld.setEdition(reader.nextString());
+                    break;
+                case INSTITUTION:
+                    bld.setInstitution(reader.nextString());
+                    break;
+                case SERIES:
+                    bld.setSeries(reader.nextString());
+                    break;
+                case CHAPTER:
+                    bld.setChapter(reader.nextString());
+                    break;
+                case CLIENT_DATA:
+                    bld.setClientData(reader.nextString());
+                    break;
+                case UNIQUE_ID:
+                    bld.setUniqueId(reader.nextString());
+                    break;
+                case AUTHORS:
+                    bld.setAuthors(personsFromJson(reader, stringPool));
+                    break;
+                case EDITORS:
+                    bld.setEditors(personsFromJson(reader, stringPool));
+                    break;
+                case IDENTIFIERS:
+                    bld.setIdentifiers(identifiersFromJson(reader, stringPool));
+                    break;
+                case TAGS:
+                    bld.setTags(stringListFromJson(reader, stringPool));
+                    break;
+                case FILE_ATTACHED:
+                    bld.setFileAttached(reader.nextBoolean());
+                    break;
+                case KEYWORDS:
+                    bld.setKeywords(stringListFromJson(reader, stringPool));
+                    break;
+                case WEBSITES:
+                    bld.setWebsites(stringListFromJson(reader));
+                    break;
+            }
+        }
 
-                reader.beginObject();
-                while (reader.hasNext()) {
-                    map.put(reader.nextName(), reader.nextString());
-                }
-                reader.endObject();
-                bld.setIdentifiers(map);
-            } else if (key.equals("tags")) {
-                bld.setTags(stringListFromJson(reader));
+        reader.endObject();
 
-            } else if (key.equals("file_attached")) {
-                bld.setFileAttached(reader.nextBoolean());
+        return bld.build();
+    }
 
-            } else if (key.equals("keywords")) {
-                bld.setKeywords(stringListFromJson(reader));
+    private static Map<String, String> identifiersFromJson(JsonReader reader, StringPool stringPool) throws IOException {
+        final Map<String, String> map = new HashMap<>();
 
-            } else if (key.equals("websites")) {
-                bld.setWebsites(stringListFromJson(reader));
-            } else {
-                reader.skipValue();
-            }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String key = stringPool != null ? stringPool.intern(reader.nextName()) : reader.nextName();
+            map.put(key, reader.nextString());
         }
-
         reader.endObject();
 
-        return bld.build();
+        return map;
     }
 
     public static JSONObject documentToJson(Document document) throws JSONException {
@@ -423,6 +500,35 @@ public class JsonParser {
         return jDocument;
     }
 
+    /**
+     * Formats only the fields that differ between two versions of a document, for PATCH requests.
+     * <p>
+     * Collections that are null in the modified document are not sent, so they are left
+     * unchanged, while empty ones are sent to clear them. Other fields that are null in the
+     * modified document but not in the original one are sent as null, to clear them.
+     */
+    public static JSONObject documentDiffToJson(Document original, Document modified) throws JSONException {
+        final JSONObject jOriginal = documentToJson(original);
+        final JSONObject jModified = documentToJson(modified);
+        final JSONObject jDiff = new JSONObject();
+
+        for (Iterator<?> it = jModified.keys(); it.hasNext(); ) {
+            final String key = (String) it.next();
+            final Object value = jModified.get(key);
+            if (!DOCUMENT_READ_ONLY_FIELDS.contains(key) && !jsonEquals(value, jOriginal.opt(key))) {
+                jDiff.put(key, value);
+            }
+        }
+        for (Iterator<?> it = jOriginal.keys(); it.hasNext(); ) {
+            final String key = (String) it.next();
+            if (!jModified.has(key) && !DOCUMENT_READ_ONLY_FIELDS.contains(key) && !DOCUMENT_COLLECTION_FIELDS.contains(key)) {
+                jDiff.put(key, JSONObject.NULL);
+            }
+        }
+
+        return jDiff;
+    }
+
     public static JSONObject documentIdToJson(String documentId) throws JSONException {
         JSONObject jDocument = new JSONObject();
         jDocument.put("id", documentId);
@@ -484,25 +590,27 @@ public class JsonParser {
         while (reader.hasNext()) {
 
             String key = reader.nextName();
-            if (key.equals("id")) {
-                builder.setId(reader.nextString());
-
-            } else if (key.equals("document_id")) {
-                builder.setDocumentId(reader.nextString());
-
-            } else if (key.equals("mime_type")) {
-                builder.setMimeType(reader.nextString());
-
-            } else if (key.equals("file_name")) {
-                builder.setFileName(reader.nextString());
-
-            } else if (key.equals("filehash")) {
-                builder.setFileHash(reader.nextString());
-
-            } else if (key.equals("size")) {
-                builder.setFileSize(reader.nextInt());
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "id":
+                    builder.setId(reader.nextString());
+                    break;
+                case "document_id":
+                    builder.setDocumentId(reader.nextString());
+                    break;
+                case "mime_type":
+                    builder.setMimeType(reader.nextString());
+                    break;
+                case "file_name":
+                    builder.setFileName(reader.nextString());
+                    break;
+                case "filehash":
+                    builder.setFileHash(reader.nextString());
+                    break;
+                case "size":
+                    builder.setFileSize(reader.nextInt());
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
         reader.endObject();
@@ -530,18 +638,24 @@ public class JsonParser {
         while (reader.hasNext()) {
             final String key = reader.nextName();
 
-            if (key.equals("name")) {
-                bld.setName(reader.nextString());
-            } else if (key.equals("parent_id")) {
-                bld.setParentId(reader.nextString());
-            } else if (key.equals("id")) {
-                bld.setId(reader.nextString());
-            } else if (key.equals("group_id")) {
-                bld.setGroupId(reader.nextString());
-            } else if (key.equals("added")) {
-                bld.setAdded(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "name":
+                    bld.setName(reader.nextString());
+                    break;
+                case "parent_id":
+                    bld.setParentId(reader.nextString());
+                    break;
+                case "id":
+                    bld.setId(reader.nextString());
+                    break;
+                case "group_id":
+                    bld.setGroupId(reader.nextString());
+                    break;
+                case "added":
+                    bld.setAdded(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
         reader.endObject();
@@ -619,44 +733,45 @@ public class JsonParser {
 
             final String key = reader.nextName();
 
-            if (key.equals("id")) {
-                builder.setId(reader.nextString());
-
-            } else if (key.equals("created")) {
-                builder.setCreated(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
-
-            } else if (key.equals("owning_profile_id")) {
-                builder.setOwningProfileId(reader.nextString());
-
-            } else if (key.equals("link")) {
-                builder.setLink(reader.nextString());
-
-            } else if (key.equals("role")) {
-                builder.setRole(Group.Role.fromValue(reader.nextString()));
-
-            } else if (key.equals("access_level")) {
-                builder.setAccessLevel(Group.AccessLevel.fromValue(reader.nextString()));
-
-            } else if (key.equals("name")) {
-                builder.setName(reader.nextString());
-
-            } else if (key.equals("description")) {
-                builder.setDescription(reader.nextString());
-
-            } else if (key.equals("tags")) {
-                builder.setTags(stringListFromJson(reader));
-
-            } else if (key.equals("webpage")) {
-                builder.setWebpage(reader.nextString());
-
-            } else if (key.equals("disciplines")) {
-                builder.setDisciplines(stringListFromJson(reader));
-
-            } else if (key.equals("photo")) {
-                builder.setPhoto(groupPhotoFromJson(reader));
-
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "id":
+                    builder.setId(reader.nextString());
+                    break;
+                case "created":
+                    builder.setCreated(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
+                    break;
+                case "owning_profile_id":
+                    builder.setOwningProfileId(reader.nextString());
+                    break;
+                case "link":
+                    builder.setLink(reader.nextString());
+                    break;
+                case "role":
+                    builder.setRole(Group.Role.fromValue(reader.nextString()));
+                    break;
+                case "access_level":
+                    builder.setAccessLevel(Group.AccessLevel.fromValue(reader.nextString()));
+                    break;
+                case "name":
+                    builder.setName(reader.nextString());
+                    break;
+                case "description":
+                    builder.setDescription(reader.nextString());
+                    break;
+                case "tags":
+                    builder.setTags(stringListFromJson(reader));
+                    break;
+                case "webpage":
+                    builder.setWebpage(reader.nextString());
+                    break;
+                case "disciplines":
+                    builder.setDisciplines(stringListFromJson(reader));
+                    break;
+                case "photo":
+                    builder.setPhoto(groupPhotoFromJson(reader));
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
 
@@ -665,11 +780,19 @@ public class JsonParser {
     }
 
     public static List<Annotation> annotationsFromJson(JsonReader reader) throws JSONException, IOException, ParseException {
+        return annotationsFromJson(reader, null);
+    }
+
+    /**
+     * @param stringPool used to deduplicate the values repeated across annotations, like
+     *                   profile ids, document ids or file hashes. May be null.
+     */
+    public static List<Annotation> annotationsFromJson(JsonReader reader, StringPool stringPool) throws JSONException, IOException, ParseException {
         final List<Annotation> annotations = new ArrayList<Annotation>();
         reader.beginArray();
 
         while (reader.hasNext()) {
-            annotations.add(annotationFromJson(reader));
+            annotations.add(annotationFromJson(reader, stringPool));
         }
 
         reader.endArray();
@@ -677,6 +800,10 @@ public class JsonParser {
     }
 
     public static Annotation annotationFromJson(JsonReader reader) throws JSONException, IOException, ParseException {
+        return annotationFromJson(reader, null);
+    }
+
+    public static Annotation annotationFromJson(JsonReader reader, StringPool stringPool) throws JSONException, IOException, ParseException {
         final Annotation.Builder builder = new Annotation.Builder();
 
         reader.beginObject();
@@ -684,43 +811,45 @@ public class JsonParser {
         while (reader.hasNext()) {
             final String key = reader.nextName();
 
-            if (key.equals("id")) {
-                builder.setId(reader.nextString());
-
-            } else if (key.equals("type")) {
-                builder.setType(Annotation.Type.fromName(reader.nextString()));
-
-            } else if (key.equals("previous_id")) {
-                builder.setPreviousId(reader.nextString());
-
-            } else if (key.equals("color")) {
-                builder.setColor(colorFromJson(reader));
-
-            } else if (key.equals("text")) {
-                builder.setText(reader.nextString());
-
-            } else if (key.equals("profile_id")) {
-                builder.setProfileId(reader.nextString());
-
-            } else if (key.equals("positions")) {
-                builder.setPositions(positionsFromJson(reader));
-
-            } else if (key.equals("created")) {
-                builder.setCreated(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
-
-            } else if (key.equals("last_modified")) {
-                builder.setLastModified(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
-
-            } else if (key.equals("privacy_level")) {
-                builder.setPrivacyLevel(PrivacyLevel.fromName(reader.nextString()));
-
-            } else if (key.equals("filehash")) {
-                builder.setFileHash(reader.nextString());
-
-            } else if (key.equals("document_id")) {
-                builder.setDocumentId(reader.nextString());
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "id":
+                    builder.setId(reader.nextString());
+                    break;
+                case "type":
+                    builder.setType(Annotation.Type.fromName(reader.nextString()));
+                    break;
+                case "previous_id":
+                    builder.setPreviousId(reader.nextString());
+                    break;
+                case "color":
+                    builder.setColor(colorFromJson(reader));
+                    break;
+                case "text":
+                    builder.setText(reader.nextString());
+                    break;
+                case "profile_id":
+                    builder.setProfileId(nextString(reader, stringPool));
+                    break;
+                case "positions":
+                    builder.setPackedPositions(positionsFromJson(reader));
+                    break;
+                case "created":
+                    builder.setCreated(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
+                    break;
+                case "last_modified":
+                    builder.setLastModified(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
+                    break;
+                case "privacy_level":
+                    builder.setPrivacyLevel(PrivacyLevel.fromName(reader.nextString()));
+                    break;
+                case "filehash":
+                    builder.setFileHash(nextString(reader, stringPool));
+                    break;
+                case "document_id":
+                    builder.setDocumentId(nextString(reader, stringPool));
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
 
@@ -785,22 +914,24 @@ public class JsonParser {
         while (reader.hasNext()) {
             final String key = reader.nextName();
 
-            if (key.equals("id")) {
-                bld.setId(reader.nextString());
-
-            } else if (key.equals("file_id")) {
-                bld.setFileId(reader.nextString());
-
-            } else if (key.equals("page")) {
-                bld.setPage(reader.nextInt());
-
-            } else if (key.equals("vertical_position")) {
-                bld.setVerticalPosition((float) reader.nextDouble());
-
-            } else if (key.equals("date")) {
-                bld.setDate(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "id":
+                    bld.setId(reader.nextString());
+                    break;
+                case "file_id":
+                    bld.setFileId(reader.nextString());
+                    break;
+                case "page":
+                    bld.setPage(reader.nextInt());
+                    break;
+                case "vertical_position":
+                    bld.setVerticalPosition((float) reader.nextDouble());
+                    break;
+                case "date":
+                    bld.setDate(DateUtils.parseMendeleyApiTimestamp(reader.nextString()));
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
 
@@ -822,18 +953,22 @@ public class JsonParser {
     }
 
     public static ArrayList<Person> personsFromJson(JsonReader reader) throws JSONException, IOException {
+        return personsFromJson(reader, null);
+    }
+
+    public static ArrayList<Person> personsFromJson(JsonReader reader, StringPool stringPool) throws JSONException, IOException {
         final ArrayList<Person> authorsList = new ArrayList<Person>();
 
         reader.beginArray();
         while (reader.hasNext()) {
-            final Person author = personFromJson(reader);
+            final Person author = personFromJson(reader, stringPool);
             authorsList.add(author);
         }
         reader.endArray();
         return authorsList;
     }
 
-    private static Person personFromJson(JsonReader reader) throws IOException {
+    private static Person personFromJson(JsonReader reader, StringPool stringPool) throws IOException {
         reader.beginObject();
 
         String authorName = null;
@@ -841,12 +976,15 @@ public class JsonParser {
 
         while (reader.hasNext()) {
             final String key = reader.nextName();
-            if ("first_name".equals(key)) {
-                authorName = reader.nextString();
-            } else if ("last_name".equals(key)) {
-                authorLastName = reader.nextString();
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "first_name":
+                    authorName = nextString(reader, stringPool);
+                    break;
+                case "last_name":
+                    authorLastName = nextString(reader, stringPool);
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
         reader.endObject();
@@ -865,41 +1003,48 @@ public class JsonParser {
         return authorsJson;
     }
 
-    private static List<Annotation.Position> positionsFromJson(JsonReader reader) throws JSONException, IOException {
-        final List<Annotation.Position> positions = new ArrayList<Annotation.Position>();
+    private static PackedPositions positionsFromJson(JsonReader reader) throws JSONException, IOException {
+        // read straight into the packed arrays, without creating Position and Point objects
+        final PackedPositions.Builder positions = new PackedPositions.Builder();
+        final double[] point = new double[2];
 
         reader.beginArray();
         while (reader.hasNext()) {
-            positions.add(positionFromJson(reader));
-        }
-        reader.endArray();
-
-        return positions;
-    }
-
-    private static Annotation.Position positionFromJson(JsonReader reader) throws JSONException, IOException {
-        Point topLeft = null;
-        Point bottomRight = null;
-        Integer page = null;
-
-        reader.beginObject();
-
-        while (reader.hasNext()) {
-            final String key = reader.nextName();
-
-            if (key.equals("page")) {
-                page = reader.nextInt();
-            } else if (key.equals("top_left")) {
-                topLeft = pointFromJson(reader);
-            } else if (key.equals("bottom_right")) {
-                bottomRight = pointFromJson(reader);
-            } else {
-                reader.skipValue();
+            int page = PackedPositions.NO_PAGE;
+            double x1 = Double.NaN;
+            double y1 = Double.NaN;
+            double x2 = Double.NaN;
+            double y2 = Double.NaN;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String key = reader.nextName();
+
+                switch (key) {
+                    case "page":
+                        page = reader.nextInt();
+                        break;
+                    case "top_left":
+                        pointFromJson(reader, point);
+                        x1 = point[0];
+                        y1 = point[1];
+                        break;
+                    case "bottom_right":
+                        pointFromJson(reader, point);
+                        x2 = point[0];
+                        y2 = point[1];
+                        break;
+                    default:
+                        reader.skipValue();
+                }
             }
+            reader.endObject();
+
+            positions.add(page, x1, y1, x2, y2);
         }
+        reader.endArray();
 
-        reader.endObject();
-        return new Annotation.Position(topLeft, bottomRight, page);
+        return positions.build();
     }
 
     private static JSONObject positionToJson(Annotation.Position position) throws JSONException {
@@ -925,7 +1070,8 @@ public class JsonParser {
     }
 
 
-    private static Point pointFromJson(JsonReader reader) throws IOException {
+    // reads the x and y of a point into the array
+    private static void pointFromJson(JsonReader reader, double[] point) throws IOException {
         double x = 0;
         double y = 0;
 
@@ -933,17 +1079,21 @@ public class JsonParser {
         while (reader.hasNext()) {
             final String key = reader.nextName();
 
-            if (key.equals("x")) {
-                x = reader.nextDouble();
-            } else if (key.equals("y")) {
-                y = reader.nextDouble();
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "x":
+                    x = reader.nextDouble();
+                    break;
+                case "y":
+                    y = reader.nextDouble();
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
         reader.endObject();
 
-        return new Point(x, y);
+        point[0] = x;
+        point[1] = y;
     }
 
     private static int colorFromJson(JsonReader reader) throws JSONException, IOException {
@@ -956,14 +1106,18 @@ public class JsonParser {
         while (reader.hasNext()) {
             final String key = reader.nextName();
 
-            if (key.equals("r")) {
-                r = reader.nextInt();
-            } else if (key.equals("g")) {
-                g = reader.nextInt();
-            } else if (key.equals("b")) {
-                b = reader.nextInt();
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "r":
+                    r = reader.nextInt();
+                    break;
+                case "g":
+                    g = reader.nextInt();
+                    break;
+                case "b":
+                    b = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
 
@@ -989,12 +1143,15 @@ public class JsonParser {
 
         while (reader.hasNext()) {
             final String key = reader.nextName();
-            if (key.equals("name")) {
-                nameValue = reader.nextString();
-            } else if (key.equals("description")) {
-                descriptionValue = reader.nextString();
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "name":
+                    nameValue = reader.nextString();
+                    break;
+                case "description":
+                    descriptionValue = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
 
@@ -1093,29 +1250,30 @@ public class JsonParser {
 
             final String key = reader.nextName();
 
-            if (key.equals("id")) {
-                builder.setId(reader.nextString());
-
-            } else if (key.equals("institution_details")) {
-                builder.setInstitution(institutionFromJson(reader));
-
-            } else if (key.equals("position")) {
-                builder.setPosition(reader.nextString());
-
-            } else if (key.equals("start_date")) {
-                builder.setStartDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
-
-            } else if (key.equals("end_date")) {
-                builder.setEndDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
-
-            } else if (key.equals("website")) {
-                builder.setWebsite(reader.nextString());
-
-            } else if (key.equals("is_main_employment")) {
-                builder.setIsMainEmployment(reader.nextBoolean());
-
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "id":
+                    builder.setId(reader.nextString());
+                    break;
+                case "institution_details":
+                    builder.setInstitution(institutionFromJson(reader));
+                    break;
+                case "position":
+                    builder.setPosition(reader.nextString());
+                    break;
+                case "start_date":
+                    builder.setStartDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
+                    break;
+                case "end_date":
+                    builder.setEndDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
+                    break;
+                case "website":
+                    builder.setWebsite(reader.nextString());
+                    break;
+                case "is_main_employment":
+                    builder.setIsMainEmployment(reader.nextBoolean());
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
 
@@ -1131,26 +1289,27 @@ public class JsonParser {
 
             final String key = reader.nextName();
 
-            if (key.equals("id")) {
-                builder.setId(reader.nextString());
-
-            } else if (key.equals("created")) {
-                builder.setCreated(DateUtils.parseYearMonthDayDate(reader.nextString()));
-
-            } else if (key.equals("position")) {
-                builder.setPosition(reader.nextString());
-
-            } else if (key.equals("journal")) {
-                builder.setJournal(reader.nextString());
-
-            } else if (key.equals("start_date")) {
-                builder.setStartDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
-
-            } else if (key.equals("end_date")) {
-                builder.setEndDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
-
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "id":
+                    builder.setId(reader.nextString());
+                    break;
+                case "created":
+                    builder.setCreated(DateUtils.parseYearMonthDayDate(reader.nextString()));
+                    break;
+                case "position":
+                    builder.setPosition(reader.nextString());
+                    break;
+                case "journal":
+                    builder.setJournal(reader.nextString());
+                    break;
+                case "start_date":
+                    builder.setStartDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
+                    break;
+                case "end_date":
+                    builder.setEndDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
 
@@ -1166,41 +1325,39 @@ public class JsonParser {
 
             final String key = reader.nextName();
 
-            if (key.equals("scival_id")) {
-                builder.setScivalId(reader.nextInt());
-
-            } else if (key.equals("id")) {
-                builder.setId(reader.nextString());
-
-            } else if (key.equals("parent_id")) {
-                builder.setParentId(reader.nextString());
-
-            } else if (key.equals("name")) {
-                builder.setName(reader.nextString());
-
-            } else if (key.equals("city")) {
-                builder.setCity(reader.nextString());
-
-            } else if (key.equals("state")) {
-                builder.setState(reader.nextString());
-
-            } else if (key.equals("country")) {
-                builder.setCountry(reader.nextString());
-
-            } else if (key.equals("parent_id")) {
-                builder.setParentId(reader.nextString());
-
-            } else if (key.equals("urls")) {
-                builder.setUrls(stringListFromJson(reader));
-
-            } else if (key.equals("profile_url")) {
-                builder.setProfilerUrl(reader.nextString());
-
-            } else if (key.equals("alt_names")) {
-                builder.setAltNames(alternativeNamesFromJson(reader));
-
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "scival_id":
+                    builder.setScivalId(reader.nextInt());
+                    break;
+                case "id":
+                    builder.setId(reader.nextString());
+                    break;
+                case "parent_id":
+                    builder.setParentId(reader.nextString());
+                    break;
+                case "name":
+                    builder.setName(reader.nextString());
+                    break;
+                case "city":
+                    builder.setCity(reader.nextString());
+                    break;
+                case "state":
+                    builder.setState(reader.nextString());
+                    break;
+                case "country":
+                    builder.setCountry(reader.nextString());
+                    break;
+                case "urls":
+                    builder.setUrls(stringListFromJson(reader));
+                    break;
+                case "profile_url":
+                    builder.setProfilerUrl(reader.nextString());
+                    break;
+                case "alt_names":
+                    builder.setAltNames(alternativeNamesFromJson(reader));
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
 
@@ -1227,20 +1384,27 @@ public class JsonParser {
 
         while (reader.hasNext()) {
             final String key = reader.nextName();
-            if (key.equals("id")) {
-                builder.setId(reader.nextString());
-            } else if (key.equals("degree")) {
-                builder.setDegree(reader.nextString());
-            } else if (key.equals("institution_details")) {
-                builder.setInstitution(institutionFromJson(reader));
-            } else if (key.equals("start_date")) {
-                builder.setStartDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
-            } else if (key.equals("end_date")) {
-                builder.setEndDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
-            } else if (key.equals("website")) {
-                builder.setWebsite(reader.nextString());
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "id":
+                    builder.setId(reader.nextString());
+                    break;
+                case "degree":
+                    builder.setDegree(reader.nextString());
+                    break;
+                case "institution_details":
+                    builder.setInstitution(institutionFromJson(reader));
+                    break;
+                case "start_date":
+                    builder.setStartDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
+                    break;
+                case "end_date":
+                    builder.setEndDate(DateUtils.parseYearMonthDayDate(reader.nextString()));
+                    break;
+                case "website":
+                    builder.setWebsite(reader.nextString());
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
 
@@ -1267,14 +1431,18 @@ public class JsonParser {
         while (reader.hasNext()) {
             final String key = reader.nextName();
 
-            if (key.equals("profile_id")) {
-                mendeleyUserRole.setProfileId(reader.nextString());
-            } else if (key.equals("joined")) {
-                mendeleyUserRole.setJoined(reader.nextString());
-            } else if (key.equals("role")) {
-                mendeleyUserRole.setRole(reader.nextString());
-            } else {
-                reader.skipValue();
+            switch (key) {
+                case "profile_id":
+                    mendeleyUserRole.setProfileId(reader.nextString());
+                    break;
+                case "joined":
+                    mendeleyUserRole.setJoined(reader.nextString());
+                    break;
+                case "role":
+                    mendeleyUserRole.setRole(reader.nextString());
+                    break;
+                default:
+                    reader.skipValue();
             }
 
         }
@@ -1284,16 +1452,25 @@ public class JsonParser {
     }
 
     private static List<String> stringListFromJson(JsonReader reader) throws IOException {
+        return stringListFromJson(reader, null);
+    }
+
+    private static List<String> stringListFromJson(JsonReader reader, StringPool stringPool) throws IOException {
         List<String> list = new LinkedList<String>();
 
         reader.beginArray();
         while (reader.hasNext()) {
-            list.add(reader.nextString());
+            list.add(nextString(reader, stringPool));
         }
         reader.endArray();
         return list;
     }
 
+    private static String nextString(JsonReader reader, StringPool stringPool) throws IOException {
+        final String value = reader.nextString();
+        return stringPool != null ? stringPool.intern(value) : value;
+    }
+
     public static Map<String, String> stringsMapFromJson(JsonReader reader) throws JSONException, IOException {
         final Map<String, String> typesMap = new HashMap<String, String>();
 
@@ -1348,5 +1525,47 @@ public class JsonParser {
         return value;
     }
 
+    /**
+     * Compares JSON values, regardless of the order of the keys of the objects.
+     */
+    public static boolean jsonEquals(Object lhs, Object rhs) throws JSONException {
+        if (lhs == null || lhs == JSONObject.NULL) {
+            return rhs == null || rhs == JSONObject.NULL;
+        }
+        if (rhs == null || rhs == JSONObject.NULL) {
+            return false;
+        }
 
+        if (lhs instanceof JSONObject && rhs instanceof JSONObject) {
+            final JSONObject lObject = (JSONObject) lhs;
+            final JSONObject rObject = (JSONObject) rhs;
+            if (lObject.length() != rObject.length()) {
+                return false;
+            }
+            for (Iterator<?> it = lObject.keys(); it.hasNext(); ) {
+                final String key = (String) it.next();
+                if (!jsonEquals(lObject.get(key), rObject.opt(key))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (lhs instanceof JSONArray && rhs instanceof JSONArray) {
+            final JSONArray lArray = (JSONArray) lhs;
+            final JSONArray rArray = (JSONArray) rhs;
+            if (lArray.length() != rArray.length()) {
+                return false;
+            }
+            for (int i = 0; i < lArray.length(); i++) {
+                if (!jsonEquals(lArray.get(i), rArray.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (lhs instanceof Number && rhs instanceof Number) {
+            return ((Number) lhs).doubleValue() == ((Number) rhs).doubleValue();
+        }
+        return lhs.equals(rhs);
+    }
 }
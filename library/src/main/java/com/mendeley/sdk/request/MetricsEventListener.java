@@ -0,0 +1,101 @@
+package com.mendeley.sdk.request;
+
+import com.mendeley.sdk.metrics.RequestMetrics;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+/**
+ * {@link EventListener} that adds the timings of the phases of an OkHttp call to the
+ * {@link RequestMetrics} of the request, passed as the tag of the call.
+ */
+class MetricsEventListener extends EventListener {
+
+    static final Factory FACTORY = new Factory() {
+        @Override
+        public EventListener create(Call call) {
+            final Object tag = call.request().tag();
+            if (tag instanceof RequestMetrics.Builder) {
+                return new MetricsEventListener((RequestMetrics.Builder) tag);
+            }
+            return NONE;
+        }
+    };
+
+    private final RequestMetrics.Builder metrics;
+
+    private long dnsStartNanos;
+    private long connectStartNanos;
+    private long secureConnectStartNanos;
+    private long requestEndNanos;
+
+    private MetricsEventListener(RequestMetrics.Builder metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        metrics.addDnsNanos(System.nanoTime() - dnsStartNanos);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        secureConnectStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        metrics.addTlsNanos(System.nanoTime() - secureConnectStartNanos);
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        metrics.addConnectNanos(System.nanoTime() - connectStartNanos);
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol, IOException ioe) {
+        metrics.addConnectNanos(System.nanoTime() - connectStartNanos);
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, okhttp3.Request request) {
+        requestEndNanos = System.nanoTime();
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        requestEndNanos = System.nanoTime();
+        metrics.addRequestBytes(byteCount);
+    }
+
+    // responseHeadersStart is sent before waiting for the headers, so it can't tell the time of the server
+    @Override
+    public void responseHeadersEnd(Call call, okhttp3.Response response) {
+        metrics.addServerNanos(System.nanoTime() - requestEndNanos);
+    }
+
+    // the time downloading the body is measured by the request, as it overlaps with its parsing
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        metrics.addResponseBytes(byteCount);
+    }
+}
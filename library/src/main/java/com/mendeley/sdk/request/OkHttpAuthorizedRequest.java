@@ -1,6 +1,7 @@
 package com.mendeley.sdk.request;
 
 import android.net.Uri;
+import android.util.Log;
 
 import com.mendeley.sdk.AuthTokenManager;
 import com.mendeley.sdk.ClientCredentials;
@@ -8,38 +9,77 @@ import com.mendeley.sdk.Request;
 import com.mendeley.sdk.exceptions.HttpResponseException;
 import com.mendeley.sdk.exceptions.MendeleyException;
 import com.mendeley.sdk.exceptions.UserCancelledException;
+import com.mendeley.sdk.metrics.RequestMetrics;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Call;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
 
 /**
  * Base implementation of {@link Request} using {@link OkHttpClient} as the HTTP client.
  */
 public abstract class OkHttpAuthorizedRequest<ResultType> extends AuthorizedRequest<ResultType> {
 
+    private static final String TAG = OkHttpAuthorizedRequest.class.getSimpleName();
+
+    /**
+     * Value of {@link #setRequestCompressionThreshold(long)} that disables the compression.
+     */
+    public static final long NO_REQUEST_COMPRESSION = -1;
+
     private static OkHttpClient sOkHttpClient;
 
+    private static volatile long sRequestCompressionThreshold = NO_REQUEST_COMPRESSION;
+    private static volatile boolean sRequestCompressionRejected;
+
     static  {
         sOkHttpClient = new OkHttpClient.Builder()
                 .connectTimeout(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
                 .writeTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS)
                 .readTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS)
                 .followRedirects(true)
+                .eventListenerFactory(MetricsEventListener.FACTORY)
                 .build();
 
     }
 
     private RequestProgressListener progressListener;
 
+    // call in progress, to be aborted if the request is cancelled
+    private volatile Call currentCall;
+
+    /**
+     * Enables the gzip compression of the JSON bodies of POST and PATCH requests of at least the
+     * given size, as those of documents with long notes or abstracts. Bodies that don't get
+     * smaller are sent as they are.
+     * <p>
+     * If the server rejects a compressed body because of its encoding, and accepts it uncompressed,
+     * the compression is disabled for the rest of the process.
+     *
+     * @param minBytes minimum size of the bodies to compress, or {@link #NO_REQUEST_COMPRESSION}
+     */
+    public static void setRequestCompressionThreshold(long minBytes) {
+        sRequestCompressionThreshold = minBytes;
+        sRequestCompressionRejected = false;
+    }
+
     public OkHttpAuthorizedRequest(Uri url, AuthTokenManager authTokenManager, ClientCredentials clientCredentials) {
         super(url, authTokenManager, clientCredentials);
     }
@@ -50,6 +90,10 @@ public abstract class OkHttpAuthorizedRequest<ResultType> extends AuthorizedRequ
     }
 
     private Response doRun(Uri url, int currentRetry, boolean addOauthToken) throws MendeleyException {
+        return doRun(url, currentRetry, addOauthToken, true);
+    }
+
+    private Response doRun(Uri url, int currentRetry, boolean addOauthToken, boolean allowCompression) throws MendeleyException {
         ResponseBody responseBody = null;
 
         try {
@@ -57,6 +101,13 @@ public abstract class OkHttpAuthorizedRequest<ResultType> extends AuthorizedRequ
             requestBld.url(url.toString());
             setMethod(requestBld);
 
+            final RequestMetrics.Builder metrics = this.metrics;
+            if (metrics != null) {
+                // read by MetricsEventListener
+                requestBld.tag(metrics);
+                metrics.addAttempt();
+            }
+
             if (addOauthToken) {
                 requestBld.addHeader("Authorization", "Bearer " + authTokenManager.getAccessToken());
             }
@@ -69,29 +120,87 @@ public abstract class OkHttpAuthorizedRequest<ResultType> extends AuthorizedRequ
                 requestBld.addHeader(key, requestHeaders.get(key));
             }
 
-            final okhttp3.Request okHttpRequest =  requestBld.build();
-            final okhttp3.Response okHttpResponse = sOkHttpClient.newCall(okHttpRequest).execute();
+            okhttp3.Request okHttpRequest =  requestBld.build();
+            final boolean compressed = allowCompression && okHttpRequest.header("Content-Encoding") == null && compressBody(requestBld, okHttpRequest);
+            if (compressed) {
+                okHttpRequest = requestBld.build();
+            }
+            final Call call = sOkHttpClient.newCall(okHttpRequest);
+            currentCall = call;
+            if (isCancelled()) {
+                // cancelled before the call could be aborted by onCancel()
+                throw new UserCancelledException();
+            }
+            final okhttp3.Response okHttpResponse = call.execute();
 
             final int responseCode = okHttpResponse.code();
+            if (metrics != null) {
+                metrics.setHttpStatus(responseCode);
+                metrics.setTraceId(okHttpResponse.header("X-Mendeley-Trace-Id"));
+            }
 
             responseBody = okHttpResponse.body();
             if (responseCode / 100 != 2) {
-                throw new HttpResponseException(responseCode, okHttpResponse.message(), url.toString(), responseBody.string(), okHttpResponse.header("X-Mendeley-Trace-Id"));
+                final long downloadStartNanos = System.nanoTime();
+                final String errorBody = responseBody.string();
+                if (metrics != null) {
+                    metrics.addDownloadNanos(System.nanoTime() - downloadStartNanos);
+                }
+                if (compressed && isCompressionRejected(responseCode, errorBody)) {
+                    // the server doesn't support compressed bodies: try again without compressing
+                    responseBody.close();
+                    responseBody = null;
+                    final Response response = doRun(url, currentRetry, addOauthToken, false);
+                    Log.w(TAG, "Compressed request bodies not accepted by the server, disabling compression");
+                    sRequestCompressionRejected = true;
+                    return response;
+                }
+                throw new HttpResponseException(responseCode, okHttpResponse.message(), url.toString(), errorBody, okHttpResponse.header("X-Mendeley-Trace-Id"));
             }
 
             // wrapping the input stream of the connection in:
             // -- CancellableInputStream to stop reading if the request has been cancelled
             // -- ProgressPublisherInputStream to publish progress as the file is being read
-            final InputStream is = new MyCancellableInputStream(new MyProgressPublisherInputStream(responseBody.byteStream(), responseBody.contentLength()));
+            // -- CountingInputStream to measure the bytes parsed and the time waiting for them, if collecting metrics
+            InputStream is = new MyCancellableInputStream(new MyProgressPublisherInputStream(responseBody.byteStream(), responseBody.contentLength()));
+            final CountingInputStream countingIs = metrics != null ? new CountingInputStream(is) : null;
+            if (countingIs != null) {
+                is = countingIs;
+            }
             final Map<String, List<String>> responseHeaders = okHttpResponse.headers().toMultimap();
-            return new Response(manageResponse(is), getServerDateString(responseHeaders), getNextPage(responseHeaders));
+            final long parseStartNanos = System.nanoTime();
+            final ResultType resource;
+            try {
+                resource = manageResponse(is);
+            } finally {
+                if (metrics != null) {
+                    // the body is downloaded while parsed: the time waiting for its bytes is the
+                    // download, and the rest is the time of the parser
+                    final long readNanos = countingIs.getReadNanos();
+                    metrics.addDownloadNanos(readNanos);
+                    metrics.addParseNanos(Math.max(0, System.nanoTime() - parseStartNanos - readNanos));
+                    metrics.addParsedBytes(countingIs.getCount());
+                }
+            }
+            if (metrics != null) {
+                metrics.addParsedItems(countItems(resource));
+            }
+            return new Response(resource, getServerDateString(responseHeaders), getNextPage(responseHeaders));
         } catch (CancellationException ce) {
             throw new UserCancelledException(ce);
         } catch (MendeleyException me) {
+            if (isCancelled() && !(me instanceof UserCancelledException)) {
+                // failed reading the aborted call
+                throw new UserCancelledException(me);
+            }
             throw me;
         } catch (ParseException pe) {
             throw new MendeleyException("Could not parse a date in the JSON response " + url, pe);
         } catch (IOException ioe) {
+            if (isCancelled()) {
+                // the call has been aborted by onCancel()
+                throw new UserCancelledException(ioe);
+            }
             // If the issue is due to IOException, retry up to MAX_HTTP_RETRIES times
             if (currentRetry <  MAX_HTTP_RETRIES) {
                 return doRun(url, currentRetry + 1, addOauthToken);
@@ -99,8 +208,12 @@ public abstract class OkHttpAuthorizedRequest<ResultType> extends AuthorizedRequ
                 throw new MendeleyException("IO error performing the request " + url, ioe);
             }
         } catch (Exception e) {
+            if (isCancelled()) {
+                throw new UserCancelledException(e);
+            }
             throw new MendeleyException("Error performing the request " + url, e);
         } finally {
+            currentCall = null;
             if (responseBody != null) {
                 if (responseBody.byteStream() != null) {
                     try {
@@ -115,6 +228,72 @@ public abstract class OkHttpAuthorizedRequest<ResultType> extends AuthorizedRequ
 
     protected abstract void setMethod(okhttp3.Request.Builder requestBld) throws Exception;
 
+    @Override
+    protected void onCancel() {
+        super.onCancel();
+        final Call call = currentCall;
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    /**
+     * Replaces the body of the request with its gzip compression, if enabled and worth it.
+     *
+     * @return true if the body has been compressed
+     */
+    private static boolean compressBody(okhttp3.Request.Builder requestBld, okhttp3.Request request) throws IOException {
+        final RequestBody body = request.body();
+        final long threshold = sRequestCompressionThreshold;
+        if (threshold < 0 || sRequestCompressionRejected || body == null) {
+            return false;
+        }
+        final RequestBody compressedBody = gzip(body, threshold);
+        if (compressedBody == null) {
+            return false;
+        }
+        requestBld.header("Content-Encoding", "gzip");
+        requestBld.method(request.method(), compressedBody);
+        return true;
+    }
+
+    /**
+     * @return true if the error is about the compression of the body: an unsupported media type,
+     * or a bad request that mentions the encoding
+     */
+    static boolean isCompressionRejected(int responseCode, String errorBody) {
+        if (responseCode == 415) {
+            return true;
+        }
+        if (responseCode != 400 || errorBody == null) {
+            return false;
+        }
+        final String error = errorBody.toLowerCase(Locale.US);
+        return error.contains("encoding") || error.contains("gzip") || error.contains("compress");
+    }
+
+    /**
+     * @return the gzip compression of the JSON body, or null if it is smaller than the given
+     * size or it doesn't get smaller
+     */
+    static RequestBody gzip(RequestBody body, long minBytes) throws IOException {
+        final MediaType contentType = body.contentType();
+        final long contentLength = body.contentLength();
+        // files are left alone: they are mostly compressed already, and would be loaded in memory
+        if (contentType == null || !contentType.subtype().endsWith("json") || contentLength < 0 || contentLength < minBytes) {
+            return null;
+        }
+
+        final Buffer compressed = new Buffer();
+        final BufferedSink sink = Okio.buffer(new GzipSink(compressed));
+        body.writeTo(sink);
+        sink.close();
+        if (compressed.size() >= contentLength) {
+            return null;
+        }
+        return RequestBody.create(contentType, compressed.readByteString());
+    }
+
     /**
      * Sets a listener to be notified of progress
      * @param progressListener
@@ -129,6 +308,17 @@ public abstract class OkHttpAuthorizedRequest<ResultType> extends AuthorizedRequ
     protected abstract ResultType manageResponse(InputStream is) throws Exception;
 
 
+    static int countItems(Object resource) {
+        if (resource == null) {
+            return 0;
+        } else if (resource instanceof Collection) {
+            return ((Collection<?>) resource).size();
+        } else if (resource instanceof Map) {
+            return ((Map<?, ?>) resource).size();
+        }
+        return 1;
+    }
+
     private String getServerDateString(Map<String, List<String>> headersMap) throws IOException {
         final List<String> dateHeaders = headersMap.get("Date");
         if (dateHeaders != null) {
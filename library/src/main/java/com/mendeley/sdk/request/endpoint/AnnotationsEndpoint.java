@@ -13,6 +13,7 @@ import com.mendeley.sdk.request.JsonParser;
 import com.mendeley.sdk.request.PatchAuthorizedRequest;
 import com.mendeley.sdk.request.PostAuthorizedRequest;
 import com.mendeley.sdk.util.DateUtils;
+import com.mendeley.sdk.util.StringPool;
 
 import org.json.JSONException;
 
@@ -59,6 +60,8 @@ public class AnnotationsEndpoint {
 
     public static class GetAnnotationsRequest extends GetAuthorizedRequest<List<Annotation>> {
 
+        private StringPool stringPool;
+
         private static Uri getAnnotationsUrl(AnnotationRequestParameters params) {
             final Uri uri = Uri.parse(ANNOTATIONS_BASE_URL);
             return params != null ? params.appendToUi(uri) : uri;
@@ -72,10 +75,20 @@ public class AnnotationsEndpoint {
             this(getAnnotationsUrl(parameters), authTokenManager, clientCredentials);
         }
 
+        /**
+         * Sets a pool used to deduplicate the strings repeated across the parsed annotations.
+         * The same pool may be shared by all the requests of one sync.
+         *
+         * @param stringPool the pool. May be null.
+         */
+        public void setStringPool(StringPool stringPool) {
+            this.stringPool = stringPool;
+        }
+
         @Override
         protected List<Annotation> manageResponse(InputStream is) throws JSONException, IOException, ParseException {
             final JsonReader reader = new JsonReader(new InputStreamReader(new BufferedInputStream(is)));
-            return JsonParser.annotationsFromJson(reader);
+            return JsonParser.annotationsFromJson(reader, stringPool);
         }
 
         @Override
@@ -116,7 +129,11 @@ public class AnnotationsEndpoint {
         private final Annotation annotation;
 
         public PatchAnnotationRequest(String annotationId, Annotation annotation, AuthTokenManager authTokenManager, ClientCredentials clientCredentials) {
-            super(getUrl(annotationId), null, authTokenManager, clientCredentials);
+            this(annotationId, null, annotation, authTokenManager, clientCredentials);
+        }
+
+        public PatchAnnotationRequest(String annotationId, Date date, Annotation annotation, AuthTokenManager authTokenManager, ClientCredentials clientCredentials) {
+            super(getUrl(annotationId), date, authTokenManager, clientCredentials);
             this.annotation = annotation;
         }
 
@@ -137,6 +154,7 @@ public class AnnotationsEndpoint {
 
         @Override
         protected void appendHeaders(Map<String, String> headers) {
+            super.appendHeaders(headers);
             headers.put("Accept", ANNOTATIONS_CONTENT_TYPE);
         }
 
@@ -13,8 +13,10 @@ import com.mendeley.sdk.request.JsonParser;
 import com.mendeley.sdk.request.PatchAuthorizedRequest;
 import com.mendeley.sdk.request.PostAuthorizedRequest;
 import com.mendeley.sdk.util.DateUtils;
+import com.mendeley.sdk.util.StringPool;
 
 import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
@@ -24,6 +26,7 @@ import java.text.ParseException;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
@@ -41,18 +44,49 @@ public class DocumentEndpoint {
 
 
     public static class GetDocumentsRequest extends GetAuthorizedRequest<List<Document>> {
+
+        private final Set<Document.Field> fields;
+        private StringPool stringPool;
+
         public GetDocumentsRequest(Uri url, AuthTokenManager authTokenManager, ClientCredentials clientCredentials) {
-            super(url, authTokenManager, clientCredentials);
+            this(url, null, authTokenManager, clientCredentials);
         }
 
         public GetDocumentsRequest(DocumentEndpoint.DocumentRequestParameters params, AuthTokenManager authTokenManager, ClientCredentials clientCredentials) {
-            super(params != null ? params.appendToUi(Uri.parse(DOCUMENTS_BASE_URL)) : Uri.parse(DOCUMENTS_BASE_URL), authTokenManager, clientCredentials);
+            this(params, null, authTokenManager, clientCredentials);
+        }
+
+        /**
+         * @param fields the fields of the {@link Document}s that will be parsed from the response.
+         *               The rest will be null. If null, all the fields are parsed.
+         */
+        public GetDocumentsRequest(Uri url, Set<Document.Field> fields, AuthTokenManager authTokenManager, ClientCredentials clientCredentials) {
+            super(url, authTokenManager, clientCredentials);
+            this.fields = fields;
+        }
+
+        /**
+         * @param fields the fields of the {@link Document}s that will be parsed from the response.
+         *               The rest will be null. If null, all the fields are parsed.
+         */
+        public GetDocumentsRequest(DocumentEndpoint.DocumentRequestParameters params, Set<Document.Field> fields, AuthTokenManager authTokenManager, ClientCredentials clientCredentials) {
+            this(params != null ? params.appendToUi(Uri.parse(DOCUMENTS_BASE_URL)) : Uri.parse(DOCUMENTS_BASE_URL), fields, authTokenManager, clientCredentials);
+        }
+
+        /**
+         * Sets a pool used to deduplicate the strings repeated across the parsed documents.
+         * The same pool may be shared by all the requests of one sync.
+         *
+         * @param stringPool the pool. May be null.
+         */
+        public void setStringPool(StringPool stringPool) {
+            this.stringPool = stringPool;
         }
 
         @Override
         protected List<Document> manageResponse(InputStream is) throws JSONException, IOException, ParseException {
             final JsonReader reader = new JsonReader(new InputStreamReader(new BufferedInputStream(is)));
-            return JsonParser.documentsFromJson(reader);
+            return JsonParser.documentsFromJson(reader, fields, stringPool);
         }
 
         @Override
@@ -122,16 +156,27 @@ public class DocumentEndpoint {
 
     public static class PatchDocumentAuthorizedRequest extends PatchAuthorizedRequest<Document> {
 
+        private final Document original;
         private final Document document;
 
         public PatchDocumentAuthorizedRequest(String documentId, Document document, Date date, AuthTokenManager authTokenManager, ClientCredentials clientCredentials) {
+            this(documentId, null, document, date, authTokenManager, clientCredentials);
+        }
+
+        /**
+         * Patches only the fields of the document that differ from the original version,
+         * as formatted by {@link JsonParser#documentDiffToJson(Document, Document)}.
+         */
+        public PatchDocumentAuthorizedRequest(String documentId, Document original, Document document, Date date, AuthTokenManager authTokenManager, ClientCredentials clientCredentials) {
             super(Uri.parse(DOCUMENTS_BASE_URL + "/" + documentId), date, authTokenManager, clientCredentials);
+            this.original = original;
             this.document = document;
         }
 
         @Override
         protected RequestBody getBody() throws JSONException {
-            return RequestBody.create(MediaType.parse(DOCUMENTS_CONTENT_TYPE), JsonParser.documentToJson(document).toString());
+            final JSONObject jDocument = original != null ? JsonParser.documentDiffToJson(original, document) : JsonParser.documentToJson(document);
+            return RequestBody.create(MediaType.parse(DOCUMENTS_CONTENT_TYPE), jDocument.toString());
         }
 
         @Override
@@ -142,6 +187,7 @@ public class DocumentEndpoint {
 
         @Override
         protected void appendHeaders(Map<String, String> headers) {
+            super.appendHeaders(headers);
             headers.put("Accept", DOCUMENTS_CONTENT_TYPE);
         }
 
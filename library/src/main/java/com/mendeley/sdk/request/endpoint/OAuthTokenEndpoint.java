@@ -9,6 +9,7 @@ import com.mendeley.sdk.Request;
 import com.mendeley.sdk.exceptions.HttpResponseException;
 import com.mendeley.sdk.exceptions.JsonParsingException;
 import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -18,6 +19,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import okhttp3.Call;
 import okhttp3.FormBody;
 import okhttp3.OkHttpClient;
 import okhttp3.RequestBody;
@@ -40,6 +42,9 @@ public class OAuthTokenEndpoint {
         protected final AuthTokenManager authTokenManager;
         protected final ClientCredentials clientCredentials;
 
+        // call in progress, to be aborted if the request is cancelled
+        private volatile Call currentCall;
+
         public OAuthTokenRequest(AuthTokenManager authTokenManager, ClientCredentials clientCredentials) {
             super(Uri.parse(TOKENS_URL));
             this.authTokenManager = authTokenManager;
@@ -73,7 +78,12 @@ public class OAuthTokenEndpoint {
                         .post(postBody)
                         .build();
 
-                final okhttp3.Response okHttpResponse = new OkHttpClient().newCall(okHttpRequest).execute();
+                final Call call = new OkHttpClient().newCall(okHttpRequest);
+                currentCall = call;
+                if (isCancelled()) {
+                    throw new UserCancelledException();
+                }
+                final okhttp3.Response okHttpResponse = call.execute();
 
                 final int responseCode = okHttpResponse.code();
                 responseBody = okHttpResponse.body();
@@ -88,8 +98,12 @@ public class OAuthTokenEndpoint {
             } catch (MendeleyException me) {
                 throw me;
             } catch (Exception e) {
+                if (isCancelled()) {
+                    throw new UserCancelledException(e);
+                }
                 throw new MendeleyException("Cannot obtain token", e);
             } finally {
+                currentCall = null;
                 if (responseBody != null) {
                     if (responseBody.byteStream() != null) {
                         try {
@@ -103,6 +117,15 @@ public class OAuthTokenEndpoint {
         }
 
 
+        @Override
+        protected void onCancel() {
+            super.onCancel();
+            final Call call = currentCall;
+            if (call != null) {
+                call.cancel();
+            }
+        }
+
         public abstract String getGrantType();
 
         protected abstract void appendOAuthParams(Map<String, String> oauthParams);
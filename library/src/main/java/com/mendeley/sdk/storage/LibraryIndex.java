@@ -0,0 +1,287 @@
+package com.mendeley.sdk.storage;
+
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.model.Person;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Read only index of the documents of a library, mapped in memory from a file written by
+ * {@link LibraryIndexWriter}.
+ * <p>
+ * The index holds the id, title, year, first author, last modification date and folders of
+ * each {@link Document}, which is enough to render and sort the library on start up, before
+ * any request to the Mendeley API has finished. The full documents can be loaded later, by id,
+ * when they are needed.
+ * <p>
+ * Nothing is parsed when the index is opened: values are decoded from the mapped file when
+ * they are accessed, so opening the index of a big library is immediate.
+ * <p>
+ * Records are identified by their position in the index, from 0 to {@link #size()} - 1, and
+ * are ordered by document id. Other orders are available through {@link #getRecord(SortOrder, int)}.
+ * <p>
+ * This class is thread safe.
+ */
+public class LibraryIndex {
+
+    /**
+     * Orders of the records precomputed in the index. Records are sorted in ascending order,
+     * with null values at the end.
+     */
+    public enum SortOrder {
+        TITLE, YEAR, FIRST_AUTHOR, LAST_MODIFIED
+    }
+
+    /*
+     * Layout of the file. All the values are big endian, and all the offsets are absolute.
+     *
+     * header      := MAGIC VERSION length recordCount folderCount recordsOffset sortTablesOffset folderTableOffset
+     * records     := record{recordCount}, sorted by document id
+     * record      := lastModified:long year:int idRef:int titleRef:int authorLastNameRef:int
+     *                authorFirstNameRef:int foldersRef:int
+     * sortTables  := (recordIndex:int{recordCount}){SortOrder.values().length}
+     * folderTable := folderIdRef:int{folderCount}, sorted by folder id
+     * heap        := (string | folders)*
+     * string      := length:int utf8Bytes
+     * folders     := count:int folderIndex:int{count}
+     *
+     * References to the heap are NULL_REF when the value is null. The length of the whole file is
+     * checked on opening, so that a truncated file is rejected without reading it all.
+     */
+    static final int MAGIC = 0x4D4C4958; // "MLIX"
+    static final int VERSION = 2;
+
+    static final int HEADER_SIZE = 8 * 4;
+    static final int RECORD_SIZE = 8 + 6 * 4;
+
+    static final int RECORD_LAST_MODIFIED = 0;
+    static final int RECORD_YEAR = 8;
+    static final int RECORD_ID = 12;
+    static final int RECORD_TITLE = 16;
+    static final int RECORD_AUTHOR_LAST_NAME = 20;
+    static final int RECORD_AUTHOR_FIRST_NAME = 24;
+    static final int RECORD_FOLDERS = 28;
+
+    static final int NULL_REF = -1;
+    static final int NULL_YEAR = Integer.MIN_VALUE;
+    static final long NULL_DATE = Long.MIN_VALUE;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int recordCount;
+    private final int folderCount;
+    private final int recordsOffset;
+    private final int sortTablesOffset;
+    private final int folderTableOffset;
+
+    LibraryIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a library index");
+        }
+        final int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported library index version " + version);
+        }
+        final int length = buffer.getInt(8);
+        recordCount = buffer.getInt(12);
+        folderCount = buffer.getInt(16);
+        recordsOffset = buffer.getInt(20);
+        sortTablesOffset = buffer.getInt(24);
+        folderTableOffset = buffer.getInt(28);
+
+        if (length != buffer.capacity()) {
+            throw new IOException("Truncated library index");
+        }
+        if (recordCount < 0 || folderCount < 0
+                || recordsOffset < HEADER_SIZE || sortTablesOffset < HEADER_SIZE || folderTableOffset < HEADER_SIZE
+                || (long) recordsOffset + (long) recordCount * RECORD_SIZE > buffer.capacity()
+                || (long) sortTablesOffset + (long) recordCount * 4 * SortOrder.values().length > buffer.capacity()
+                || (long) folderTableOffset + (long) folderCount * 4 > buffer.capacity()) {
+            throw new IOException("Corrupted library index");
+        }
+    }
+
+    /**
+     * Opens an index file, mapping it in memory.
+     * <p>
+     * The file can be replaced by {@link LibraryIndexWriter} while it's open: the opened index
+     * keeps reading the previous version.
+     */
+    public static LibraryIndex open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            return new LibraryIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * @return number of documents in the index
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * @return the record of the document with the given id, or -1 if it's not in the index
+     */
+    public int find(String documentId) {
+        int low = 0;
+        int high = recordCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = getId(mid).compareTo(documentId);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param order the order of the records
+     * @param position position in that order, from 0 to {@link #size()} - 1
+     * @return the record at that position
+     */
+    public int getRecord(SortOrder order, int position) {
+        checkRecord(position);
+        return buffer.getInt(sortTablesOffset + (order.ordinal() * recordCount + position) * 4);
+    }
+
+    public String getId(int record) {
+        return readString(getRef(record, RECORD_ID));
+    }
+
+    public String getTitle(int record) {
+        return readString(getRef(record, RECORD_TITLE));
+    }
+
+    /**
+     * @return the year of the document, or null if it has none
+     */
+    public Integer getYear(int record) {
+        final int year = buffer.getInt(recordOffset(record) + RECORD_YEAR);
+        return year == NULL_YEAR ? null : year;
+    }
+
+    /**
+     * @return the first author of the document, or null if it has no authors
+     */
+    public Person getFirstAuthor(int record) {
+        final int lastNameRef = getRef(record, RECORD_AUTHOR_LAST_NAME);
+        final int firstNameRef = getRef(record, RECORD_AUTHOR_FIRST_NAME);
+        if (lastNameRef == NULL_REF && firstNameRef == NULL_REF) {
+            return null;
+        }
+        return new Person(readString(firstNameRef), readString(lastNameRef));
+    }
+
+    public Date getLastModified(int record) {
+        final long lastModified = buffer.getLong(recordOffset(record) + RECORD_LAST_MODIFIED);
+        return lastModified == NULL_DATE ? null : new Date(lastModified);
+    }
+
+    /**
+     * @return the ids of the folders containing the document
+     */
+    public List<String> getFolderIds(int record) {
+        final int foldersRef = getRef(record, RECORD_FOLDERS);
+        if (foldersRef == NULL_REF) {
+            return Collections.emptyList();
+        }
+        final int count = buffer.getInt(foldersRef);
+        final List<String> folderIds = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            folderIds.add(getFolderId(buffer.getInt(foldersRef + 4 + i * 4)));
+        }
+        return folderIds;
+    }
+
+    /**
+     * @return true if the document is in the folder with the given id
+     */
+    public boolean isInFolder(int record, String folderId) {
+        final int foldersRef = getRef(record, RECORD_FOLDERS);
+        if (foldersRef == NULL_REF) {
+            return false;
+        }
+        final int folderIndex = findFolder(folderId);
+        if (folderIndex < 0) {
+            return false;
+        }
+        final int count = buffer.getInt(foldersRef);
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(foldersRef + 4 + i * 4) == folderIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getFolderId(int folderIndex) {
+        return readString(buffer.getInt(folderTableOffset + folderIndex * 4));
+    }
+
+    private int findFolder(String folderId) {
+        int low = 0;
+        int high = folderCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = getFolderId(mid).compareTo(folderId);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int recordOffset(int record) {
+        checkRecord(record);
+        return recordsOffset + record * RECORD_SIZE;
+    }
+
+    private void checkRecord(int record) {
+        if (record < 0 || record >= recordCount) {
+            throw new IndexOutOfBoundsException("Record " + record + " of " + recordCount);
+        }
+    }
+
+    private int getRef(int record, int field) {
+        return buffer.getInt(recordOffset(record) + field);
+    }
+
+    private String readString(int ref) {
+        if (ref == NULL_REF) {
+            return null;
+        }
+        final byte[] bytes = new byte[buffer.getInt(ref)];
+        // duplicate, so that concurrent readers don't share the position of the buffer
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(ref + 4);
+        duplicate.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,293 @@
+package com.mendeley.sdk.storage;
+
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.model.Person;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static com.mendeley.sdk.storage.LibraryIndex.*;
+
+/**
+ * Writes the files read by {@link LibraryIndex}.
+ * <p>
+ * Meant to be called after each sync of the library, with the documents and the folder
+ * membership returned by the Mendeley API.
+ */
+public final class LibraryIndexWriter {
+
+    private LibraryIndexWriter() {
+    }
+
+    /**
+     * Writes the index of a library.
+     * <p>
+     * The index is written to a temporary file that then replaces the given one, so the
+     * previous index stays readable until the new one is complete.
+     *
+     * @param file the file of the index
+     * @param documents the documents of the library. Documents without id are ignored, and of
+     *                  the ones with the same id only the last modified is kept.
+     * @param folderIdsByDocumentId ids of the folders of each document, by document id.
+     *                              Documents not in this map are not in any folder.
+     */
+    public static void write(File file, Collection<Document> documents, Map<String, ? extends Collection<String>> folderIdsByDocumentId) throws IOException {
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        final FileOutputStream os = new FileOutputStream(tmpFile);
+        try {
+            os.write(toByteArray(documents, folderIdsByDocumentId));
+            os.getFD().sync();
+        } finally {
+            os.close();
+        }
+
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Cannot replace library index " + file);
+        }
+    }
+
+    static byte[] toByteArray(Collection<Document> documents, Map<String, ? extends Collection<String>> folderIdsByDocumentId) throws IOException {
+        final Map<String, Document> byId = new HashMap<String, Document>(documents.size());
+        for (Document document : documents) {
+            if (document.id != null) {
+                final Document previous = byId.get(document.id);
+                if (previous == null || !isNewer(previous, document)) {
+                    byId.put(document.id, document);
+                }
+            }
+        }
+        final List<Document> records = new ArrayList<Document>(byId.values());
+        Collections.sort(records, new Comparator<Document>() {
+            @Override
+            public int compare(Document lhs, Document rhs) {
+                return lhs.id.compareTo(rhs.id);
+            }
+        });
+
+        final TreeSet<String> sortedFolderIds = new TreeSet<String>();
+        for (Collection<String> folderIds : folderIdsByDocumentId.values()) {
+            for (String folderId : folderIds) {
+                if (folderId != null) {
+                    sortedFolderIds.add(folderId);
+                }
+            }
+        }
+        final Map<String, Integer> folderIndices = new HashMap<String, Integer>();
+        for (String folderId : sortedFolderIds) {
+            folderIndices.put(folderId, folderIndices.size());
+        }
+
+        final int recordCount = records.size();
+        final int folderCount = folderIndices.size();
+        final int recordsOffset = HEADER_SIZE;
+        final int sortTablesOffset = recordsOffset + recordCount * RECORD_SIZE;
+        final int folderTableOffset = sortTablesOffset + SortOrder.values().length * recordCount * 4;
+        final int heapOffset = folderTableOffset + folderCount * 4;
+
+        final Heap heap = new Heap(heapOffset);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(heapOffset + recordCount * 64);
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        // length of the file, known once the heap is complete
+        out.writeInt(0);
+        out.writeInt(recordCount);
+        out.writeInt(folderCount);
+        out.writeInt(recordsOffset);
+        out.writeInt(sortTablesOffset);
+        out.writeInt(folderTableOffset);
+
+        for (Document document : records) {
+            final Person author = document.authors.isEmpty() ? null : document.authors.get(0);
+            final Collection<String> folderIds = folderIdsByDocumentId.get(document.id);
+
+            out.writeLong(document.lastModified != null ? document.lastModified.getTime() : NULL_DATE);
+            out.writeInt(document.year != null ? document.year : NULL_YEAR);
+            out.writeInt(heap.addString(document.id));
+            out.writeInt(heap.addString(document.title));
+            out.writeInt(heap.addString(author != null ? author.lastName : null));
+            out.writeInt(heap.addString(author != null ? author.firstName : null));
+            out.writeInt(heap.addFolders(folderIds, folderIndices));
+        }
+
+        for (SortOrder order : SortOrder.values()) {
+            for (int record : sort(records, order)) {
+                out.writeInt(record);
+            }
+        }
+
+        for (String folderId : sortedFolderIds) {
+            out.writeInt(heap.addString(folderId));
+        }
+
+        out.flush();
+        heap.writeTo(bytes);
+        final byte[] result = bytes.toByteArray();
+        ByteBuffer.wrap(result).putInt(8, result.length);
+        return result;
+    }
+
+    private static boolean isNewer(Document lhs, Document rhs) {
+        return lhs.lastModified != null && (rhs.lastModified == null || lhs.lastModified.after(rhs.lastModified));
+    }
+
+    private static int[] sort(List<Document> records, SortOrder order) {
+        final Integer[] permutation = new Integer[records.size()];
+        for (int i = 0; i < permutation.length; i++) {
+            permutation[i] = i;
+        }
+
+        // records are sorted by id, so ties keep that order as the sort is stable
+        Arrays.sort(permutation, getComparator(records, order));
+
+        final int[] result = new int[permutation.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = permutation[i];
+        }
+        return result;
+    }
+
+    private static Comparator<Integer> getComparator(final List<Document> records, SortOrder order) {
+        switch (order) {
+            case TITLE: {
+                final String[] keys = new String[records.size()];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = toSortKey(records.get(i).title);
+                }
+                return new KeysComparator<String>(keys);
+            }
+            case YEAR: {
+                final Integer[] keys = new Integer[records.size()];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = records.get(i).year;
+                }
+                return new KeysComparator<Integer>(keys);
+            }
+            case FIRST_AUTHOR: {
+                final String[] keys = new String[records.size()];
+                for (int i = 0; i < keys.length; i++) {
+                    final List<Person> authors = records.get(i).authors;
+                    if (!authors.isEmpty()) {
+                        final Person author = authors.get(0);
+                        keys[i] = toSortKey(nonNull(author.lastName) + '\u0000' + nonNull(author.firstName));
+                    }
+                }
+                return new KeysComparator<String>(keys);
+            }
+            case LAST_MODIFIED: {
+                final Date[] keys = new Date[records.size()];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = records.get(i).lastModified;
+                }
+                return new KeysComparator<Date>(keys);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown sort order " + order);
+        }
+    }
+
+    // computed once per record, as comparing the strings ignoring case is much slower
+    private static String toSortKey(String value) {
+        return value == null ? null : value.toLowerCase(Locale.US);
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Compares record indices by the sort keys of the records.
+     */
+    private static class KeysComparator<T extends Comparable<T>> implements Comparator<Integer> {
+        private final T[] keys;
+
+        KeysComparator(T[] keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public int compare(Integer lhs, Integer rhs) {
+            return compareNullsLast(keys[lhs], keys[rhs]);
+        }
+    }
+
+    private static <T extends Comparable<T>> int compareNullsLast(T lhs, T rhs) {
+        if (lhs == null) {
+            return rhs == null ? 0 : 1;
+        }
+        if (rhs == null) {
+            return -1;
+        }
+        return lhs.compareTo(rhs);
+    }
+
+    /**
+     * Variable length values referenced from the records, with the repeated strings written once.
+     */
+    private static class Heap {
+        private final int baseOffset;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        Heap(int baseOffset) {
+            this.baseOffset = baseOffset;
+        }
+
+        int addString(String value) throws IOException {
+            if (value == null) {
+                return NULL_REF;
+            }
+            Integer ref = strings.get(value);
+            if (ref == null) {
+                ref = baseOffset + out.size();
+                final byte[] utf8 = value.getBytes(UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+                strings.put(value, ref);
+            }
+            return ref;
+        }
+
+        int addFolders(Collection<String> folderIds, Map<String, Integer> folderIndices) throws IOException {
+            if (folderIds == null || folderIds.isEmpty()) {
+                return NULL_REF;
+            }
+            final TreeSet<Integer> indices = new TreeSet<Integer>();
+            for (String folderId : folderIds) {
+                if (folderId != null) {
+                    indices.add(folderIndices.get(folderId));
+                }
+            }
+            final int ref = baseOffset + out.size();
+            out.writeInt(indices.size());
+            for (int index : indices) {
+                out.writeInt(index);
+            }
+            return ref;
+        }
+
+        void writeTo(ByteArrayOutputStream os) throws IOException {
+            out.flush();
+            bytes.writeTo(os);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.mendeley.sdk.storage;
+
+import com.mendeley.sdk.model.Document;
+
+/**
+ * Constants of the binary snapshot format shared by {@link SnapshotWriter} and {@link SnapshotReader}.
+ * <p>
+ * A snapshot is a header followed by a stream of records:
+ * <pre>
+ * snapshot := MAGIC version:varint record* RECORD_END
+ * record   := type:byte presence:varlong field*
+ * </pre>
+ * The presence bitmask has one bit per field of the model: the DOCUMENT_* constants for
+ * documents and the ANNOTATION_* constants for annotations. The bits are part of the format,
+ * so they don't change when {@link Document.Field} does. Fields are written in the order of
+ * their bits, and only the
+ * fields whose bit is set are written, so null values take no space and null collections
+ * (see {@link com.mendeley.sdk.util.Nullable}) are told apart from empty ones.
+ * <p>
+ * Strings are deduplicated with a string table built incrementally while the stream is written
+ * and read, so the snapshot can be produced and consumed in one pass. Only the fields that
+ * repeat across records, as types, tags or author names, are added to the table, up to
+ * {@link #MAX_STRING_TABLE_SIZE} entries; unique values like ids and titles are always literals.
+ * Each string is encoded as one varint code followed, for literals, by its UTF-8 bytes:
+ * <ul>
+ * <li>{@link #STRING_NULL}: null value inside a collection or a {@link com.mendeley.sdk.model.Person}</li>
+ * <li>{@link #STRING_LITERAL}: literal not added to the table (unique or long values, or the table is full)</li>
+ * <li>{@link #STRING_LITERAL_INDEXED}: literal added as the next entry of the table</li>
+ * <li>{@link #STRING_REFERENCE_BASE} + i: reference to the entry i of the table</li>
+ * </ul>
+ */
+final class SnapshotFormat {
+
+    static final int MAGIC = 0x4D534E50; // "MSNP"
+    static final int VERSION = 1;
+
+    static final byte RECORD_END = 0;
+    static final byte RECORD_DOCUMENT = 1;
+    static final byte RECORD_ANNOTATION = 2;
+
+    // strings no longer than this are added to the string table
+    static final int MAX_INDEXED_STRING_LENGTH = 128;
+
+    // entries the writer adds to the string table at most, so that it doesn't grow with the library
+    static final int MAX_STRING_TABLE_SIZE = 4096;
+
+    static final int STRING_NULL = 0;
+    static final int STRING_LITERAL = 1;
+    static final int STRING_LITERAL_INDEXED = 2;
+    static final int STRING_REFERENCE_BASE = 3;
+
+    // bits of the presence bitmask of document records: fixed, so new fields must take new bits
+    static final int DOCUMENT_LAST_MODIFIED = 0;
+    static final int DOCUMENT_GROUP_ID = 1;
+    static final int DOCUMENT_PROFILE_ID = 2;
+    static final int DOCUMENT_READ = 3;
+    static final int DOCUMENT_STARRED = 4;
+    static final int DOCUMENT_AUTHORED = 5;
+    static final int DOCUMENT_CONFIRMED = 6;
+    static final int DOCUMENT_HIDDEN = 7;
+    static final int DOCUMENT_ID = 8;
+    static final int DOCUMENT_TYPE = 9;
+    static final int DOCUMENT_MONTH = 10;
+    static final int DOCUMENT_YEAR = 11;
+    static final int DOCUMENT_DAY = 12;
+    static final int DOCUMENT_SOURCE = 13;
+    static final int DOCUMENT_TITLE = 14;
+    static final int DOCUMENT_REVISION = 15;
+    static final int DOCUMENT_CREATED = 16;
+    static final int DOCUMENT_IDENTIFIERS = 17;
+    static final int DOCUMENT_ABSTRACT = 18;
+    static final int DOCUMENT_AUTHORS = 19;
+    static final int DOCUMENT_PAGES = 20;
+    static final int DOCUMENT_VOLUME = 21;
+    static final int DOCUMENT_ISSUE = 22;
+    static final int DOCUMENT_PUBLISHER = 23;
+    static final int DOCUMENT_CITY = 24;
+    static final int DOCUMENT_EDITION = 25;
+    static final int DOCUMENT_INSTITUTION = 26;
+    static final int DOCUMENT_SERIES = 27;
+    static final int DOCUMENT_CHAPTER = 28;
+    static final int DOCUMENT_EDITORS = 29;
+    static final int DOCUMENT_TAGS = 30;
+    static final int DOCUMENT_FILE_ATTACHED = 31;
+    static final int DOCUMENT_KEYWORDS = 32;
+    static final int DOCUMENT_WEBSITES = 33;
+    static final int DOCUMENT_CLIENT_DATA = 34;
+    static final int DOCUMENT_UNIQUE_ID = 35;
+    static final int DOCUMENT_NOTES = 36;
+
+    // the document field of each bit
+    static final Document.Field[] DOCUMENT_FIELDS = new Document.Field[DOCUMENT_NOTES + 1];
+
+    static {
+        DOCUMENT_FIELDS[DOCUMENT_LAST_MODIFIED] = Document.Field.LAST_MODIFIED;
+        DOCUMENT_FIELDS[DOCUMENT_GROUP_ID] = Document.Field.GROUP_ID;
+        DOCUMENT_FIELDS[DOCUMENT_PROFILE_ID] = Document.Field.PROFILE_ID;
+        DOCUMENT_FIELDS[DOCUMENT_READ] = Document.Field.READ;
+        DOCUMENT_FIELDS[DOCUMENT_STARRED] = Document.Field.STARRED;
+        DOCUMENT_FIELDS[DOCUMENT_AUTHORED] = Document.Field.AUTHORED;
+        DOCUMENT_FIELDS[DOCUMENT_CONFIRMED] = Document.Field.CONFIRMED;
+        DOCUMENT_FIELDS[DOCUMENT_HIDDEN] = Document.Field.HIDDEN;
+        DOCUMENT_FIELDS[DOCUMENT_ID] = Document.Field.ID;
+        DOCUMENT_FIELDS[DOCUMENT_TYPE] = Document.Field.TYPE;
+        DOCUMENT_FIELDS[DOCUMENT_MONTH] = Document.Field.MONTH;
+        DOCUMENT_FIELDS[DOCUMENT_YEAR] = Document.Field.YEAR;
+        DOCUMENT_FIELDS[DOCUMENT_DAY] = Document.Field.DAY;
+        DOCUMENT_FIELDS[DOCUMENT_SOURCE] = Document.Field.SOURCE;
+        DOCUMENT_FIELDS[DOCUMENT_TITLE] = Document.Field.TITLE;
+        DOCUMENT_FIELDS[DOCUMENT_REVISION] = Document.Field.REVISION;
+        DOCUMENT_FIELDS[DOCUMENT_CREATED] = Document.Field.CREATED;
+        DOCUMENT_FIELDS[DOCUMENT_IDENTIFIERS] = Document.Field.IDENTIFIERS;
+        DOCUMENT_FIELDS[DOCUMENT_ABSTRACT] = Document.Field.ABSTRACT;
+        DOCUMENT_FIELDS[DOCUMENT_AUTHORS] = Document.Field.AUTHORS;
+        DOCUMENT_FIELDS[DOCUMENT_PAGES] = Document.Field.PAGES;
+        DOCUMENT_FIELDS[DOCUMENT_VOLUME] = Document.Field.VOLUME;
+        DOCUMENT_FIELDS[DOCUMENT_ISSUE] = Document.Field.ISSUE;
+        DOCUMENT_FIELDS[DOCUMENT_PUBLISHER] = Document.Field.PUBLISHER;
+        DOCUMENT_FIELDS[DOCUMENT_CITY] = Document.Field.CITY;
+        DOCUMENT_FIELDS[DOCUMENT_EDITION] = Document.Field.EDITION;
+        DOCUMENT_FIELDS[DOCUMENT_INSTITUTION] = Document.Field.INSTITUTION;
+        DOCUMENT_FIELDS[DOCUMENT_SERIES] = Document.Field.SERIES;
+        DOCUMENT_FIELDS[DOCUMENT_CHAPTER] = Document.Field.CHAPTER;
+        DOCUMENT_FIELDS[DOCUMENT_EDITORS] = Document.Field.EDITORS;
+        DOCUMENT_FIELDS[DOCUMENT_TAGS] = Document.Field.TAGS;
+        DOCUMENT_FIELDS[DOCUMENT_FILE_ATTACHED] = Document.Field.FILE_ATTACHED;
+        DOCUMENT_FIELDS[DOCUMENT_KEYWORDS] = Document.Field.KEYWORDS;
+        DOCUMENT_FIELDS[DOCUMENT_WEBSITES] = Document.Field.WEBSITES;
+        DOCUMENT_FIELDS[DOCUMENT_CLIENT_DATA] = Document.Field.CLIENT_DATA;
+        DOCUMENT_FIELDS[DOCUMENT_UNIQUE_ID] = Document.Field.UNIQUE_ID;
+        DOCUMENT_FIELDS[DOCUMENT_NOTES] = Document.Field.NOTES;
+    }
+
+    // bits of the presence bitmask of annotation records
+    static final int ANNOTATION_ID = 0;
+    static final int ANNOTATION_TYPE = 1;
+    static final int ANNOTATION_PREVIOUS_ID = 2;
+    static final int ANNOTATION_COLOR = 3;
+    static final int ANNOTATION_TEXT = 4;
+    static final int ANNOTATION_PROFILE_ID = 5;
+    static final int ANNOTATION_POSITIONS = 6;
+    static final int ANNOTATION_CREATED = 7;
+    static final int ANNOTATION_LAST_MODIFIED = 8;
+    static final int ANNOTATION_PRIVACY_LEVEL = 9;
+    static final int ANNOTATION_FILE_HASH = 10;
+    static final int ANNOTATION_DOCUMENT_ID = 11;
+
+    // bits of the flags of annotation positions
+    static final int POSITION_PAGE = 1;
+    static final int POSITION_TOP_LEFT = 1 << 1;
+    static final int POSITION_BOTTOM_RIGHT = 1 << 2;
+
+    private SnapshotFormat() {
+    }
+}
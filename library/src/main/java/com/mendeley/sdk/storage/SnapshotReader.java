@@ -0,0 +1,406 @@
+package com.mendeley.sdk.storage;
+
+import com.mendeley.sdk.model.Annotation;
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.model.PackedPositions;
+import com.mendeley.sdk.model.Person;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mendeley.sdk.storage.SnapshotFormat.*;
+
+/**
+ * Reads the {@link Document}s and {@link Annotation}s of a snapshot written by {@link SnapshotWriter}.
+ * <p>
+ * Records are passed to a {@link Listener} as they are decoded, so the caller decides whether
+ * to keep them in memory. This class is not thread safe.
+ */
+public class SnapshotReader implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives the records of the snapshot, in the order they were written.
+     */
+    public interface Listener {
+        void onDocument(Document document);
+        void onAnnotation(Annotation annotation);
+    }
+
+    // most elements preallocated for a collection whose size is not checked against the stream
+    private static final int MAX_PREALLOCATED_COUNT = 1024;
+
+    private final DataInputStream in;
+    // whether the available bytes of the stream are the bytes left in it
+    private final boolean sized;
+    private final List<String> stringTable = new ArrayList<String>();
+
+    /**
+     * Creates the reader and reads the header of the snapshot.
+     *
+     * @param is stream the snapshot is read from. It's closed when this reader is closed.
+     * @throws IOException if the stream is not a snapshot, or it was written by a newer version
+     */
+    public SnapshotReader(InputStream is) throws IOException {
+        this.in = new DataInputStream(is instanceof BufferedInputStream || is instanceof ByteBufferInputStream ? is : new BufferedInputStream(is));
+        this.sized = is instanceof ByteBufferInputStream || is instanceof ByteArrayInputStream;
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a snapshot");
+        }
+        final long version = readVarLong();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+    }
+
+    /**
+     * Opens a snapshot file, mapping it in memory to avoid copying it through intermediate buffers.
+     */
+    public static SnapshotReader open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SnapshotReader(new ByteBufferInputStream(buffer));
+        } finally {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Convenience method reading a whole snapshot file into the passed lists.
+     */
+    public static void readAll(File file, final List<Document> documents, final List<Annotation> annotations) throws IOException {
+        final SnapshotReader reader = open(file);
+        try {
+            reader.read(new Listener() {
+                @Override
+                public void onDocument(Document document) {
+                    documents.add(document);
+                }
+
+                @Override
+                public void onAnnotation(Annotation annotation) {
+                    annotations.add(annotation);
+                }
+            });
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads all the remaining records of the snapshot.
+     *
+     * @throws IOException if the snapshot is truncated or corrupted
+     */
+    public void read(Listener listener) throws IOException {
+        while (true) {
+            final int type = in.readByte();
+            switch (type) {
+                case RECORD_END:
+                    return;
+                case RECORD_DOCUMENT:
+                    listener.onDocument(readDocument());
+                    break;
+                case RECORD_ANNOTATION:
+                    listener.onAnnotation(readAnnotation());
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private Document readDocument() throws IOException {
+        final long presence = readVarLong();
+        if ((presence >>> DOCUMENT_FIELDS.length) != 0) {
+            throw new IOException("Unknown document fields in snapshot");
+        }
+
+        final Document.Builder builder = new Document.Builder();
+
+        for (int bit = 0; bit < DOCUMENT_FIELDS.length; bit++) {
+            if ((presence & (1L << bit)) == 0) {
+                continue;
+            }
+            switch (DOCUMENT_FIELDS[bit]) {
+                case LAST_MODIFIED: builder.setLastModified(readDate()); break;
+                case GROUP_ID: builder.setGroupId(readString()); break;
+                case PROFILE_ID: builder.setProfileId(readString()); break;
+                case READ: builder.setRead(in.readBoolean()); break;
+                case STARRED: builder.setStarred(in.readBoolean()); break;
+                case AUTHORED: builder.setAuthored(in.readBoolean()); break;
+                case CONFIRMED: builder.setConfirmed(in.readBoolean()); break;
+                case HIDDEN: builder.setHidden(in.readBoolean()); break;
+                case ID: builder.setId(readString()); break;
+                case TYPE: builder.setType(readString()); break;
+                case MONTH: builder.setMonth(readInt()); break;
+                case YEAR: builder.setYear(readInt()); break;
+                case DAY: builder.setDay(readInt()); break;
+                case SOURCE: builder.setSource(readString()); break;
+                case TITLE: builder.setTitle(readString()); break;
+                case REVISION: builder.setRevision(readString()); break;
+                case CREATED: builder.setCreated(readDate()); break;
+                case IDENTIFIERS: builder.setIdentifiers(readStringsMap()); break;
+                case ABSTRACT: builder.setAbstractString(readString()); break;
+                case AUTHORS: builder.setAuthors(readPersons()); break;
+                case PAGES: builder.setPages(readString()); break;
+                case VOLUME: builder.setVolume(readString()); break;
+                case ISSUE: builder.setIssue(readString()); break;
+                case PUBLISHER: builder.setPublisher(readString()); break;
+                case CITY: builder.setCity(readString()); break;
+                case EDITION: builder.setEdition(readString()); break;
+                case INSTITUTION: builder.setInstitution(readString()); break;
+                case SERIES: builder.setSeries(readString()); break;
+                case CHAPTER: builder.setChapter(readString()); break;
+                case EDITORS: builder.setEditors(readPersons()); break;
+                case TAGS: builder.setTags(readStrings()); break;
+                case FILE_ATTACHED: builder.setFileAttached(in.readBoolean()); break;
+                case KEYWORDS: builder.setKeywords(readStrings()); break;
+                case WEBSITES: builder.setWebsites(readStrings()); break;
+                case CLIENT_DATA: builder.setClientData(readString()); break;
+                case UNIQUE_ID: builder.setUniqueId(readString()); break;
+                case NOTES: builder.setNotes(readString()); break;
+            }
+        }
+
+        return builder.build();
+    }
+
+    private Annotation readAnnotation() throws IOException {
+        final long presence = readVarLong();
+        if ((presence >>> (ANNOTATION_DOCUMENT_ID + 1)) != 0) {
+            throw new IOException("Unknown annotation fields in snapshot");
+        }
+
+        final Annotation.Builder builder = new Annotation.Builder();
+
+        if (isSet(presence, ANNOTATION_ID)) {
+            builder.setId(readString());
+        }
+        if (isSet(presence, ANNOTATION_TYPE)) {
+            builder.setType(Annotation.Type.fromName(readString()));
+        }
+        if (isSet(presence, ANNOTATION_PREVIOUS_ID)) {
+            builder.setPreviousId(readString());
+        }
+        if (isSet(presence, ANNOTATION_COLOR)) {
+            builder.setColor(in.readInt());
+        }
+        if (isSet(presence, ANNOTATION_TEXT)) {
+            builder.setText(readString());
+        }
+        if (isSet(presence, ANNOTATION_PROFILE_ID)) {
+            builder.setProfileId(readString());
+        }
+        if (isSet(presence, ANNOTATION_POSITIONS)) {
+            builder.setPackedPositions(readPositions());
+        }
+        if (isSet(presence, ANNOTATION_CREATED)) {
+            builder.setCreated(readDate());
+        }
+        if (isSet(presence, ANNOTATION_LAST_MODIFIED)) {
+            builder.setLastModified(readDate());
+        }
+        if (isSet(presence, ANNOTATION_PRIVACY_LEVEL)) {
+            builder.setPrivacyLevel(Annotation.PrivacyLevel.fromName(readString()));
+        }
+        if (isSet(presence, ANNOTATION_FILE_HASH)) {
+            builder.setFileHash(readString());
+        }
+        if (isSet(presence, ANNOTATION_DOCUMENT_ID)) {
+            builder.setDocumentId(readString());
+        }
+
+        return builder.build();
+    }
+
+    private static boolean isSet(long presence, int bit) {
+        return (presence & (1L << bit)) != 0;
+    }
+
+    private List<Person> readPersons() throws IOException {
+        final int count = readCount();
+        final List<Person> list = new ArrayList<Person>(Math.min(count, MAX_PREALLOCATED_COUNT));
+        for (int i = 0; i < count; i++) {
+            final String firstName = readString();
+            final String lastName = readString();
+            list.add(new Person(firstName, lastName));
+        }
+        return list;
+    }
+
+    private List<String> readStrings() throws IOException {
+        final int count = readCount();
+        final List<String> list = new ArrayList<String>(Math.min(count, MAX_PREALLOCATED_COUNT));
+        for (int i = 0; i < count; i++) {
+            list.add(readString());
+        }
+        return list;
+    }
+
+    private Map<String, String> readStringsMap() throws IOException {
+        final int count = readCount();
+        final Map<String, String> map = new HashMap<String, String>(Math.min(count, MAX_PREALLOCATED_COUNT) * 2);
+        for (int i = 0; i < count; i++) {
+            final String key = readString();
+            map.put(key, readString());
+        }
+        return map;
+    }
+
+    private PackedPositions readPositions() throws IOException {
+        final int count = readCount();
+        final PackedPositions.Builder positions = new PackedPositions.Builder(Math.min(count, MAX_PREALLOCATED_COUNT));
+        for (int i = 0; i < count; i++) {
+            final int flags = in.readByte();
+            final int page = (flags & POSITION_PAGE) != 0 ? readInt() : PackedPositions.NO_PAGE;
+            double x1 = Double.NaN;
+            double y1 = Double.NaN;
+            double x2 = Double.NaN;
+            double y2 = Double.NaN;
+            if ((flags & POSITION_TOP_LEFT) != 0) {
+                x1 = in.readDouble();
+                y1 = in.readDouble();
+            }
+            if ((flags & POSITION_BOTTOM_RIGHT) != 0) {
+                x2 = in.readDouble();
+                y2 = in.readDouble();
+            }
+            positions.add(page, x1, y1, x2, y2);
+        }
+        return positions.build();
+    }
+
+    private Date readDate() throws IOException {
+        return new Date(unZigZag(readVarLong()));
+    }
+
+    private int readInt() throws IOException {
+        return (int) unZigZag(readVarLong());
+    }
+
+    /**
+     * Reads the size of a collection or a string. Each element takes at least one byte, so a
+     * count larger than the bytes left in the stream is corrupted; when the stream can't tell
+     * how many bytes are left, the callers only allocate as they read, so that a corrupted
+     * count ends in an {@link java.io.EOFException} rather than an {@link OutOfMemoryError}.
+     */
+    private int readCount() throws IOException {
+        final long count = readVarLong();
+        if (count < 0 || count > Integer.MAX_VALUE || (sized && count > in.available())) {
+            throw new IOException("Invalid count in snapshot " + count);
+        }
+        return (int) count;
+    }
+
+    private String readString() throws IOException {
+        final long code = readVarLong();
+        if (code == STRING_NULL) {
+            return null;
+        }
+        if (code >= STRING_REFERENCE_BASE) {
+            final long index = code - STRING_REFERENCE_BASE;
+            if (index >= stringTable.size()) {
+                throw new IOException("Invalid string reference in snapshot " + index);
+            }
+            return stringTable.get((int) index);
+        }
+
+        final int length = readCount();
+        final String value;
+        if (length <= MAX_PREALLOCATED_COUNT) {
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            value = new String(bytes, UTF_8);
+        } else {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(MAX_PREALLOCATED_COUNT);
+            final byte[] buffer = new byte[MAX_PREALLOCATED_COUNT];
+            for (int left = length; left > 0; left -= buffer.length) {
+                final int chunk = Math.min(left, buffer.length);
+                in.readFully(buffer, 0, chunk);
+                bytes.write(buffer, 0, chunk);
+            }
+            value = new String(bytes.toByteArray(), UTF_8);
+        }
+        if (code == STRING_LITERAL_INDEXED) {
+            stringTable.add(value);
+        }
+        return value;
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in snapshot");
+    }
+
+    /**
+     * {@link InputStream} reading from a {@link ByteBuffer}, used to read mapped files.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.mendeley.sdk.storage;
+
+import com.mendeley.sdk.model.Annotation;
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.model.PackedPositions;
+import com.mendeley.sdk.model.Person;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mendeley.sdk.storage.SnapshotFormat.*;
+
+/**
+ * Writes {@link Document}s and {@link Annotation}s to a compact binary snapshot, that can be
+ * read back with {@link SnapshotReader}.
+ * <p>
+ * Unlike formatting the models as JSON, the snapshot keeps the difference between null and
+ * empty collections, and deduplicates the strings of the fields that repeat across records.
+ * See {@link SnapshotFormat} for the details of the format.
+ * <p>
+ * Records are written as they are passed, so big libraries can be saved without holding all
+ * of them in memory. This class is not thread safe.
+ */
+public class SnapshotWriter implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> stringTable = new HashMap<String, Integer>();
+    private boolean closed;
+
+    /**
+     * Creates the writer and writes the header of the snapshot.
+     *
+     * @param os stream the snapshot is written to. It's closed when this writer is closed.
+     */
+    public SnapshotWriter(OutputStream os) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        writeVarLong(VERSION);
+    }
+
+    public void writeDocuments(Collection<Document> documents) throws IOException {
+        for (Document document : documents) {
+            writeDocument(document);
+        }
+    }
+
+    public void writeDocument(Document document) throws IOException {
+        long presence = 0;
+        for (int bit = 0; bit < DOCUMENT_FIELDS.length; bit++) {
+            if (isPresent(document, DOCUMENT_FIELDS[bit])) {
+                presence |= 1L << bit;
+            }
+        }
+
+        out.writeByte(RECORD_DOCUMENT);
+        writeVarLong(presence);
+
+        for (int bit = 0; bit < DOCUMENT_FIELDS.length; bit++) {
+            if ((presence & (1L << bit)) != 0) {
+                writeField(document, DOCUMENT_FIELDS[bit]);
+            }
+        }
+    }
+
+    public void writeAnnotations(Collection<Annotation> annotations) throws IOException {
+        for (Annotation annotation : annotations) {
+            writeAnnotation(annotation);
+        }
+    }
+
+    public void writeAnnotation(Annotation annotation) throws IOException {
+        long presence = 0;
+        presence |= bit(ANNOTATION_ID, annotation.id != null);
+        presence |= bit(ANNOTATION_TYPE, annotation.type != null);
+        presence |= bit(ANNOTATION_PREVIOUS_ID, annotation.previousId != null);
+        presence |= bit(ANNOTATION_COLOR, annotation.color != null);
+        presence |= bit(ANNOTATION_TEXT, annotation.text != null);
+        presence |= bit(ANNOTATION_PROFILE_ID, annotation.profileId != null);
+        presence |= bit(ANNOTATION_POSITIONS, !annotation.positions.isNull());
+        presence |= bit(ANNOTATION_CREATED, annotation.created != null);
+        presence |= bit(ANNOTATION_LAST_MODIFIED, annotation.lastModified != null);
+        presence |= bit(ANNOTATION_PRIVACY_LEVEL, annotation.privacyLevel != null);
+        presence |= bit(ANNOTATION_FILE_HASH, annotation.fileHash != null);
+        presence |= bit(ANNOTATION_DOCUMENT_ID, annotation.documentId != null);
+
+        out.writeByte(RECORD_ANNOTATION);
+        writeVarLong(presence);
+
+        if (annotation.id != null) {
+            writeString(annotation.id);
+        }
+        if (annotation.type != null) {
+            writeRepeatedString(annotation.type.name);
+        }
+        if (annotation.previousId != null) {
+            writeString(annotation.previousId);
+        }
+        if (annotation.color != null) {
+            out.writeInt(annotation.color);
+        }
+        if (annotation.text != null) {
+            writeString(annotation.text);
+        }
+        if (annotation.profileId != null) {
+            writeRepeatedString(annotation.profileId);
+        }
+        if (!annotation.positions.isNull()) {
+            writePositions(annotation.packedPositions);
+        }
+        if (annotation.created != null) {
+            writeDate(annotation.created);
+        }
+        if (annotation.lastModified != null) {
+            writeDate(annotation.lastModified);
+        }
+        if (annotation.privacyLevel != null) {
+            writeRepeatedString(annotation.privacyLevel.name);
+        }
+        if (annotation.fileHash != null) {
+            writeRepeatedString(annotation.fileHash);
+        }
+        if (annotation.documentId != null) {
+            writeRepeatedString(annotation.documentId);
+        }
+    }
+
+    /**
+     * Flushes the pending records to the stream, without ending the snapshot.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Ends the snapshot and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            out.writeByte(RECORD_END);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long bit(int index, boolean present) {
+        return present ? 1L << index : 0;
+    }
+
+    private static boolean isPresent(Document document, Document.Field field) {
+        switch (field) {
+            case LAST_MODIFIED: return document.lastModified != null;
+            case GROUP_ID: return document.groupId != null;
+            case PROFILE_ID: return document.profileId != null;
+            case READ: return document.read != null;
+            case STARRED: return document.starred != null;
+            case AUTHORED: return document.authored != null;
+            case CONFIRMED: return document.confirmed != null;
+            case HIDDEN: return document.hidden != null;
+            case ID: return document.id != null;
+            case TYPE: return document.type != null;
+            case MONTH: return document.month != null;
+            case YEAR: return document.year != null;
+            case DAY: return document.day != null;
+            case SOURCE: return document.source != null;
+            case TITLE: return document.title != null;
+            case REVISION: return document.revision != null;
+            case CREATED: return document.created != null;
+            case IDENTIFIERS: return !document.identifiers.isNull();
+            case ABSTRACT: return document.abstractString != null;
+            case AUTHORS: return !document.authors.isNull();
+            case PAGES: return document.pages != null;
+            case VOLUME: return document.volume != null;
+            case ISSUE: return document.issue != null;
+            case PUBLISHER: return document.publisher != null;
+            case CITY: return document.city != null;
+            case EDITION: return document.edition != null;
+            case INSTITUTION: return document.institution != null;
+            case SERIES: return document.series != null;
+            case CHAPTER: return document.chapter != null;
+            case EDITORS: return !document.editors.isNull();
+            case TAGS: return !document.tags.isNull();
+            case FILE_ATTACHED: return document.fileAttached != null;
+            case KEYWORDS: return !document.keywords.isNull();
+            case WEBSITES: return !document.websites.isNull();
+            case CLIENT_DATA: return document.clientData != null;
+            case UNIQUE_ID: return document.uniqueId != null;
+            case NOTES: return document.notes != null;
+            default: return false;
+        }
+    }
+
+    private void writeField(Document document, Document.Field field) throws IOException {
+        switch (field) {
+            case LAST_MODIFIED: writeDate(document.lastModified); break;
+            case GROUP_ID: writeRepeatedString(document.groupId); break;
+            case PROFILE_ID: writeRepeatedString(document.profileId); break;
+            case READ: out.writeBoolean(document.read); break;
+            case STARRED: out.writeBoolean(document.starred); break;
+            case AUTHORED: out.writeBoolean(document.authored); break;
+            case CONFIRMED: out.writeBoolean(document.confirmed); break;
+            case HIDDEN: out.writeBoolean(document.hidden); break;
+            case ID: writeString(document.id); break;
+            case TYPE: writeRepeatedString(document.type); break;
+            case MONTH: writeVarLong(zigZag(document.month)); break;
+            case YEAR: writeVarLong(zigZag(document.year)); break;
+            case DAY: writeVarLong(zigZag(document.day)); break;
+            case SOURCE: writeRepeatedString(document.source); break;
+            case TITLE: writeString(document.title); break;
+            case REVISION: writeString(document.revision); break;
+            case CREATED: writeDate(document.created); break;
+            case IDENTIFIERS: writeStringsMap(document.identifiers); break;
+            case ABSTRACT: writeString(document.abstractString); break;
+            case AUTHORS: writePersons(document.authors); break;
+            case PAGES: writeString(document.pages); break;
+            case VOLUME: writeString(document.volume); break;
+            case ISSUE: writeString(document.issue); break;
+            case PUBLISHER: writeRepeatedString(document.publisher); break;
+            case CITY: writeRepeatedString(document.city); break;
+            case EDITION: writeString(document.edition); break;
+            case INSTITUTION: writeRepeatedString(document.institution); break;
+            case SERIES: writeRepeatedString(document.series); break;
+            case CHAPTER: writeString(document.chapter); break;
+            case EDITORS: writePersons(document.editors); break;
+            case TAGS: writeRepeatedStrings(document.tags); break;
+            case FILE_ATTACHED: out.writeBoolean(document.fileAttached); break;
+            case KEYWORDS: writeRepeatedStrings(document.keywords); break;
+            case WEBSITES: writeStrings(document.websites); break;
+            case CLIENT_DATA: writeString(document.clientData); break;
+            case UNIQUE_ID: writeString(document.uniqueId); break;
+            case NOTES: writeString(document.notes); break;
+        }
+    }
+
+    private void writePersons(List<Person> persons) throws IOException {
+        writeVarLong(persons.size());
+        for (Person person : persons) {
+            writeRepeatedString(person.firstName);
+            writeRepeatedString(person.lastName);
+        }
+    }
+
+    private void writeStrings(List<String> strings) throws IOException {
+        writeVarLong(strings.size());
+        for (String string : strings) {
+            writeString(string);
+        }
+    }
+
+    private void writeRepeatedStrings(List<String> strings) throws IOException {
+        writeVarLong(strings.size());
+        for (String string : strings) {
+            writeRepeatedString(string);
+        }
+    }
+
+    private void writeStringsMap(Map<String, String> map) throws IOException {
+        writeVarLong(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeRepeatedString(entry.getKey());
+            writeString(entry.getValue());
+        }
+    }
+
+    private void writePositions(PackedPositions positions) throws IOException {
+        writeVarLong(positions.size());
+        for (int i = 0; i < positions.size(); i++) {
+            int flags = 0;
+            if (positions.getPage(i) != PackedPositions.NO_PAGE) {
+                flags |= POSITION_PAGE;
+            }
+            if (positions.hasTopLeft(i)) {
+                flags |= POSITION_TOP_LEFT;
+            }
+            if (positions.hasBottomRight(i)) {
+                flags |= POSITION_BOTTOM_RIGHT;
+            }
+            out.writeByte(flags);
+
+            if ((flags & POSITION_PAGE) != 0) {
+                writeVarLong(zigZag(positions.getPage(i)));
+            }
+            if ((flags & POSITION_TOP_LEFT) != 0) {
+                out.writeDouble(positions.getX1(i));
+                out.writeDouble(positions.getY1(i));
+            }
+            if ((flags & POSITION_BOTTOM_RIGHT) != 0) {
+                out.writeDouble(positions.getX2(i));
+                out.writeDouble(positions.getY2(i));
+            }
+        }
+    }
+
+    private void writeDate(Date date) throws IOException {
+        writeVarLong(zigZag(date.getTime()));
+    }
+
+    /**
+     * Writes a string not expected to repeat, as ids, titles or notes, without adding it to the
+     * string table.
+     */
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarLong(STRING_NULL);
+            return;
+        }
+        writeVarLong(STRING_LITERAL);
+        writeStringBytes(value);
+    }
+
+    /**
+     * Writes a string likely repeated across records, as types, tags or author names, adding it
+     * to the string table while it has room.
+     */
+    private void writeRepeatedString(String value) throws IOException {
+        if (value == null) {
+            writeVarLong(STRING_NULL);
+            return;
+        }
+
+        final Integer index = stringTable.get(value);
+        if (index != null) {
+            writeVarLong(STRING_REFERENCE_BASE + (long) index);
+            return;
+        }
+
+        if (value.length() <= MAX_INDEXED_STRING_LENGTH && stringTable.size() < MAX_STRING_TABLE_SIZE) {
+            stringTable.put(value, stringTable.size());
+            writeVarLong(STRING_LITERAL_INDEXED);
+        } else {
+            writeVarLong(STRING_LITERAL);
+        }
+        writeStringBytes(value);
+    }
+
+    private void writeStringBytes(String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        writeVarLong(bytes.length);
+        out.write(bytes);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,324 @@
+package com.mendeley.sdk.sync;
+
+import android.net.Uri;
+
+import com.mendeley.sdk.Deadline;
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.RequestsFactory;
+import com.mendeley.sdk.exceptions.DeadlineExceededException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+import com.mendeley.sdk.model.Annotation;
+import com.mendeley.sdk.request.endpoint.AnnotationsEndpoint;
+import com.mendeley.sdk.util.StringPool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches the annotations changed in the library, grouped by document and by file.
+ * <p>
+ * Instead of one paginated request per document, a sync is done with the library wide
+ * {@code modified_since} and {@code deleted_since} filters of the /annotations endpoint, so
+ * its cost depends on what changed and not on the number of documents. The first sync of a
+ * few documents, when there is no date to filter by, fetches the annotations of each of them
+ * instead, running up to {@link #getParallelism()} requests at the same time.
+ * <p>
+ * The {@link Result#syncDate} of each sync is the date, in the server clock, to pass to the
+ * next one.
+ * <p>
+ * Syncs are blocking, so they must not be run in the UI thread.
+ */
+public class AnnotationSync {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * Number of documents up to which a sync without date fetches the annotations document by
+     * document, rather than all the annotations of the library.
+     */
+    public static final int DEFAULT_PER_DOCUMENT_THRESHOLD = 20;
+
+    // the largest page size allowed by the API
+    private static final int PAGE_LIMIT = 500;
+
+    private final RequestsFactory requestsFactory;
+    private final int parallelism;
+    private final int perDocumentThreshold;
+
+    private final RequestRunner runner = new RequestRunner();
+
+    public AnnotationSync(RequestsFactory requestsFactory) {
+        this(requestsFactory, DEFAULT_PARALLELISM, DEFAULT_PER_DOCUMENT_THRESHOLD);
+    }
+
+    /**
+     * @param parallelism maximum number of requests run at the same time by per document syncs
+     * @param perDocumentThreshold number of documents up to which a sync without date is done
+     *                             document by document
+     */
+    public AnnotationSync(RequestsFactory requestsFactory, int parallelism, int perDocumentThreshold) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.requestsFactory = requestsFactory;
+        this.parallelism = parallelism;
+        this.perDocumentThreshold = perDocumentThreshold;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Syncs the annotations of the whole library, or of one group.
+     *
+     * @param since date of the previous sync, or null to fetch all the annotations
+     * @param groupId the group, or null for the annotations of the user library
+     */
+    public Result sync(Date since, String groupId) throws MendeleyException {
+        runner.reset();
+        return syncLibrary(since, groupId);
+    }
+
+    private Result syncLibrary(Date since, String groupId) throws MendeleyException {
+        final StringPool stringPool = new StringPool();
+        final Result result = new Result();
+
+        final AnnotationsEndpoint.AnnotationRequestParameters modified = new AnnotationsEndpoint.AnnotationRequestParameters();
+        modified.groupId = groupId;
+        modified.modifiedSince = since;
+        modified.limit = PAGE_LIMIT;
+        result.syncDate = fetchAll(modified, stringPool, result.modified);
+
+        if (since != null) {
+            final AnnotationsEndpoint.AnnotationRequestParameters deleted = new AnnotationsEndpoint.AnnotationRequestParameters();
+            deleted.groupId = groupId;
+            deleted.deletedSince = since;
+            deleted.limit = PAGE_LIMIT;
+            final List<Annotation> deletedAnnotations = new ArrayList<Annotation>();
+            fetchAll(deleted, stringPool, deletedAnnotations);
+            for (Annotation annotation : deletedAnnotations) {
+                result.deletedIds.add(annotation.id);
+            }
+        }
+
+        result.group();
+        return result;
+    }
+
+    /**
+     * Syncs the annotations of some documents.
+     * <p>
+     * Changes are fetched library wide, and then filtered, unless there is no previous sync and
+     * there are up to the threshold documents. Then the annotations of each document are fetched
+     * by its own requests, run in parallel.
+     *
+     * @param documentIds the documents, all of them in the same library
+     * @param since date of the previous sync of these documents, or null to fetch all their annotations
+     * @param groupId the group of the documents, or null for documents of the user library
+     */
+    public Result sync(Collection<String> documentIds, Date since, String groupId) throws MendeleyException {
+        runner.reset();
+        if (since == null && documentIds.size() <= perDocumentThreshold) {
+            return syncPerDocument(documentIds);
+        }
+
+        final Result libraryResult = syncLibrary(since, groupId);
+        final Set<String> ids = new HashSet<String>(documentIds);
+        final Result result = new Result();
+        result.syncDate = libraryResult.syncDate;
+        for (Annotation annotation : libraryResult.modified) {
+            if (ids.contains(annotation.documentId)) {
+                result.modified.add(annotation);
+            }
+        }
+        // deleted annotations come without document, so all of them are kept
+        result.deletedIds.addAll(libraryResult.deletedIds);
+        result.group();
+        return result;
+    }
+
+    /**
+     * Sets the time by which the next syncs must finish, or null for none. It is passed to all
+     * the requests of the sync, that throws {@link DeadlineExceededException} when it expires.
+     */
+    public void setDeadline(Deadline deadline) {
+        runner.setDeadline(deadline);
+    }
+
+    /**
+     * Cancels the running sync, that throws {@link UserCancelledException}.
+     */
+    public void cancel() {
+        runner.cancel();
+    }
+
+    private Result syncPerDocument(Collection<String> documentIds) throws MendeleyException {
+        final StringPool stringPool = new StringPool();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, documentIds.size())));
+        try {
+            final List<Future<DocumentAnnotations>> futures = new ArrayList<Future<DocumentAnnotations>>();
+            for (final String documentId : documentIds) {
+                futures.add(executor.submit(new Callable<DocumentAnnotations>() {
+                    @Override
+                    public DocumentAnnotations call() throws MendeleyException {
+                        final AnnotationsEndpoint.AnnotationRequestParameters params = new AnnotationsEndpoint.AnnotationRequestParameters();
+                        params.documentId = documentId;
+                        params.limit = PAGE_LIMIT;
+                        final DocumentAnnotations annotations = new DocumentAnnotations();
+                        annotations.serverDate = fetchAll(params, stringPool, annotations.annotations);
+                        return annotations;
+                    }
+                }));
+            }
+
+            final Result result = new Result();
+            for (Future<DocumentAnnotations> future : futures) {
+                final DocumentAnnotations annotations = runner.getResult(future, "Error syncing annotations");
+                result.modified.addAll(annotations.annotations);
+                // the earliest date, so that the next sync doesn't miss changes done in between
+                if (result.syncDate == null || (annotations.serverDate != null && annotations.serverDate.before(result.syncDate))) {
+                    result.syncDate = annotations.serverDate;
+                }
+            }
+            result.group();
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Fetches all the pages of annotations matching the parameters.
+     *
+     * @return the server date of the first page
+     */
+    private Date fetchAll(AnnotationsEndpoint.AnnotationRequestParameters params, StringPool stringPool, List<Annotation> annotations) throws MendeleyException {
+        Request<List<Annotation>> request = requestsFactory.newGetAnnotationsRequest(params);
+        Date serverDate = null;
+        while (request != null) {
+            if (request instanceof AnnotationsEndpoint.GetAnnotationsRequest) {
+                ((AnnotationsEndpoint.GetAnnotationsRequest) request).setStringPool(stringPool);
+            }
+
+            final Request<List<Annotation>>.Response response = runner.run(request);
+            annotations.addAll(response.resource);
+            if (serverDate == null) {
+                serverDate = response.serverDate;
+            }
+
+            final Uri next = response.next;
+            request = next != null ? requestsFactory.newGetAnnotationsRequest(next) : null;
+        }
+        return serverDate;
+    }
+
+    private static class DocumentAnnotations {
+        final List<Annotation> annotations = new ArrayList<Annotation>();
+        Date serverDate;
+    }
+
+    /**
+     * Changes found by a sync.
+     */
+    public static class Result {
+
+        /**
+         * Date of the sync in the server clock, to be passed to the next one.
+         */
+        public Date syncDate;
+
+        private final List<Annotation> modified = new ArrayList<Annotation>();
+        private final Set<String> deletedIds = new HashSet<String>();
+        private final Map<String, List<Annotation>> byDocumentId = new LinkedHashMap<String, List<Annotation>>();
+        private final Map<String, List<Annotation>> byFileHash = new LinkedHashMap<String, List<Annotation>>();
+
+        private Result() {
+        }
+
+        /**
+         * @return the annotations created or modified since the previous sync
+         */
+        public List<Annotation> getModified() {
+            return Collections.unmodifiableList(modified);
+        }
+
+        /**
+         * @return the ids of the annotations deleted since the previous sync
+         */
+        public Set<String> getDeletedIds() {
+            return Collections.unmodifiableSet(deletedIds);
+        }
+
+        /**
+         * @return the ids of the documents with created or modified annotations
+         */
+        public Set<String> getDocumentIds() {
+            return Collections.unmodifiableSet(byDocumentId.keySet());
+        }
+
+        /**
+         * @return the hashes of the files with created or modified annotations
+         */
+        public Set<String> getFileHashes() {
+            return Collections.unmodifiableSet(byFileHash.keySet());
+        }
+
+        /**
+         * @return the created or modified annotations of the document
+         */
+        public List<Annotation> getByDocumentId(String documentId) {
+            final List<Annotation> annotations = byDocumentId.get(documentId);
+            return annotations != null ? Collections.unmodifiableList(annotations) : Collections.<Annotation>emptyList();
+        }
+
+        /**
+         * @return the created or modified annotations of the file
+         */
+        public List<Annotation> getByFileHash(String fileHash) {
+            final List<Annotation> annotations = byFileHash.get(fileHash);
+            return annotations != null ? Collections.unmodifiableList(annotations) : Collections.<Annotation>emptyList();
+        }
+
+        // an annotation modified and then deleted is only reported as deleted
+        private void group() {
+            final Map<String, Annotation> latest = new LinkedHashMap<String, Annotation>();
+            for (Annotation annotation : modified) {
+                if (!deletedIds.contains(annotation.id)) {
+                    latest.put(annotation.id, annotation);
+                }
+            }
+            modified.clear();
+            modified.addAll(latest.values());
+
+            for (Annotation annotation : modified) {
+                add(byDocumentId, annotation.documentId, annotation);
+                add(byFileHash, annotation.fileHash, annotation);
+            }
+        }
+
+        private static void add(Map<String, List<Annotation>> map, String key, Annotation annotation) {
+            if (key == null) {
+                return;
+            }
+            List<Annotation> annotations = map.get(key);
+            if (annotations == null) {
+                annotations = new ArrayList<Annotation>();
+                map.put(key, annotations);
+            }
+            annotations.add(annotation);
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.mendeley.sdk.sync;
+
+import com.mendeley.sdk.Deadline;
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.RequestsFactory;
+import com.mendeley.sdk.async.MendeleyFuture;
+import com.mendeley.sdk.exceptions.DeadlineExceededException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.request.endpoint.DocumentEndpoint;
+import com.mendeley.sdk.util.StringPool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Fetches the documents changed in one or more libraries, splitting each of them in partitions
+ * that are fetched at the same time.
+ * <p>
+ * Following the {@link Request.Response#next} links of one paginated request fetches the pages
+ * one after another, so a first sync of a big library takes as many round trips as pages.
+ * Instead, each library, the user one or a group, is fetched by its own requests, and its
+ * changes are split in time windows: a first request of one document sorted by
+ * {@code last_modified} finds the oldest change, the period from it to the date of the server
+ * is divided in {@link #getPartitionsPerLibrary()} windows, and each window is fetched from its
+ * start with {@code modified_since} and {@code sort=last_modified}, stopping at the page that
+ * reaches the next window. Up to {@link #getParallelism()} requests are run at the same time.
+ * <p>
+ * Each page is requested by its own task, queued behind the pages of the other windows, so all
+ * the windows of all the libraries progress at the same pace.
+ * <p>
+ * Documents modified during the sync may move from a window to a later one, and be missed,
+ * but they are fetched by the next sync, as their modification is after its {@link Result#syncDate}.
+ * <p>
+ * Syncs are blocking, so they must not be run in the UI thread.
+ */
+public class DocumentSync {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    public static final int DEFAULT_PARTITIONS_PER_LIBRARY = 4;
+
+    // the largest page size allowed by the API
+    private static final int PAGE_LIMIT = 500;
+
+    // windows are requested from a bit before their start, in case modified_since is exclusive
+    private static final long WINDOW_OVERLAP_MILLIS = 1000;
+
+    private final RequestsFactory requestsFactory;
+    private final int parallelism;
+    private final int partitionsPerLibrary;
+    private final RequestRunner runner;
+
+    public DocumentSync(RequestsFactory requestsFactory) {
+        this(requestsFactory, DEFAULT_PARALLELISM, DEFAULT_PARTITIONS_PER_LIBRARY);
+    }
+
+    /**
+     * @param parallelism maximum number of requests run at the same time
+     * @param partitionsPerLibrary number of time windows the changes of each library are split in
+     */
+    public DocumentSync(RequestsFactory requestsFactory, int parallelism, int partitionsPerLibrary) {
+        this(requestsFactory, parallelism, partitionsPerLibrary, new RequestRunner());
+    }
+
+    DocumentSync(RequestsFactory requestsFactory, int parallelism, int partitionsPerLibrary, RequestRunner runner) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        if (partitionsPerLibrary < 1) {
+            throw new IllegalArgumentException("Partitions per library must be positive");
+        }
+        this.requestsFactory = requestsFactory;
+        this.parallelism = parallelism;
+        this.partitionsPerLibrary = partitionsPerLibrary;
+        this.runner = runner;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getPartitionsPerLibrary() {
+        return partitionsPerLibrary;
+    }
+
+    /**
+     * Syncs the documents of the user library.
+     *
+     * @param since date of the previous sync, or null to fetch all the documents
+     * @param view the view of the documents, or null for the default one
+     */
+    public Result sync(Date since, DocumentEndpoint.DocumentRequestParameters.View view) throws MendeleyException {
+        return sync(since, Collections.<String>singletonList(null), view);
+    }
+
+    /**
+     * Syncs the documents of several libraries at the same time.
+     *
+     * @param since date of the previous sync of all of them, or null to fetch all the documents
+     * @param groupIds the groups, where null stands for the user library
+     * @param view the view of the documents, or null for the default one
+     */
+    public Result sync(Date since, Collection<String> groupIds, DocumentEndpoint.DocumentRequestParameters.View view) throws MendeleyException {
+        runner.reset();
+        final StringPool stringPool = new StringPool();
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            final List<MendeleyFuture<Result>> libraries = new ArrayList<MendeleyFuture<Result>>();
+            for (String groupId : groupIds) {
+                libraries.add(syncLibrary(groupId, since, view, executor, stringPool));
+            }
+
+            final Result result = new Result();
+            for (MendeleyFuture<Result> library : libraries) {
+                result.add(runner.getResult(library, "Error syncing documents"));
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sets the time by which the next syncs must finish, or null for none. It is passed to all
+     * the requests of the sync, that throws {@link DeadlineExceededException} when it expires.
+     */
+    public void setDeadline(Deadline deadline) {
+        runner.setDeadline(deadline);
+    }
+
+    /**
+     * Cancels the running sync, that throws {@link UserCancelledException}.
+     */
+    public void cancel() {
+        runner.cancel();
+    }
+
+    /**
+     * Starts syncing one library, with the tasks of its requests run in the executor. None of
+     * them waits for others, so the executor may be shared with other syncs.
+     *
+     * @param groupId the group, or null for the user library
+     * @return the changes of the library
+     */
+    MendeleyFuture<Result> syncLibrary(String groupId, Date since, DocumentEndpoint.DocumentRequestParameters.View view, Executor executor, StringPool stringPool) {
+        final LibrarySync librarySync = new LibrarySync(groupId, since, view, executor, stringPool);
+        librarySync.start();
+        return librarySync.future;
+    }
+
+    /**
+     * Divides the period between two dates in windows of the same length.
+     *
+     * @return the start of each window, the first one being the start of the period
+     */
+    static Date[] windowBoundaries(Date start, Date end, int windows) {
+        if (start == null || end == null || !start.before(end)) {
+            return new Date[]{start};
+        }
+        final long length = end.getTime() - start.getTime();
+        final int count = (int) Math.min(windows, length);
+        final Date[] boundaries = new Date[count];
+        for (int i = 0; i < count; i++) {
+            boundaries[i] = new Date(start.getTime() + length * i / count);
+        }
+        return boundaries;
+    }
+
+    /**
+     * The sync of one library: the request of its oldest change, that starts the requests of its
+     * windows, and the requests of its deletions. It is done when all of them are.
+     */
+    private class LibrarySync {
+
+        final String groupId;
+        final Date since;
+        final DocumentEndpoint.DocumentRequestParameters.View view;
+        final Executor executor;
+        final StringPool stringPool;
+
+        final MendeleyFuture<Result> future = new MendeleyFuture<Result>();
+        final Result result = new Result();
+        private int runningStreams;
+
+        LibrarySync(String groupId, Date since, DocumentEndpoint.DocumentRequestParameters.View view, Executor executor, StringPool stringPool) {
+            this.groupId = groupId;
+            this.since = since;
+            this.view = view;
+            this.executor = executor;
+            this.stringPool = stringPool;
+        }
+
+        void start() {
+            // both streams are counted before any of them can finish
+            startStream();
+            if (since != null) {
+                startStream();
+            }
+
+            final DocumentEndpoint.DocumentRequestParameters oldestChange = newParameters(view);
+            oldestChange.modifiedSince = since;
+            oldestChange.sort = DocumentEndpoint.DocumentRequestParameters.Sort.MODIFIED;
+            oldestChange.order = DocumentEndpoint.DocumentRequestParameters.Order.ASC;
+            oldestChange.limit = 1;
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        onOldestChange(runner.run(requestsFactory.newGetDocumentsRequest(oldestChange)));
+                    } catch (MendeleyException e) {
+                        future.setException(e);
+                    } catch (RuntimeException e) {
+                        future.setException(new MendeleyException("Error syncing documents", e));
+                    }
+                }
+            });
+
+            if (since != null) {
+                final DocumentEndpoint.DocumentRequestParameters deleted = newParameters(null);
+                deleted.deletedSince = since;
+                execute(new PageTask(newRequest(deleted), null, null, true));
+            }
+        }
+
+        private void onOldestChange(Request<List<Document>>.Response response) {
+            synchronized (this) {
+                result.syncDate = response.serverDate;
+            }
+            if (!response.resource.isEmpty()) {
+                final Date[] boundaries = windowBoundaries(response.resource.get(0).lastModified, response.serverDate, partitionsPerLibrary);
+                for (int i = 0; i < boundaries.length; i++) {
+                    final Date start = i > 0 ? boundaries[i] : null;
+                    final Date end = i + 1 < boundaries.length ? boundaries[i + 1] : null;
+                    final DocumentEndpoint.DocumentRequestParameters params = newParameters(view);
+                    params.modifiedSince = start != null ? new Date(start.getTime() - WINDOW_OVERLAP_MILLIS) : since;
+                    params.sort = DocumentEndpoint.DocumentRequestParameters.Sort.MODIFIED;
+                    params.order = DocumentEndpoint.DocumentRequestParameters.Order.ASC;
+                    startStream();
+                    execute(new PageTask(newRequest(params), start, end, false));
+                }
+            }
+            onStreamFinished();
+        }
+
+        private DocumentEndpoint.DocumentRequestParameters newParameters(DocumentEndpoint.DocumentRequestParameters.View view) {
+            final DocumentEndpoint.DocumentRequestParameters params = new DocumentEndpoint.DocumentRequestParameters();
+            params.groupId = groupId;
+            params.view = view;
+            params.limit = PAGE_LIMIT;
+            return params;
+        }
+
+        private Request<List<Document>> newRequest(DocumentEndpoint.DocumentRequestParameters params) {
+            return withStringPool(requestsFactory.newGetDocumentsRequest(params));
+        }
+
+        private Request<List<Document>> withStringPool(Request<List<Document>> request) {
+            if (request instanceof DocumentEndpoint.GetDocumentsRequest) {
+                ((DocumentEndpoint.GetDocumentsRequest) request).setStringPool(stringPool);
+            }
+            return request;
+        }
+
+        private synchronized void startStream() {
+            runningStreams++;
+        }
+
+        private void onStreamFinished() {
+            synchronized (this) {
+                if (--runningStreams > 0) {
+                    return;
+                }
+                result.merge();
+            }
+            future.set(result);
+        }
+
+        private void execute(Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                future.setException(new UserCancelledException(e));
+            }
+        }
+
+        /**
+         * Fetches a page of documents, keeping those modified in the window, if any, and queues
+         * the task of the next page. As pages are sorted by modification date, it stops at the
+         * first page reaching the end of the window.
+         */
+        private class PageTask implements Runnable {
+
+            private final Request<List<Document>> request;
+            private final Date start;
+            private final Date end;
+            private final boolean deleted;
+
+            /**
+             * @param start start of the window, or null to keep the documents from the first one
+             * @param end end of the window, or null to fetch all the pages
+             */
+            PageTask(Request<List<Document>> request, Date start, Date end, boolean deleted) {
+                this.request = request;
+                this.start = start;
+                this.end = end;
+                this.deleted = deleted;
+            }
+
+            @Override
+            public void run() {
+                // another request of the library has failed already
+                if (future.isDone()) {
+                    return;
+                }
+
+                final Request<List<Document>>.Response response;
+                try {
+                    response = runner.run(request);
+                } catch (MendeleyException e) {
+                    future.setException(e);
+                    return;
+                } catch (RuntimeException e) {
+                    future.setException(new MendeleyException("Error syncing documents", e));
+                    return;
+                }
+
+                boolean windowEnded = false;
+                synchronized (LibrarySync.this) {
+                    for (Document document : response.resource) {
+                        final Date lastModified = document.lastModified;
+                        if (deleted) {
+                            result.deletedIds.add(document.id);
+                        } else if (lastModified == null) {
+                            result.modified.add(document);
+                        } else if (end != null && !lastModified.before(end)) {
+                            windowEnded = true;
+                        } else if (start == null || !lastModified.before(start)) {
+                            result.modified.add(document);
+                        }
+                    }
+                }
+
+                if (response.next != null && !windowEnded) {
+                    execute(new PageTask(withStringPool(requestsFactory.newGetDocumentsRequest(response.next)), start, end, deleted));
+                } else {
+                    onStreamFinished();
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes found by a sync.
+     */
+    public static class Result {
+
+        /**
+         * Date of the sync in the server clock, to be passed to the next one.
+         */
+        public Date syncDate;
+
+        private final List<Document> modified = new ArrayList<Document>();
+        private final Set<String> deletedIds = new HashSet<String>();
+
+        private Result() {
+        }
+
+        /**
+         * @return the documents created or modified since the previous sync
+         */
+        public List<Document> getModified() {
+            return Collections.unmodifiableList(modified);
+        }
+
+        /**
+         * @return the ids of the documents deleted since the previous sync
+         */
+        public Set<String> getDeletedIds() {
+            return Collections.unmodifiableSet(deletedIds);
+        }
+
+        // the changes of another library
+        private void add(Result other) {
+            modified.addAll(other.modified);
+            deletedIds.addAll(other.deletedIds);
+            // the earliest date, so that the next sync doesn't miss changes done in between
+            if (syncDate == null || (other.syncDate != null && other.syncDate.before(syncDate))) {
+                syncDate = other.syncDate;
+            }
+        }
+
+        // windows overlap a bit, so a document may be fetched twice: the latest version is kept.
+        // A document modified and then deleted is only reported as deleted
+        private void merge() {
+            final Map<String, Document> latest = new LinkedHashMap<String, Document>();
+            for (Document document : modified) {
+                if (deletedIds.contains(document.id)) {
+                    continue;
+                }
+                final Document other = latest.get(document.id);
+                if (other == null || isLater(document, other)) {
+                    latest.put(document.id, document);
+                }
+            }
+            modified.clear();
+            modified.addAll(latest.values());
+        }
+
+        private static boolean isLater(Document document, Document other) {
+            return document.lastModified != null && (other.lastModified == null || document.lastModified.after(other.lastModified));
+        }
+    }
+}
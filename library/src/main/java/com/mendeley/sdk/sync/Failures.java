@@ -0,0 +1,42 @@
+package com.mendeley.sdk.sync;
+
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.PatchConflictException;
+
+/**
+ * Classification of the failures of the requests run by the sync classes.
+ */
+final class Failures {
+
+    private Failures() {
+    }
+
+    /**
+     * @return true if the server rejected the request, so running it again would fail again.
+     *         False if it failed for other reasons, like the device being offline, or for
+     *         client errors that go away, like an expired token (401), a timeout (408) or
+     *         too many requests (429). A failed precondition (412) is not a rejection, as the
+     *         patches are merged with the changes done in the server by {@link MergingPatcher},
+     *         that throws {@link PatchConflictException} if they can't be merged.
+     */
+    static boolean isRejected(MendeleyException e) {
+        if (e instanceof PatchConflictException) {
+            return true;
+        }
+        if (!(e instanceof HttpResponseException)) {
+            return false;
+        }
+        switch (((HttpResponseException) e).httpReturnCode) {
+            case 400: // bad request
+            case 403: // forbidden
+            case 404: // not found
+            case 409: // conflict
+            case 410: // gone
+            case 422: // unprocessable entity
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.mendeley.sdk.sync;
+
+import android.net.Uri;
+
+import com.mendeley.sdk.Deadline;
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.RequestsFactory;
+import com.mendeley.sdk.async.MendeleyFuture;
+import com.mendeley.sdk.exceptions.DeadlineExceededException;
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.exceptions.JsonParsingException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+import com.mendeley.sdk.model.Group;
+import com.mendeley.sdk.request.endpoint.DocumentEndpoint;
+import com.mendeley.sdk.request.endpoint.GroupsEndpoint;
+import com.mendeley.sdk.util.StringPool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Syncs the documents of the user library and of all the groups the user belongs to.
+ * <p>
+ * Each library is synced by a {@link DocumentSync}, split in time windows and filtered by its
+ * watermark: the date of its last sync, in the server clock. The requests of all the libraries
+ * share {@link #getParallelism()} threads, taking turns: each page is queued behind the pages
+ * of the other libraries. So a big library doesn't delay the others, and the user library,
+ * that goes first, and small groups are ready soon.
+ * <p>
+ * The {@link Listener} receives the changes of each library as soon as it is synced, and then
+ * its watermark is advanced. A library that fails, for example because the user has just left
+ * the group, is reported and keeps its watermark, without stopping the sync of the others.
+ * Watermarks are kept in memory: the app stores {@link #getWatermarks()} after each sync, and
+ * passes them to the constructor of the next session.
+ * <p>
+ * Syncs are blocking, so they must not be run in the UI thread.
+ * <p>
+ * This class is thread safe.
+ */
+public class LibrarySyncCoordinator {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    // the largest page size allowed by the API
+    private static final int PAGE_LIMIT = 500;
+
+    /**
+     * Listener notified of the syncs of the libraries, from the threads running them, but never
+     * concurrently. The group id of the user library is null.
+     */
+    public interface Listener {
+
+        void onLibrarySynced(String groupId, DocumentSync.Result changes);
+
+        void onLibraryFailed(String groupId, MendeleyException exception);
+
+        /**
+         * The user doesn't belong to a group with a watermark anymore, so its documents can be
+         * removed.
+         */
+        void onLibraryRemoved(String groupId);
+    }
+
+    private final RequestsFactory requestsFactory;
+    private final int parallelism;
+    private final RequestRunner runner = new RequestRunner();
+    private final DocumentSync documentSync;
+
+    // by group id, null being the user library
+    private final Map<String, Date> watermarks = new HashMap<String, Date>();
+
+    // so that the listener is never invoked concurrently
+    private final Object listenerLock = new Object();
+
+    public LibrarySyncCoordinator(RequestsFactory requestsFactory) {
+        this(requestsFactory, DEFAULT_PARALLELISM, DocumentSync.DEFAULT_PARTITIONS_PER_LIBRARY, Collections.<String, Date>emptyMap());
+    }
+
+    /**
+     * @param parallelism maximum number of requests run at the same time
+     * @param partitionsPerLibrary number of time windows the changes of each library are split in
+     * @param watermarks the watermarks of the previous syncs, by group id, null being the user library
+     */
+    public LibrarySyncCoordinator(RequestsFactory requestsFactory, int parallelism, int partitionsPerLibrary, Map<String, Date> watermarks) {
+        this.requestsFactory = requestsFactory;
+        this.parallelism = parallelism;
+        this.documentSync = new DocumentSync(requestsFactory, parallelism, partitionsPerLibrary, runner);
+        this.watermarks.putAll(watermarks);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the date of the last sync of each library, by group id, null being the user library
+     */
+    public synchronized Map<String, Date> getWatermarks() {
+        return new HashMap<String, Date>(watermarks);
+    }
+
+    /**
+     * @return the date of the last sync of the library, or null if it has never been synced
+     */
+    public synchronized Date getWatermark(String groupId) {
+        return watermarks.get(groupId);
+    }
+
+    /**
+     * Syncs the user library and the libraries of all the groups of the user.
+     *
+     * @param view the view of the documents, or null for the default one
+     * @throws MendeleyException if the groups can't be listed, or the sync is cancelled or its
+     * deadline expires. Errors of single libraries are only reported to the listener.
+     */
+    public void sync(DocumentEndpoint.DocumentRequestParameters.View view, Listener listener) throws MendeleyException {
+        runner.reset();
+
+        final List<String> groupIds = new ArrayList<String>();
+        groupIds.add(null);
+        groupIds.addAll(fetchGroupIds());
+
+        final List<String> removedGroupIds = new ArrayList<String>();
+        synchronized (this) {
+            for (String groupId : new ArrayList<String>(watermarks.keySet())) {
+                if (!groupIds.contains(groupId)) {
+                    watermarks.remove(groupId);
+                    removedGroupIds.add(groupId);
+                }
+            }
+        }
+        for (String groupId : removedGroupIds) {
+            synchronized (listenerLock) {
+                listener.onLibraryRemoved(groupId);
+            }
+        }
+
+        final StringPool stringPool = new StringPool();
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            final AtomicReference<MendeleyException> abortCause = new AtomicReference<MendeleyException>();
+            final List<MendeleyFuture<Void>> libraries = new ArrayList<MendeleyFuture<Void>>();
+            for (String groupId : groupIds) {
+                final MendeleyFuture<DocumentSync.Result> changes = documentSync.syncLibrary(groupId, getWatermark(groupId), view, executor, stringPool);
+                libraries.add(notifyWhenDone(groupId, changes, listener, abortCause));
+            }
+            for (MendeleyFuture<Void> library : libraries) {
+                try {
+                    runner.getResult(library, "Error syncing libraries");
+                } catch (MendeleyException e) {
+                    // rather than the cancellation of the other libraries it caused
+                    throw abortCause.get() != null ? abortCause.get() : e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sets the time by which the next syncs must finish, or null for none. It is passed to all
+     * the requests of the sync, that throws {@link DeadlineExceededException} when it expires.
+     */
+    public void setDeadline(Deadline deadline) {
+        runner.setDeadline(deadline);
+    }
+
+    /**
+     * Cancels the running sync, that throws {@link UserCancelledException}. The libraries synced
+     * already keep their new watermarks.
+     */
+    public void cancel() {
+        runner.cancel();
+    }
+
+    /**
+     * @return a future done once the listener has been notified of the sync of the library, that
+     * only fails for errors that stop the whole sync. Then the other libraries are cancelled, and
+     * the first of these errors is kept in abortCause.
+     */
+    private MendeleyFuture<Void> notifyWhenDone(final String groupId, MendeleyFuture<DocumentSync.Result> changes, final Listener listener, final AtomicReference<MendeleyException> abortCause) {
+        final MendeleyFuture<Void> notified = new MendeleyFuture<Void>();
+        changes.addCallback(new MendeleyFuture.Callback<DocumentSync.Result>() {
+            @Override
+            public void onSuccess(DocumentSync.Result result) {
+                synchronized (listenerLock) {
+                    listener.onLibrarySynced(groupId, result);
+                }
+                synchronized (LibrarySyncCoordinator.this) {
+                    watermarks.put(groupId, result.syncDate);
+                }
+                notified.set(null);
+            }
+
+            @Override
+            public void onFailure(MendeleyException e) {
+                if (isLibraryError(e)) {
+                    synchronized (listenerLock) {
+                        listener.onLibraryFailed(groupId, e);
+                    }
+                    notified.set(null);
+                } else {
+                    abortCause.compareAndSet(null, e);
+                    runner.cancel();
+                    notified.setException(e);
+                }
+            }
+        }, MendeleyFuture.DIRECT_EXECUTOR);
+        return notified;
+    }
+
+    private List<String> fetchGroupIds() throws MendeleyException {
+        final GroupsEndpoint.GroupRequestParameters params = new GroupsEndpoint.GroupRequestParameters();
+        params.limit = PAGE_LIMIT;
+        final List<String> groupIds = new ArrayList<String>();
+        Request<List<Group>> request = requestsFactory.newGetGroupsRequest(params);
+        while (request != null) {
+            final Request<List<Group>>.Response response = runner.run(request);
+            for (Group group : response.resource) {
+                groupIds.add(group.id);
+            }
+            final Uri next = response.next;
+            request = next != null ? requestsFactory.newGetGroupsRequest(next) : null;
+        }
+        return groupIds;
+    }
+
+    // errors of the library, rather than of the connection or of the whole sync
+    private static boolean isLibraryError(MendeleyException e) {
+        return e instanceof HttpResponseException || e instanceof JsonParsingException;
+    }
+}
@@ -0,0 +1,211 @@
+package com.mendeley.sdk.sync;
+
+import android.util.JsonReader;
+
+import com.mendeley.sdk.RequestsFactory;
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.exceptions.JsonParsingException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.PatchConflictException;
+import com.mendeley.sdk.model.Annotation;
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.request.JsonParser;
+import com.mendeley.sdk.request.endpoint.DocumentEndpoint;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.StringReader;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Patches documents and annotations with optimistic concurrency, merging the changes done
+ * in the server meanwhile.
+ * <p>
+ * Each patch is sent with the last modification date of the version it was based on. If the
+ * server has a newer version, it answers 412 (Precondition Failed); then that version is fetched
+ * and merged with the change: fields changed only locally are patched again, with the new date,
+ * and fields changed only in the server are kept. If the same field was changed to different
+ * values in both, {@link PatchConflictException} is thrown with the three versions.
+ * <p>
+ * Fields are compared as they are sent to the API, so this works on the same fields as
+ * {@link RequestsFactory#newPatchDocumentRequest(String, Date, Document)}: fields missing in
+ * the change are left unchanged.
+ * <p>
+ * Patches are blocking, so they must not be run in the UI thread.
+ */
+public class MergingPatcher {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private static final int PRECONDITION_FAILED = 412;
+
+    private final RequestsFactory requestsFactory;
+    private final int maxAttempts;
+
+    public MergingPatcher(RequestsFactory requestsFactory) {
+        this(requestsFactory, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param maxAttempts number of times a patch is sent before giving up, if the server keeps
+     *                    being modified meanwhile
+     */
+    public MergingPatcher(RequestsFactory requestsFactory, int maxAttempts) {
+        this.requestsFactory = requestsFactory;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @param base the version of the document the changes were made on, as returned by the server
+     * @param changes the fields to change
+     * @return the patched document
+     * @throws PatchConflictException if some of the fields were also changed in the server
+     */
+    public Document patchDocument(final Document base, Document changes) throws MendeleyException {
+        return new Patch<Document>() {
+            @Override
+            Document patch(Date date, Document changes) throws MendeleyException {
+                return requestsFactory.newPatchDocumentRequest(base.id, date, changes).run().resource;
+            }
+
+            @Override
+            Document get() throws MendeleyException {
+                return requestsFactory.newGetDocumentRequest(base.id, DocumentEndpoint.DocumentRequestParameters.View.ALL).run().resource;
+            }
+
+            @Override
+            Date getLastModified(Document document) {
+                return document.lastModified;
+            }
+
+            @Override
+            JSONObject toJson(Document document) throws JSONException {
+                return JsonParser.documentToJson(document);
+            }
+
+            @Override
+            Document fromJson(JsonReader reader) throws Exception {
+                return JsonParser.documentFromJson(reader);
+            }
+        }.run(base, changes);
+    }
+
+    /**
+     * @param base the version of the annotation the changes were made on, as returned by the server
+     * @param changes the fields to change
+     * @return the patched annotation
+     * @throws PatchConflictException if some of the fields were also changed in the server
+     */
+    public Annotation patchAnnotation(final Annotation base, Annotation changes) throws MendeleyException {
+        return new Patch<Annotation>() {
+            @Override
+            Annotation patch(Date date, Annotation changes) throws MendeleyException {
+                return requestsFactory.newPatchAnnotationRequest(base.id, date, changes).run().resource;
+            }
+
+            @Override
+            Annotation get() throws MendeleyException {
+                return requestsFactory.newGetAnnotationRequest(base.id).run().resource;
+            }
+
+            @Override
+            Date getLastModified(Annotation annotation) {
+                return annotation.lastModified;
+            }
+
+            @Override
+            JSONObject toJson(Annotation annotation) throws JSONException {
+                return JsonParser.annotationToJson(annotation);
+            }
+
+            @Override
+            Annotation fromJson(JsonReader reader) throws Exception {
+                return JsonParser.annotationFromJson(reader);
+            }
+        }.run(base, changes);
+    }
+
+    /**
+     * The merge loop, for one type of item.
+     */
+    private abstract class Patch<T> {
+
+        abstract T patch(Date date, T changes) throws MendeleyException;
+
+        abstract T get() throws MendeleyException;
+
+        abstract Date getLastModified(T item);
+
+        abstract JSONObject toJson(T item) throws JSONException;
+
+        abstract T fromJson(JsonReader reader) throws Exception;
+
+        T run(T base, T changes) throws MendeleyException {
+            T current = base;
+            T pending = changes;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return patch(getLastModified(current), pending);
+                } catch (HttpResponseException e) {
+                    if (e.httpReturnCode != PRECONDITION_FAILED || attempt >= maxAttempts) {
+                        throw e;
+                    }
+                }
+
+                current = get();
+                final JSONObject remaining = merge(base, changes, current);
+                if (remaining.length() == 0) {
+                    // the server already has all the changes
+                    return current;
+                }
+                pending = parse(remaining);
+            }
+        }
+
+        /**
+         * @return the fields of the change still to be sent to the server
+         */
+        private JSONObject merge(T base, T local, T remote) throws MendeleyException {
+            try {
+                final JSONObject jBase = toJson(base);
+                final JSONObject jLocal = toJson(local);
+                final JSONObject jRemote = toJson(remote);
+
+                final JSONObject remaining = new JSONObject();
+                final Set<String> conflicts = new LinkedHashSet<String>();
+                for (Iterator<?> it = jLocal.keys(); it.hasNext(); ) {
+                    final String field = (String) it.next();
+                    final Object value = jLocal.get(field);
+                    if (JsonParser.DOCUMENT_READ_ONLY_FIELDS.contains(field) || JsonParser.jsonEquals(value, jBase.opt(field)) || JsonParser.jsonEquals(value, jRemote.opt(field))) {
+                        // set by the server (annotations have the same ones as documents), not changed
+                        // locally, or changed to the same value in the server
+                        continue;
+                    }
+                    if (!JsonParser.jsonEquals(jBase.opt(field), jRemote.opt(field))) {
+                        conflicts.add(field);
+                    }
+                    remaining.put(field, value);
+                }
+
+                if (!conflicts.isEmpty()) {
+                    throw new PatchConflictException(base, local, remote, conflicts);
+                }
+                return remaining;
+            } catch (JSONException e) {
+                throw new JsonParsingException("Could not merge changes", e);
+            }
+        }
+
+        private T parse(JSONObject json) throws MendeleyException {
+            try {
+                return fromJson(new JsonReader(new StringReader(json.toString())));
+            } catch (Exception e) {
+                throw new JsonParsingException("Could not merge changes", e);
+            }
+        }
+    }
+}
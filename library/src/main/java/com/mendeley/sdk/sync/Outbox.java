@@ -0,0 +1,859 @@
+package com.mendeley.sdk.sync;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.util.JsonReader;
+import android.util.Log;
+
+import com.mendeley.sdk.RequestsFactory;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+import com.mendeley.sdk.model.Annotation;
+import com.mendeley.sdk.model.Document;
+import com.mendeley.sdk.model.Folder;
+import com.mendeley.sdk.request.JsonParser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Durable queue of the changes done to documents, folders and annotations while offline.
+ * <p>
+ * Changes are recorded in a file when they are added, and sent to the server by
+ * {@link #replay()}, typically when connectivity returns: see {@link #replayWhenConnected(Context)}.
+ * <p>
+ * Documents, folders and annotations created offline are given temporary ids, from
+ * {@link #newTemporaryId()}, that may be used by the changes that follow, like adding the
+ * document to a folder or annotating it. As the server creates them, their temporary ids are
+ * replaced by the server ones in the pending changes, and {@link #getServerId(String)} returns
+ * the server id for the app to update its own data.
+ * <p>
+ * Changes are replayed in waves of up to {@link #getParallelism()} requests at the same time.
+ * A change runs after all the previous ones that modify what it modifies or references, so
+ * that, for example, annotations of different documents are posted in parallel, but after
+ * the documents they annotate are created.
+ * <p>
+ * Patches of documents and annotations are merged with the changes done in the server since
+ * they were queued, with {@link MergingPatcher}, and only rejected if they conflict.
+ * Changes rejected by the server are dropped, together with the ones that depend on the
+ * rejected creation of a document, folder or annotation, and reported to the {@link Listener}.
+ * Other failures stop the replay, and the remaining changes are kept for the next one.
+ * <p>
+ * This class is thread safe.
+ */
+public class Outbox {
+
+    private static final String TAG = Outbox.class.getSimpleName();
+
+    public static final String TEMPORARY_ID_PREFIX = "local:";
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private static final int FILE_VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Listener notified of the changes replayed, in the thread running the replay.
+     */
+    public interface Listener {
+
+        /**
+         * @param result the document, folder or annotation returned by the server, or null
+         *               for deletions and changes in the documents of folders
+         */
+        void onReplayed(Mutation mutation, Object result);
+
+        void onRejected(Mutation mutation, MendeleyException exception);
+    }
+
+    /**
+     * One change recorded in the outbox.
+     */
+    public static class Mutation {
+
+        public enum Type {
+            POST_DOCUMENT, PATCH_DOCUMENT, TRASH_DOCUMENT, DELETE_DOCUMENT,
+            POST_FOLDER, PATCH_FOLDER, DELETE_FOLDER,
+            ADD_DOCUMENT_TO_FOLDER, REMOVE_DOCUMENT_FROM_FOLDER,
+            POST_ANNOTATION, PATCH_ANNOTATION, DELETE_ANNOTATION
+        }
+
+        public final long sequence;
+        public final Type type;
+
+        /**
+         * Id of the document, folder or annotation changed. For changes in the documents of a
+         * folder, the id of the folder.
+         */
+        public final String id;
+
+        /**
+         * Id of the document added to or removed from a folder. Null for other changes.
+         */
+        public final String documentId;
+
+        /**
+         * For patches, the last modification date of the version the change was based on, sent
+         * as the "if unmodified since" condition of the request.
+         */
+        public final Date date;
+
+        /**
+         * The posted or patched {@link Document}, {@link Folder} or {@link Annotation}, or null.
+         */
+        public final Object body;
+
+        /**
+         * For patches of documents and annotations, the version the change was based on, to
+         * merge it with the changes done in the server meanwhile. Null if it's not known.
+         */
+        public final Object base;
+
+        private Mutation(long sequence, Type type, String id, String documentId, Date date, Object body, Object base) {
+            this.sequence = sequence;
+            this.type = type;
+            this.id = id;
+            this.documentId = documentId;
+            this.date = date;
+            this.body = body;
+            this.base = base;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + id + (documentId != null ? " " + documentId : "");
+        }
+    }
+
+    private final RequestsFactory requestsFactory;
+    private final MergingPatcher patcher;
+    private final File file;
+    private final int parallelism;
+
+    // pending, in the order they were added
+    private final List<Mutation> mutations = new ArrayList<Mutation>();
+    private final Map<String, String> serverIds = new HashMap<String, String>();
+    private final Set<Mutation> inFlight = new HashSet<Mutation>();
+    private long nextSequence;
+    private boolean replaying;
+    private Listener listener;
+
+    private ExecutorService replayExecutor;
+    private boolean closed;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    /**
+     * Creates the outbox, loading the changes pending from previous runs.
+     *
+     * @param file where the pending changes are stored
+     */
+    public Outbox(RequestsFactory requestsFactory, File file) throws IOException {
+        this(requestsFactory, file, DEFAULT_PARALLELISM);
+    }
+
+    public Outbox(RequestsFactory requestsFactory, File file, int parallelism) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.requestsFactory = requestsFactory;
+        this.patcher = new MergingPatcher(requestsFactory);
+        this.file = file;
+        this.parallelism = parallelism;
+        load();
+    }
+
+    /**
+     * @return a new id for a document, folder or annotation created offline
+     */
+    public static String newTemporaryId() {
+        return TEMPORARY_ID_PREFIX + UUID.randomUUID().toString();
+    }
+
+    public static boolean isTemporaryId(String id) {
+        return id != null && id.startsWith(TEMPORARY_ID_PREFIX);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the server id of a document, folder or annotation created with a temporary id,
+     *         or the passed id if it's not temporary or has not been created yet
+     */
+    public synchronized String getServerId(String id) {
+        final String serverId = serverIds.get(id);
+        return serverId != null ? serverId : id;
+    }
+
+    /**
+     * @return the changes not replayed yet, in the order they were added
+     */
+    public synchronized List<Mutation> getPending() {
+        return new ArrayList<Mutation>(mutations);
+    }
+
+    /**
+     * @param document the document to create, with a temporary id
+     */
+    public void postDocument(Document document) throws IOException {
+        checkTemporaryId(document.id);
+        add(Mutation.Type.POST_DOCUMENT, document.id, null, null, document, null);
+    }
+
+    /**
+     * Prefer {@link #patchDocument(Document, Document)}: without the version the change was
+     * based on, the fields changed in the server meanwhile can't be told apart from the ones
+     * that were already different, so any of them changed locally is a conflict.
+     *
+     * @param date last modification date of the version the change was based on
+     */
+    public void patchDocument(String documentId, Date date, Document document) throws IOException {
+        add(Mutation.Type.PATCH_DOCUMENT, documentId, null, date, document, null);
+    }
+
+    /**
+     * Patches a document, merging the change with the ones done in the server meanwhile, as
+     * {@link MergingPatcher} does. The change is rejected if the same fields were changed in
+     * the server.
+     *
+     * @param base the version of the document the changes were made on
+     * @param changes the fields to change
+     */
+    public void patchDocument(Document base, Document changes) throws IOException {
+        add(Mutation.Type.PATCH_DOCUMENT, base.id, null, base.lastModified, changes, base);
+    }
+
+    public void trashDocument(String documentId) throws IOException {
+        add(Mutation.Type.TRASH_DOCUMENT, documentId, null, null, null, null);
+    }
+
+    public void deleteDocument(String documentId) throws IOException {
+        add(Mutation.Type.DELETE_DOCUMENT, documentId, null, null, null, null);
+    }
+
+    /**
+     * @param folder the folder to create, with a temporary id
+     */
+    public void postFolder(Folder folder) throws IOException {
+        checkTemporaryId(folder.id);
+        add(Mutation.Type.POST_FOLDER, folder.id, null, null, folder, null);
+    }
+
+    public void patchFolder(String folderId, Folder folder) throws IOException {
+        add(Mutation.Type.PATCH_FOLDER, folderId, null, null, folder, null);
+    }
+
+    public void deleteFolder(String folderId) throws IOException {
+        add(Mutation.Type.DELETE_FOLDER, folderId, null, null, null, null);
+    }
+
+    public void addDocumentToFolder(String folderId, String documentId) throws IOException {
+        add(Mutation.Type.ADD_DOCUMENT_TO_FOLDER, folderId, documentId, null, null, null);
+    }
+
+    public void removeDocumentFromFolder(String folderId, String documentId) throws IOException {
+        add(Mutation.Type.REMOVE_DOCUMENT_FROM_FOLDER, folderId, documentId, null, null, null);
+    }
+
+    /**
+     * @param annotation the annotation to create, with a temporary id
+     */
+    public void postAnnotation(Annotation annotation) throws IOException {
+        checkTemporaryId(annotation.id);
+        add(Mutation.Type.POST_ANNOTATION, annotation.id, null, null, annotation, null);
+    }
+
+    public void patchAnnotation(String annotationId, Annotation annotation) throws IOException {
+        add(Mutation.Type.PATCH_ANNOTATION, annotationId, null, null, annotation, null);
+    }
+
+    /**
+     * Patches an annotation, merging the change with the ones done in the server meanwhile, as
+     * {@link MergingPatcher} does. The change is rejected if the same fields were changed in
+     * the server.
+     *
+     * @param base the version of the annotation the changes were made on
+     * @param changes the fields to change
+     */
+    public void patchAnnotation(Annotation base, Annotation changes) throws IOException {
+        add(Mutation.Type.PATCH_ANNOTATION, base.id, null, base.lastModified, changes, base);
+    }
+
+    public void deleteAnnotation(String annotationId) throws IOException {
+        add(Mutation.Type.DELETE_ANNOTATION, annotationId, null, null, null, null);
+    }
+
+    /**
+     * Sends the pending changes to the server. Blocks until they are sent or one fails for
+     * reasons other than being rejected by the server.
+     * <p>
+     * If the calling thread is interrupted, the changes being sent are let finish, so that they
+     * are not sent again, and the replay stops after them keeping the interrupted status.
+     *
+     * @return true if all the changes were replayed or rejected, false if some are still pending
+     */
+    public boolean replay() throws IOException {
+        synchronized (this) {
+            if (replaying) {
+                return false;
+            }
+            replaying = true;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            while (true) {
+                final List<Mutation> wave = nextWave();
+                if (wave.isEmpty()) {
+                    return true;
+                }
+                if (!replayWave(executor, wave)) {
+                    return false;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            synchronized (this) {
+                replaying = false;
+            }
+        }
+    }
+
+    /**
+     * Replays the pending changes in a background thread.
+     */
+    public synchronized void replayAsync() {
+        if (closed) {
+            return;
+        }
+        if (replayExecutor == null) {
+            replayExecutor = Executors.newSingleThreadExecutor();
+        }
+        replayExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replay();
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not save the outbox", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the background thread of {@link #replayAsync()}, letting a running replay finish.
+     * Later calls to {@link #replayAsync()} are ignored. The pending changes are kept in the
+     * file, for the next outbox on it.
+     * <p>
+     * Call {@link #stopReplayingWhenConnected(Context)} before, if it was started.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (replayExecutor != null) {
+            replayExecutor.shutdown();
+            replayExecutor = null;
+        }
+    }
+
+    /**
+     * Replays the pending changes in a background thread each time the device connects to a
+     * network, until {@link #stopReplayingWhenConnected(Context)} is called.
+     */
+    public synchronized void replayWhenConnected(Context context) {
+        if (networkCallback != null) {
+            return;
+        }
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                replayAsync();
+            }
+        };
+        final NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        getConnectivityManager(context).registerNetworkCallback(request, networkCallback);
+    }
+
+    public synchronized void stopReplayingWhenConnected(Context context) {
+        if (networkCallback != null) {
+            getConnectivityManager(context).unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+    }
+
+    private static ConnectivityManager getConnectivityManager(Context context) {
+        return (ConnectivityManager) context.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    private static void checkTemporaryId(String id) {
+        if (!isTemporaryId(id)) {
+            throw new IllegalArgumentException("Created items must have a temporary id, got " + id);
+        }
+    }
+
+    private synchronized void add(Mutation.Type type, String id, String documentId, Date date, Object body, Object base) throws IOException {
+        if (id == null) {
+            throw new IllegalArgumentException("Id must not be null");
+        }
+
+        // deleting something created offline: nothing needs to be sent about it
+        if (isDeletion(type) && isTemporaryId(id) && !serverIds.containsKey(id)) {
+            final Mutation creation = findCreation(id);
+            if (creation != null && !inFlight.contains(creation)) {
+                final String key = getKey(creation);
+                for (Iterator<Mutation> it = mutations.iterator(); it.hasNext(); ) {
+                    final Mutation mutation = it.next();
+                    if (getWrites(mutation).contains(key) || getReads(mutation).contains(key)) {
+                        it.remove();
+                    }
+                }
+                save();
+                return;
+            }
+        }
+
+        mutations.add(new Mutation(nextSequence++, type, id, documentId, date, body, base));
+        save();
+    }
+
+    private static boolean isDeletion(Mutation.Type type) {
+        switch (type) {
+            case TRASH_DOCUMENT:
+            case DELETE_DOCUMENT:
+            case DELETE_FOLDER:
+            case DELETE_ANNOTATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private Mutation findCreation(String temporaryId) {
+        for (Mutation mutation : mutations) {
+            if (mutation.id.equals(temporaryId) && isCreation(mutation.type)) {
+                return mutation;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCreation(Mutation.Type type) {
+        return type == Mutation.Type.POST_DOCUMENT || type == Mutation.Type.POST_FOLDER || type == Mutation.Type.POST_ANNOTATION;
+    }
+
+    /**
+     * Picks the pending changes that don't conflict with any previous pending one: the ones
+     * not modifying anything modified or referenced before, nor referencing anything modified
+     * before.
+     */
+    private synchronized List<Mutation> nextWave() {
+        final List<Mutation> wave = new ArrayList<Mutation>();
+        final Set<String> written = new HashSet<String>();
+        final Set<String> read = new HashSet<String>();
+        for (Mutation mutation : mutations) {
+            final Set<String> writes = getWrites(mutation);
+            final Set<String> reads = getReads(mutation);
+            if (Collections.disjoint(writes, written) && Collections.disjoint(writes, read) && Collections.disjoint(reads, written)) {
+                wave.add(mutation);
+            }
+            written.addAll(writes);
+            read.addAll(reads);
+        }
+        inFlight.addAll(wave);
+        return wave;
+    }
+
+    private boolean replayWave(ExecutorService executor, List<Mutation> wave) throws IOException {
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (final Mutation mutation : wave) {
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws MendeleyException {
+                    return run(mutation);
+                }
+            }));
+        }
+
+        // the changes already sent must be confirmed even if interrupted, or they would be sent again
+        boolean interrupted = false;
+        boolean completed = true;
+        for (int i = 0; i < wave.size(); i++) {
+            final Mutation mutation = wave.get(i);
+            try {
+                Object result;
+                while (true) {
+                    try {
+                        result = futures.get(i).get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                synchronized (this) {
+                    mutations.remove(mutation);
+                    if (isCreation(mutation.type) && result != null) {
+                        serverIds.put(mutation.id, getId(result));
+                    }
+                }
+                notifyReplayed(mutation, result);
+            } catch (ExecutionException e) {
+                final MendeleyException cause = e.getCause() instanceof MendeleyException
+                        ? (MendeleyException) e.getCause()
+                        : new MendeleyException("Error replaying " + mutation, e.getCause());
+                if (Failures.isRejected(cause)) {
+                    reject(mutation, cause);
+                } else {
+                    Log.w(TAG, "Could not replay " + mutation, cause);
+                    completed = false;
+                }
+            }
+        }
+
+        synchronized (this) {
+            inFlight.clear();
+            save();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return completed;
+    }
+
+    private void reject(Mutation mutation, MendeleyException exception) {
+        final List<Mutation> rejected = new ArrayList<Mutation>();
+        synchronized (this) {
+            mutations.remove(mutation);
+            rejected.add(mutation);
+
+            // the changes referencing something that won't be created are rejected too
+            if (isCreation(mutation.type)) {
+                final String key = getKey(mutation);
+                for (Iterator<Mutation> it = mutations.iterator(); it.hasNext(); ) {
+                    final Mutation dependent = it.next();
+                    if (!inFlight.contains(dependent) && (getWrites(dependent).contains(key) || getReads(dependent).contains(key))) {
+                        it.remove();
+                        rejected.add(dependent);
+                    }
+                }
+            }
+        }
+
+        notifyRejected(rejected.get(0), exception);
+        for (int i = 1; i < rejected.size(); i++) {
+            notifyRejected(rejected.get(i), new MendeleyException("Depends on rejected " + mutation, exception));
+        }
+    }
+
+    private void notifyReplayed(Mutation mutation, Object result) {
+        final Listener listener;
+        synchronized (this) {
+            listener = this.listener;
+        }
+        if (listener != null) {
+            listener.onReplayed(mutation, result);
+        }
+    }
+
+    private void notifyRejected(Mutation mutation, MendeleyException exception) {
+        final Listener listener;
+        synchronized (this) {
+            listener = this.listener;
+        }
+        if (listener != null) {
+            listener.onRejected(mutation, exception);
+        }
+    }
+
+    private Object run(Mutation mutation) throws MendeleyException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new UserCancelledException();
+        }
+
+        final String id = getServerId(mutation.id);
+        switch (mutation.type) {
+            case POST_DOCUMENT:
+                return requestsFactory.newPostDocumentRequest(new Document.Builder((Document) mutation.body).setId(null).build()).run().resource;
+            case PATCH_DOCUMENT:
+                final Document documentBase = mutation.base != null
+                        ? new Document.Builder((Document) mutation.base).setId(id).build()
+                        : new Document.Builder().setId(id).setLastModified(mutation.date).build();
+                return patcher.patchDocument(documentBase, new Document.Builder((Document) mutation.body).setId(id).build());
+            case TRASH_DOCUMENT:
+                requestsFactory.newTrashDocumentRequest(id).run();
+                return null;
+            case DELETE_DOCUMENT:
+                requestsFactory.newDeleteDocumentRequest(id).run();
+                return null;
+            case POST_FOLDER:
+                return requestsFactory.newPostFolderRequest(resolve((Folder) mutation.body, null)).run().resource;
+            case PATCH_FOLDER:
+                return requestsFactory.newPatchFolderRequest(id, resolve((Folder) mutation.body, id)).run().resource;
+            case DELETE_FOLDER:
+                requestsFactory.newDeleteFolderRequest(id).run();
+                return null;
+            case ADD_DOCUMENT_TO_FOLDER:
+                requestsFactory.newPostDocumentToFolderRequest(id, getServerId(mutation.documentId)).run();
+                return null;
+            case REMOVE_DOCUMENT_FROM_FOLDER:
+                requestsFactory.newDeleteDocumentFromFolderRequest(id, getServerId(mutation.documentId)).run();
+                return null;
+            case POST_ANNOTATION:
+                return requestsFactory.newPostAnnotationRequest(resolve((Annotation) mutation.body, null)).run().resource;
+            case PATCH_ANNOTATION:
+                final Annotation annotationBase = mutation.base != null
+                        ? resolve((Annotation) mutation.base, id)
+                        : new Annotation.Builder().setId(id).build();
+                return patcher.patchAnnotation(annotationBase, resolve((Annotation) mutation.body, id));
+            case DELETE_ANNOTATION:
+                requestsFactory.newDeleteAnnotationRequest(id).run();
+                return null;
+            default:
+                throw new IllegalStateException("Unknown mutation " + mutation.type);
+        }
+    }
+
+    private Folder resolve(Folder folder, String id) {
+        return new Folder.Builder(folder).setId(id).setParentId(folder.parentId != null ? getServerId(folder.parentId) : null).build();
+    }
+
+    private Annotation resolve(Annotation annotation, String id) {
+        return new Annotation.Builder(annotation).setId(id).setDocumentId(annotation.documentId != null ? getServerId(annotation.documentId) : null).build();
+    }
+
+    private static String getId(Object result) {
+        if (result instanceof Document) {
+            return ((Document) result).id;
+        } else if (result instanceof Folder) {
+            return ((Folder) result).id;
+        } else {
+            return ((Annotation) result).id;
+        }
+    }
+
+    // keys of what a change modifies and references, with the ids already created resolved
+
+    private String getKey(Mutation mutation) {
+        switch (mutation.type) {
+            case POST_DOCUMENT:
+            case PATCH_DOCUMENT:
+            case TRASH_DOCUMENT:
+            case DELETE_DOCUMENT:
+                return "document:" + getServerId(mutation.id);
+            case POST_FOLDER:
+            case PATCH_FOLDER:
+            case DELETE_FOLDER:
+                return "folder:" + getServerId(mutation.id);
+            case ADD_DOCUMENT_TO_FOLDER:
+            case REMOVE_DOCUMENT_FROM_FOLDER:
+                return "folder:" + getServerId(mutation.id) + "/document:" + getServerId(mutation.documentId);
+            default:
+                return "annotation:" + getServerId(mutation.id);
+        }
+    }
+
+    private Set<String> getWrites(Mutation mutation) {
+        return Collections.singleton(getKey(mutation));
+    }
+
+    private Set<String> getReads(Mutation mutation) {
+        final Set<String> reads = new HashSet<String>();
+        switch (mutation.type) {
+            case POST_FOLDER:
+            case PATCH_FOLDER:
+                final String parentId = ((Folder) mutation.body).parentId;
+                if (parentId != null) {
+                    reads.add("folder:" + getServerId(parentId));
+                }
+                break;
+            case ADD_DOCUMENT_TO_FOLDER:
+            case REMOVE_DOCUMENT_FROM_FOLDER:
+                reads.add("folder:" + getServerId(mutation.id));
+                reads.add("document:" + getServerId(mutation.documentId));
+                break;
+            case POST_ANNOTATION:
+            case PATCH_ANNOTATION:
+                final String documentId = ((Annotation) mutation.body).documentId;
+                if (documentId != null) {
+                    reads.add("document:" + getServerId(documentId));
+                }
+                break;
+            default:
+                break;
+        }
+        return reads;
+    }
+
+    // persistence, as JSON with the same format as the requests
+
+    private void save() throws IOException {
+        final String json;
+        try {
+            final JSONObject jOutbox = new JSONObject();
+            jOutbox.put("version", FILE_VERSION);
+            jOutbox.put("next_sequence", nextSequence);
+            jOutbox.put("server_ids", new JSONObject(serverIds));
+
+            final JSONArray jMutations = new JSONArray();
+            for (Mutation mutation : mutations) {
+                jMutations.put(mutationToJson(mutation));
+            }
+            jOutbox.put("mutations", jMutations);
+            json = jOutbox.toString();
+        } catch (JSONException e) {
+            throw new IOException("Cannot write outbox", e);
+        }
+
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        final FileOutputStream os = new FileOutputStream(tmpFile);
+        try {
+            os.write(json.getBytes(UTF8));
+            os.getFD().sync();
+        } finally {
+            os.close();
+        }
+
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Cannot replace outbox " + file);
+        }
+    }
+
+    private void load() throws IOException {
+        final String json;
+        try {
+            json = readFile(file);
+        } catch (FileNotFoundException e) {
+            return;
+        }
+
+        try {
+            final JSONObject jOutbox = new JSONObject(json);
+            if (jOutbox.getInt("version") != FILE_VERSION) {
+                throw new IOException("Unknown outbox version in " + file);
+            }
+            nextSequence = jOutbox.getLong("next_sequence");
+
+            final JSONObject jServerIds = jOutbox.getJSONObject("server_ids");
+            final JSONArray jTemporaryIds = jServerIds.names();
+            for (int i = 0; jTemporaryIds != null && i < jTemporaryIds.length(); i++) {
+                final String temporaryId = jTemporaryIds.getString(i);
+                serverIds.put(temporaryId, jServerIds.getString(temporaryId));
+            }
+
+            final JSONArray jMutations = jOutbox.getJSONArray("mutations");
+            for (int i = 0; i < jMutations.length(); i++) {
+                mutations.add(mutationFromJson(jMutations.getJSONObject(i)));
+            }
+        } catch (Exception e) {
+            // JSONException, or the ParseException of the parser of the bodies
+            throw new IOException("Cannot read outbox " + file, e);
+        }
+    }
+
+    private static JSONObject mutationToJson(Mutation mutation) throws JSONException {
+        final JSONObject jMutation = new JSONObject();
+        jMutation.put("sequence", mutation.sequence);
+        jMutation.put("type", mutation.type.name());
+        jMutation.put("id", mutation.id);
+        jMutation.put("document_id", mutation.documentId);
+        if (mutation.date != null) {
+            jMutation.put("date", mutation.date.getTime());
+        }
+        if (mutation.body instanceof Document) {
+            jMutation.put("document", JsonParser.documentToJson((Document) mutation.body));
+        } else if (mutation.body instanceof Folder) {
+            jMutation.put("folder", JsonParser.folderToJson((Folder) mutation.body));
+        } else if (mutation.body instanceof Annotation) {
+            jMutation.put("annotation", JsonParser.annotationToJson((Annotation) mutation.body));
+        }
+        if (mutation.base instanceof Document) {
+            jMutation.put("base_document", JsonParser.documentToJson((Document) mutation.base));
+        } else if (mutation.base instanceof Annotation) {
+            jMutation.put("base_annotation", JsonParser.annotationToJson((Annotation) mutation.base));
+        }
+        return jMutation;
+    }
+
+    private static Mutation mutationFromJson(JSONObject jMutation) throws Exception {
+        Object body = null;
+        if (jMutation.has("document")) {
+            body = JsonParser.documentFromJson(newReader(jMutation.getJSONObject("document")));
+        } else if (jMutation.has("folder")) {
+            body = JsonParser.folderFromJson(newReader(jMutation.getJSONObject("folder")));
+        } else if (jMutation.has("annotation")) {
+            body = JsonParser.annotationFromJson(newReader(jMutation.getJSONObject("annotation")));
+        }
+        Object base = null;
+        if (jMutation.has("base_document")) {
+            base = JsonParser.documentFromJson(newReader(jMutation.getJSONObject("base_document")));
+        } else if (jMutation.has("base_annotation")) {
+            base = JsonParser.annotationFromJson(newReader(jMutation.getJSONObject("base_annotation")));
+        }
+
+        return new Mutation(
+                jMutation.getLong("sequence"),
+                Mutation.Type.valueOf(jMutation.getString("type")),
+                jMutation.getString("id"),
+                jMutation.optString("document_id", null),
+                jMutation.has("date") ? new Date(jMutation.getLong("date")) : null,
+                body,
+                base);
+    }
+
+    private static JsonReader newReader(JSONObject json) {
+        return new JsonReader(new StringReader(json.toString()));
+    }
+
+    private static String readFile(File file) throws IOException {
+        final InputStream is = new FileInputStream(file);
+        try {
+            final byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                final int count = is.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            return new String(bytes, 0, read, UTF8);
+        } finally {
+            is.close();
+        }
+    }
+}
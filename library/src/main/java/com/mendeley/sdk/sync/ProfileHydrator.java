@@ -0,0 +1,327 @@
+package com.mendeley.sdk.sync;
+
+import android.net.Uri;
+
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.RequestsFactory;
+import com.mendeley.sdk.async.MendeleyFuture;
+import com.mendeley.sdk.exceptions.HttpResponseException;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.model.Profile;
+import com.mendeley.sdk.model.UserRole;
+import com.mendeley.sdk.request.endpoint.GroupsEndpoint;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the {@link Profile}s of users by id, as those of the members of a group, which come
+ * as {@link UserRole}s with the profile id only.
+ * <p>
+ * The API has no request for several profiles, so each one is fetched by its own request, but:
+ * <ul>
+ *     <li>profiles are cached for a time to live, up to a maximum number of them;</li>
+ *     <li>the ids asked for are deduplicated, and a profile being fetched is not requested
+ *     again, but shared by all the callers waiting for it;</li>
+ *     <li>up to {@link #getParallelism()} profiles are fetched at the same time, the rest
+ *     waiting in order.</li>
+ * </ul>
+ * Cancelling a returned future only stops waiting for it: a profile being fetched may be
+ * waited for by other callers, so it is fetched and cached anyway.
+ * <p>
+ * This class is thread safe.
+ */
+public class ProfileHydrator {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    public static final int DEFAULT_MAX_CACHED_PROFILES = 1000;
+
+    // the largest page size allowed by the API
+    private static final int PAGE_LIMIT = 500;
+
+    private static final long IDLE_THREAD_SECONDS = 30;
+
+    private final RequestsFactory requestsFactory;
+    private final int parallelism;
+    private final long timeToLiveNanos;
+    private final int maxCachedProfiles;
+    private final ThreadPoolExecutor executor;
+
+    // by profile id, in access order to evict the least recently used
+    private final LinkedHashMap<String, CachedProfile> cache = new LinkedHashMap<String, CachedProfile>(16, 0.75f, true);
+    private final Map<String, MendeleyFuture<Profile>> inFlight = new HashMap<String, MendeleyFuture<Profile>>();
+
+    public ProfileHydrator(RequestsFactory requestsFactory) {
+        this(requestsFactory, DEFAULT_PARALLELISM, DEFAULT_TIME_TO_LIVE_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_MAX_CACHED_PROFILES);
+    }
+
+    /**
+     * @param parallelism maximum number of requests run at the same time
+     * @param timeToLive time a profile is kept in the cache
+     * @param maxCachedProfiles number of profiles cached, beyond which the least recently used
+     *                          are evicted
+     */
+    public ProfileHydrator(RequestsFactory requestsFactory, int parallelism, long timeToLive, TimeUnit unit, int maxCachedProfiles) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.requestsFactory = requestsFactory;
+        this.parallelism = parallelism;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.maxCachedProfiles = maxCachedProfiles;
+
+        // threads are only kept while there are profiles to fetch
+        executor = new ThreadPoolExecutor(parallelism, parallelism, IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the profile, from the cache if it's there
+     */
+    public MendeleyFuture<Profile> getProfile(String profileId) {
+        return forCaller(load(profileId));
+    }
+
+    /**
+     * Gets several profiles, fetching only those that are not cached or being fetched already.
+     * <p>
+     * Profiles that the server doesn't find, as those of deleted users, are left out rather
+     * than failing the rest, so the future only fails for other errors, as a lost connection
+     * or a server error.
+     *
+     * @return the profiles by id, in the order of the ids
+     */
+    public MendeleyFuture<Map<String, Profile>> getProfiles(Collection<String> profileIds) {
+        final Set<String> ids = new LinkedHashSet<String>(profileIds);
+        final MendeleyFuture<Map<String, Profile>> result = new MendeleyFuture<Map<String, Profile>>();
+        if (ids.isEmpty()) {
+            result.set(new LinkedHashMap<String, Profile>());
+            return result;
+        }
+
+        final Map<String, Profile> profiles = new HashMap<String, Profile>();
+        final int[] remaining = {ids.size()};
+        for (final String id : ids) {
+            load(id).addCallback(new MendeleyFuture.Callback<Profile>() {
+                @Override
+                public void onSuccess(Profile profile) {
+                    onDone(profile);
+                }
+
+                @Override
+                public void onFailure(MendeleyException e) {
+                    if (isMissingProfile(e)) {
+                        onDone(null);
+                    } else {
+                        result.setException(e);
+                    }
+                }
+
+                private void onDone(Profile profile) {
+                    final boolean last;
+                    synchronized (profiles) {
+                        if (profile != null) {
+                            profiles.put(id, profile);
+                        }
+                        last = --remaining[0] == 0;
+                    }
+                    if (last) {
+                        final Map<String, Profile> ordered = new LinkedHashMap<String, Profile>();
+                        for (String profileId : ids) {
+                            if (profiles.containsKey(profileId)) {
+                                ordered.put(profileId, profiles.get(profileId));
+                            }
+                        }
+                        result.set(ordered);
+                    }
+                }
+            }, MendeleyFuture.DIRECT_EXECUTOR);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the profiles of all the members of a group, as {@link #getProfiles(Collection)}.
+     *
+     * @return the profiles by id, in the order of the members
+     */
+    public MendeleyFuture<Map<String, Profile>> getGroupMemberProfiles(final String groupId) {
+        final MendeleyFuture<List<String>> memberIds = new MendeleyFuture<List<String>>();
+        execute(memberIds, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    memberIds.set(fetchMemberIds(groupId));
+                } catch (MendeleyException e) {
+                    memberIds.setException(e);
+                } catch (RuntimeException e) {
+                    memberIds.setException(new MendeleyException("Error requesting the members of the group", e));
+                }
+            }
+        });
+        return memberIds.then(new MendeleyFuture.AsyncFunction<List<String>, Map<String, Profile>>() {
+            @Override
+            public MendeleyFuture<Map<String, Profile>> apply(List<String> ids) {
+                return getProfiles(ids);
+            }
+        }, MendeleyFuture.DIRECT_EXECUTOR);
+    }
+
+    /**
+     * @return the profile if it is cached and not expired, or null
+     */
+    public synchronized Profile getCachedProfile(String profileId) {
+        final CachedProfile cached = cache.get(profileId);
+        if (cached == null) {
+            return null;
+        }
+        if (nanoTime() - cached.cachedNanos > timeToLiveNanos) {
+            cache.remove(profileId);
+            return null;
+        }
+        return cached.profile;
+    }
+
+    /**
+     * Removes a profile from the cache, for example after the user has changed it.
+     */
+    public synchronized void invalidate(String profileId) {
+        cache.remove(profileId);
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    private MendeleyFuture<Profile> load(final String profileId) {
+        final MendeleyFuture<Profile> future;
+        synchronized (this) {
+            final Profile cached = getCachedProfile(profileId);
+            if (cached != null) {
+                final MendeleyFuture<Profile> done = new MendeleyFuture<Profile>();
+                done.set(cached);
+                return done;
+            }
+            final MendeleyFuture<Profile> loading = inFlight.get(profileId);
+            if (loading != null) {
+                return loading;
+            }
+            future = new MendeleyFuture<Profile>();
+            inFlight.put(profileId, future);
+        }
+
+        execute(future, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Profile profile = requestsFactory.newGetProfileRequest(profileId).run().resource;
+                    onLoaded(profileId, profile);
+                    future.set(profile);
+                } catch (MendeleyException e) {
+                    onLoaded(profileId, null);
+                    future.setException(e);
+                } catch (RuntimeException e) {
+                    onLoaded(profileId, null);
+                    future.setException(new MendeleyException("Error requesting the profile", e));
+                }
+            }
+        });
+        return future;
+    }
+
+    private synchronized void onLoaded(String profileId, Profile profile) {
+        inFlight.remove(profileId);
+        if (profile == null) {
+            return;
+        }
+        cache.put(profileId, new CachedProfile(profile, nanoTime()));
+        while (cache.size() > maxCachedProfiles) {
+            final String eldest = cache.keySet().iterator().next();
+            cache.remove(eldest);
+        }
+    }
+
+    /**
+     * @return the time the profiles are cached at. Overridden in tests.
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    // the profile doesn't exist, or not any more
+    private static boolean isMissingProfile(MendeleyException e) {
+        if (!(e instanceof HttpResponseException)) {
+            return false;
+        }
+        final int code = ((HttpResponseException) e).httpReturnCode;
+        return code == 404 || code == 410;
+    }
+
+    private void execute(MendeleyFuture<?> future, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            future.setException(new MendeleyException("Could not request the profiles", e));
+        }
+    }
+
+    private List<String> fetchMemberIds(String groupId) throws MendeleyException {
+        final GroupsEndpoint.GroupRequestParameters params = new GroupsEndpoint.GroupRequestParameters();
+        params.limit = PAGE_LIMIT;
+        final List<String> ids = new ArrayList<String>();
+        Request<List<UserRole>> request = requestsFactory.newGetGroupMembersRequest(params, groupId);
+        while (request != null) {
+            final Request<List<UserRole>>.Response response = request.run();
+            for (UserRole member : response.resource) {
+                ids.add(member.profileId);
+            }
+            final Uri next = response.next;
+            request = next != null ? requestsFactory.newGetGroupMembersRequest(next) : null;
+        }
+        return ids;
+    }
+
+    // a future of the shared one that can be cancelled without cancelling it
+    private static <T> MendeleyFuture<T> forCaller(MendeleyFuture<T> shared) {
+        final MendeleyFuture<T> future = new MendeleyFuture<T>();
+        shared.addCallback(new MendeleyFuture.Callback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                future.set(result);
+            }
+
+            @Override
+            public void onFailure(MendeleyException e) {
+                future.setException(e);
+            }
+        }, MendeleyFuture.DIRECT_EXECUTOR);
+        return future;
+    }
+
+    private static class CachedProfile {
+        final Profile profile;
+        final long cachedNanos;
+
+        CachedProfile(Profile profile, long cachedNanos) {
+            this.profile = profile;
+            this.cachedNanos = cachedNanos;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.mendeley.sdk.sync;
+
+import android.util.Log;
+
+import com.mendeley.sdk.RequestsFactory;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.model.ReadPosition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue for the {@link ReadPosition}s posted while reading files.
+ * <p>
+ * Readers may {@link #add(ReadPosition)} the position on every page change: only the last one
+ * of each file is kept, and the pending positions are posted with
+ * {@link RequestsFactory#newPostRecentlyReadRequest(ReadPosition)} when the flush delay since
+ * the first pending one has elapsed, when {@link #getMaxPending()} files have pending positions,
+ * or when {@link #flush()} is called, typically as the app goes to background.
+ * <p>
+ * When a flush fails, probably because the device is offline, the next one waits twice as long
+ * as the previous one, up to {@link #MAX_RETRY_DELAY_MILLIS}, and the maximum number of pending
+ * files doesn't trigger flushes. A successful flush resets the delay.
+ * <p>
+ * Pending positions are saved to a file, so that the ones not posted before the process dies
+ * are loaded and posted the next time the queue is created.
+ * <p>
+ * Requests and file writes are done in a background thread, so all the methods of this class
+ * may be called from the UI thread. This class is thread safe.
+ */
+public class ReadPositionQueue {
+
+    private static final String TAG = ReadPositionQueue.class.getSimpleName();
+
+    public static final long DEFAULT_FLUSH_DELAY_MILLIS = 30 * 1000;
+    public static final int DEFAULT_MAX_PENDING = 20;
+    public static final long MAX_RETRY_DELAY_MILLIS = 15 * 60 * 1000;
+
+    private static final int FILE_VERSION = 1;
+
+    private final RequestsFactory requestsFactory;
+    private final File file;
+    private final long flushDelayMillis;
+    private final int maxPending;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    // by file id, in the order they were first added
+    private final Map<String, ReadPosition> pending = new LinkedHashMap<String, ReadPosition>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean saveScheduled;
+    private boolean closed;
+
+    // since the last successful flush
+    private int failedFlushes;
+
+    public ReadPositionQueue(RequestsFactory requestsFactory, File file) {
+        this(requestsFactory, file, DEFAULT_FLUSH_DELAY_MILLIS, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param file where pending positions are saved
+     * @param flushDelayMillis time pending positions wait before being posted
+     * @param maxPending number of files with pending positions that triggers a flush
+     */
+    public ReadPositionQueue(RequestsFactory requestsFactory, File file, long flushDelayMillis, int maxPending) {
+        this.requestsFactory = requestsFactory;
+        this.file = file;
+        this.flushDelayMillis = flushDelayMillis;
+        this.maxPending = maxPending;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadPending();
+            }
+        });
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Queues a read position, replacing the pending one of the same file unless it is newer.
+     */
+    public synchronized void add(ReadPosition readPosition) {
+        if (readPosition.fileId == null) {
+            throw new IllegalArgumentException("Read position must have a file id");
+        }
+        if (closed) {
+            throw new IllegalStateException("Queue is closed");
+        }
+
+        final ReadPosition previous = pending.get(readPosition.fileId);
+        if (previous != null && previous.date != null && readPosition.date != null && previous.date.after(readPosition.date)) {
+            return;
+        }
+        pending.put(readPosition.fileId, readPosition);
+        scheduleSave();
+
+        if (pending.size() >= maxPending && failedFlushes == 0) {
+            scheduleFlush(0);
+        } else if (scheduledFlush == null) {
+            scheduleFlush(flushDelayMillis);
+        }
+    }
+
+    /**
+     * @return the number of files with positions not posted yet
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the time the next flush waits, which grows after each failed flush
+     */
+    public synchronized long getRetryDelayMillis() {
+        long delayMillis = flushDelayMillis;
+        for (int i = 1; i < failedFlushes && delayMillis < MAX_RETRY_DELAY_MILLIS; i++) {
+            delayMillis *= 2;
+        }
+        return Math.max(flushDelayMillis, Math.min(delayMillis, MAX_RETRY_DELAY_MILLIS));
+    }
+
+    /**
+     * Posts the pending positions now, without waiting for the flush delay, even after failed
+     * flushes. Should be called when the app goes to background.
+     */
+    public synchronized void flush() {
+        if (!closed) {
+            scheduleFlush(0);
+        }
+    }
+
+    /**
+     * Stops the queue. Pending positions are kept in the file, to be posted by the next queue.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                savePending();
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Waits until the pending positions are saved, after {@link #close()}.
+     *
+     * @return false if the timeout elapsed before
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (scheduledFlush != null) {
+            if (delayMillis > 0 || scheduledFlush.getDelay(TimeUnit.MILLISECONDS) <= 0) {
+                return;
+            }
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                postPending();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // coalesces the saves of bursts of positions
+    private void scheduleSave() {
+        if (saveScheduled) {
+            return;
+        }
+        saveScheduled = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                savePending();
+            }
+        });
+    }
+
+    private void postPending() {
+        final List<ReadPosition> toPost;
+        synchronized (this) {
+            scheduledFlush = null;
+            toPost = new ArrayList<ReadPosition>(pending.values());
+        }
+
+        boolean failed = false;
+        for (ReadPosition readPosition : toPost) {
+            try {
+                requestsFactory.newPostRecentlyReadRequest(readPosition).run();
+            } catch (MendeleyException e) {
+                if (!Failures.isRejected(e)) {
+                    // probably offline: the rest are kept for the next flush
+                    Log.w(TAG, "Could not post read positions", e);
+                    failed = true;
+                    break;
+                }
+                // posting it again would fail again
+                Log.w(TAG, "Dropping read position of file " + readPosition.fileId, e);
+            }
+            synchronized (this) {
+                // unless a newer position of the same file was added meanwhile
+                if (pending.get(readPosition.fileId) == readPosition) {
+                    pending.remove(readPosition.fileId);
+                }
+            }
+        }
+
+        synchronized (this) {
+            failedFlushes = failed ? failedFlushes + 1 : 0;
+            if (failed && scheduledFlush != null) {
+                // backing off, even if a flush was requested meanwhile
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if ((failed || !pending.isEmpty()) && scheduledFlush == null && !closed) {
+                scheduleFlush(getRetryDelayMillis());
+            }
+        }
+        savePending();
+    }
+
+    private void savePending() {
+        final List<ReadPosition> toSave;
+        synchronized (this) {
+            saveScheduled = false;
+            toSave = new ArrayList<ReadPosition>(pending.values());
+        }
+
+        try {
+            if (toSave.isEmpty()) {
+                if (file.exists() && !file.delete()) {
+                    throw new IOException("Cannot delete " + file);
+                }
+                return;
+            }
+
+            final File tmpFile = new File(file.getPath() + ".tmp");
+            final FileOutputStream os = new FileOutputStream(tmpFile);
+            try {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+                out.writeInt(FILE_VERSION);
+                out.writeInt(toSave.size());
+                for (ReadPosition readPosition : toSave) {
+                    writeNullableString(out, readPosition.id);
+                    out.writeUTF(readPosition.fileId);
+                    out.writeInt(readPosition.page);
+                    out.writeFloat(readPosition.verticalPosition);
+                    out.writeLong(readPosition.date != null ? readPosition.date.getTime() : Long.MIN_VALUE);
+                }
+                out.flush();
+                os.getFD().sync();
+            } finally {
+                os.close();
+            }
+
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("Cannot replace " + file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save pending read positions", e);
+        }
+    }
+
+    private void loadPending() {
+        final List<ReadPosition> loaded = new ArrayList<ReadPosition>();
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != FILE_VERSION) {
+                    throw new IOException("Unknown version of " + file);
+                }
+                final int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    final String id = readNullableString(in);
+                    final String fileId = in.readUTF();
+                    final int page = in.readInt();
+                    final float verticalPosition = in.readFloat();
+                    final long time = in.readLong();
+                    loaded.add(new ReadPosition(id, fileId, page, verticalPosition, time != Long.MIN_VALUE ? new Date(time) : null));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not load pending read positions", e);
+            return;
+        }
+
+        synchronized (this) {
+            // positions added before the loading finished are newer
+            for (ReadPosition readPosition : loaded) {
+                if (!pending.containsKey(readPosition.fileId)) {
+                    pending.put(readPosition.fileId, readPosition);
+                }
+            }
+            if (!pending.isEmpty() && !closed) {
+                scheduleFlush(0);
+            }
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
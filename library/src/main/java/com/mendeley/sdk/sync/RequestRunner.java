@@ -0,0 +1,93 @@
+package com.mendeley.sdk.sync;
+
+import com.mendeley.sdk.Deadline;
+import com.mendeley.sdk.Request;
+import com.mendeley.sdk.exceptions.MendeleyException;
+import com.mendeley.sdk.exceptions.UserCancelledException;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the requests of the syncs, keeping track of them so that they can be cancelled at once,
+ * and passing them the deadline of the sync.
+ * <p>
+ * This class is thread safe.
+ */
+final class RequestRunner {
+
+    private final Set<Request<?>> runningRequests = Collections.synchronizedSet(new HashSet<Request<?>>());
+    private volatile boolean cancelled;
+    private volatile Deadline deadline;
+
+    /**
+     * Allows running requests again after {@link #cancel()}, for a new sync.
+     */
+    void reset() {
+        cancelled = false;
+    }
+
+    void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Cancels the running requests, and makes the next ones throw {@link UserCancelledException}
+     * until {@link #reset()} is called.
+     */
+    void cancel() {
+        cancelled = true;
+        synchronized (runningRequests) {
+            for (Request<?> request : runningRequests) {
+                request.cancel();
+            }
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    <T> Request<T>.Response run(Request<T> request) throws MendeleyException {
+        if (deadline != null) {
+            request.setDeadline(deadline.min(request.getDeadline()));
+        }
+        runningRequests.add(request);
+        try {
+            if (cancelled) {
+                throw new UserCancelledException();
+            }
+            return request.run();
+        } finally {
+            runningRequests.remove(request);
+        }
+    }
+
+    /**
+     * Waits for the result of some of the work of a sync. If it fails, the rest of the sync is
+     * useless, so its requests are cancelled.
+     *
+     * @param errorMessage message of the exception thrown for errors other than {@link MendeleyException}
+     */
+    <T> T getResult(Future<T> future, String errorMessage) throws MendeleyException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            cancel();
+            throw new UserCancelledException(e);
+        } catch (CancellationException e) {
+            cancel();
+            throw new UserCancelledException(e);
+        } catch (ExecutionException e) {
+            cancel();
+            if (e.getCause() instanceof MendeleyException) {
+                throw (MendeleyException) e.getCause();
+            }
+            throw new MendeleyException(errorMessage, e.getCause());
+        }
+    }
+}
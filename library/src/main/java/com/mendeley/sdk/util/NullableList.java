@@ -13,8 +13,9 @@ public class NullableList<T> implements List<T>, Nullable {
     private final boolean isNull;
 
     public NullableList(List<T> delegate) {
-        this.delegate = delegate == null ? new ArrayList<T>(0) : delegate;
-        isNull = delegate == null;
+        // a null NullableList stays null, so builders copying models keep the missing lists missing
+        isNull = delegate == null || (delegate instanceof Nullable && ((Nullable) delegate).isNull());
+        this.delegate = isNull ? new ArrayList<T>(0) : delegate;
     }
 
     @Override
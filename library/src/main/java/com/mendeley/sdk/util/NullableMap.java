@@ -12,8 +12,9 @@ public class NullableMap<K, V> implements Map<K, V>, Nullable {
     private final boolean isNull;
 
     public NullableMap(Map<K, V> delegate) {
-        isNull = delegate == null;
-        this.delegate = delegate == null ? new HashMap<K, V>(0) : delegate;
+        // a null NullableMap stays null, so builders copying models keep the missing maps missing
+        isNull = delegate == null || (delegate instanceof Nullable && ((Nullable) delegate).isNull());
+        this.delegate = isNull ? new HashMap<K, V>(0) : delegate;
     }
 
     @Override
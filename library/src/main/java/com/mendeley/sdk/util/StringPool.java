@@ -0,0 +1,73 @@
+package com.mendeley.sdk.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded pool of canonical {@link String} instances.
+ * <p>
+ * Used to deduplicate the values that are repeated many times across the items returned by
+ * the Mendeley API (profile ids, group ids, document types, tags, author names...), so that
+ * all the parsed models share one instance of each value instead of retaining one copy each.
+ * <p>
+ * Unlike {@link String#intern()}, the pool is owned by the client code: it can be shared
+ * by the requests of one sync and dropped afterwards. Once the pool is full, new values are
+ * not pooled anymore and are returned as they are.
+ * <p>
+ * This class is thread safe.
+ */
+public class StringPool {
+
+    public static final int DEFAULT_MAX_SIZE = 4096;
+
+    private final int maxSize;
+    private final Map<String, String> pool;
+
+    public StringPool() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize maximum number of different strings kept by the pool
+     */
+    public StringPool(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative");
+        }
+        this.maxSize = maxSize;
+        this.pool = new HashMap<String, String>();
+    }
+
+    /**
+     * @param value the string to deduplicate. May be null.
+     * @return the pooled instance equal to the value, or the value itself if it was not
+     * pooled yet
+     */
+    public synchronized String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        final String pooled = pool.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (pool.size() < maxSize) {
+            pool.put(value, value);
+        }
+        return value;
+    }
+
+    /**
+     * @return number of different strings in the pool
+     */
+    public synchronized int size() {
+        return pool.size();
+    }
+
+    /**
+     * Removes all the strings from the pool.
+     */
+    public synchronized void clear() {
+        pool.clear();
+    }
+}